@@ -23,6 +23,7 @@ import java.lang.annotation.Target;
 
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.ReflectiveCacheSerializer;
 
 /**
  * @author Clinton Begin
@@ -42,5 +43,7 @@ public @interface CacheNamespace {
   boolean readWrite() default true;
   
   boolean blocking() default false;
+
+  Class<? extends org.apache.ibatis.cache.CacheSerializer> serializer() default ReflectiveCacheSerializer.class;
   
 }
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Remembers what {@link SqlSourceBuilder} parsed from the sql text generated for a call, so the calls that generate
+ * the same text again reuse the sql and the parameter mappings instead of parsing the <code>#{}</code> parameters and
+ * resolving their type handlers again.
+ * <p>
+ * A shape is keyed by the sql text and the parameter type. Parameters found in the additional parameters of a call,
+ * like foreach items and binds, take their type from the bound value, so a shape is only reused while the same
+ * parameters are bound, to values of the same types.
+ */
+public class SqlShapeCache {
+
+  private final Configuration configuration;
+  private final ConcurrentCache shapes;
+
+  public SqlShapeCache(Configuration configuration, int size) {
+    this.configuration = configuration;
+    this.shapes = new ConcurrentCache("sqlShapes");
+    this.shapes.setSize(size);
+  }
+
+  /**
+   * Same as {@link SqlSourceBuilder#parse(String, Class, Map)}.
+   */
+  public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters) {
+    final Key key = new Key(originalSql, parameterType);
+    final Shape shape = (Shape) shapes.getObject(key);
+    if (shape != null && shape.matches(configuration, additionalParameters)) {
+      return shape.sqlSource;
+    }
+    final Map<String, Class<?>> bindingTypes = new HashMap<String, Class<?>>();
+    final SqlSource sqlSource = new SqlSourceBuilder(configuration).parse(originalSql, parameterType, additionalParameters, bindingTypes);
+    shapes.putObject(key, new Shape(sqlSource, bindingTypes));
+    return sqlSource;
+  }
+
+  public int getSize() {
+    return shapes.getSize();
+  }
+
+  private static final class Shape {
+
+    private final SqlSource sqlSource;
+    private final String[] properties;
+    private final Class<?>[] bindingTypes;
+
+    Shape(SqlSource sqlSource, Map<String, Class<?>> bindingTypes) {
+      this.sqlSource = sqlSource;
+      this.properties = new String[bindingTypes.size()];
+      this.bindingTypes = new Class<?>[bindingTypes.size()];
+      int i = 0;
+      for (Map.Entry<String, Class<?>> entry : bindingTypes.entrySet()) {
+        this.properties[i] = entry.getKey();
+        this.bindingTypes[i] = entry.getValue();
+        i++;
+      }
+    }
+
+    boolean matches(Configuration configuration, Map<String, Object> additionalParameters) {
+      if (properties.length == 0) {
+        return true;
+      }
+      final MetaObject metaParameters = configuration.newMetaObject(additionalParameters);
+      for (int i = 0; i < properties.length; i++) {
+        final Class<?> type = metaParameters.hasGetter(properties[i]) ? metaParameters.getGetterType(properties[i]) : null;
+        if (type != bindingTypes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Key {
+
+    private final String sql;
+    private final Class<?> parameterType;
+    private final int hashCode;
+
+    Key(String sql, Class<?> parameterType) {
+      this.sql = sql;
+      this.parameterType = parameterType;
+      this.hashCode = 31 * sql.hashCode() + parameterType.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hashCode == other.hashCode && parameterType == other.parameterType && sql.equals(other.sql);
+    }
+  }
+
+}
@@ -40,7 +40,17 @@ public class SqlSourceBuilder extends BaseBuilder {
   }
 
   public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters) {
-    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(configuration, parameterType, additionalParameters);
+    return parse(originalSql, parameterType, additionalParameters, null);
+  }
+
+  /*
+   * Parses the sql and records the type of every parameter resolved from the additional parameters
+   *
+   * @param bindingTypes - receives the type of each property found in the additional parameters, null for the
+   *          properties that were not found there
+   */
+  SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters, Map<String, Class<?>> bindingTypes) {
+    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(configuration, parameterType, additionalParameters, bindingTypes);
     GenericTokenParser parser = new GenericTokenParser("#{", "}", handler);
     String sql = parser.parse(originalSql);
     return new StaticSqlSource(configuration, sql, handler.getParameterMappings());
@@ -51,11 +61,14 @@ public class SqlSourceBuilder extends BaseBuilder {
     private List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
     private Class<?> parameterType;
     private MetaObject metaParameters;
+    private Map<String, Class<?>> bindingTypes;
 
-    public ParameterMappingTokenHandler(Configuration configuration, Class<?> parameterType, Map<String, Object> additionalParameters) {
+    public ParameterMappingTokenHandler(Configuration configuration, Class<?> parameterType, Map<String, Object> additionalParameters,
+        Map<String, Class<?>> bindingTypes) {
       super(configuration);
       this.parameterType = parameterType;
       this.metaParameters = configuration.newMetaObject(additionalParameters);
+      this.bindingTypes = bindingTypes;
     }
 
     public List<ParameterMapping> getParameterMappings() {
@@ -72,7 +85,8 @@ public class SqlSourceBuilder extends BaseBuilder {
       Map<String, String> propertiesMap = parseParameterMapping(content);
       String property = propertiesMap.get("property");
       Class<?> propertyType;
-      if (metaParameters.hasGetter(property)) { // issue #448 get type from additional params
+      boolean bound = metaParameters.hasGetter(property);
+      if (bound) { // issue #448 get type from additional params
         propertyType = metaParameters.getGetterType(property);
       } else if (typeHandlerRegistry.hasTypeHandler(parameterType)) {
         propertyType = parameterType;
@@ -88,6 +102,9 @@ public class SqlSourceBuilder extends BaseBuilder {
       } else {
         propertyType = Object.class;
       }
+      if (bindingTypes != null) {
+        bindingTypes.put(property, bound ? propertyType : null);
+      }
       ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, property, propertyType);
       Class<?> javaType = propertyType;
       String typeHandlerAlias = null;
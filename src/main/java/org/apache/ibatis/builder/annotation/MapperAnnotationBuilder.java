@@ -32,6 +32,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.ibatis.annotations.Arg;
 import org.apache.ibatis.annotations.CacheNamespace;
@@ -140,7 +142,9 @@ public class MapperAnnotationBuilder {
 
   private void parsePendingMethods() {
     Collection<MethodResolver> incompleteMethods = configuration.getIncompleteMethods();
-    synchronized (incompleteMethods) {
+    Lock lock = configuration.getIncompleteElementsLock();
+    lock.lock();
+    try {
       Iterator<MethodResolver> iter = incompleteMethods.iterator();
       while (iter.hasNext()) {
         try {
@@ -150,6 +154,8 @@ public class MapperAnnotationBuilder {
           // This method is still missing a resource
         }
       }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -177,7 +183,7 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), null);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), cacheDomain.serializer(), null);
     }
   }
 
@@ -379,6 +385,12 @@ public class MapperAnnotationBuilder {
   private Class<?> getReturnType(Method method) {
     Class<?> returnType = method.getReturnType();
     Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, type);
+    if (Future.class.equals(returnType)) {
+      // the results of a Future<T> are mapped like those of a T
+      returnType = Object.class;
+      resolvedReturnType = resolvedReturnType instanceof ParameterizedType
+          ? ((ParameterizedType) resolvedReturnType).getActualTypeArguments()[0] : Object.class;
+    }
     if (resolvedReturnType instanceof Class) {
       returnType = (Class<?>) resolvedReturnType;
       if (returnType.isArray()) {
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.SqlShapeCache;
 import org.apache.ibatis.builder.SqlSourceBuilder;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.SqlSource;
@@ -33,6 +34,7 @@ import org.apache.ibatis.session.Configuration;
 public class ProviderSqlSource implements SqlSource {
 
   private SqlSourceBuilder sqlSourceParser;
+  private Configuration configuration;
   private Class<?> providerType;
   private Method providerMethod;
   private String[] providerMethodArgumentNames;
@@ -41,6 +43,7 @@ public class ProviderSqlSource implements SqlSource {
     String providerMethodName;
     try {
       this.sqlSourceParser = new SqlSourceBuilder(config);
+      this.configuration = config;
       this.providerType = (Class<?>) provider.getClass().getMethod("type").invoke(provider);
       providerMethodName = (String) provider.getClass().getMethod("method").invoke(provider);
 
@@ -95,6 +98,10 @@ public class ProviderSqlSource implements SqlSource {
                 + " using a specifying parameterObject. In this case, please specify a 'java.util.Map' object.");
       }
       Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
+      SqlShapeCache sqlShapeCache = configuration.getSqlShapeCache();
+      if (sqlShapeCache != null) {
+        return sqlShapeCache.parse(sql, parameterType, new HashMap<String, Object>());
+      }
       return sqlSourceParser.parse(sql, parameterType, new HashMap<String, Object>());
     } catch (BuilderException e) {
       throw e;
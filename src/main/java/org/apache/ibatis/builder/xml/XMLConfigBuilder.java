@@ -38,6 +38,7 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
 import org.apache.ibatis.session.Configuration;
@@ -239,6 +240,7 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setAutoMappingUnknownColumnBehavior(AutoMappingUnknownColumnBehavior.valueOf(props.getProperty("autoMappingUnknownColumnBehavior", "NONE")));
     configuration.setCacheEnabled(booleanValueOf(props.getProperty("cacheEnabled"), true));
     configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
+    configuration.setExpressionEngine((ExpressionEngine) createInstance(props.getProperty("expressionEngine")));
     configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
     configuration.setAggressiveLazyLoading(booleanValueOf(props.getProperty("aggressiveLazyLoading"), true));
     configuration.setMultipleResultSetsEnabled(booleanValueOf(props.getProperty("multipleResultSetsEnabled"), true));
@@ -256,6 +258,15 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setDefaultScriptingLanguage(resolveClass(props.getProperty("defaultScriptingLanguage")));
     configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
     configuration.setUseActualParamName(booleanValueOf(props.getProperty("useActualParamName"), false));
+    configuration.setCompiledRowMappersEnabled(booleanValueOf(props.getProperty("compiledRowMappersEnabled"), false));
+    configuration.setParallelMappingEnabled(booleanValueOf(props.getProperty("parallelMappingEnabled"), false));
+    configuration.setParallelMappingThreads(integerValueOf(props.getProperty("parallelMappingThreads"), 0));
+    configuration.setAsyncExecutorThreads(integerValueOf(props.getProperty("asyncExecutorThreads"), 10));
+    configuration.setBatchGroupingEnabled(booleanValueOf(props.getProperty("batchGroupingEnabled"), false));
+    configuration.setBatchMultiRowInsertSize(integerValueOf(props.getProperty("batchMultiRowInsertSize"), 0));
+    configuration.setSqlShapeCacheSize(integerValueOf(props.getProperty("sqlShapeCacheSize"), 1024));
+    configuration.setForeachArrayThreshold(integerValueOf(props.getProperty("foreachArrayThreshold"), 0));
+    configuration.setCacheStatisticsJmxEnabled(booleanValueOf(props.getProperty("cacheStatisticsJmxEnabled"), false));
     configuration.setLogPrefix(props.getProperty("logPrefix"));
     @SuppressWarnings("unchecked")
     Class<? extends Log> logImpl = (Class<? extends Log>)resolveClass(props.getProperty("logImpl"));
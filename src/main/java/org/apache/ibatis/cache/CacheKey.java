@@ -17,66 +17,112 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * The components are kept in an array that can be sized up front with {@link #CacheKey(int)}.
+ * Every component is folded into a 64 bit hash so two different keys almost never get past
+ * the hash comparison of {@link #equals(Object)}. A key can be frozen once it is complete,
+ * a frozen key rejects further updates and can be shared between threads.
+ *
  * @author Clinton Begin
  * 生成缓存的key使得每个查询hashcode唯一
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -1765488612458373262L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+  private static final long HASH_MULTIPLIER = 0xBF58476D1CE4E5B9L;
+  private static final Object[] EMPTY = new Object[0];
 
-  private int multiplier;//hashcode算法里的乘数
-  private int hashcode;//新增的时候会根据算法累加到hashcode
-  private long checksum;//累加所有增加对象的hashcode 可能是怕hashcode越界
+  private long hash;//所有组成部分依次混合得到的64位hash
+  private int hashcode;//由hash折叠得到
   private int count;
-  private List<Object> updateList;
+  private Object[] updateList;
+  private boolean frozen;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
+    this(DEFAULT_CAPACITY);
+  }
+
+  /*
+   * Creates a key with room for the given number of components
+   *
+   * @param expectedUpdateCount - the number of components the key will most likely get
+   */
+  public CacheKey(int expectedUpdateCount) {
+    this.hash = HASH_SEED;
+    this.hashcode = fold(HASH_SEED);
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updateList = expectedUpdateCount > 0 ? new Object[expectedUpdateCount] : EMPTY;
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /*
+   * Makes this key immutable, further updates throw a CacheException
+   *
+   * @return this key
+   */
+  public CacheKey freeze() {
+    if (updateList.length != count) {
+      updateList = count == 0 ? EMPTY : Arrays.copyOf(updateList, count);
+    }
+    frozen = true;
+    return this;
   }
 
   public void update(Object object) {
+    if (frozen) {
+      throw new CacheException("Not allowed to update a frozen CacheKey instance.");
+    }
     if (object != null && object.getClass().isArray()) {
       int length = Array.getLength(object);
+      ensureCapacity(count + length);
       for (int i = 0; i < length; i++) {
         Object element = Array.get(object, i);
         doUpdate(element);
       }
     } else {
+      ensureCapacity(count + 1);
       doUpdate(object);
     }
   }
 
   private void doUpdate(Object object) {
     int baseHashCode = object == null ? 1 : object.hashCode();
+    long h = (hash ^ baseHashCode) * HASH_MULTIPLIER;
+    hash = Long.rotateLeft(h, 31) + HASH_SEED;
+    hashcode = fold(hash);
+    updateList[count++] = object;
+  }
 
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
+  private void ensureCapacity(int capacity) {
+    if (capacity > updateList.length) {
+      updateList = Arrays.copyOf(updateList, Math.max(capacity, updateList.length * 2));
+    }
+  }
 
-    updateList.add(object);
+  private static int fold(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return (int) (h ^ (h >>> 32));
   }
 
   public void updateAll(Object[] objects) {
@@ -96,19 +142,16 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
+    if (hash != cacheKey.hash) {
       return false;
     }
     if (count != cacheKey.count) {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
       if (thisObject == null) {
         if (thatObject != null) {
           return false;
@@ -129,18 +172,22 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(object);
+    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(hash);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(updateList[i]);
     }
 
     return returnValue.toString();
   }
 
+  /*
+   * The clone of a frozen key is not frozen, so it can be used to build a longer key
+   */
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.updateList = Arrays.copyOf(updateList, Math.max(count + 1, updateList.length));
+    clonedCacheKey.frozen = false;
     return clonedCacheKey;
   }
 
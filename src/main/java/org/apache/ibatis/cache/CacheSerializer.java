@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the copies a read-write cache makes of the cached objects.
+ * <p>
+ * A {@link org.apache.ibatis.cache.decorators.SerializedCache} stores the result of
+ * {@link #serialize(Object)} and hands the result of {@link #deserialize(Object)} to every
+ * reader, so callers can never change a cached object. An implementation is chosen with the
+ * serializer attribute of the cache element, it must have a public no-arg constructor and
+ * be thread safe.
+ */
+public interface CacheSerializer {
+
+  /**
+   * @param value A serializable object or null
+   * @return The form of the object that is kept in the cache
+   */
+  Object serialize(Object value);
+
+  /**
+   * @param cached A value returned by {@link #serialize(Object)}
+   * @return A new copy of the original object
+   */
+  Object deserialize(Object cached);
+
+}
@@ -0,0 +1,264 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Usage statistics of a cache and all its decorators.
+ * <p>
+ * The CacheBuilder gives one instance to every decorator of the cache it builds that has a
+ * {@code statistics} property: the LoggingCache counts the requests, puts and clears, eviction decorators
+ * count the entries they drop, the SerializedCache the size of the serialized values and the BlockingCache
+ * the time spent waiting for other sessions. The statistics of the mapper namespaces are available from
+ * {@link org.apache.ibatis.session.Configuration#getCacheStatistics(String)} and can be registered as
+ * JMX MBeans with the {@code cacheStatisticsJmxEnabled} setting. The number of entries is read from the
+ * cache only when it is requested, so putting entries does not pay for it.
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final String OBJECT_NAME_PREFIX = "org.apache.ibatis:type=CacheStatistics,id=";
+  private static final Map<String, CacheStatistics> REGISTERED = new HashMap<String, CacheStatistics>();
+
+  private final String id;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong puts = new AtomicLong();
+  private final AtomicLong clears = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong sizeSamples = new AtomicLong();
+  private final AtomicLong sizeSum = new AtomicLong();
+  private final AtomicLong serializedValues = new AtomicLong();
+  private final AtomicLong serializedBytes = new AtomicLong();
+  private final AtomicLong blocked = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  private volatile Cache cache;
+
+  public CacheStatistics(String id) {
+    this.id = id;
+  }
+
+  /*
+   * @param cache - the cache whose number of entries is read when the size is requested
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void recordRequest(boolean hit) {
+    requests.incrementAndGet();
+    if (hit) {
+      hits.incrementAndGet();
+    }
+  }
+
+  public void recordPut() {
+    puts.incrementAndGet();
+  }
+
+  public void recordClear() {
+    clears.incrementAndGet();
+  }
+
+  public void recordEviction() {
+    evictions.incrementAndGet();
+  }
+
+  public void recordSerializedValue(int bytes) {
+    serializedValues.incrementAndGet();
+    serializedBytes.addAndGet(bytes);
+  }
+
+  public void recordBlocked(long nanos) {
+    blocked.incrementAndGet();
+    blockedNanos.addAndGet(nanos);
+  }
+
+  private int currentSize() {
+    final Cache current = cache;
+    return current == null ? 0 : current.getSize();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return requests.get() - hits.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long requestCount = requests.get();
+    return requestCount == 0 ? 0 : (double) hits.get() / (double) requestCount;
+  }
+
+  @Override
+  public long getPutCount() {
+    return puts.get();
+  }
+
+  /**
+   * @return How many times the cache was flushed, a high number compared to the puts means the statements
+   *         that flush the cache run too often for it to be useful
+   */
+  @Override
+  public long getClearCount() {
+    return clears.get();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return The number of entries of the cache, or 0 if it is not known
+   */
+  @Override
+  public int getSize() {
+    final int size = currentSize();
+    sizeSamples.incrementAndGet();
+    sizeSum.addAndGet(size);
+    return size;
+  }
+
+  /**
+   * @return The number of entries averaged over the times the size was requested, like each poll of a
+   *         monitoring tool
+   */
+  @Override
+  public double getAverageSize() {
+    long samples = sizeSamples.get();
+    return samples == 0 ? 0 : (double) sizeSum.get() / (double) samples;
+  }
+
+  /**
+   * @return The size multiplied by the average length of the serialized values, or -1 if the cache does
+   *         not serialize its values
+   */
+  @Override
+  public long getEstimatedMemory() {
+    long values = serializedValues.get();
+    return values == 0 ? -1 : serializedBytes.get() / values * currentSize();
+  }
+
+  @Override
+  public long getBlockedCount() {
+    return blocked.get();
+  }
+
+  /**
+   * @return The milliseconds spent by all threads waiting for the value of a key being loaded by another
+   *         thread
+   */
+  @Override
+  public long getBlockedTime() {
+    return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+  }
+
+  @Override
+  public void reset() {
+    requests.set(0);
+    hits.set(0);
+    puts.set(0);
+    clears.set(0);
+    evictions.set(0);
+    sizeSamples.set(0);
+    sizeSum.set(0);
+    serializedValues.set(0);
+    serializedBytes.set(0);
+    blocked.set(0);
+    blockedNanos.set(0);
+  }
+
+  /**
+   * Registers these statistics in the platform MBean server, replacing the statistics of a cache with the
+   * same id registered by a previous configuration.
+   */
+  public void registerMBean() {
+    synchronized (REGISTERED) {
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName();
+        try {
+          server.registerMBean(this, name);
+        } catch (InstanceAlreadyExistsException e) {
+          server.unregisterMBean(name);
+          server.registerMBean(this, name);
+        }
+        REGISTERED.put(id, this);
+      } catch (JMException e) {
+        throw new CacheException("Error registering the statistics of the cache " + id + ".  Cause: " + e, e);
+      }
+    }
+  }
+
+  /**
+   * Unregisters these statistics from the platform MBean server, unless they were replaced by the
+   * statistics of a cache with the same id since.
+   */
+  public void unregisterMBean() {
+    synchronized (REGISTERED) {
+      if (REGISTERED.get(id) != this) {
+        return;
+      }
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName();
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+        REGISTERED.remove(id);
+      } catch (JMException e) {
+        throw new CacheException("Error unregistering the statistics of the cache " + id + ".  Cause: " + e, e);
+      }
+    }
+  }
+
+  public ObjectName getObjectName() throws JMException {
+    return new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(id));
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics [" + id + "]: requests=" + getRequestCount() + ", hitRatio=" + getHitRatio()
+        + ", puts=" + getPutCount() + ", clears=" + getClearCount() + ", evictions=" + getEvictionCount()
+        + ", size=" + currentSize() + ", blockedTime=" + getBlockedTime() + "ms";
+  }
+
+}
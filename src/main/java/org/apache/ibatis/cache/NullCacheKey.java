@@ -23,7 +23,7 @@ public final class NullCacheKey extends CacheKey {
   private static final long serialVersionUID = 3704229911977019465L;
 
   public NullCacheKey() {
-    super();
+    super(0);
   }
 
   @Override
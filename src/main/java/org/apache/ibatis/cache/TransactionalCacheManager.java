@@ -40,6 +40,10 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void unlockObject(Cache cache, CacheKey key) {
+    getTransactionalCache(cache).unlockEntry(key);
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
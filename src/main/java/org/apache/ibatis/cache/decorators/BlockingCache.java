@@ -15,34 +15,46 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Simple blocking decorator 
  * 
- * Simple and inefficient version of EhCache's BlockingCache decorator.
- * It sets a lock over a cache key when the element is not found in cache.
- * This way, other threads will wait until this element is filled instead of hitting the database.
+ * It marks a cache key as being loaded when the element is not found in cache.
+ * This way, other threads will wait until this element is filled instead of hitting the database,
+ * so concurrent misses of the same key share the result of a single query.
+ * <p>
+ * Hits never wait. The thread that got the miss owns the key until it puts the value or releases it
+ * with {@link #removeObject(Object)}, which wakes up the waiting threads straight away. They read the
+ * cache again and, if the value is still missing, one of them loads it. Keys are forgotten once they are
+ * resolved, so only the keys being loaded take memory. Work that moves between threads, like the statements
+ * of an asynchronous session, can own its keys instead with {@link #setLoadOwner(Object)}.
  * 
  * @author Eduardo Macarron
  *
  */
 public class BlockingCache implements Cache {
 
+  private static final ThreadLocal<Object> LOAD_OWNER = new ThreadLocal<Object>();
+
   private long timeout;
   private final Cache delegate;
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  private final ConcurrentHashMap<Object, Load> loads;
+  private final AtomicLong resolvedLoads = new AtomicLong();
+  private CacheStatistics statistics;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+    this.loads = new ConcurrentHashMap<Object, Load>();
   }
 
   @Override
@@ -60,24 +72,70 @@ public class BlockingCache implements Cache {
     try {
       delegate.putObject(key, value);
     } finally {
-      releaseLock(key);
+      releaseLoad(key);
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    acquireLock(key);
-    Object value = delegate.getObject(key);
+    long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    while (true) {
+      final long resolved = resolvedLoads.get();
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Load load = new Load();
+      Load current = loads.putIfAbsent(key, load);
+      if (current == null) {
+        // a load resolved since the read above may have put the value, read again only then
+        if (resolvedLoads.get() != resolved && (value = delegate.getObject(key)) != null) {
+          releaseLoad(key);
+          return value;
+        }
+        return null;
+      }
+      if (current.owner == loadOwner()) {
+        return null;
+      }
+      awaitLoad(key, current, deadline);
+    }
+  }
+
+  /**
+   * Gets a value, calling the loader when it is missing. Concurrent calls for the same key wait for
+   * the first one and get the value it loaded.
+   *
+   * @param key The key
+   * @param loader Loads a missing value, which is then put in the cache
+   * @return The cached or loaded value
+   */
+  public Object getObject(Object key, Callable<?> loader) {
+    Object value = getObject(key);
     if (value != null) {
-      releaseLock(key);
-    }        
-    return value;
+      return value;
+    }
+    boolean loaded = false;
+    try {
+      value = loader.call();
+      putObject(key, value);
+      loaded = true;
+      return value;
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error loading the value for the key " + key + " at the cache " + delegate.getId() + ".  Cause: " + e, e);
+    } finally {
+      if (!loaded) {
+        releaseLoad(key);
+      }
+    }
   }
 
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    releaseLoad(key);
     return null;
   }
 
@@ -90,34 +148,54 @@ public class BlockingCache implements Cache {
   public ReadWriteLock getReadWriteLock() {
     return null;
   }
-  
-  private ReentrantLock getLockForKey(Object key) {
-    ReentrantLock lock = new ReentrantLock();
-    ReentrantLock previous = locks.putIfAbsent(key, lock);
-    return previous == null ? lock : previous;
-  }
-  
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());  
-        }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+
+  private void awaitLoad(Object key, Load load, long deadline) {
+    long start = System.nanoTime();
+    try {
+      if (deadline == 0) {
+        load.done.await();
+      } else if (!load.done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
       }
-    } else {
-      lock.lock();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+    } finally {
+      if (statistics != null) {
+        statistics.recordBlocked(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private void releaseLoad(Object key) {
+    Load load = loads.get(key);
+    if (load != null && load.owner == loadOwner()) {
+      loads.remove(key, load);
+      resolvedLoads.incrementAndGet();
+      load.done.countDown();
     }
   }
-  
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+
+  /**
+   * Makes the keys missed on the current thread owned by the given object instead of the thread, so they can be
+   * put or released from any thread running work of the same owner.
+   *
+   * @param owner The owner, or null to make the current thread the owner again
+   * @return The previous owner, or null if it was the current thread
+   */
+  public static Object setLoadOwner(Object owner) {
+    Object previous = LOAD_OWNER.get();
+    if (owner == null) {
+      LOAD_OWNER.remove();
+    } else {
+      LOAD_OWNER.set(owner);
     }
+    return previous;
+  }
+
+  private static Object loadOwner() {
+    Object owner = LOAD_OWNER.get();
+    return owner != null ? owner : Thread.currentThread();
   }
 
   public long getTimeout() {
@@ -126,5 +204,15 @@ public class BlockingCache implements Cache {
 
   public void setTimeout(long timeout) {
     this.timeout = timeout;
-  }  
-}
\ No newline at end of file
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  private static final class Load {
+    private final Object owner = loadOwner();
+    private final CountDownLatch done = new CountDownLatch(1);
+  }
+
+}
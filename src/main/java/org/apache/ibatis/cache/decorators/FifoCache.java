@@ -20,6 +20,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * FIFO (first in, first out) cache decorator
@@ -31,6 +32,7 @@ public class FifoCache implements Cache {
   private final Cache delegate;
   private Deque<Object> keyList;
   private int size;
+  private CacheStatistics statistics;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -52,6 +54,10 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cycleKeyList(key);
@@ -84,6 +90,9 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
     }
   }
 
@@ -18,6 +18,7 @@ package org.apache.ibatis.cache.decorators;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -29,11 +30,26 @@ public class LoggingCache implements Cache {
 
   private Log log;  
   private Cache delegate;
+  private final CacheStatistics statistics;
+  /**
+   * @deprecated use {@link #getStatistics()}
+   */
+  @Deprecated
   protected int requests = 0;
+  /**
+   * @deprecated use {@link #getStatistics()}
+   */
+  @Deprecated
   protected int hits = 0;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheStatistics(delegate.getId()));
+  }
+
+  public LoggingCache(Cache delegate, CacheStatistics statistics) {
     this.delegate = delegate;
+    this.statistics = statistics;
+    this.statistics.setCache(delegate);
     this.log = LogFactory.getLog(getId());
   }
 
@@ -50,6 +66,7 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    statistics.recordPut();
   }
 
   @Override
@@ -59,8 +76,9 @@ public class LoggingCache implements Cache {
     if (value != null) {
       hits++;
     }
+    statistics.recordRequest(value != null);
     if (log.isDebugEnabled()) {
-      log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + statistics.getHitRatio());
     }
     return value;
   }
@@ -73,6 +91,7 @@ public class LoggingCache implements Cache {
   @Override
   public void clear() {
     delegate.clear();
+    statistics.recordClear();
   }
 
   @Override
@@ -90,8 +109,8 @@ public class LoggingCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private double getHitRatio() {
-    return (double) hits / (double) requests;
+  public CacheStatistics getStatistics() {
+    return statistics;
   }
 
 }
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Lru (least recently used) cache decorator
@@ -31,6 +32,7 @@ public class LruCache implements Cache {
   private final Cache delegate;//实际的cache
   private Map<Object, Object> keyMap;//链表map 保存key  不使用链表 是为了使用lru
   private Object eldestKey;
+  private CacheStatistics statistics;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
@@ -65,6 +67,10 @@ public class LruCache implements Cache {
     };
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     delegate.putObject(key, value);
@@ -99,6 +105,9 @@ public class LruCache implements Cache {
     if (eldestKey != null) {
       delegate.removeObject(eldestKey);//超出限制删除最久缓存数据
       eldestKey = null;
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
     }
   }
 
@@ -19,9 +19,12 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Soft Reference cache decorator
@@ -31,9 +34,11 @@ import org.apache.ibatis.cache.Cache;
  */
 public class SoftCache implements Cache {
   private final Deque<Object> hardLinksToAvoidGarbageCollection;
+  private final Lock hardLinksLock = new ReentrantLock();
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStatistics statistics;
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
@@ -58,6 +63,10 @@ public class SoftCache implements Cache {
     this.numberOfHardLinks = size;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     removeGarbageCollectedItems();
@@ -75,11 +84,14 @@ public class SoftCache implements Cache {
         delegate.removeObject(key);
       } else {
         // See #586 (and #335) modifications need more than a read lock 
-        synchronized (hardLinksToAvoidGarbageCollection) {
+        hardLinksLock.lock();
+        try {
           hardLinksToAvoidGarbageCollection.addFirst(result);
           if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
             hardLinksToAvoidGarbageCollection.removeLast();
           }
+        } finally {
+          hardLinksLock.unlock();
         }
       }
     }
@@ -94,8 +106,11 @@ public class SoftCache implements Cache {
 
   @Override
   public void clear() {
-    synchronized (hardLinksToAvoidGarbageCollection) {
+    hardLinksLock.lock();
+    try {
       hardLinksToAvoidGarbageCollection.clear();
+    } finally {
+      hardLinksLock.unlock();
     }
     removeGarbageCollectedItems();
     delegate.clear();
@@ -110,6 +125,9 @@ public class SoftCache implements Cache {
     SoftEntry sv;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
     }
   }
 
@@ -106,6 +106,16 @@ public class TransactionalCache implements Cache {
     reset();
   }
 
+  /**
+   * Releases a key that missed in the cache and will not be put, like when its query failed,
+   * so a blocking cache does not keep other sessions waiting until this one ends.
+   */
+  public void unlockEntry(Object key) {
+    if (entriesMissedInCache.remove(key) && !entriesToAddOnCommit.containsKey(key)) {
+      unlock(key);
+    }
+  }
+
   public void rollback() {
     unlockMissedEntries();
     reset();
@@ -130,12 +140,16 @@ public class TransactionalCache implements Cache {
 
   private void unlockMissedEntries() {
     for (Object entry : entriesMissedInCache) {
-      try {
-        delegate.removeObject(entry);
-      } catch (Exception e) {
-        log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
-            + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
-      }
+      unlock(entry);
+    }
+  }
+
+  private void unlock(Object entry) {
+    try {
+      delegate.removeObject(entry);
+    } catch (Exception e) {
+      log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
+          + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
     }
   }
 
@@ -22,6 +22,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Weak Reference cache decorator. Thanks to Dr. Heinz Kabutz for his guidance
@@ -35,6 +36,7 @@ public class WeakCache implements Cache {
 	private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
 	private final Cache delegate;
 	private int numberOfHardLinks;
+	private CacheStatistics statistics;
 
 	public WeakCache(Cache delegate) {
 		this.delegate = delegate;
@@ -58,6 +60,10 @@ public class WeakCache implements Cache {
 		this.numberOfHardLinks = size;
 	}
 
+	public void setStatistics(CacheStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	@Override
 	public void putObject(Object key, Object value) {
 		removeGarbageCollectedItems();
@@ -112,6 +118,9 @@ public class WeakCache implements Cache {
 		WeakEntry sv;
 		while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
 			delegate.removeObject(sv.key);
+			if (statistics != null) {
+				statistics.recordEviction();
+			}
 		}
 	}
 
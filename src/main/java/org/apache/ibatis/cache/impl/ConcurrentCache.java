@@ -0,0 +1,426 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Bounded cache that can be read and written by many threads at once, so the
+ * {@link org.apache.ibatis.mapping.CacheBuilder} does not wrap it in a
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache}.
+ * <p>
+ * Reads go straight to a {@link ConcurrentHashMap}. Writes lock one of several segments,
+ * chosen by the hash of the key, that keep the entries in an array for random sampling.
+ * When the cache grows beyond its bound a few entries of a segment are sampled and the
+ * one requested least often according to a {@link FrequencySketch} is evicted. A newly
+ * put entry takes part in that choice, so a rarely used result cannot push out a popular one
+ * (TinyLFU admission).
+ * <p>
+ * The cache is bounded by the number of entries ({@code size}, default 1024) unless a
+ * {@code maximumWeight} is set. The weight of an entry is given by a {@link Weigher},
+ * by default the number of rows of a cached list.
+ */
+public class ConcurrentCache implements Cache {
+
+  /**
+   * Computes the weight of a cache entry for the weight bounded mode.
+   */
+  public interface Weigher {
+
+    /**
+     * @param key The key
+     * @param value The value
+     * @return The weight of the entry, at least 1
+     */
+    int weigh(Object key, Object value);
+
+  }
+
+  /**
+   * Weighs a cached list by its number of rows and anything else as 1.
+   */
+  public static final Weigher ROW_COUNT_WEIGHER = new Weigher() {
+    @Override
+    public int weigh(Object key, Object value) {
+      if (value instanceof Collection) {
+        return Math.max(1, ((Collection<?>) value).size());
+      }
+      return 1;
+    }
+  };
+
+  private static final int SAMPLE_SIZE = 8;
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Node> map = new ConcurrentHashMap<Object, Node>();
+  private final AtomicLong weightedSize = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private int size = 1024;
+  private long maximumWeight;
+  private int concurrencyLevel = 16;
+  private Weigher weigher = ROW_COUNT_WEIGHER;
+  private Segment[] segments;
+  private int segmentMask;
+  private FrequencySketch sketch;
+  private CacheStatistics statistics;
+
+  public ConcurrentCache(String id) {
+    this.id = id;
+    initialize();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return map.size();
+  }
+
+  /*
+   * The maximum number of entries. With a maximum weight it is the expected number of entries,
+   * which only sizes the frequency sketch
+   */
+  public void setSize(int size) {
+    this.size = size;
+    initialize();
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /*
+   * The maximum total weight of the entries, 0 to bound the cache by its size
+   */
+  public void setMaximumWeight(long maximumWeight) {
+    this.maximumWeight = maximumWeight;
+    initialize();
+  }
+
+  /*
+   * The number of segments writes are spread over, rounded up to a power of two
+   */
+  public void setConcurrencyLevel(int concurrencyLevel) {
+    this.concurrencyLevel = concurrencyLevel;
+    initialize();
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+    initialize();
+  }
+
+  /*
+   * Sets the weigher by class name, so it can be configured with a cache property
+   */
+  public void setWeigherType(String weigherType) {
+    try {
+      setWeigher((Weigher) Resources.classForName(weigherType).newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate weigher " + weigherType + ". Cause: " + e, e);
+    }
+  }
+
+  public long getWeightedSize() {
+    return weightedSize.get();
+  }
+
+  public long getHitCount() {
+    long hits = 0;
+    for (Segment segment : segments) {
+      hits += segment.hitCount.get();
+    }
+    return hits;
+  }
+
+  public long getMissCount() {
+    long misses = 0;
+    for (Segment segment : segments) {
+      misses += segment.missCount.get();
+    }
+    return misses;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    int hash = spread(key.hashCode());
+    Segment segment = segmentFor(hash);
+    Node node = new Node(key, value, hash, maximumWeight > 0 ? weigher.weigh(key, value) : 1);
+    if (node.weight > maximum()) {
+      removeObject(key);
+      recordEviction();
+      return;
+    }
+    segment.lock();
+    try {
+      Node previous = map.put(key, node);
+      if (previous == null) {
+        segment.add(node);
+        weightedSize.addAndGet(node.weight);
+      } else {
+        segment.replace(previous, node);
+        weightedSize.addAndGet(node.weight - previous.weight);
+      }
+    } finally {
+      segment.unlock();
+    }
+    evictIfNeeded(segment, node);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    int hash = spread(key.hashCode());
+    Segment segment = segmentFor(hash);
+    sketch.increment(hash);
+    Node node = map.get(key);
+    if (node == null) {
+      segment.missCount.incrementAndGet();
+      return null;
+    }
+    segment.hitCount.incrementAndGet();
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Segment segment = segmentFor(spread(key.hashCode()));
+    segment.lock();
+    try {
+      Node node = map.remove(key);
+      if (node == null) {
+        return null;
+      }
+      segment.remove(node);
+      weightedSize.addAndGet(-node.weight);
+      return node.value;
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.lock();
+    }
+    try {
+      map.clear();
+      for (Segment segment : segments) {
+        segment.nodes.clear();
+      }
+      weightedSize.set(0);
+    } finally {
+      for (Segment segment : segments) {
+        segment.unlock();
+      }
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void initialize() {
+    int count = 1;
+    while (count < concurrencyLevel && count < (1 << 16)) {
+      count <<= 1;
+    }
+    Segment[] newSegments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      newSegments[i] = new Segment(i);
+    }
+    map.clear();
+    weightedSize.set(0);
+    segments = newSegments;
+    segmentMask = count - 1;
+    // the sketch counts keys, so it is sized by the entries the cache can hold, not by their weight
+    sketch = new FrequencySketch(maximumWeight > 0 ? (int) Math.min(size, maximumWeight) : size);
+  }
+
+  private long maximum() {
+    return maximumWeight > 0 ? maximumWeight : size;
+  }
+
+  private void evictIfNeeded(Segment start, Node candidate) {
+    int index = start.index;
+    int emptySegments = 0;
+    while (weightedSize.get() > maximum() && emptySegments <= segmentMask) {
+      Segment segment = segments[index & segmentMask];
+      Node victim;
+      segment.lock();
+      try {
+        victim = segment.sampleVictim(segment == start ? candidate : null);
+        if (victim != null) {
+          map.remove(victim.key, victim);
+          segment.remove(victim);
+          weightedSize.addAndGet(-victim.weight);
+        }
+      } finally {
+        segment.unlock();
+      }
+      if (victim == null) {
+        emptySegments++;
+        index++;
+      } else {
+        recordEviction();
+        emptySegments = 0;
+        if (victim == candidate) {
+          index++;
+        }
+      }
+    }
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[(hash >>> 16) & segmentMask];
+  }
+
+  private void recordEviction() {
+    evictionCount.incrementAndGet();
+    if (statistics != null) {
+      statistics.recordEviction();
+    }
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Node {
+    final Object key;
+    final Object value;
+    final int weight;
+    final int hash;
+    int index = -1;
+
+    Node(Object key, Object value, int hash, int weight) {
+      this.key = key;
+      this.value = value;
+      this.hash = hash;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * The entries of one part of the hash range, kept in an array so they can be sampled.
+   * Only accessed while holding the segment lock, apart from the counters.
+   */
+  private final class Segment extends ReentrantLock {
+
+    private static final long serialVersionUID = 1L;
+
+    final int index;
+    final List<Node> nodes = new ArrayList<Node>();
+    final Random random = new Random();
+    final AtomicLong hitCount = new AtomicLong();
+    final AtomicLong missCount = new AtomicLong();
+
+    Segment(int index) {
+      this.index = index;
+    }
+
+    void add(Node node) {
+      node.index = nodes.size();
+      nodes.add(node);
+    }
+
+    void replace(Node previous, Node node) {
+      node.index = previous.index;
+      nodes.set(previous.index, node);
+    }
+
+    void remove(Node node) {
+      Node last = nodes.remove(nodes.size() - 1);
+      if (last != node) {
+        last.index = node.index;
+        nodes.set(node.index, last);
+      }
+    }
+
+    Node sampleVictim(Node candidate) {
+      int count = nodes.size();
+      if (count == 0) {
+        return null;
+      }
+      Node victim = null;
+      int victimFrequency = Integer.MAX_VALUE;
+      for (int i = 0; i < Math.min(SAMPLE_SIZE, count); i++) {
+        Node node = nodes.get(count <= SAMPLE_SIZE ? i : random.nextInt(count));
+        if (node == candidate) {
+          continue;
+        }
+        int frequency = sketch.frequency(node.hash);
+        if (frequency < victimFrequency) {
+          victim = node;
+          victimFrequency = frequency;
+        }
+      }
+      if (candidate != null && map.get(candidate.key) == candidate
+          && (victim == null || sketch.frequency(candidate.hash) < victimFrequency)) {
+        return candidate;
+      }
+      return victim;
+    }
+
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch with 4 bit counters estimating how often a key was requested, used as the
+ * TinyLFU admission filter of {@link ConcurrentCache}.
+ * <p>
+ * Every counter is stored in a nibble of a long, four counters per key. The table has one long
+ * per expected entry, up to {@link #MAXIMUM_LENGTH}. When the number of increments reaches ten
+ * times the table length all counters are halved, so old popularity fades away. Counters are
+ * updated with compare and set, so concurrent requests are all counted.
+ */
+class FrequencySketch {
+
+  private static final long[] SEED = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /**
+   * The largest table, 8MB of counters.
+   */
+  static final int MAXIMUM_LENGTH = 1 << 20;
+
+  private final AtomicLongArray table;
+  private final int tableMask;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger();
+
+  public FrequencySketch(int expectedEntries) {
+    int length = 16;
+    while (length < expectedEntries && length < MAXIMUM_LENGTH) {
+      length <<= 1;
+    }
+    this.table = new AtomicLongArray(length);
+    this.tableMask = length - 1;
+    this.sampleSize = 10 * length;
+  }
+
+  /*
+   * Estimates how often a key was requested
+   *
+   * @param hash - the spread hash code of the key
+   * @return The estimated frequency, at most 15
+   */
+  public int frequency(int hash) {
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table.get(index) >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /*
+   * Records a request for a key
+   *
+   * @param hash - the spread hash code of the key
+   */
+  public void increment(int hash) {
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    // only the thread that reaches the sample size halves the counters
+    if (added && additions.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    for (;;) {
+      long value = table.get(index);
+      if ((value & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(index, value, value + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length(); i++) {
+      for (;;) {
+        long value = table.get(i);
+        if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+          odd += Long.bitCount(value & ONE_MASK);
+          break;
+        }
+      }
+    }
+    additions.set(Math.max(0, (sampleSize - (odd >>> 2)) >>> 1));
+  }
+
+  private int indexOf(int hash, int depth) {
+    long h = (hash + SEED[depth]) * SEED[depth];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+}
@@ -0,0 +1,451 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * Cache that keeps its values serialized outside of the java heap, for large read mostly namespaces.
+ * <p>
+ * Values are serialized straight into fixed size slabs, direct byte buffers or memory mapped files
+ * if a {@code directory} is set, and deserialized straight out of them, so no intermediate byte
+ * array is created. Only the keys and a small index entry per value stay on the heap.
+ * <p>
+ * The memory budget ({@code maximumMemory}) is split into slabs of {@code slabSize} bytes. New
+ * values are appended to the current slab. When the budget is used up the oldest slab is recycled
+ * in clock order: values read since they were written get a second chance and are moved to the new
+ * slab, the others are evicted. One slab is kept free for that move. Values larger than a slab are
+ * not cached.
+ * <p>
+ * Reads are concurrent, writes are exclusive. Like with a read-write cache every read returns a new copy.
+ */
+public class OffHeapCache implements Cache {
+
+  private final String id;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<Object, Entry> index = new HashMap<Object, Entry>();
+  private final Deque<Slab> sealedSlabs = new ArrayDeque<Slab>();
+  private final Deque<Slab> freeSlabs = new ArrayDeque<Slab>();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private long maximumMemory = 64L * 1024 * 1024;
+  private int slabSize = 4 * 1024 * 1024;
+  private String directory;
+  private Slab writeSlab;
+  private Slab spareSlab;
+  private int allocatedSlabs;
+  private CacheStatistics statistics;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /*
+   * The total number of bytes of all slabs, at least two slabs are used
+   */
+  public void setMaximumMemory(long maximumMemory) {
+    this.maximumMemory = maximumMemory;
+    reset();
+  }
+
+  /*
+   * The size of one slab in bytes, which is also the size of the largest value that can be cached
+   */
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+    reset();
+  }
+
+  /*
+   * A directory for memory mapped slab files, by default the slabs are direct buffers
+   */
+  public void setDirectory(String directory) {
+    this.directory = directory;
+    reset();
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public int getAllocatedSlabCount() {
+    lock.readLock().lock();
+    try {
+      return allocatedSlabs;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to store a non-serializable object: " + value);
+    }
+    lock.writeLock().lock();
+    try {
+      index.remove(key);
+      if (value == null) {
+        index.put(key, new Entry(key, null, 0, 0));
+        return;
+      }
+      if (writeSlab == null) {
+        writeSlab = nextSlab();
+      }
+      Entry entry = write(key, value);
+      if (entry == null) {
+        rotate();
+        entry = write(key, value);
+      }
+      if (entry != null) {
+        index.put(key, entry);
+        if (statistics != null) {
+          statistics.recordSerializedValue(entry.length);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    lock.readLock().lock();
+    try {
+      Entry entry = index.get(key);
+      if (entry == null || entry.slab == null) {
+        return null;
+      }
+      entry.referenced = true;
+      ByteBuffer buffer = entry.slab.buffer.duplicate();
+      buffer.limit(entry.offset + entry.length);
+      buffer.position(entry.offset);
+      ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(new SlabInputStream(buffer));
+      Object result = ois.readObject();
+      ois.close();
+      return result;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.writeLock().lock();
+    try {
+      index.remove(key);
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      if (writeSlab != null) {
+        sealedSlabs.addLast(writeSlab);
+        writeSlab = null;
+      }
+      for (Slab slab : sealedSlabs) {
+        slab.reset();
+        freeSlabs.addLast(slab);
+      }
+      sealedSlabs.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void reset() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      sealedSlabs.clear();
+      freeSlabs.clear();
+      writeSlab = null;
+      spareSlab = null;
+      allocatedSlabs = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private int slabCount() {
+    return (int) Math.max(2, Math.min(Integer.MAX_VALUE, maximumMemory / slabSize));
+  }
+
+  /*
+   * Serializes a value at the end of the write slab
+   *
+   * @return The index entry or null if the value did not fit
+   */
+  private Entry write(Object key, Object value) {
+    ByteBuffer buffer = writeSlab.buffer;
+    int offset = buffer.position();
+    try {
+      ObjectOutputStream oos = new ObjectOutputStream(new SlabOutputStream(buffer));
+      oos.writeObject(value);
+      oos.flush();
+      oos.close();
+    } catch (SlabFullException e) {
+      buffer.position(offset);
+      return null;
+    } catch (IOException e) {
+      buffer.position(offset);
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+    Entry entry = new Entry(key, writeSlab, offset, buffer.position() - offset);
+    writeSlab.entries.add(entry);
+    return entry;
+  }
+
+  /*
+   * Seals the write slab and replaces it, recycling the oldest slab if the memory budget is used up
+   */
+  private void rotate() {
+    if (writeSlab.entries.isEmpty()) {
+      // nothing fits into an empty slab
+      return;
+    }
+    sealedSlabs.addLast(writeSlab);
+    Slab next = nextSlab();
+    if (next == null) {
+      if (spareSlab == null) {
+        spareSlab = allocate();
+      }
+      Slab victim = sealedSlabs.pollFirst();
+      next = spareSlab;
+      for (Entry entry : victim.entries) {
+        if (index.get(entry.key) != entry) {
+          continue;
+        }
+        if (entry.referenced && next.buffer.remaining() >= entry.length) {
+          ByteBuffer source = victim.buffer.duplicate();
+          source.limit(entry.offset + entry.length);
+          source.position(entry.offset);
+          entry.slab = next;
+          entry.offset = next.buffer.position();
+          entry.referenced = false;
+          next.buffer.put(source);
+          next.entries.add(entry);
+        } else {
+          index.remove(entry.key);
+          evictionCount.incrementAndGet();
+          if (statistics != null) {
+            statistics.recordEviction();
+          }
+        }
+      }
+      victim.reset();
+      spareSlab = victim;
+    }
+    writeSlab = next;
+  }
+
+  private Slab nextSlab() {
+    Slab slab = freeSlabs.pollFirst();
+    if (slab == null && allocatedSlabs < slabCount() - 1) {
+      slab = allocate();
+    }
+    return slab;
+  }
+
+  private Slab allocate() {
+    ByteBuffer buffer;
+    if (directory == null) {
+      buffer = ByteBuffer.allocateDirect(slabSize);
+    } else {
+      try {
+        File file = File.createTempFile("mybatis-" + id + "-", ".slab", new File(directory));
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, slabSize);
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        throw new CacheException("Error creating cache file in " + directory + ".  Cause: " + e, e);
+      }
+    }
+    allocatedSlabs++;
+    return new Slab(buffer);
+  }
+
+  private static final class Entry {
+    final Object key;
+    Slab slab;
+    int offset;
+    final int length;
+    volatile boolean referenced;
+
+    Entry(Object key, Slab slab, int offset, int length) {
+      this.key = key;
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static final class Slab {
+    final ByteBuffer buffer;
+    final List<Entry> entries = new ArrayList<Entry>();
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void reset() {
+      buffer.clear();
+      entries.clear();
+    }
+  }
+
+  private static final class SlabFullException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final class SlabOutputStream extends OutputStream {
+    private final ByteBuffer buffer;
+
+    SlabOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        throw new SlabFullException();
+      }
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (buffer.remaining() < len) {
+        throw new SlabFullException();
+      }
+      buffer.put(b, off, len);
+    }
+  }
+
+  private static final class SlabInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    SlabInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+}
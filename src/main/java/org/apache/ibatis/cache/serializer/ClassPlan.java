@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+
+/**
+ * How the objects of one class are copied by the reflective serializers: element by element for
+ * the common collections and maps, field by field for plain serializable beans, and with java
+ * serialization for everything that customizes its serialization or cannot be instantiated.
+ */
+final class ClassPlan {
+
+  enum Kind {
+    COLLECTION, MAP, BEAN, JDK
+  }
+
+  private static final Class<?>[] COLLECTIONS = { ArrayList.class, LinkedList.class, HashSet.class,
+      LinkedHashSet.class, TreeSet.class, Vector.class, ArrayDeque.class, CopyOnWriteArrayList.class };
+  private static final Class<?>[] MAPS = { HashMap.class, LinkedHashMap.class, TreeMap.class, Hashtable.class,
+      ConcurrentHashMap.class };
+  private static final String[] SERIALIZATION_METHODS = { "writeObject", "readObject", "readObjectNoData",
+      "writeReplace", "readResolve" };
+
+  private final Kind kind;
+  private final Constructor<?> constructor;
+  private final Field[] fields;
+
+  private ClassPlan(Kind kind, Constructor<?> constructor, Field[] fields) {
+    this.kind = kind;
+    this.constructor = constructor;
+    this.fields = fields;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public Field[] getFields() {
+    return fields;
+  }
+
+  /*
+   * Whether an instance must be copied with java serialization, sorted collections with a comparator cannot
+   * be rebuilt element by element.
+   */
+  public boolean needsJdk(Object value) {
+    if (kind == Kind.JDK) {
+      return true;
+    }
+    if (value instanceof SortedSet) {
+      return ((SortedSet<?>) value).comparator() != null;
+    }
+    if (value instanceof SortedMap) {
+      return ((SortedMap<?, ?>) value).comparator() != null;
+    }
+    return false;
+  }
+
+  public Object newInstance() {
+    try {
+      return constructor.newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error instantiating " + constructor.getDeclaringClass() + ".  Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Builds and remembers the plans of the classes met by one serializer.
+   */
+  static final class Planner {
+
+    private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+    private final Map<Class<?>, ClassPlan> plans = new ConcurrentHashMap<Class<?>, ClassPlan>();
+
+    public ClassPlan planFor(Class<?> type) {
+      ClassPlan plan = plans.get(type);
+      if (plan == null) {
+        plan = createPlan(type);
+        plans.put(type, plan);
+      }
+      return plan;
+    }
+
+    private ClassPlan createPlan(Class<?> type) {
+      if (!Serializable.class.isAssignableFrom(type)) {
+        throw new CacheException("Cannot copy a non-serializable object of " + type);
+      }
+      for (Class<?> collectionType : COLLECTIONS) {
+        if (collectionType == type) {
+          return new ClassPlan(Kind.COLLECTION, reflectorFactory.findForClass(type).getDefaultConstructor(), null);
+        }
+      }
+      for (Class<?> mapType : MAPS) {
+        if (mapType == type) {
+          return new ClassPlan(Kind.MAP, reflectorFactory.findForClass(type).getDefaultConstructor(), null);
+        }
+      }
+      if (Externalizable.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)
+          || Map.class.isAssignableFrom(type) || hasSerializationMethods(type)) {
+        return new ClassPlan(Kind.JDK, null, null);
+      }
+      Reflector reflector = reflectorFactory.findForClass(type);
+      if (!reflector.hasDefaultConstructor()) {
+        return new ClassPlan(Kind.JDK, null, null);
+      }
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+            continue;
+          }
+          try {
+            field.setAccessible(true);
+          } catch (SecurityException e) {
+            return new ClassPlan(Kind.JDK, null, null);
+          }
+          fields.add(field);
+        }
+      }
+      return new ClassPlan(Kind.BEAN, reflector.getDefaultConstructor(), fields.toArray(new Field[fields.size()]));
+    }
+
+    private boolean hasSerializationMethods(Class<?> type) {
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Method method : c.getDeclaredMethods()) {
+          for (String name : SERIALIZATION_METHODS) {
+            if (name.equals(method.getName())) {
+              return true;
+            }
+          }
+        }
+      }
+      return false;
+    }
+
+  }
+
+}
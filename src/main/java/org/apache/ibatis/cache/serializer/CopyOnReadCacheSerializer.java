@@ -0,0 +1,124 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+
+/**
+ * Keeps a deep copy of the cached object and hands out another deep copy on every read, without
+ * going through bytes.
+ * <p>
+ * Immutable values are shared, the common collections and maps are copied element by element and
+ * serializable beans field by field, like {@link ReflectiveCacheSerializer} would serialize them.
+ * Objects that customize their serialization are copied with java serialization.
+ */
+public class CopyOnReadCacheSerializer implements CacheSerializer {
+
+  private final ClassPlan.Planner planner = new ClassPlan.Planner();
+
+  @Override
+  public Object serialize(Object value) {
+    return copy(value, new IdentityHashMap<Object, Object>());
+  }
+
+  @Override
+  public Object deserialize(Object cached) {
+    return copy(cached, new IdentityHashMap<Object, Object>());
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object copy(Object value, Map<Object, Object> copies) {
+    if (value == null || isImmutable(value)) {
+      return value;
+    }
+    Object copy = copies.get(value);
+    if (copy != null) {
+      return copy;
+    }
+    Class<?> type = value.getClass();
+    if (value instanceof Date) {
+      copy = ((Date) value).clone();
+      copies.put(value, copy);
+      return copy;
+    }
+    if (type.isArray()) {
+      int length = Array.getLength(value);
+      if (type.getComponentType().isPrimitive()) {
+        copy = Array.newInstance(type.getComponentType(), length);
+        System.arraycopy(value, 0, copy, 0, length);
+        copies.put(value, copy);
+      } else {
+        Object[] source = (Object[]) value;
+        Object[] target = (Object[]) Array.newInstance(type.getComponentType(), length);
+        copies.put(value, target);
+        for (int i = 0; i < length; i++) {
+          target[i] = copy(source[i], copies);
+        }
+        copy = target;
+      }
+      return copy;
+    }
+    ClassPlan plan = planner.planFor(type);
+    if (plan.needsJdk(value)) {
+      copy = JdkCacheSerializer.fromBytes(JdkCacheSerializer.toBytes(value));
+      copies.put(value, copy);
+    } else if (plan.getKind() == ClassPlan.Kind.COLLECTION) {
+      Collection<Object> target = (Collection<Object>) plan.newInstance();
+      copies.put(value, target);
+      for (Object element : (Collection<?>) value) {
+        target.add(copy(element, copies));
+      }
+      copy = target;
+    } else if (plan.getKind() == ClassPlan.Kind.MAP) {
+      Map<Object, Object> target = (Map<Object, Object>) plan.newInstance();
+      copies.put(value, target);
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        target.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+      }
+      copy = target;
+    } else {
+      copy = plan.newInstance();
+      copies.put(value, copy);
+      for (Field field : plan.getFields()) {
+        try {
+          field.set(copy, copy(field.get(value), copies));
+        } catch (IllegalAccessException e) {
+          throw new CacheException("Could not copy field " + field + ".  Cause: " + e, e);
+        }
+      }
+    }
+    return copy;
+  }
+
+  private static boolean isImmutable(Object value) {
+    Class<?> type = value.getClass();
+    return type == String.class || type == Integer.class || type == Long.class || type == Short.class
+        || type == Byte.class || type == Character.class || type == Boolean.class || type == Float.class
+        || type == Double.class || type == BigInteger.class || type == BigDecimal.class
+        || value instanceof Enum || value instanceof Class;
+  }
+
+}
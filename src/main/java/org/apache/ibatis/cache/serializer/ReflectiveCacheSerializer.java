@@ -0,0 +1,503 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Compact serializer for cached results, the default of read-write caches.
+ * <p>
+ * Strings, numbers, dates, enums and arrays are written with a one byte tag, the common collections
+ * and maps element by element and serializable beans field by field, the same fields java serialization
+ * would write. Class names are written once per copy. Objects that customize their serialization
+ * (like lazy loading proxies), are externalizable or have no default constructor are embedded
+ * with java serialization.
+ */
+public class ReflectiveCacheSerializer implements CacheSerializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte SHORT = 5;
+  private static final byte BYTE = 6;
+  private static final byte CHARACTER = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte FLOAT = 9;
+  private static final byte DOUBLE = 10;
+  private static final byte BIG_INTEGER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte DATE = 13;
+  private static final byte SQL_DATE = 14;
+  private static final byte TIME = 15;
+  private static final byte TIMESTAMP = 16;
+  private static final byte ENUM = 17;
+  private static final byte BYTES = 18;
+  private static final byte ARRAY = 19;
+  private static final byte COLLECTION = 20;
+  private static final byte MAP = 21;
+  private static final byte BEAN = 22;
+  private static final byte JDK = 23;
+
+  private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> type : new Class<?>[] { int.class, long.class, short.class, byte.class, char.class,
+        boolean.class, float.class, double.class }) {
+      PRIMITIVES.put(type.getName(), type);
+    }
+  }
+
+  private final ClassPlan.Planner planner = new ClassPlan.Planner();
+
+  @Override
+  public Object serialize(Object value) {
+    Output out = new Output();
+    new Writer(out).write(value);
+    return out.toByteArray();
+  }
+
+  @Override
+  public Object deserialize(Object cached) {
+    return new Reader(new Input((byte[]) cached)).read();
+  }
+
+  private final class Writer {
+
+    private final Output out;
+    private final Map<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+    private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+    Writer(Output out) {
+      this.out = out;
+    }
+
+    void write(Object value) {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Integer.class) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) value);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (type == Character.class) {
+        out.writeByte(CHARACTER);
+        out.writeChar((Character) value);
+      } else if (type == Boolean.class) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) value);
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (type == BigInteger.class) {
+        out.writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (type == BigDecimal.class) {
+        out.writeByte(BIG_DECIMAL);
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+        out.writeInt(((BigDecimal) value).scale());
+      } else if (type == Date.class) {
+        out.writeByte(DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Date.class) {
+        out.writeByte(SQL_DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == Time.class) {
+        out.writeByte(TIME);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == Timestamp.class) {
+        out.writeByte(TIMESTAMP);
+        out.writeLong(((Timestamp) value).getTime());
+        out.writeInt(((Timestamp) value).getNanos());
+      } else if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else if (!writeReference(value)) {
+        writeObject(type, value);
+      }
+    }
+
+    private boolean writeReference(Object value) {
+      Integer handle = handles.get(value);
+      if (handle == null) {
+        handles.put(value, handles.size());
+        return false;
+      }
+      out.writeByte(REFERENCE);
+      out.writeInt(handle);
+      return true;
+    }
+
+    private void writeObject(Class<?> type, Object value) {
+      if (type == byte[].class) {
+        out.writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (type.isArray()) {
+        out.writeByte(ARRAY);
+        writeClass(type.getComponentType());
+        int length = Array.getLength(value);
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+          write(Array.get(value, i));
+        }
+      } else {
+        ClassPlan plan = planner.planFor(type);
+        if (plan.needsJdk(value)) {
+          out.writeByte(JDK);
+          writeBytes(JdkCacheSerializer.toBytes(value));
+        } else if (plan.getKind() == ClassPlan.Kind.COLLECTION) {
+          out.writeByte(COLLECTION);
+          writeClass(type);
+          Collection<?> collection = (Collection<?>) value;
+          out.writeInt(collection.size());
+          for (Object element : collection) {
+            write(element);
+          }
+        } else if (plan.getKind() == ClassPlan.Kind.MAP) {
+          out.writeByte(MAP);
+          writeClass(type);
+          Map<?, ?> map = (Map<?, ?>) value;
+          out.writeInt(map.size());
+          for (Map.Entry<?, ?> entry : map.entrySet()) {
+            write(entry.getKey());
+            write(entry.getValue());
+          }
+        } else {
+          out.writeByte(BEAN);
+          writeClass(type);
+          for (Field field : plan.getFields()) {
+            try {
+              write(field.get(value));
+            } catch (IllegalAccessException e) {
+              throw new CacheException("Could not read field " + field + ".  Cause: " + e, e);
+            }
+          }
+        }
+      }
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer index = classes.get(type);
+      if (index != null) {
+        out.writeInt(index);
+      } else {
+        classes.put(type, classes.size());
+        out.writeInt(-1);
+        writeString(type.getName());
+      }
+    }
+
+    private void writeString(String value) {
+      int length = value.length();
+      out.writeInt(length);
+      for (int i = 0; i < length; i++) {
+        out.writeChar(value.charAt(i));
+      }
+    }
+
+    private void writeBytes(byte[] value) {
+      out.writeInt(value.length);
+      out.write(value);
+    }
+
+  }
+
+  private final class Reader {
+
+    private final Input in;
+    private final List<Object> handles = new ArrayList<Object>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+    Reader(Input in) {
+      this.in = in;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object read() {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return handles.get(in.readInt());
+        case STRING:
+          return readString();
+        case INTEGER:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case SHORT:
+          return in.readShort();
+        case BYTE:
+          return in.readByte();
+        case CHARACTER:
+          return in.readChar();
+        case BOOLEAN:
+          return in.readBoolean();
+        case FLOAT:
+          return in.readFloat();
+        case DOUBLE:
+          return in.readDouble();
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case BIG_DECIMAL:
+          return new BigDecimal(new BigInteger(readBytes()), in.readInt());
+        case DATE:
+          return new Date(in.readLong());
+        case SQL_DATE:
+          return new java.sql.Date(in.readLong());
+        case TIME:
+          return new Time(in.readLong());
+        case TIMESTAMP:
+          Timestamp timestamp = new Timestamp(in.readLong());
+          timestamp.setNanos(in.readInt());
+          return timestamp;
+        case ENUM:
+          return Enum.valueOf((Class<Enum>) readClass(), readString());
+        case BYTES:
+          return register(readBytes());
+        case ARRAY:
+          Class<?> componentType = readClass();
+          int length = in.readInt();
+          Object array = register(Array.newInstance(componentType, length));
+          for (int i = 0; i < length; i++) {
+            Array.set(array, i, read());
+          }
+          return array;
+        case COLLECTION:
+          Collection<Object> collection = (Collection<Object>) register(planner.planFor(readClass()).newInstance());
+          for (int size = in.readInt(); size > 0; size--) {
+            collection.add(read());
+          }
+          return collection;
+        case MAP:
+          Map<Object, Object> map = (Map<Object, Object>) register(planner.planFor(readClass()).newInstance());
+          for (int size = in.readInt(); size > 0; size--) {
+            map.put(read(), read());
+          }
+          return map;
+        case BEAN:
+          ClassPlan plan = planner.planFor(readClass());
+          Object bean = register(plan.newInstance());
+          for (Field field : plan.getFields()) {
+            try {
+              field.set(bean, read());
+            } catch (IllegalAccessException e) {
+              throw new CacheException("Could not write field " + field + ".  Cause: " + e, e);
+            }
+          }
+          return bean;
+        case JDK:
+          return register(JdkCacheSerializer.fromBytes(readBytes()));
+        default:
+          throw new CacheException("Unknown tag " + tag + " in serialized cache entry.");
+      }
+    }
+
+    private Object register(Object value) {
+      handles.add(value);
+      return value;
+    }
+
+    private Class<?> readClass() {
+      int index = in.readInt();
+      if (index >= 0) {
+        return classes.get(index);
+      }
+      String name = readString();
+      Class<?> type = PRIMITIVES.get(name);
+      if (type == null) {
+        try {
+          type = Resources.classForName(name);
+        } catch (ClassNotFoundException e) {
+          throw new CacheException("Could not find class " + name + ".  Cause: " + e, e);
+        }
+      }
+      classes.add(type);
+      return type;
+    }
+
+    private String readString() {
+      int length = in.readInt();
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = in.readChar();
+      }
+      return new String(chars);
+    }
+
+    private byte[] readBytes() {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+  }
+
+  /**
+   * Unsynchronized big endian byte buffer that grows as needed.
+   */
+  private static final class Output {
+
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeBoolean(boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    void writeShort(int value) {
+      ensureCapacity(2);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeChar(int value) {
+      writeShort(value);
+    }
+
+    void writeInt(int value) {
+      ensureCapacity(4);
+      buffer[position++] = (byte) (value >>> 24);
+      buffer[position++] = (byte) (value >>> 16);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeFloat(float value) {
+      writeInt(Float.floatToIntBits(value));
+    }
+
+    void writeDouble(double value) {
+      writeLong(Double.doubleToLongBits(value));
+    }
+
+    void write(byte[] value) {
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int count) {
+      if (position + count > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(position + count, buffer.length * 2));
+      }
+    }
+
+  }
+
+  /**
+   * Reads what an {@link Output} wrote.
+   */
+  private static final class Input {
+
+    private final byte[] buffer;
+    private int position;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    byte readByte() {
+      return buffer[position++];
+    }
+
+    boolean readBoolean() {
+      return readByte() != 0;
+    }
+
+    short readShort() {
+      return (short) (((buffer[position++] & 0xff) << 8) | (buffer[position++] & 0xff));
+    }
+
+    char readChar() {
+      return (char) readShort();
+    }
+
+    int readInt() {
+      return ((buffer[position++] & 0xff) << 24) | ((buffer[position++] & 0xff) << 16)
+          | ((buffer[position++] & 0xff) << 8) | (buffer[position++] & 0xff);
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    float readFloat() {
+      return Float.intBitsToFloat(readInt());
+    }
+
+    double readDouble() {
+      return Double.longBitsToDouble(readLong());
+    }
+
+    void readFully(byte[] value) {
+      System.arraycopy(buffer, position, value, 0, value.length);
+      position += value.length;
+    }
+
+  }
+
+}
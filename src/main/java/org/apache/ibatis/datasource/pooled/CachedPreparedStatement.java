@@ -0,0 +1,770 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * A prepared statement borrowed from the {@link StatementCache} of a pooled connection.
+ * <p>
+ * Closing it closes its current result set, clears the parameters and the batch, restores the
+ * settings changed through it and gives the statement back to the cache instead of closing it.
+ * A statement that was given a cursor name, which cannot be read back, or was marked as not
+ * poolable is closed instead. JDBC 4.2 methods are left to the interface defaults.
+ */
+final class CachedPreparedStatement implements PreparedStatement {
+
+  private final PreparedStatement delegate;
+  private final StatementCache.Key key;
+  private final StatementCache cache;
+  private final Connection connection;
+  private boolean closed;
+  private Integer defaultFetchSize;
+  private Integer defaultFetchDirection;
+  private Integer defaultMaxRows;
+  private Integer defaultMaxFieldSize;
+  private Integer defaultQueryTimeout;
+  private boolean escapeProcessingChanged;
+  private ResultSet resultSet;
+  private boolean discard;
+
+  CachedPreparedStatement(PreparedStatement delegate, StatementCache.Key key, StatementCache cache, Connection connection) {
+    this.delegate = delegate;
+    this.key = key;
+    this.cache = cache;
+    this.connection = connection;
+  }
+
+  PreparedStatement getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (discard) {
+      delegate.close();
+      return;
+    }
+    try {
+      closeResultSet();
+      restoreDefaults();
+      delegate.clearParameters();
+      delegate.clearBatch();
+      delegate.clearWarnings();
+    } catch (SQLException e) {
+      delegate.close();
+      return;
+    }
+    cache.release(key, delegate);
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed || delegate.isClosed();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    checkOpen();
+    return connection;
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    checkOpen();
+    if (defaultFetchSize == null) {
+      defaultFetchSize = delegate.getFetchSize();
+    }
+    delegate.setFetchSize(rows);
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    checkOpen();
+    if (defaultFetchDirection == null) {
+      defaultFetchDirection = delegate.getFetchDirection();
+    }
+    delegate.setFetchDirection(direction);
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    checkOpen();
+    if (defaultMaxRows == null) {
+      defaultMaxRows = delegate.getMaxRows();
+    }
+    delegate.setMaxRows(max);
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    checkOpen();
+    if (defaultMaxFieldSize == null) {
+      defaultMaxFieldSize = delegate.getMaxFieldSize();
+    }
+    delegate.setMaxFieldSize(max);
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    checkOpen();
+    if (defaultQueryTimeout == null) {
+      defaultQueryTimeout = delegate.getQueryTimeout();
+    }
+    delegate.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    checkOpen();
+    if (iface.isInstance(delegate)) {
+      return iface.cast(delegate);
+    }
+    return delegate.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    checkOpen();
+    return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+  }
+
+  public void closeOnCompletion() throws SQLException {
+    invokeJdbc41("closeOnCompletion");
+  }
+
+  public boolean isCloseOnCompletion() throws SQLException {
+    return (Boolean) invokeJdbc41("isCloseOnCompletion");
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    checkOpen();
+    resultSet = delegate.executeQuery(sql);
+    return resultSet;
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    checkOpen();
+    return delegate.executeUpdate(sql);
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    checkOpen();
+    return delegate.getMaxFieldSize();
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    checkOpen();
+    return delegate.getMaxRows();
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    checkOpen();
+    escapeProcessingChanged = true;
+    delegate.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    checkOpen();
+    return delegate.getQueryTimeout();
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    checkOpen();
+    delegate.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    checkOpen();
+    return delegate.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkOpen();
+    delegate.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    checkOpen();
+    discard = true;
+    delegate.setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    checkOpen();
+    return delegate.execute(sql);
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    checkOpen();
+    resultSet = delegate.getResultSet();
+    return resultSet;
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    checkOpen();
+    return delegate.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    checkOpen();
+    return delegate.getMoreResults();
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    checkOpen();
+    return delegate.getFetchDirection();
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    checkOpen();
+    return delegate.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    checkOpen();
+    return delegate.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    checkOpen();
+    return delegate.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    checkOpen();
+    delegate.addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    checkOpen();
+    delegate.clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    checkOpen();
+    return delegate.executeBatch();
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    checkOpen();
+    return delegate.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    checkOpen();
+    return delegate.getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    checkOpen();
+    return delegate.executeUpdate(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    checkOpen();
+    return delegate.executeUpdate(sql, columnIndexes);
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    checkOpen();
+    return delegate.executeUpdate(sql, columnNames);
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    checkOpen();
+    return delegate.execute(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    checkOpen();
+    return delegate.execute(sql, columnIndexes);
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    checkOpen();
+    return delegate.execute(sql, columnNames);
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    checkOpen();
+    return delegate.getResultSetHoldability();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    checkOpen();
+    // prepared statements are poolable by default
+    discard |= !poolable;
+    delegate.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    checkOpen();
+    return delegate.isPoolable();
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    checkOpen();
+    resultSet = delegate.executeQuery();
+    return resultSet;
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    checkOpen();
+    return delegate.executeUpdate();
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType) throws SQLException {
+    checkOpen();
+    delegate.setNull(parameterIndex, sqlType);
+  }
+
+  @Override
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+    checkOpen();
+    delegate.setBoolean(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(int parameterIndex, byte x) throws SQLException {
+    checkOpen();
+    delegate.setByte(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(int parameterIndex, short x) throws SQLException {
+    checkOpen();
+    delegate.setShort(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(int parameterIndex, int x) throws SQLException {
+    checkOpen();
+    delegate.setInt(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(int parameterIndex, long x) throws SQLException {
+    checkOpen();
+    delegate.setLong(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(int parameterIndex, float x) throws SQLException {
+    checkOpen();
+    delegate.setFloat(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(int parameterIndex, double x) throws SQLException {
+    checkOpen();
+    delegate.setDouble(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+    checkOpen();
+    delegate.setBigDecimal(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(int parameterIndex, String x) throws SQLException {
+    checkOpen();
+    delegate.setString(parameterIndex, x);
+  }
+
+  @Override
+  public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+    checkOpen();
+    delegate.setBytes(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x) throws SQLException {
+    checkOpen();
+    delegate.setDate(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x) throws SQLException {
+    checkOpen();
+    delegate.setTime(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+    checkOpen();
+    delegate.setTimestamp(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    checkOpen();
+    delegate.setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    checkOpen();
+    delegate.setUnicodeStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    checkOpen();
+    delegate.setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    checkOpen();
+    delegate.clearParameters();
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+    checkOpen();
+    delegate.setObject(parameterIndex, x, targetSqlType);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x) throws SQLException {
+    checkOpen();
+    delegate.setObject(parameterIndex, x);
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    checkOpen();
+    return delegate.execute();
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    checkOpen();
+    delegate.addBatch();
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader x, int length) throws SQLException {
+    checkOpen();
+    delegate.setCharacterStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setRef(int parameterIndex, Ref x) throws SQLException {
+    checkOpen();
+    delegate.setRef(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, Blob x) throws SQLException {
+    checkOpen();
+    delegate.setBlob(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Clob x) throws SQLException {
+    checkOpen();
+    delegate.setClob(parameterIndex, x);
+  }
+
+  @Override
+  public void setArray(int parameterIndex, Array x) throws SQLException {
+    checkOpen();
+    delegate.setArray(parameterIndex, x);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    checkOpen();
+    return delegate.getMetaData();
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+    checkOpen();
+    delegate.setDate(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+    checkOpen();
+    delegate.setTime(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+    checkOpen();
+    delegate.setTimestamp(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    checkOpen();
+    delegate.setNull(parameterIndex, sqlType, typeName);
+  }
+
+  @Override
+  public void setURL(int parameterIndex, URL x) throws SQLException {
+    checkOpen();
+    delegate.setURL(parameterIndex, x);
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    checkOpen();
+    return delegate.getParameterMetaData();
+  }
+
+  @Override
+  public void setRowId(int parameterIndex, RowId x) throws SQLException {
+    checkOpen();
+    delegate.setRowId(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(int parameterIndex, String x) throws SQLException {
+    checkOpen();
+    delegate.setNString(parameterIndex, x);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+    checkOpen();
+    delegate.setNCharacterStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, NClob x) throws SQLException {
+    checkOpen();
+    delegate.setNClob(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+    checkOpen();
+    delegate.setClob(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException {
+    checkOpen();
+    delegate.setBlob(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+    checkOpen();
+    delegate.setNClob(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+    checkOpen();
+    delegate.setSQLXML(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+    checkOpen();
+    delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    checkOpen();
+    delegate.setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    checkOpen();
+    delegate.setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+    checkOpen();
+    delegate.setCharacterStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+    checkOpen();
+    delegate.setAsciiStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+    checkOpen();
+    delegate.setBinaryStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+    checkOpen();
+    delegate.setCharacterStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+    checkOpen();
+    delegate.setNCharacterStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader x) throws SQLException {
+    checkOpen();
+    delegate.setClob(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+    checkOpen();
+    delegate.setBlob(parameterIndex, x);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader x) throws SQLException {
+    checkOpen();
+    delegate.setNClob(parameterIndex, x);
+  }
+
+  private void checkOpen() throws SQLException {
+    if (closed) {
+      throw new SQLException("Error accessing cached PreparedStatement. Statement is closed.");
+    }
+  }
+
+  private void closeResultSet() throws SQLException {
+    final ResultSet current = delegate.getResultSet();
+    if (current != null) {
+      current.close();
+    }
+    if (resultSet != null) {
+      resultSet.close();
+      resultSet = null;
+    }
+  }
+
+  private void restoreDefaults() throws SQLException {
+    if (defaultFetchSize != null) {
+      delegate.setFetchSize(defaultFetchSize);
+    }
+    if (defaultFetchDirection != null) {
+      delegate.setFetchDirection(defaultFetchDirection);
+    }
+    if (defaultMaxRows != null) {
+      delegate.setMaxRows(defaultMaxRows);
+    }
+    if (defaultMaxFieldSize != null) {
+      delegate.setMaxFieldSize(defaultMaxFieldSize);
+    }
+    if (defaultQueryTimeout != null) {
+      delegate.setQueryTimeout(defaultQueryTimeout);
+    }
+    if (escapeProcessingChanged) {
+      // escape processing is on by default and cannot be read back
+      delegate.setEscapeProcessing(true);
+    }
+  }
+
+  private Object invokeJdbc41(String methodName) throws SQLException {
+    checkOpen();
+    try {
+      return PreparedStatement.class.getMethod(methodName).invoke(delegate);
+    } catch (NoSuchMethodException e) {
+      throw new SQLException("Method " + methodName + " requires JDBC 4.1", e);
+    } catch (IllegalAccessException e) {
+      throw new SQLException("Could not invoke " + methodName, e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = ExceptionUtil.unwrapThrowable(e);
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    }
+  }
+
+}
@@ -0,0 +1,308 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free holder of the idle and active connections of a {@link PooledDataSource}.
+ * <p>
+ * Idle connections live in a CAS based shared queue. Every thread also remembers the
+ * last connections it returned so it can usually get one of them back without touching
+ * the shared queue. Threads that find no idle connection wait on a fair handoff queue,
+ * returning threads pass their connection straight to the longest waiting one.
+ * <p>
+ * A connection is owned by whoever moves its state from {@link PooledConnection#STATE_NOT_IN_USE}
+ * to {@link PooledConnection#STATE_IN_USE}, stale references in the thread lists are simply skipped.
+ */
+class ConcurrentBag {
+
+  private static final int THREAD_LIST_SIZE = 8;
+
+  private final ConcurrentLinkedQueue<PooledConnection> sharedList = new ConcurrentLinkedQueue<PooledConnection>();
+  private final ThreadLocal<List<PooledConnection>> threadList = new ThreadLocal<List<PooledConnection>>() {
+    @Override
+    protected List<PooledConnection> initialValue() {
+      return new ArrayList<PooledConnection>(THREAD_LIST_SIZE);
+    }
+  };
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+  private final Set<PooledConnection> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger activeCount = new AtomicInteger();
+
+  /*
+   * Claims an idle connection without blocking
+   *
+   * @return The claimed connection (already in use) or null if none is idle
+   */
+  public PooledConnection borrow() {
+    List<PooledConnection> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PooledConnection conn = list.remove(i);
+      if (claim(conn)) {
+        sharedList.remove(conn);
+        return conn;
+      }
+    }
+    PooledConnection conn;
+    while ((conn = sharedList.poll()) != null) {
+      if (claim(conn)) {
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Waits for an idle connection or a connection handed off by a returning thread
+   *
+   * @param timeoutMillis - how long to wait at most
+   * @return The claimed connection (already in use) or null if the time elapsed
+   */
+  public PooledConnection await(long timeoutMillis) throws InterruptedException {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    long deadline = System.nanoTime() + remaining;
+    waiters.incrementAndGet();
+    try {
+      do {
+        PooledConnection conn = borrow();
+        if (conn != null) {
+          return conn;
+        }
+        conn = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (conn != null && claim(conn)) {
+          sharedList.remove(conn);
+          return conn;
+        }
+        remaining = deadline - System.nanoTime();
+      } while (remaining > 0);
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Puts an idle connection back. A slot must have been reserved with reserveIdle.
+   *
+   * @param conn - a connection in the not in use state
+   */
+  public void requite(PooledConnection conn) {
+    sharedList.add(conn);
+    List<PooledConnection> list = threadList.get();
+    if (list.size() == THREAD_LIST_SIZE) {
+      list.remove(0);
+    }
+    list.add(conn);
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (conn.getState() != PooledConnection.STATE_NOT_IN_USE || handoffQueue.offer(conn)) {
+        return;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  /*
+   * Reserves room for one more idle connection
+   *
+   * @param maximumIdle - the maximum number of idle connections
+   * @return True if there was room
+   */
+  public boolean reserveIdle(int maximumIdle) {
+    for (;;) {
+      int current = idleCount.get();
+      if (current >= maximumIdle) {
+        return false;
+      }
+      if (idleCount.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Gives back a slot obtained with reserveIdle that ended up unused
+   */
+  public void releaseIdle() {
+    idleCount.decrementAndGet();
+  }
+
+  /*
+   * Claims one specific idle connection, used by the pool housekeeper
+   *
+   * @param conn - a connection obtained from idleSnapshot
+   * @return True if the connection was still idle and is now owned by the caller
+   */
+  public boolean claimIdle(PooledConnection conn) {
+    if (claim(conn)) {
+      sharedList.remove(conn);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Puts back an idle connection taken with claimIdle. A slot must have been reserved with reserveIdle.
+   *
+   * @param conn - a connection in the in use state that was never handed out
+   */
+  public void restoreIdle(PooledConnection conn) {
+    conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_NOT_IN_USE);
+    requite(conn);
+  }
+
+  /*
+   * Reserves room for one more active connection
+   *
+   * @param maximumActive - the maximum number of active connections
+   * @return True if there was room
+   */
+  public boolean reserveActive(int maximumActive) {
+    for (;;) {
+      int current = activeCount.get();
+      if (current >= maximumActive) {
+        return false;
+      }
+      if (activeCount.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Gives back a slot obtained with reserveActive that ended up unused
+   */
+  public void releaseActive() {
+    activeCount.decrementAndGet();
+  }
+
+  /*
+   * Registers a connection that has been handed out. Connections claimed through
+   * borrow or await take their active slot here, newly created ones already hold one.
+   */
+  public void addActive(PooledConnection conn, boolean slotReserved) {
+    if (!slotReserved) {
+      activeCount.incrementAndGet();
+    }
+    activeConnections.add(conn);
+  }
+
+  /*
+   * Unregisters a connection that is no longer handed out
+   */
+  public void removeActive(PooledConnection conn) {
+    if (activeConnections.remove(conn)) {
+      activeCount.decrementAndGet();
+    }
+  }
+
+  /*
+   * Finds the active connection that has been checked out for the longest time
+   *
+   * @return The connection or null if there are no active connections
+   */
+  public PooledConnection oldestActive() {
+    PooledConnection oldest = null;
+    for (PooledConnection conn : activeConnections) {
+      if (oldest == null || conn.getCheckoutTimestamp() < oldest.getCheckoutTimestamp()) {
+        oldest = conn;
+      }
+    }
+    return oldest;
+  }
+
+  public List<PooledConnection> idleSnapshot() {
+    List<PooledConnection> snapshot = new ArrayList<PooledConnection>();
+    for (PooledConnection conn : sharedList) {
+      if (conn.getState() == PooledConnection.STATE_NOT_IN_USE) {
+        snapshot.add(conn);
+      }
+    }
+    return snapshot;
+  }
+
+  public List<PooledConnection> activeSnapshot() {
+    return new ArrayList<PooledConnection>(activeConnections);
+  }
+
+  /*
+   * Removes all the idle connections from the bag
+   *
+   * @return The removed connections, already marked as removed
+   */
+  public List<PooledConnection> drainIdle() {
+    List<PooledConnection> drained = new ArrayList<PooledConnection>();
+    PooledConnection conn;
+    while ((conn = sharedList.poll()) != null) {
+      if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_REMOVED)) {
+        idleCount.decrementAndGet();
+        drained.add(conn);
+      }
+    }
+    return drained;
+  }
+
+  /*
+   * Removes all the active connections from the bag
+   *
+   * @return The removed connections, already marked as removed
+   */
+  public List<PooledConnection> drainActive() {
+    List<PooledConnection> drained = new ArrayList<PooledConnection>();
+    for (PooledConnection conn : activeConnections) {
+      if (conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)) {
+        removeActive(conn);
+        drained.add(conn);
+      }
+    }
+    return drained;
+  }
+
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+  public int getActiveCount() {
+    return activeCount.get();
+  }
+
+  public int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  private boolean claim(PooledConnection conn) {
+    if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+      idleCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+}
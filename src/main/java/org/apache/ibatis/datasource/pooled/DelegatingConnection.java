@@ -0,0 +1,486 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The connection handed out by a {@link PooledDataSource}.
+ * <p>
+ * Every call goes straight to the real connection once the pooled connection is known to be valid,
+ * only {@link #close()} is intercepted to return the connection to the pool. Statements created
+ * through this connection are remembered and closed when the connection is returned.
+ * <p>
+ * JDBC 4.1 methods are invoked reflectively so the class still runs on Java 6.
+ */
+final class DelegatingConnection implements Connection {
+
+  private static final int STATEMENT_PRUNE_THRESHOLD = 32;
+
+  private final PooledConnection pooledConnection;
+  private final Connection realConnection;
+  private List<Statement> openStatements;
+
+  DelegatingConnection(PooledConnection pooledConnection, Connection realConnection) {
+    this.pooledConnection = pooledConnection;
+    this.realConnection = realConnection;
+  }
+
+  PooledConnection getPooledConnection() {
+    return pooledConnection;
+  }
+
+  Connection getRealConnection() {
+    return realConnection;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    closeOpenStatements();
+    pooledConnection.getDataSource().pushConnection(pooledConnection);
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return !pooledConnection.isUsable() || realConnection.isClosed();
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.createStatement());
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.createStatement(resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.of(sql));
+    }
+    return track(realConnection.prepareStatement(sql));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.of(sql, resultSetType, resultSetConcurrency));
+    }
+    return track(realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.of(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+    return track(realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.withGeneratedKeys(sql, autoGeneratedKeys));
+    }
+    return track(realConnection.prepareStatement(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.withGeneratedKeys(sql, columnIndexes));
+    }
+    return track(realConnection.prepareStatement(sql, columnIndexes));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return prepareCached(cache, StatementCache.Key.withGeneratedKeys(sql, columnNames));
+    }
+    return track(realConnection.prepareStatement(sql, columnNames));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.prepareCall(sql));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.prepareCall(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    pooledConnection.checkConnection();
+    return track(realConnection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.rollback();
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.rollback(savepoint);
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.clearWarnings();
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.setSavepoint(name);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createSQLXML();
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isValid(timeout);
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    realConnection.setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    realConnection.setClientInfo(properties);
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createStruct(typeName, attributes);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isWrapperFor(iface);
+  }
+
+  public void setSchema(String schema) throws SQLException {
+    invokeJdbc41("setSchema", new Class<?>[] { String.class }, schema);
+  }
+
+  public String getSchema() throws SQLException {
+    return (String) invokeJdbc41("getSchema", new Class<?>[0]);
+  }
+
+  public void abort(Executor executor) throws SQLException {
+    invokeJdbc41("abort", new Class<?>[] { Executor.class }, executor);
+  }
+
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    invokeJdbc41("setNetworkTimeout", new Class<?>[] { Executor.class, int.class }, executor, milliseconds);
+  }
+
+  public int getNetworkTimeout() throws SQLException {
+    return (Integer) invokeJdbc41("getNetworkTimeout", new Class<?>[0]);
+  }
+
+  @Override
+  public int hashCode() {
+    return realConnection.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return realConnection.equals(obj);
+  }
+
+  @Override
+  public String toString() {
+    // issue #579 toString() should never fail
+    return realConnection.toString();
+  }
+
+  private PreparedStatement prepareCached(StatementCache cache, StatementCache.Key key) throws SQLException {
+    return track(new CachedPreparedStatement(cache.take(key, realConnection), key, cache, this));
+  }
+
+  private <T extends Statement> T track(T statement) {
+    if (openStatements == null) {
+      openStatements = new ArrayList<Statement>();
+    } else if (openStatements.size() >= STATEMENT_PRUNE_THRESHOLD) {
+      pruneClosedStatements();
+    }
+    openStatements.add(statement);
+    return statement;
+  }
+
+  private void pruneClosedStatements() {
+    for (int i = openStatements.size() - 1; i >= 0; i--) {
+      try {
+        if (openStatements.get(i).isClosed()) {
+          openStatements.remove(i);
+        }
+      } catch (SQLException e) {
+        openStatements.remove(i);
+      }
+    }
+  }
+
+  private void closeOpenStatements() {
+    if (openStatements == null) {
+      return;
+    }
+    for (Statement statement : openStatements) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    openStatements = null;
+  }
+
+  private Object invokeJdbc41(String methodName, Class<?>[] parameterTypes, Object... args) throws SQLException {
+    pooledConnection.checkConnection();
+    try {
+      Method method = Connection.class.getMethod(methodName, parameterTypes);
+      return method.invoke(realConnection, args);
+    } catch (NoSuchMethodException e) {
+      throw new SQLException("Method " + methodName + " requires JDBC 4.1", e);
+    } catch (IllegalAccessException e) {
+      throw new SQLException("Could not invoke " + methodName, e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = ExceptionUtil.unwrapThrowable(e);
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    }
+  }
+
+}
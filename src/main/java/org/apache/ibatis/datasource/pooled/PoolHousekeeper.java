@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Periodically runs the maintenance of a {@link PooledDataSource} on a shared daemon thread.
+ * <p>
+ * Only a weak reference to the data source is kept, so an abandoned pool can still be
+ * garbage collected. The task cancels itself once its pool is gone.
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+  }
+
+  public static PoolHousekeeper start(PooledDataSource dataSource, long period) {
+    PoolHousekeeper housekeeper = new PoolHousekeeper(dataSource);
+    housekeeper.future = EXECUTOR.scheduleWithFixedDelay(housekeeper, 0, period, TimeUnit.MILLISECONDS);
+    return housekeeper;
+  }
+
+  public void stop() {
+    ScheduledFuture<?> scheduled = future;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource ds = dataSource.get();
+    if (ds == null) {
+      stop();
+      return;
+    }
+    try {
+      ds.housekeep();
+    } catch (Exception e) {
+      // never let an exception cancel the periodic task
+      log.warn("Pool housekeeping failed: " + e.getMessage());
+    }
+  }
+
+}
@@ -17,6 +17,9 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Clinton Begin
@@ -27,6 +30,10 @@ public class PoolState {
 
   protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
+  final ConcurrentBag concurrentBag = new ConcurrentBag();
+  /** Guards the idle and active lists, waiting on it parks the thread instead of holding a monitor */
+  final ReentrantLock lock = new ReentrantLock();
+  final Condition connectionAvailable = lock.newCondition();
   protected long requestCount = 0;
   protected long accumulatedRequestTime = 0;//累计请求时间
   protected long accumulatedCheckoutTime = 0;
@@ -35,55 +42,114 @@ public class PoolState {
   protected long accumulatedWaitTime = 0;//累计等待时间
   protected long hadToWaitCount = 0;
   protected long badConnectionCount = 0;
+  /*
+   * The counters are updated by threads that do not hold the lock in the lock free mode, so they are kept in
+   * atomics and the protected fields above only mirror their last value
+   */
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong requestTime = new AtomicLong();
+  private final AtomicLong checkoutTime = new AtomicLong();
+  private final AtomicLong overdueClaims = new AtomicLong();
+  private final AtomicLong overdueCheckoutTime = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong badConnections = new AtomicLong();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  void recordRequest(long time) {
+    requestCount = requests.incrementAndGet();
+    accumulatedRequestTime = requestTime.addAndGet(time);
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  void recordCheckout(long time) {
+    accumulatedCheckoutTime = checkoutTime.addAndGet(time);
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  void recordOverdueClaim(long time) {
+    claimedOverdueConnectionCount = overdueClaims.incrementAndGet();
+    accumulatedCheckoutTimeOfOverdueConnections = overdueCheckoutTime.addAndGet(time);
+    recordCheckout(time);
+  }
+
+  void recordWait() {
+    hadToWaitCount = waits.incrementAndGet();
+  }
+
+  void recordWaitTime(long time) {
+    accumulatedWaitTime = waitTime.addAndGet(time);
+  }
+
+  void recordBadConnection() {
+    badConnectionCount = badConnections.incrementAndGet();
+  }
+
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public long getAverageRequestTime() {
+    long count = requests.get();
+    return count == 0 ? 0 : requestTime.get() / count;
+  }
+
+  public long getAverageWaitTime() {
+    long count = waits.get();
+    return count == 0 ? 0 : waitTime.get() / count;
 
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getHadToWaitCount() {
+    return waits.get();
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getBadConnectionCount() {
+    return badConnections.get();
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getClaimedOverdueConnectionCount() {
+    return overdueClaims.get();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = overdueClaims.get();
+    return claimed == 0 ? 0 : overdueCheckoutTime.get() / claimed;
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getAverageCheckoutTime() {
+    long count = requests.get();
+    return count == 0 ? 0 : checkoutTime.get() / count;
   }
 
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  public int getIdleConnectionCount() {
+    if (dataSource.poolLockFreeEnabled) {
+      return concurrentBag.getIdleCount();
+    }
+    lock.lock();
+    try {
+      return idleConnections.size();
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  public int getActiveConnectionCount() {
+    if (dataSource.poolLockFreeEnabled) {
+      return concurrentBag.getActiveCount();
+    }
+    lock.lock();
+    try {
+      return activeConnections.size();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -97,6 +163,7 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolLockFreeEnabled            ").append(dataSource.poolLockFreeEnabled);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
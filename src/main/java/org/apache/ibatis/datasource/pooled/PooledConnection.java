@@ -15,21 +15,18 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Clinton Begin
  */
-class PooledConnection implements InvocationHandler {
+class PooledConnection {
 
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+  static final int STATE_REMOVED = -1;
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
 
   private int hashCode = 0;
   private PooledDataSource dataSource;
@@ -38,8 +35,13 @@ class PooledConnection implements InvocationHandler {
   private long checkoutTimestamp;//最新获取的时间
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  private volatile long lastValidatedTimestamp;
+  private Throwable checkoutStackTrace;
+  private volatile boolean leakReported;
+  private StatementCache statementCache;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -54,7 +56,7 @@ class PooledConnection implements InvocationHandler {
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.proxyConnection = new DelegatingConnection(this, connection);
   }
 
   /*
@@ -64,6 +66,26 @@ class PooledConnection implements InvocationHandler {
     valid = false;
   }
 
+  /*
+   * Getter for the state of the connection in a lock free pool
+   *
+   * @return One of STATE_NOT_IN_USE, STATE_IN_USE or STATE_REMOVED
+   */
+  public int getState() {
+    return state.get();
+  }
+
+  /*
+   * Atomically moves the connection from one lock free pool state to another
+   *
+   * @param expect - the expected current state
+   * @param update - the new state
+   * @return True if the state was changed
+   */
+  public boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
   /*
    * Method to see if the connection is usable
    *
@@ -73,6 +95,24 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Method to see if the connection has not been invalidated, without pinging it
+   *
+   * @return True if the connection was not invalidated
+   */
+  public boolean isUsable() {
+    return valid;
+  }
+
+  /*
+   * Getter for the data source that the connection is from
+   *
+   * @return The data source
+   */
+  public PooledDataSource getDataSource() {
+    return dataSource;
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -83,9 +123,9 @@ class PooledConnection implements InvocationHandler {
   }
 
   /*
-   * Getter for the proxy for the connection
+   * Getter for the connection handed out to the application
    *
-   * @return The proxy
+   * @return The delegating connection
    */
   public Connection getProxyConnection() {
     return proxyConnection;
@@ -154,6 +194,85 @@ class PooledConnection implements InvocationHandler {
     this.lastUsedTimestamp = lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time that the connection was last validated by the pool housekeeper
+   *
+   * @return - the timestamp
+   */
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  /*
+   * Setter for the time that the connection was last validated by the pool housekeeper
+   *
+   * @param lastValidatedTimestamp - the timestamp
+   */
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
+  /*
+   * Getter for the prepared statement cache of the real connection
+   *
+   * @return - the cache or null if statement caching is disabled
+   */
+  public synchronized StatementCache getStatementCache() {
+    if (statementCache == null && dataSource.getPoolPreparedStatementCacheSize() > 0) {
+      statementCache = new StatementCache(dataSource.getPoolPreparedStatementCacheSize());
+    }
+    return statementCache;
+  }
+
+  /*
+   * Setter for the prepared statement cache of the real connection
+   *
+   * @param statementCache - the cache
+   */
+  public synchronized void setStatementCache(StatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /*
+   * Getter for the time since this connection was last used or validated
+   *
+   * @return - the time since the last use or validation
+   */
+  public long getTimeElapsedSinceLastCheck() {
+    return System.currentTimeMillis() - Math.max(lastUsedTimestamp, lastValidatedTimestamp);
+  }
+
+  /*
+   * Getter for the stack trace of the thread that checked out this connection
+   *
+   * @return the stack trace or null if leak detection is disabled
+   */
+  public Throwable getCheckoutStackTrace() {
+    return checkoutStackTrace;
+  }
+
+  /*
+   * Setter for the stack trace of the thread that checked out this connection
+   *
+   * @param checkoutStackTrace - the stack trace
+   */
+  public void setCheckoutStackTrace(Throwable checkoutStackTrace) {
+    this.checkoutStackTrace = checkoutStackTrace;
+  }
+
+  /*
+   * Determines if this connection has already been reported as leaked
+   *
+   * @return True if it was reported
+   */
+  public boolean isLeakReported() {
+    return leakReported;
+  }
+
+  public void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
   /*
    * Getter for the time since this connection was last used
    *
@@ -221,37 +340,7 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
-  /*
-   * Required for InvocationHandler implementation.
-   *
-   * @param proxy  - not used
-   * @param method - the method to be executed
-   * @param args   - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
-   * 当关闭连接的时候 返还给线程池
-   * 其他任意方法都在判断连接可用后(保证每个连接只使用一次) 直接调用被代理的方法
-   */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
-      dataSource.pushConnection(this);
-      return null;
-    } else {
-      try {
-        if (!Object.class.equals(method.getDeclaringClass())) {
-          // issue #579 toString() should never fail
-          // throw an SQLException instead of a Runtime
-          checkConnection();
-        }
-        return method.invoke(realConnection, args);
-      } catch (Throwable t) {
-        throw ExceptionUtil.unwrapThrowable(t);
-      }
-    }
-  }
-
-  private void checkConnection() throws SQLException {
+  void checkConnection() throws SQLException {
     if (!valid) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
     }
@@ -16,14 +16,16 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.io.StringWriter;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -33,7 +35,8 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
- * This is a simple, synchronous, thread-safe database connection pool.
+ * This is a simple, synchronous, thread-safe database connection pool. Waiting for a connection parks the
+ * thread on a lock condition rather than a monitor.
  *
  * @author Clinton Begin 每次变更的信息（driver username之类）都会关闭原有连接 
  * 每次获取连接返回后 都会重新包装数据库连接到空闲队列 原有包装的连接设为无效（保证每个连接只用一次）
@@ -54,9 +57,19 @@ public class PooledDataSource implements DataSource {
 	protected String poolPingQuery = "NO PING QUERY SET";
 	protected boolean poolPingEnabled = false;
 	protected int poolPingConnectionsNotUsedFor = 0;
+	protected boolean poolLockFreeEnabled = false;
+	protected int poolMinimumIdleConnections = 0;
+	protected long poolMaximumLifetime = 0;
+	protected long poolIdleTimeout = 0;
+	protected int poolValidationTimeout = 5;
+	protected long poolLeakDetectionThreshold = 0;
+	protected int poolPreparedStatementCacheSize = 0;
+	protected long poolHousekeepingPeriod = 0;
 
 	private int expectedConnectionTypeCode;
 
+	private volatile PoolHousekeeper housekeeper;
+
 	public PooledDataSource() {
 		dataSource = new UnpooledDataSource();
 	}
@@ -243,6 +256,95 @@ public class PooledDataSource implements DataSource {
 		forceCloseAll();
 	}
 
+	/*
+	 * Determines if connections are handed out through a lock free concurrent
+	 * bag instead of the locked pool state.
+	 * 
+	 * @param poolLockFreeEnabled True to use the lock free pool
+	 */
+	public void setPoolLockFreeEnabled(boolean poolLockFreeEnabled) {
+		forceCloseAll();
+		this.poolLockFreeEnabled = poolLockFreeEnabled;
+	}
+
+	/*
+	 * The number of idle connections the housekeeper creates at startup and
+	 * keeps available afterwards
+	 * 
+	 * @param poolMinimumIdleConnections The minimum number of idle connections
+	 */
+	public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+		this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+		forceCloseAll();
+	}
+
+	/*
+	 * The maximum time a physical connection is kept open, 0 for no limit
+	 * 
+	 * @param poolMaximumLifetime The maximum lifetime in milliseconds
+	 */
+	public void setPoolMaximumLifetime(long poolMaximumLifetime) {
+		this.poolMaximumLifetime = poolMaximumLifetime;
+		forceCloseAll();
+	}
+
+	/*
+	 * The time an idle connection above the minimum may stay unused before the
+	 * housekeeper closes it, 0 to never close them
+	 * 
+	 * @param poolIdleTimeout The idle timeout in milliseconds
+	 */
+	public void setPoolIdleTimeout(long poolIdleTimeout) {
+		this.poolIdleTimeout = poolIdleTimeout;
+		forceCloseAll();
+	}
+
+	/*
+	 * The time the housekeeper waits for Connection.isValid when no ping query
+	 * is enabled
+	 * 
+	 * @param poolValidationTimeout The timeout in seconds
+	 */
+	public void setPoolValidationTimeout(int poolValidationTimeout) {
+		this.poolValidationTimeout = poolValidationTimeout;
+		forceCloseAll();
+	}
+
+	/*
+	 * The time a connection can be checked out before the housekeeper logs it
+	 * as a possible leak together with the stack trace of the checkout, 0 to
+	 * disable leak detection
+	 * 
+	 * @param poolLeakDetectionThreshold The threshold in milliseconds
+	 */
+	public void setPoolLeakDetectionThreshold(long poolLeakDetectionThreshold) {
+		this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+		forceCloseAll();
+	}
+
+	/*
+	 * The number of idle prepared statements cached per physical connection,
+	 * 0 to disable statement caching
+	 * 
+	 * @param poolPreparedStatementCacheSize The number of statements
+	 */
+	public void setPoolPreparedStatementCacheSize(
+			int poolPreparedStatementCacheSize) {
+		this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+		forceCloseAll();
+	}
+
+	/*
+	 * How often the housekeeper runs, 0 to disable the housekeeper
+	 * 
+	 * @param poolHousekeepingPeriod The period in milliseconds
+	 */
+	public void setPoolHousekeepingPeriod(long poolHousekeepingPeriod) {
+		this.poolHousekeepingPeriod = poolHousekeepingPeriod;
+		stopHousekeeping();
+		forceCloseAll();
+	}
+
 	public String getDriver() {
 		return dataSource.getDriver();
 	}
@@ -299,11 +401,44 @@ public class PooledDataSource implements DataSource {
 		return poolPingConnectionsNotUsedFor;
 	}
 
+	public boolean isPoolLockFreeEnabled() {
+		return poolLockFreeEnabled;
+	}
+
+	public int getPoolMinimumIdleConnections() {
+		return poolMinimumIdleConnections;
+	}
+
+	public long getPoolMaximumLifetime() {
+		return poolMaximumLifetime;
+	}
+
+	public long getPoolIdleTimeout() {
+		return poolIdleTimeout;
+	}
+
+	public int getPoolValidationTimeout() {
+		return poolValidationTimeout;
+	}
+
+	public long getPoolLeakDetectionThreshold() {
+		return poolLeakDetectionThreshold;
+	}
+
+	public int getPoolPreparedStatementCacheSize() {
+		return poolPreparedStatementCacheSize;
+	}
+
+	public long getPoolHousekeepingPeriod() {
+		return poolHousekeepingPeriod;
+	}
+
 	/*
 	 * Closes all active and idle connections in the pool 强制移除并关闭所有连接
 	 */
 	public void forceCloseAll() {
-		synchronized (state) {
+		state.lock.lock();
+		try {
 			expectedConnectionTypeCode = assembleConnectionTypeCode(
 					dataSource.getUrl(), dataSource.getUsername(),
 					dataSource.getPassword());
@@ -336,12 +471,34 @@ public class PooledDataSource implements DataSource {
 					// ignore
 				}
 			}
+		} finally {
+			state.lock.unlock();
+		}
+		for (PooledConnection conn : state.concurrentBag.drainActive()) {
+			closeRemoved(conn);
+		}
+		for (PooledConnection conn : state.concurrentBag.drainIdle()) {
+			closeRemoved(conn);
 		}
 		if (log.isDebugEnabled()) {
 			log.debug("PooledDataSource forcefully closed/removed all connections.");
 		}
 	}
 
+	private void closeRemoved(PooledConnection conn) {
+		try {
+			conn.invalidate();
+
+			Connection realConn = conn.getRealConnection();
+			if (!realConn.getAutoCommit()) {
+				realConn.rollback();
+			}
+			realConn.close();
+		} catch (Exception e) {
+			// ignore
+		}
+	}
+
 	public PoolState getPoolState() {
 		return state;
 	}
@@ -358,13 +515,19 @@ public class PooledDataSource implements DataSource {
 	 * @throws SQLException
 	 */
 	protected void pushConnection(PooledConnection conn) throws SQLException {
+		if (poolLockFreeEnabled) {
+			pushConnectionLockFree(conn);
+			return;
+		}
 
-		synchronized (state) {
+		state.lock.lock();
+		try {
 			state.activeConnections.remove(conn);
 			if (conn.isValid()) {
 				if (state.idleConnections.size() < poolMaximumIdleConnections
-						&& conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-					state.accumulatedCheckoutTime += conn.getCheckoutTime();
+						&& conn.getConnectionTypeCode() == expectedConnectionTypeCode
+						&& !isExpired(conn)) {
+					state.recordCheckout(conn.getCheckoutTime());
 					if (!conn.getRealConnection().getAutoCommit()) {
 						conn.getRealConnection().rollback();
 					}
@@ -373,14 +536,17 @@ public class PooledDataSource implements DataSource {
 					state.idleConnections.add(newConn);
 					newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
 					newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+					newConn.setLastValidatedTimestamp(conn
+							.getLastValidatedTimestamp());
+					newConn.setStatementCache(conn.getStatementCache());
 					conn.invalidate();
 					if (log.isDebugEnabled()) {
 						log.debug("Returned connection "
 								+ newConn.getRealHashCode() + " to pool.");
 					}
-					state.notifyAll();// 唤醒可能在等待的线程
+					state.connectionAvailable.signalAll();// 唤醒可能在等待的线程
 				} else {
-					state.accumulatedCheckoutTime += conn.getCheckoutTime();
+					state.recordCheckout(conn.getCheckoutTime());
 					if (!conn.getRealConnection().getAutoCommit()) {
 						conn.getRealConnection().rollback();
 					}
@@ -397,8 +563,10 @@ public class PooledDataSource implements DataSource {
 							+ conn.getRealHashCode()
 							+ ") attempted to return to the pool, discarding connection.");
 				}
-				state.badConnectionCount++;
+				state.recordBadConnection();
 			}
+		} finally {
+			state.lock.unlock();
 		}
 	}
 
@@ -412,13 +580,20 @@ public class PooledDataSource implements DataSource {
 	 */
 	private PooledConnection popConnection(String username, String password)
 			throws SQLException {
+		if (poolHousekeepingPeriod > 0 && housekeeper == null) {
+			startHousekeeping();
+		}
+		if (poolLockFreeEnabled) {
+			return popConnectionLockFree(username, password);
+		}
 		boolean countedWait = false;
 		PooledConnection conn = null;
 		long t = System.currentTimeMillis();
 		int localBadConnectionCount = 0;
 
 		while (conn == null) {// 如果获取的连接没有获取到或者是无效的 且可以继续获取 循环获取连接
-			synchronized (state) {
+			state.lock.lock();
+			try {
 				if (!state.idleConnections.isEmpty()) {
 					// Pool has available connection
 					conn = state.idleConnections.remove(0);
@@ -445,9 +620,7 @@ public class PooledDataSource implements DataSource {
 								.getCheckoutTime();
 						if (longestCheckoutTime > poolMaximumCheckoutTime) {// 如果连接获取使用的时间超时了
 							// Can claim overdue connection
-							state.claimedOverdueConnectionCount++;
-							state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-							state.accumulatedCheckoutTime += longestCheckoutTime;
+							state.recordOverdueClaim(longestCheckoutTime);
 							state.activeConnections
 									.remove(oldestActiveConnection);
 							if (!oldestActiveConnection.getRealConnection()
@@ -462,6 +635,8 @@ public class PooledDataSource implements DataSource {
 							conn = new PooledConnection(
 									oldestActiveConnection.getRealConnection(),
 									this);// 重新封装下
+							conn.setStatementCache(oldestActiveConnection
+									.getStatementCache());
 							oldestActiveConnection.invalidate();// 废弃老的
 							if (log.isDebugEnabled()) {
 								log.debug("Claimed overdue connection "
@@ -471,7 +646,7 @@ public class PooledDataSource implements DataSource {
 							// Must wait
 							try {
 								if (!countedWait) {
-									state.hadToWaitCount++;
+									state.recordWait();
 									countedWait = true;
 								}
 								if (log.isDebugEnabled()) {
@@ -480,9 +655,12 @@ public class PooledDataSource implements DataSource {
 											+ " milliseconds for connection.");
 								}
 								long wt = System.currentTimeMillis();
-								state.wait(poolTimeToWait);
-								state.accumulatedWaitTime += System
-										.currentTimeMillis() - wt;
+								if (poolTimeToWait > 0) {
+									state.connectionAvailable.await(poolTimeToWait, TimeUnit.MILLISECONDS);
+								} else {
+									state.connectionAvailable.await();
+								}
+								state.recordWaitTime(System.currentTimeMillis() - wt);
 							} catch (InterruptedException e) {
 								break;
 							}
@@ -498,17 +676,16 @@ public class PooledDataSource implements DataSource {
 								dataSource.getUrl(), username, password));
 						conn.setCheckoutTimestamp(System.currentTimeMillis());// 设置获取的时间
 						conn.setLastUsedTimestamp(System.currentTimeMillis());
+						recordCheckoutStackTrace(conn);
 						state.activeConnections.add(conn);
-						state.requestCount++;
-						state.accumulatedRequestTime += System
-								.currentTimeMillis() - t;
+						state.recordRequest(System.currentTimeMillis() - t);
 					} else {
 						if (log.isDebugEnabled()) {
 							log.debug("A bad connection ("
 									+ conn.getRealHashCode()
 									+ ") was returned from the pool, getting another connection.");
 						}
-						state.badConnectionCount++;
+						state.recordBadConnection();
 						localBadConnectionCount++;
 						conn = null;
 						if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
@@ -520,6 +697,8 @@ public class PooledDataSource implements DataSource {
 						}
 					}
 				}
+			} finally {
+				state.lock.unlock();
 			}
 
 		}
@@ -535,6 +714,447 @@ public class PooledDataSource implements DataSource {
 		return conn;
 	}
 
+	/**
+	 * 无锁模式下把连接返还给连接池 谁先把连接状态从使用中改掉谁就拥有这个连接
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	private void pushConnectionLockFree(PooledConnection conn)
+			throws SQLException {
+		ConcurrentBag bag = state.concurrentBag;
+		if (!conn.compareAndSetState(PooledConnection.STATE_IN_USE,
+				PooledConnection.STATE_REMOVED)) {
+			// already claimed as overdue or closed by forceCloseAll
+			if (log.isDebugEnabled()) {
+				log.debug("A bad connection ("
+						+ conn.getRealHashCode()
+						+ ") attempted to return to the pool, discarding connection.");
+			}
+			state.recordBadConnection();
+			return;
+		}
+		bag.removeActive(conn);
+		if (conn.isValid()) {
+			state.recordCheckout(conn.getCheckoutTime());
+			if (!conn.getRealConnection().getAutoCommit()) {
+				conn.getRealConnection().rollback();
+			}
+			if (conn.getConnectionTypeCode() == expectedConnectionTypeCode
+					&& !isExpired(conn) && bag.reserveIdle(poolMaximumIdleConnections)) {
+				PooledConnection newConn = new PooledConnection(
+						conn.getRealConnection(), this);
+				newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+				newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+				newConn.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
+				newConn.setStatementCache(conn.getStatementCache());
+				conn.invalidate();
+				bag.requite(newConn);
+				if (log.isDebugEnabled()) {
+					log.debug("Returned connection " + newConn.getRealHashCode()
+							+ " to pool.");
+				}
+			} else {
+				conn.getRealConnection().close();
+				if (log.isDebugEnabled()) {
+					log.debug("Closed connection " + conn.getRealHashCode() + ".");
+				}
+				conn.invalidate();
+			}
+		} else {
+			if (log.isDebugEnabled()) {
+				log.debug("A bad connection ("
+						+ conn.getRealHashCode()
+						+ ") attempted to return to the pool, discarding connection.");
+			}
+			state.recordBadConnection();
+		}
+	}
+
+	/**
+	 * 无锁模式下获取连接 依次尝试空闲连接、新建连接、回收超时连接 最后在交接队列上等待
+	 * 
+	 * @param username
+	 * @param password
+	 * @return
+	 * @throws SQLException
+	 */
+	private PooledConnection popConnectionLockFree(String username,
+			String password) throws SQLException {
+		ConcurrentBag bag = state.concurrentBag;
+		boolean countedWait = false;
+		long t = System.currentTimeMillis();
+		int localBadConnectionCount = 0;
+
+		while (true) {
+			boolean slotReserved = false;
+			PooledConnection conn = bag.borrow();
+			if (conn != null) {
+				if (log.isDebugEnabled()) {
+					log.debug("Checked out connection " + conn.getRealHashCode()
+							+ " from pool.");
+				}
+			} else if (bag.reserveActive(poolMaximumActiveConnections)) {
+				slotReserved = true;
+				try {
+					conn = new PooledConnection(dataSource.getConnection(), this);
+				} catch (SQLException e) {
+					bag.releaseActive();
+					throw e;
+				} catch (RuntimeException e) {
+					bag.releaseActive();
+					throw e;
+				}
+				conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE,
+						PooledConnection.STATE_IN_USE);
+				if (log.isDebugEnabled()) {
+					log.debug("Created connection " + conn.getRealHashCode() + ".");
+				}
+			} else {
+				conn = claimOverdueConnection(bag);
+				if (conn == null) {
+					try {
+						if (!countedWait) {
+							state.recordWait();
+							countedWait = true;
+						}
+						if (log.isDebugEnabled()) {
+							log.debug("Waiting as long as " + poolTimeToWait
+									+ " milliseconds for connection.");
+						}
+						long wt = System.currentTimeMillis();
+						conn = bag.await(poolTimeToWait);
+						state.recordWaitTime(System.currentTimeMillis() - wt);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					if (conn == null) {
+						continue;
+					}
+				}
+			}
+
+			if (conn.isValid()) {
+				if (!conn.getRealConnection().getAutoCommit()) {
+					conn.getRealConnection().rollback();
+				}
+				conn.setConnectionTypeCode(assembleConnectionTypeCode(
+						dataSource.getUrl(), username, password));
+				conn.setCheckoutTimestamp(System.currentTimeMillis());
+				conn.setLastUsedTimestamp(System.currentTimeMillis());
+				recordCheckoutStackTrace(conn);
+				bag.addActive(conn, slotReserved);
+				state.recordRequest(System.currentTimeMillis() - t);
+				return conn;
+			}
+
+			if (log.isDebugEnabled()) {
+				log.debug("A bad connection ("
+						+ conn.getRealHashCode()
+						+ ") was returned from the pool, getting another connection.");
+			}
+			conn.compareAndSetState(PooledConnection.STATE_IN_USE,
+					PooledConnection.STATE_REMOVED);
+			if (slotReserved) {
+				bag.releaseActive();
+			}
+			state.recordBadConnection();
+			localBadConnectionCount++;
+			if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+				if (log.isDebugEnabled()) {
+					log.debug("PooledDataSource: Could not get a good connection to the database.");
+				}
+				throw new SQLException(
+						"PooledDataSource: Could not get a good connection to the database.");
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+		}
+		throw new SQLException(
+				"PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+	}
+
+	/**
+	 * 无锁模式下回收使用时间超过poolMaximumCheckoutTime的连接
+	 * 
+	 * @param bag
+	 * @return 重新包装的连接 没有超时连接时返回null
+	 */
+	private PooledConnection claimOverdueConnection(ConcurrentBag bag) {
+		PooledConnection oldestActiveConnection = bag.oldestActive();
+		if (oldestActiveConnection == null) {
+			return null;
+		}
+		long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+		if (longestCheckoutTime <= poolMaximumCheckoutTime
+				|| !oldestActiveConnection.compareAndSetState(
+						PooledConnection.STATE_IN_USE,
+						PooledConnection.STATE_REMOVED)) {
+			return null;
+		}
+		bag.removeActive(oldestActiveConnection);
+		state.recordOverdueClaim(longestCheckoutTime);
+		try {
+			if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+				oldestActiveConnection.getRealConnection().rollback();
+			}
+		} catch (SQLException e) {
+			log.debug("Bad connection. Could not roll back");
+		}
+		PooledConnection conn = new PooledConnection(
+				oldestActiveConnection.getRealConnection(), this);
+		conn.setStatementCache(oldestActiveConnection.getStatementCache());
+		conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE,
+				PooledConnection.STATE_IN_USE);
+		oldestActiveConnection.invalidate();
+		if (log.isDebugEnabled()) {
+			log.debug("Claimed overdue connection " + conn.getRealHashCode()
+					+ ".");
+		}
+		return conn;
+	}
+
+	private boolean isExpired(PooledConnection conn) {
+		return poolMaximumLifetime > 0 && conn.getAge() > poolMaximumLifetime;
+	}
+
+	private void recordCheckoutStackTrace(PooledConnection conn) {
+		if (poolLeakDetectionThreshold > 0) {
+			conn.setCheckoutStackTrace(new Throwable(
+					"Connection checkout stack trace"));
+			conn.setLeakReported(false);
+		}
+	}
+
+	/*
+	 * Starts the background housekeeper if poolHousekeepingPeriod is set. The
+	 * first connection request starts it anyway, calling this method right
+	 * after configuring the pool pre-warms it before any request arrives.
+	 */
+	public synchronized void startHousekeeping() {
+		if (poolHousekeepingPeriod > 0 && housekeeper == null) {
+			housekeeper = PoolHousekeeper.start(this, poolHousekeepingPeriod);
+		}
+	}
+
+	/*
+	 * Stops the background housekeeper, the next connection request starts it
+	 * again
+	 */
+	public synchronized void stopHousekeeping() {
+		if (housekeeper != null) {
+			housekeeper.stop();
+			housekeeper = null;
+		}
+	}
+
+	/**
+	 * 后台维护 关闭超过生命周期或空闲超时的连接 校验空闲连接 补足最小空闲连接 检查连接泄漏
+	 */
+	void housekeep() {
+		for (PooledConnection conn : idleSnapshot()) {
+			maintainIdleConnection(conn);
+		}
+		fillMinimumIdle();
+		if (poolLeakDetectionThreshold > 0) {
+			detectLeaks();
+		}
+	}
+
+	private List<PooledConnection> idleSnapshot() {
+		if (poolLockFreeEnabled) {
+			return state.concurrentBag.idleSnapshot();
+		}
+		state.lock.lock();
+		try {
+			return new ArrayList<PooledConnection>(state.idleConnections);
+		} finally {
+			state.lock.unlock();
+		}
+	}
+
+	/**
+	 * 把空闲连接取出来检查 仍然可用的放回空闲队列 其余的关闭
+	 * 
+	 * @param conn
+	 */
+	private void maintainIdleConnection(PooledConnection conn) {
+		boolean timedOut = poolIdleTimeout > 0
+				&& conn.getTimeElapsedSinceLastUse() > poolIdleTimeout;
+		if (poolLockFreeEnabled) {
+			ConcurrentBag bag = state.concurrentBag;
+			if (!bag.claimIdle(conn)) {
+				return;
+			}
+			timedOut = timedOut && bag.getIdleCount() >= poolMinimumIdleConnections;
+			if (!isExpired(conn) && !timedOut && validate(conn)
+					&& bag.reserveIdle(poolMaximumIdleConnections)) {
+				bag.restoreIdle(conn);
+				return;
+			}
+			conn.compareAndSetState(PooledConnection.STATE_IN_USE,
+					PooledConnection.STATE_REMOVED);
+		} else {
+			state.lock.lock();
+			try {
+				if (!state.idleConnections.remove(conn)) {
+					return;
+				}
+				timedOut = timedOut
+						&& state.idleConnections.size() >= poolMinimumIdleConnections;
+			} finally {
+				state.lock.unlock();
+			}
+			if (!isExpired(conn) && !timedOut && validate(conn)) {
+				state.lock.lock();
+				try {
+					if (state.idleConnections.size() < poolMaximumIdleConnections) {
+						state.idleConnections.add(conn);
+						state.connectionAvailable.signalAll();
+						return;
+					}
+				} finally {
+					state.lock.unlock();
+				}
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Housekeeper evicted connection " + conn.getRealHashCode()
+					+ ".");
+		}
+		closeRemoved(conn);
+	}
+
+	private boolean validate(PooledConnection conn) {
+		Connection realConn = conn.getRealConnection();
+		boolean result;
+		if (poolPingEnabled) {
+			result = executePingQuery(conn);
+		} else {
+			try {
+				result = realConn.isValid(poolValidationTimeout);
+			} catch (SQLException e) {
+				result = false;
+			} catch (AbstractMethodError e) {
+				// pre JDBC 4 driver
+				try {
+					result = !realConn.isClosed();
+				} catch (SQLException e2) {
+					result = false;
+				}
+			}
+		}
+		if (result) {
+			conn.setLastValidatedTimestamp(System.currentTimeMillis());
+		} else {
+			if (log.isDebugEnabled()) {
+				log.debug("Housekeeper found bad connection "
+						+ conn.getRealHashCode() + ".");
+			}
+			state.recordBadConnection();
+		}
+		return result;
+	}
+
+	/**
+	 * 补足最小空闲连接数 新建连接时不持有锁
+	 */
+	private void fillMinimumIdle() {
+		int minimumIdle = Math.min(poolMinimumIdleConnections,
+				poolMaximumIdleConnections);
+		while (true) {
+			PooledConnection conn;
+			if (poolLockFreeEnabled) {
+				ConcurrentBag bag = state.concurrentBag;
+				if (bag.getIdleCount() + bag.getActiveCount() >= poolMaximumActiveConnections
+						|| !bag.reserveIdle(minimumIdle)) {
+					return;
+				}
+				try {
+					conn = newIdleConnection();
+				} catch (SQLException e) {
+					bag.releaseIdle();
+					log.warn("Housekeeper could not create connection: "
+							+ e.getMessage());
+					return;
+				}
+				bag.requite(conn);
+			} else {
+				state.lock.lock();
+				try {
+					if (state.idleConnections.size() >= minimumIdle
+							|| state.idleConnections.size()
+									+ state.activeConnections.size() >= poolMaximumActiveConnections) {
+						return;
+					}
+				} finally {
+					state.lock.unlock();
+				}
+				try {
+					conn = newIdleConnection();
+				} catch (SQLException e) {
+					log.warn("Housekeeper could not create connection: "
+							+ e.getMessage());
+					return;
+				}
+				state.lock.lock();
+				try {
+					if (state.idleConnections.size() < minimumIdle) {
+						state.idleConnections.add(conn);
+						state.connectionAvailable.signalAll();
+						continue;
+					}
+				} finally {
+					state.lock.unlock();
+				}
+				closeRemoved(conn);
+				return;
+			}
+		}
+	}
+
+	private PooledConnection newIdleConnection() throws SQLException {
+		PooledConnection conn = new PooledConnection(dataSource.getConnection(),
+				this);
+		conn.setConnectionTypeCode(expectedConnectionTypeCode);
+		conn.setLastValidatedTimestamp(System.currentTimeMillis());
+		if (log.isDebugEnabled()) {
+			log.debug("Housekeeper created connection " + conn.getRealHashCode()
+					+ ".");
+		}
+		return conn;
+	}
+
+	private void detectLeaks() {
+		List<PooledConnection> active;
+		if (poolLockFreeEnabled) {
+			active = state.concurrentBag.activeSnapshot();
+		} else {
+			state.lock.lock();
+			try {
+				active = new ArrayList<PooledConnection>(state.activeConnections);
+			} finally {
+				state.lock.unlock();
+			}
+		}
+		for (PooledConnection conn : active) {
+			Throwable trace = conn.getCheckoutStackTrace();
+			long checkoutTime = conn.getCheckoutTime();
+			if (trace != null && !conn.isLeakReported()
+					&& checkoutTime > poolLeakDetectionThreshold) {
+				conn.setLeakReported(true);
+				StringWriter writer = new StringWriter();
+				trace.printStackTrace(new PrintWriter(writer));
+				log.warn("Connection leak detection triggered for connection "
+						+ conn.getRealHashCode() + ", checked out for "
+						+ checkoutTime + " milliseconds. " + writer);
+			}
+		}
+	}
+
 	/*
 	 * Method to check to see if a connection is still usable
 	 * 
@@ -558,45 +1178,47 @@ public class PooledDataSource implements DataSource {
 		if (result) {
 			if (poolPingEnabled) {
 				if (poolPingConnectionsNotUsedFor >= 0
-						&& conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-					try {
-						if (log.isDebugEnabled()) {
-							log.debug("Testing connection "
-									+ conn.getRealHashCode() + " ...");
-						}
-						Connection realConn = conn.getRealConnection();
-						Statement statement = realConn.createStatement();
-						ResultSet rs = statement.executeQuery(poolPingQuery);
-						rs.close();
-						statement.close();
-						if (!realConn.getAutoCommit()) {
-							realConn.rollback();
-						}
-						result = true;
-						if (log.isDebugEnabled()) {
-							log.debug("Connection " + conn.getRealHashCode()
-									+ " is GOOD!");
-						}
-					} catch (Exception e) {
-						log.warn("Execution of ping query '" + poolPingQuery
-								+ "' failed: " + e.getMessage());
-						try {
-							conn.getRealConnection().close();
-						} catch (Exception e2) {
-							// ignore
-						}
-						result = false;
-						if (log.isDebugEnabled()) {
-							log.debug("Connection " + conn.getRealHashCode()
-									+ " is BAD: " + e.getMessage());
-						}
-					}
+						&& conn.getTimeElapsedSinceLastCheck() > poolPingConnectionsNotUsedFor) {
+					result = executePingQuery(conn);
 				}
 			}
 		}
 		return result;
 	}
 
+	private boolean executePingQuery(PooledConnection conn) {
+		try {
+			if (log.isDebugEnabled()) {
+				log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+			}
+			Connection realConn = conn.getRealConnection();
+			Statement statement = realConn.createStatement();
+			ResultSet rs = statement.executeQuery(poolPingQuery);
+			rs.close();
+			statement.close();
+			if (!realConn.getAutoCommit()) {
+				realConn.rollback();
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+			}
+			return true;
+		} catch (Exception e) {
+			log.warn("Execution of ping query '" + poolPingQuery + "' failed: "
+					+ e.getMessage());
+			try {
+				conn.getRealConnection().close();
+			} catch (Exception e2) {
+				// ignore
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Connection " + conn.getRealHashCode() + " is BAD: "
+						+ e.getMessage());
+			}
+			return false;
+		}
+	}
+
 	/*
 	 * Unwraps a pooled connection to get to the 'real' connection
 	 * 
@@ -605,16 +1227,14 @@ public class PooledDataSource implements DataSource {
 	 * @return The 'real' connection
 	 */
 	public static Connection unwrapConnection(Connection conn) {
-		if (Proxy.isProxyClass(conn.getClass())) {
-			InvocationHandler handler = Proxy.getInvocationHandler(conn);
-			if (handler instanceof PooledConnection) {
-				return ((PooledConnection) handler).getRealConnection();
-			}
+		if (conn instanceof DelegatingConnection) {
+			return ((DelegatingConnection) conn).getRealConnection();
 		}
 		return conn;
 	}
 
 	protected void finalize() throws Throwable {
+		stopHousekeeping();
 		forceCloseAll();
 		super.finalize();
 	}
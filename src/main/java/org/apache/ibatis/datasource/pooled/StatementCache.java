@@ -0,0 +1,209 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the idle prepared statements of one physical connection.
+ * <p>
+ * A statement is removed from the cache while it is in use and put back when the application closes it,
+ * so two users of the same SQL never share a statement. Statements pushed out of the cache are closed.
+ */
+final class StatementCache {
+
+  private final int size;
+  private final Map<Key, PreparedStatement> idleStatements = new LinkedHashMap<Key, PreparedStatement>();
+  private long hits;
+  private long misses;
+
+  StatementCache(int size) {
+    this.size = size;
+  }
+
+  /*
+   * Takes the cached statement for a key or prepares a new one
+   *
+   * @param key - the sql and options of the statement
+   * @param realConnection - the connection used to prepare a new statement
+   * @return The statement, owned by the caller until released
+   */
+  public PreparedStatement take(Key key, Connection realConnection) throws SQLException {
+    PreparedStatement statement;
+    synchronized (this) {
+      statement = idleStatements.remove(key);
+      if (statement == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+    if (statement != null && !statement.isClosed()) {
+      return statement;
+    }
+    return key.prepare(realConnection);
+  }
+
+  /*
+   * Puts back a statement obtained with take, evicting the least recently used statement if the cache is full
+   *
+   * @param key - the key the statement was taken with
+   * @param statement - the statement
+   */
+  public void release(Key key, PreparedStatement statement) {
+    PreparedStatement evicted = null;
+    synchronized (this) {
+      PreparedStatement previous = idleStatements.put(key, statement);
+      if (previous != null) {
+        evicted = previous;
+      } else if (idleStatements.size() > size) {
+        Iterator<PreparedStatement> eldest = idleStatements.values().iterator();
+        evicted = eldest.next();
+        eldest.remove();
+      }
+    }
+    if (evicted != null) {
+      closeQuietly(evicted);
+    }
+  }
+
+  public synchronized int getSize() {
+    return idleStatements.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  private void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * The sql and the prepareStatement options a cached statement was created with.
+   */
+  static final class Key {
+
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int resultSetHoldability;
+    private final int autoGeneratedKeys;
+    private final int[] columnIndexes;
+    private final String[] columnNames;
+    private final int hashCode;
+
+    private Key(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability, int autoGeneratedKeys,
+        int[] columnIndexes, String[] columnNames) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.resultSetHoldability = resultSetHoldability;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+      this.columnIndexes = columnIndexes;
+      this.columnNames = columnNames;
+      int h = sql.hashCode();
+      h = 31 * h + resultSetType;
+      h = 31 * h + resultSetConcurrency;
+      h = 31 * h + resultSetHoldability;
+      h = 31 * h + autoGeneratedKeys;
+      h = 31 * h + Arrays.hashCode(columnIndexes);
+      h = 31 * h + Arrays.hashCode(columnNames);
+      this.hashCode = h;
+    }
+
+    static Key of(String sql) {
+      return new Key(sql, UNSET, UNSET, UNSET, UNSET, null, null);
+    }
+
+    static Key of(String sql, int resultSetType, int resultSetConcurrency) {
+      return new Key(sql, resultSetType, resultSetConcurrency, UNSET, UNSET, null, null);
+    }
+
+    static Key of(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+      return new Key(sql, resultSetType, resultSetConcurrency, resultSetHoldability, UNSET, null, null);
+    }
+
+    static Key withGeneratedKeys(String sql, int autoGeneratedKeys) {
+      return new Key(sql, UNSET, UNSET, UNSET, autoGeneratedKeys, null, null);
+    }
+
+    static Key withGeneratedKeys(String sql, int[] columnIndexes) {
+      return new Key(sql, UNSET, UNSET, UNSET, UNSET, columnIndexes.clone(), null);
+    }
+
+    static Key withGeneratedKeys(String sql, String[] columnNames) {
+      return new Key(sql, UNSET, UNSET, UNSET, UNSET, null, columnNames.clone());
+    }
+
+    PreparedStatement prepare(Connection connection) throws SQLException {
+      if (columnNames != null) {
+        return connection.prepareStatement(sql, columnNames);
+      } else if (columnIndexes != null) {
+        return connection.prepareStatement(sql, columnIndexes);
+      } else if (autoGeneratedKeys != UNSET) {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+      } else if (resultSetHoldability != UNSET) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+      } else if (resultSetType != UNSET) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      }
+      return connection.prepareStatement(sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hashCode == other.hashCode
+          && resultSetType == other.resultSetType
+          && resultSetConcurrency == other.resultSetConcurrency
+          && resultSetHoldability == other.resultSetHoldability
+          && autoGeneratedKeys == other.autoGeneratedKeys
+          && sql.equals(other.sql)
+          && Arrays.equals(columnIndexes, other.columnIndexes)
+          && Arrays.equals(columnNames, other.columnNames);
+    }
+
+  }
+
+}
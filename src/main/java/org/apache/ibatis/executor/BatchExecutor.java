@@ -17,11 +17,15 @@ package org.apache.ibatis.executor;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -30,12 +34,22 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 /**
+ * Executes updates as JDBC batches when the statements are flushed.
+ * <p>
+ * Consecutive updates with the same mapped statement and sql share a JDBC batch. With
+ * <code>batchGroupingEnabled</code> an update joins the batch of its mapped statement and sql even when other
+ * statements were added since, and the batches are executed in the order they were started. With
+ * <code>batchMultiRowInsertSize</code> the rows of single row inserts are sent as multi-row inserts instead.
+ *
  * @author Jeff Butler 
  */
 public class BatchExecutor extends BaseExecutor {
@@ -44,6 +58,8 @@ public class BatchExecutor extends BaseExecutor {
 
   private final List<Statement> statementList = new ArrayList<Statement>();
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
+  private final List<MultiRowInsert> multiRowInsertList = new ArrayList<MultiRowInsert>();
+  private final Map<StatementKey, Integer> statementIndexes = new HashMap<StatementKey, Integer>();
   private String currentSql;
   private MappedStatement currentStatement;
 
@@ -57,22 +73,41 @@ public class BatchExecutor extends BaseExecutor {
     final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
+    final int last = pendingIndex(configuration, ms, sql);
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
+    if (last >= 0) {
+      BatchResult batchResult = batchResultList.get(last);
+      batchResult.addParameterObject(parameterObject);
+      MultiRowInsert multiRowInsert = multiRowInsertList.get(last);
+      if (multiRowInsert != null) {
+        multiRowInsert.addRow(handler, getConnection(ms.getStatementLog()));
+        return BATCH_UPDATE_RETURN_VALUE;
+      }
       stmt = statementList.get(last);
       applyTransactionTimeout(stmt);
      handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
-      batchResult.addParameterObject(parameterObject);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    //fix Issues 322
+      MultiRowInsert multiRowInsert = newMultiRowInsert(configuration, ms, boundSql);
+      if (multiRowInsert != null) {
+        // the values of the row are bound now and copied into the multi-row statement at flush time
+        multiRowInsert.addRow(handler, getConnection(ms.getStatementLog()));
+        stmt = null;
+      } else {
+        Connection connection = getConnection(ms.getStatementLog());
+        stmt = handler.prepare(connection, transaction.getTimeout());
+        handler.parameterize(stmt);    //fix Issues 322
+      }
       currentSql = sql;
       currentStatement = ms;
+      if (configuration.isBatchGroupingEnabled()) {
+        statementIndexes.put(new StatementKey(ms, sql), statementList.size());
+      }
       statementList.add(stmt);
+      multiRowInsertList.add(multiRowInsert);
       batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      if (multiRowInsert != null) {
+        return BATCH_UPDATE_RETURN_VALUE;
+      }
     }
   // handler.parameterize(stmt);
     handler.batch(stmt);
@@ -116,19 +151,24 @@ public class BatchExecutor extends BaseExecutor {
       }
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
         BatchResult batchResult = batchResultList.get(i);
+        MultiRowInsert multiRowInsert = multiRowInsertList.get(i);
         try {
-          batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
+          if (multiRowInsert != null) {
+            batchResult.setUpdateCounts(executeMultiRowInsert(batchResult, multiRowInsert));
+          } else {
+            applyTransactionTimeout(stmt);
+            batchResult.setUpdateCounts(stmt.executeBatch());
+            MappedStatement ms = batchResult.getMappedStatement();
+            List<Object> parameterObjects = batchResult.getParameterObjects();
+            KeyGenerator keyGenerator = ms.getKeyGenerator();
+            if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+              Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+              jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+            } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+              for (Object parameter : parameterObjects) {
+                keyGenerator.processAfter(this, ms, stmt, parameter);
+              }
             }
           }
         } catch (BatchUpdateException e) {
@@ -155,6 +195,120 @@ public class BatchExecutor extends BaseExecutor {
       currentSql = null;
       statementList.clear();
       batchResultList.clear();
+      multiRowInsertList.clear();
+      statementIndexes.clear();
+    }
+  }
+
+  private int pendingIndex(Configuration configuration, MappedStatement ms, String sql) {
+    if (configuration.isBatchGroupingEnabled()) {
+      Integer index = statementIndexes.get(new StatementKey(ms, sql));
+      return index == null ? -1 : index;
+    }
+    return sql.equals(currentSql) && ms.equals(currentStatement) ? statementList.size() - 1 : -1;
+  }
+
+  private MultiRowInsert newMultiRowInsert(Configuration configuration, MappedStatement ms, BoundSql boundSql) {
+    if (configuration.getBatchMultiRowInsertSize() < 2 || ms.getSqlCommandType() != SqlCommandType.INSERT
+        || ms.getStatementType() != StatementType.PREPARED) {
+      return null;
+    }
+    Class<?> keyGeneratorType = ms.getKeyGenerator().getClass();
+    if (!NoKeyGenerator.class.equals(keyGeneratorType) && !Jdbc3KeyGenerator.class.equals(keyGeneratorType)) {
+      return null;
+    }
+    return MultiRowInsert.parse(boundSql.getSql(), boundSql.getParameterMappings().size());
+  }
+
+  private int[] executeMultiRowInsert(BatchResult batchResult, MultiRowInsert multiRowInsert) throws SQLException {
+    final MappedStatement ms = batchResult.getMappedStatement();
+    final List<Object> parameterObjects = batchResult.getParameterObjects();
+    final int total = parameterObjects.size();
+    final int size = Math.min(ms.getConfiguration().getBatchMultiRowInsertSize(), total);
+    final int rest = total % size;
+    final boolean generatedKeys = Jdbc3KeyGenerator.class.equals(ms.getKeyGenerator().getClass());
+    final int[] updateCounts = new int[total];
+    PreparedStatement full = null;
+    PreparedStatement remainder = null;
+    try {
+      full = prepareMultiRowInsert(ms, multiRowInsert, size, parameterObjects.get(0));
+      for (int from = 0; from < total - rest; from += size) {
+        multiRowInsert.parameterize(full, from, size);
+        if (generatedKeys) {
+          // drivers only return the keys of the last statement of a batch reliably
+          spreadUpdateCount(updateCounts, from, size, full.executeUpdate());
+          assignGeneratedKeys(ms, full, parameterObjects.subList(from, from + size));
+        } else {
+          full.addBatch();
+        }
+      }
+      if (!generatedKeys) {
+        int[] counts = full.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+          spreadUpdateCount(updateCounts, i * size, size, counts[i]);
+        }
+      }
+      if (rest > 0) {
+        final int from = total - rest;
+        remainder = prepareMultiRowInsert(ms, multiRowInsert, rest, parameterObjects.get(from));
+        multiRowInsert.parameterize(remainder, from, rest);
+        spreadUpdateCount(updateCounts, from, rest, remainder.executeUpdate());
+        if (generatedKeys) {
+          assignGeneratedKeys(ms, remainder, parameterObjects.subList(from, total));
+        }
+      }
+    } finally {
+      closeStatement(full);
+      closeStatement(remainder);
+    }
+    return updateCounts;
+  }
+
+  private PreparedStatement prepareMultiRowInsert(MappedStatement ms, MultiRowInsert multiRowInsert, int rowCount, Object parameterObject)
+      throws SQLException {
+    final Configuration configuration = ms.getConfiguration();
+    final BoundSql boundSql = new BoundSql(configuration, multiRowInsert.getSql(rowCount),
+        Collections.<ParameterMapping> emptyList(), parameterObject);
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    return (PreparedStatement) handler.prepare(connection, transaction.getTimeout());
+  }
+
+  private void assignGeneratedKeys(MappedStatement ms, Statement stmt, List<Object> parameterObjects) {
+    Jdbc3KeyGenerator keyGenerator = (Jdbc3KeyGenerator) ms.getKeyGenerator();
+    int populated = keyGenerator.processGeneratedKeys(ms, stmt, parameterObjects);
+    if (populated >= 0 && populated < parameterObjects.size()) {
+      throw new ExecutorException("The driver returned " + populated + " generated keys for a multi-row insert of "
+          + parameterObjects.size() + " rows of " + ms.getId() + ". Set batchMultiRowInsertSize to 0 to batch these inserts row by row.");
+    }
+  }
+
+  private static void spreadUpdateCount(int[] updateCounts, int from, int rowCount, int updateCount) {
+    Arrays.fill(updateCounts, from, from + rowCount, updateCount == rowCount ? 1 : Statement.SUCCESS_NO_INFO);
+  }
+
+  private static final class StatementKey {
+
+    private final MappedStatement mappedStatement;
+    private final String sql;
+
+    StatementKey(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mappedStatement.hashCode() + sql.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) obj;
+      return mappedStatement.equals(other.mappedStatement) && sql.equals(other.sql);
     }
   }
 
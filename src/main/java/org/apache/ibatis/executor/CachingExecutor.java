@@ -100,8 +100,17 @@ public class CachingExecutor implements Executor {
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          boolean loaded = false;
+          try {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+            tcm.putObject(cache, key, list); // issue #578 and #116
+            loaded = true;
+          } finally {
+            if (!loaded) {
+              // let sessions blocked on this key query it themselves
+              tcm.unlockObject(cache, key);
+            }
+          }
         }
         return list;
       }
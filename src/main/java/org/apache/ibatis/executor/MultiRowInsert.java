@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The pending rows of a single row insert that are sent as <code>INSERT ... VALUES (...), (...)</code>.
+ * <p>
+ * Only inserts whose sql ends with one <code>VALUES</code> group holding all of its parameters can be rewritten.
+ * The parameters of a row are bound when the row is added, through its statement handler, to a statement that
+ * records them. The recorded calls are replayed at the position of the row's group in the multi-row statement.
+ */
+final class MultiRowInsert {
+
+  private final String head;
+  private final String values;
+  private final int parameterCount;
+  private final List<Row> rows = new ArrayList<Row>();
+
+  private MultiRowInsert(String head, String values, int parameterCount) {
+    this.head = head;
+    this.values = values;
+    this.parameterCount = parameterCount;
+  }
+
+  /*
+   * Splits the sql of a single row insert at its values group
+   *
+   * @param sql - the sql of the insert
+   * @param parameterCount - the number of parameters the statement binds
+   * @return The pending insert or null if the sql cannot be rewritten
+   */
+  static MultiRowInsert parse(String sql, int parameterCount) {
+    int valuesKeyword = -1;
+    int markers = 0;
+    char quote = 0;
+    int length = sql.length();
+    for (int i = 0; i < length; i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '?') {
+        markers++;
+      } else if (valuesKeyword < 0 && (c == 'v' || c == 'V') && sql.regionMatches(true, i, "values", 0, 6)
+          && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))
+          && (i + 6 == length || !isIdentifierPart(sql.charAt(i + 6)))) {
+        valuesKeyword = i;
+        if (markers > 0) {
+          return null;
+        }
+      }
+    }
+    if (valuesKeyword < 0 || quote != 0 || markers != parameterCount) {
+      return null;
+    }
+    int open = valuesKeyword + 6;
+    while (open < length && Character.isWhitespace(sql.charAt(open))) {
+      open++;
+    }
+    if (open == length || sql.charAt(open) != '(') {
+      return null;
+    }
+    int close = closingParenthesis(sql, open);
+    if (close < 0 || sql.substring(close + 1).trim().length() > 0) {
+      return null;
+    }
+    return new MultiRowInsert(sql.substring(0, open), sql.substring(open, close + 1), parameterCount);
+  }
+
+  private static int closingParenthesis(String sql, int open) {
+    int depth = 0;
+    char quote = 0;
+    for (int i = open; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  /*
+   * Binds the parameters of a row with its statement handler and keeps the bound values
+   *
+   * @param handler - the statement handler of the row
+   * @param connection - the connection type handlers may ask the statement for
+   */
+  void addRow(StatementHandler handler, Connection connection) throws SQLException {
+    Row row = new Row(connection);
+    PreparedStatement recorder = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class }, row);
+    handler.parameterize(recorder);
+    handler.batch(recorder);
+    rows.add(row);
+  }
+
+  /*
+   * @param rowCount - the number of rows
+   * @return The sql inserting that many rows
+   */
+  String getSql(int rowCount) {
+    StringBuilder sql = new StringBuilder(head.length() + rowCount * (values.length() + 2));
+    sql.append(head).append(values);
+    for (int i = 1; i < rowCount; i++) {
+      sql.append(", ").append(values);
+    }
+    return sql.toString();
+  }
+
+  /*
+   * Binds the parameters of a range of rows to a statement prepared with getSql(count)
+   *
+   * @param statement - the multi-row statement
+   * @param from - the first row
+   * @param count - the number of rows
+   */
+  void parameterize(PreparedStatement statement, int from, int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      rows.get(from + i).replay(statement, i * parameterCount);
+    }
+  }
+
+  /**
+   * The parameters bound to one row, as the setter calls made on the recording statement.
+   */
+  private static final class Row implements InvocationHandler {
+
+    private final Connection connection;
+    private final List<Method> setters = new ArrayList<Method>();
+    private final List<Object[]> arguments = new ArrayList<Object[]>();
+
+    Row(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.startsWith("set") && method.getDeclaringClass() == PreparedStatement.class
+          && args != null && args.length > 0 && args[0] instanceof Integer) {
+        setters.add(method);
+        arguments.add(args.clone());
+        return null;
+      } else if ("clearParameters".equals(name)) {
+        setters.clear();
+        arguments.clear();
+        return null;
+      } else if ("addBatch".equals(name) && (args == null || args.length == 0)) {
+        return null;
+      } else if ("getConnection".equals(name)) {
+        return connection;
+      } else if ("equals".equals(name) && args != null && args.length == 1) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(name) && args == null) {
+        return System.identityHashCode(proxy);
+      } else if ("toString".equals(name) && args == null) {
+        return "MultiRowInsert.Row" + arguments.size();
+      }
+      throw new SQLException("Method " + name + " cannot be called while binding a row of a multi-row insert.");
+    }
+
+    void replay(PreparedStatement statement, int offset) throws SQLException {
+      for (int i = 0; i < setters.size(); i++) {
+        Object[] args = arguments.get(i).clone();
+        args[0] = (Integer) args[0] + offset;
+        try {
+          setters.get(i).invoke(statement, args);
+        } catch (Exception e) {
+          Throwable cause = ExceptionUtil.unwrapThrowable(e);
+          if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new SQLException("Could not bind a row of a multi-row insert.", cause);
+        }
+      }
+    }
+  }
+
+}
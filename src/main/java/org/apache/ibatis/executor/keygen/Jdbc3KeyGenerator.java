@@ -49,6 +49,20 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
 
 	public void processBatch(MappedStatement ms, Statement stmt,
 			Collection<Object> parameters) {
+		processGeneratedKeys(ms, stmt, parameters);
+	}
+
+	/**
+	 * 把生成的主键依次赋值给参数对象
+	 * 
+	 * @param ms
+	 * @param stmt
+	 * @param parameters
+	 * @return 得到主键的参数对象个数 没有keyProperty时返回-1
+	 */
+	public int processGeneratedKeys(MappedStatement ms, Statement stmt,
+			Collection<Object> parameters) {
+		int populated = -1;
 		ResultSet rs = null;
 		try {
 			rs = stmt.getGeneratedKeys();// 获取主键
@@ -60,6 +74,7 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
 			TypeHandler<?>[] typeHandlers = null;
 			if (keyProperties != null
 					&& rsmd.getColumnCount() >= keyProperties.length) {
+				populated = 0;
 				for (Object parameter : parameters) {// 可能是批量插入
 					// there should be one row for each statement (also one for
 					// each parameter)
@@ -75,6 +90,7 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
 								metaParam, keyProperties, rsmd);
 					}
 					populateKeys(rs, metaParam, keyProperties, typeHandlers);
+					populated++;
 				}
 			}
 		} catch (Exception e) {
@@ -90,6 +106,7 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
 				}
 			}
 		}
+		return populated;
 	}
 
 	/**
@@ -0,0 +1,319 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Loads the values of a nested select for many keys with one query.
+ * <p>
+ * Each result object gets a {@link ResultLoader} for its key from {@link #newResultLoader(Object)}. The first of them
+ * that is loaded runs the nested select once for its own key and the keys of up to <code>batchSize - 1</code> other
+ * loaders that are still pending, in the order they were created. The nested select receives the keys as a
+ * <code>list</code> parameter and the rows it returns are handed to the loaders by the value of their key properties.
+ */
+public class BatchResultLoader {
+
+  private final Configuration configuration;
+  private final Executor executor;
+  private final MappedStatement mappedStatement;
+  private final ResultMapping resultMapping;
+  private final Class<?> targetType;
+  private final int batchSize;
+  private static final ThreadLocal<Map<CacheKey, BatchResultLoader>> LOADING = new ThreadLocal<Map<CacheKey, BatchResultLoader>>();
+
+  private final Map<Object, List<Loader>> pendingLoaders = new LinkedHashMap<Object, List<Loader>>();
+  private final Map<Object, List<DeferredValue>> deferredValues = new HashMap<Object, List<DeferredValue>>();
+  private final Lock lock = new ReentrantLock();
+  private String[] keyProperties;
+
+  public BatchResultLoader(Configuration configuration, Executor executor, MappedStatement mappedStatement, ResultMapping resultMapping) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.mappedStatement = mappedStatement;
+    this.resultMapping = resultMapping;
+    this.targetType = resultMapping.getJavaType();
+    this.batchSize = resultMapping.getBatchSize();
+  }
+
+  /**
+   * Creates the loader of the value for one key.
+   *
+   * @param parameterObject - the key, or the parameter object of a composite key
+   * @return The loader, pending until it or another loader of this batch is loaded
+   */
+  public ResultLoader newResultLoader(Object parameterObject) {
+    lock.lock();
+    try {
+      final Object key = parameterKey(configuration, resultMapping, parameterObject);
+      final Loader loader = new Loader(this, wrapKeys(Collections.singletonList(parameterObject)), parameterObject, key);
+      List<Loader> loaders = pendingLoaders.get(key);
+      if (loaders == null) {
+        loaders = new ArrayList<Loader>(1);
+        pendingLoaders.put(key, loaders);
+      }
+      loaders.add(loader);
+      return loader;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Defers the value of a property to the batch of this thread that is selecting its key, like
+   * {@link Executor#deferLoad} does for a select that is still running. It breaks cycles of eager batched selects,
+   * where the rows of a batch ask for the keys of the same batch again.
+   *
+   * @param resultObject - the object whose property is set when the batch is loaded
+   * @param parameterObject - the key, or the parameter object of a composite key
+   * @return true if the value is deferred; false if no batch of this thread is selecting the key
+   */
+  public static boolean deferLoad(Configuration configuration, MappedStatement mappedStatement, ResultMapping resultMapping,
+      MetaObject resultObject, Object parameterObject) {
+    final Map<CacheKey, BatchResultLoader> loading = LOADING.get();
+    if (loading == null) {
+      return false;
+    }
+    final Object key = parameterKey(configuration, resultMapping, parameterObject);
+    final BatchResultLoader batch = loading.get(loadingKey(mappedStatement, resultMapping.getJavaType(), key));
+    if (batch == null) {
+      return false;
+    }
+    List<DeferredValue> values = batch.deferredValues.get(key);
+    if (values == null) {
+      values = new ArrayList<DeferredValue>();
+      batch.deferredValues.put(key, values);
+    }
+    values.add(new DeferredValue(resultObject, resultMapping.getProperty()));
+    return true;
+  }
+
+  public int getPendingCount() {
+    lock.lock();
+    try {
+      return pendingLoaders.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void load(Loader trigger) throws SQLException {
+    lock.lock();
+    try {
+      if (trigger.loaded) {
+        return;
+      }
+      final List<Object> keys = new ArrayList<Object>();
+      final List<Object> parameters = new ArrayList<Object>();
+      keys.add(trigger.key);
+      parameters.add(trigger.keyParameter);
+      for (Map.Entry<Object, List<Loader>> entry : pendingLoaders.entrySet()) {
+        if (keys.size() >= batchSize) {
+          break;
+        }
+        if (!entry.getKey().equals(trigger.key)) {
+          keys.add(entry.getKey());
+          parameters.add(entry.getValue().get(0).keyParameter);
+        }
+      }
+      final List<Object> rowList = selectList(trigger, keys, wrapKeys(parameters));
+      final Map<Object, List<Object>> rowsByKey = new HashMap<Object, List<Object>>();
+      for (Object row : rowList) {
+        if (row != null) {
+          final Object key = resultKey(row);
+          List<Object> rows = rowsByKey.get(key);
+          if (rows == null) {
+            rows = new ArrayList<Object>();
+            rowsByKey.put(key, rows);
+          }
+          rows.add(row);
+        }
+      }
+      for (Object key : keys) {
+        List<Object> rows = rowsByKey.get(key);
+        if (rows == null) {
+          rows = new ArrayList<Object>();
+        }
+        final Object value = trigger.resultExtractor.extractObjectFromList(rows, targetType);
+        for (Loader loader : pendingLoaders.remove(key)) {
+          loader.resultObject = value;
+          loader.loaded = true;
+        }
+        final List<DeferredValue> values = deferredValues.remove(key);
+        if (values != null && value != null) {
+          for (DeferredValue deferredValue : values) {
+            deferredValue.resultObject.setValue(deferredValue.property, value);
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<Object> selectList(Loader trigger, List<Object> keys, Object parameterObject) throws SQLException {
+    Map<CacheKey, BatchResultLoader> loading = LOADING.get();
+    final boolean outermost = loading == null;
+    if (outermost) {
+      loading = new HashMap<CacheKey, BatchResultLoader>();
+      LOADING.set(loading);
+    }
+    final List<CacheKey> loadingKeys = new ArrayList<CacheKey>(keys.size());
+    for (Object key : keys) {
+      final CacheKey loadingKey = loadingKey(mappedStatement, targetType, key);
+      if (!loading.containsKey(loadingKey)) {
+        loading.put(loadingKey, this);
+        loadingKeys.add(loadingKey);
+      }
+    }
+    try {
+      return trigger.selectList(parameterObject);
+    } finally {
+      if (outermost) {
+        LOADING.remove();
+      } else {
+        for (CacheKey loadingKey : loadingKeys) {
+          loading.remove(loadingKey);
+        }
+      }
+    }
+  }
+
+  private static CacheKey loadingKey(MappedStatement mappedStatement, Class<?> targetType, Object key) {
+    return new CacheKey(new Object[] { mappedStatement.getId(), targetType, key });
+  }
+
+  private Object wrapKeys(List<Object> parameters) {
+    final Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("collection", parameters);
+    parameterObject.put("list", parameters);
+    return parameterObject;
+  }
+
+  private static Object parameterKey(Configuration configuration, ResultMapping resultMapping, Object parameterObject) {
+    if (!resultMapping.isCompositeResult()) {
+      return normalize(parameterObject);
+    }
+    final MetaObject metaParameter = configuration.newMetaObject(parameterObject);
+    final List<Object> key = new ArrayList<Object>();
+    for (ResultMapping composite : resultMapping.getComposites()) {
+      key.add(normalize(metaParameter.getValue(composite.getProperty())));
+    }
+    return key;
+  }
+
+  private Object resultKey(Object row) {
+    final String[] properties = getKeyProperties();
+    final MetaObject metaRow = configuration.newMetaObject(row);
+    if (!resultMapping.isCompositeResult()) {
+      return normalize(metaRow.getValue(properties[0]));
+    }
+    final List<Object> key = new ArrayList<Object>();
+    for (String property : properties) {
+      key.add(normalize(metaRow.getValue(property)));
+    }
+    return key;
+  }
+
+  private String[] getKeyProperties() {
+    if (keyProperties == null) {
+      final List<String> properties = new ArrayList<String>();
+      if (resultMapping.getBatchKey() != null) {
+        for (String property : resultMapping.getBatchKey().split(",")) {
+          properties.add(property.trim());
+        }
+      } else if (!configuration.getObjectFactory().isCollection(targetType) && !mappedStatement.getResultMaps().isEmpty()) {
+        // the rows of a collection are not found by their own ids
+        final ResultMap resultMap = mappedStatement.getResultMaps().get(0);
+        for (ResultMapping idMapping : resultMap.getIdResultMappings()) {
+          if (idMapping.getFlags().contains(ResultFlag.ID) && idMapping.getProperty() != null) {
+            properties.add(idMapping.getProperty());
+          }
+        }
+      }
+      final int keyColumns = resultMapping.isCompositeResult() ? resultMapping.getComposites().size() : 1;
+      if (properties.size() != keyColumns) {
+        throw new ExecutorException("Cannot batch the nested select '" + mappedStatement.getId() + "' of property '"
+            + resultMapping.getProperty() + "'. Expected " + keyColumns + " key properties but found " + properties
+            + ". Add a batchKey attribute that lists the properties of the loaded objects that hold the key.");
+      }
+      keyProperties = properties.toArray(new String[properties.size()]);
+    }
+    return keyProperties;
+  }
+
+  /*
+   * The key columns and the key properties are read with different type handlers, so compare integral numbers by value
+   */
+  private static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    return value;
+  }
+
+  private static final class DeferredValue {
+
+    private final MetaObject resultObject;
+    private final String property;
+
+    private DeferredValue(MetaObject resultObject, String property) {
+      this.resultObject = resultObject;
+      this.property = property;
+    }
+
+  }
+
+  private static final class Loader extends ResultLoader {
+
+    private final BatchResultLoader batch;
+    private final Object keyParameter;
+    private final Object key;
+
+    private Loader(BatchResultLoader batch, Object parameterObject, Object keyParameter, Object key) {
+      super(batch.configuration, batch.executor, batch.mappedStatement, parameterObject, batch.targetType, null, null);
+      this.batch = batch;
+      this.keyParameter = keyParameter;
+      this.key = key;
+    }
+
+    @Override
+    public Object loadResult() throws SQLException {
+      batch.load(this);
+      return resultObject;
+    }
+
+  }
+
+}
@@ -73,11 +73,24 @@ public class ResultLoader {
   }
 
   private <E> List<E> selectList() throws SQLException {
-    Executor localExecutor = executor;
-    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
-      localExecutor = newExecutor();
+    Executor localExecutor = localExecutor();
+    try {
+      return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+    } finally {
+      if (localExecutor != executor) {
+        localExecutor.close(false);
+      }
     }
+  }
+
+  /*
+   * Runs the mapped statement with another parameter object, on the executor this loader would use
+   */
+  protected <E> List<E> selectList(Object parameterObject) throws SQLException {
+    Executor localExecutor = localExecutor();
     try {
+      BoundSql boundSql = mappedStatement.getBoundSql(parameterObject);
+      CacheKey cacheKey = localExecutor.createCacheKey(mappedStatement, parameterObject, RowBounds.DEFAULT, boundSql);
       return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
     } finally {
       if (localExecutor != executor) {
@@ -86,6 +99,13 @@ public class ResultLoader {
     }
   }
 
+  private Executor localExecutor() {
+    if (Thread.currentThread().getId() != this.creatorThreadId || executor.isClosed()) {
+      return newExecutor();
+    }
+    return executor;
+  }
+
   private Executor newExecutor() {
     final Environment environment = configuration.getEnvironment();
     if (environment == null) {
@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BaseExecutor;
@@ -48,6 +50,7 @@ import org.apache.ibatis.session.RowBounds;
 public class ResultLoaderMap {
 
   private final Map<String, LoadPair> loaderMap = new HashMap<String, LoadPair>();
+  private final Lock lock = new ReentrantLock();
 
   public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
     String upperFirst = getUppercaseFirstProperty(property);
@@ -67,6 +70,13 @@ public class ResultLoaderMap {
     return loaderMap.keySet();
   }
 
+  /**
+   * @return The lock the proxy of the result object holds while it triggers loads
+   */
+  public Lock getLock() {
+    return lock;
+  }
+
   public int size() {
     return loaderMap.size();
   }
@@ -129,7 +129,8 @@ public class CglibProxyFactory implements ProxyFactory {
     public Object intercept(Object enhanced, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
       final String methodName = method.getName();
       try {
-        synchronized (lazyLoader) {
+        lazyLoader.getLock().lock();
+        try {
           if (WRITE_REPLACE_METHOD.equals(methodName)) {
             Object original;
             if (constructorArgTypes.isEmpty()) {
@@ -155,6 +156,8 @@ public class CglibProxyFactory implements ProxyFactory {
               }
             }
           }
+        } finally {
+          lazyLoader.getLock().unlock();
         }
         return methodProxy.invokeSuper(enhanced, args);
       } catch (Throwable t) {
@@ -0,0 +1,145 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * The columns of a result set as described by its metadata.
+ * <p>
+ * A layout also keeps what is worked out from the columns while rows are mapped: the type handler of each column
+ * and the {@link ColumnPlan} of each result map. Mapped statements cache their layouts by signature, so a statement
+ * that is executed again does not work them out again. A layout is shared by threads and is safe for concurrent use.
+ */
+public final class ColumnLayout {
+
+  private final List<String> columnNames;
+  private final List<String> classNames;
+  private final List<JdbcType> jdbcTypes;
+  private final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+  private final String signature;
+  private final ConcurrentMap<String, ConcurrentMap<Class<?>, TypeHandler<?>>> typeHandlers = new ConcurrentHashMap<String, ConcurrentMap<Class<?>, TypeHandler<?>>>();
+  private final ConcurrentMap<ResultMap, ConcurrentMap<String, ColumnPlan>> columnPlans = new ConcurrentHashMap<ResultMap, ConcurrentMap<String, ColumnPlan>>();
+
+  ColumnLayout(List<String> columnNames, List<String> classNames, List<JdbcType> jdbcTypes) {
+    this.columnNames = Collections.unmodifiableList(new ArrayList<String>(columnNames));
+    this.classNames = Collections.unmodifiableList(new ArrayList<String>(classNames));
+    this.jdbcTypes = Collections.unmodifiableList(new ArrayList<JdbcType>(jdbcTypes));
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < columnNames.size(); i++) {
+      String upperColumnName = columnNames.get(i).toUpperCase(Locale.ENGLISH);
+      if (!columnIndexes.containsKey(upperColumnName)) {
+        // like the drivers do, a name refers to the first column with that name
+        columnIndexes.put(upperColumnName, i + 1);
+      }
+      key.append(columnNames.get(i)).append(':').append(jdbcTypes.get(i)).append(':').append(classNames.get(i)).append(',');
+    }
+    this.signature = key.toString();
+  }
+
+  static ColumnLayout read(ResultSetMetaData metaData, boolean useColumnLabel) throws SQLException {
+    final int columnCount = metaData.getColumnCount();
+    final List<String> columnNames = new ArrayList<String>(columnCount);
+    final List<String> classNames = new ArrayList<String>(columnCount);
+    final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>(columnCount);
+    for (int i = 1; i <= columnCount; i++) {
+      columnNames.add(useColumnLabel ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
+      jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
+      classNames.add(metaData.getColumnClassName(i));
+    }
+    return new ColumnLayout(columnNames, classNames, jdbcTypes);
+  }
+
+  /**
+   * @return The names and types of all columns, equal for layouts of result sets with the same columns
+   */
+  public String getSignature() {
+    return signature;
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  public List<String> getClassNames() {
+    return classNames;
+  }
+
+  public List<JdbcType> getJdbcTypes() {
+    return jdbcTypes;
+  }
+
+  /**
+   * @return The 1 based index of the first column with the name, ignoring case, or -1 if there is none
+   */
+  public int getColumnIndex(String columnName) {
+    final Integer index = columnIndexes.get(columnName.toUpperCase(Locale.ENGLISH));
+    return index == null ? -1 : index;
+  }
+
+  TypeHandler<?> getTypeHandler(String columnName, Class<?> propertyType) {
+    final Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlers.get(columnName);
+    return columnHandlers == null ? null : columnHandlers.get(propertyType);
+  }
+
+  void putTypeHandler(String columnName, Class<?> propertyType, TypeHandler<?> typeHandler) {
+    ConcurrentMap<Class<?>, TypeHandler<?>> columnHandlers = typeHandlers.get(columnName);
+    if (columnHandlers == null) {
+      columnHandlers = new ConcurrentHashMap<Class<?>, TypeHandler<?>>();
+      final ConcurrentMap<Class<?>, TypeHandler<?>> existing = typeHandlers.putIfAbsent(columnName, columnHandlers);
+      if (existing != null) {
+        columnHandlers = existing;
+      }
+    }
+    columnHandlers.put(propertyType, typeHandler);
+  }
+
+  ColumnPlan getColumnPlan(ResultMap resultMap, String columnPrefix) {
+    // looked up for every row, so no key is built; an empty prefix is the same as none
+    ConcurrentMap<String, ColumnPlan> resultMapPlans = columnPlans.get(resultMap);
+    if (resultMapPlans == null) {
+      resultMapPlans = new ConcurrentHashMap<String, ColumnPlan>();
+      final ConcurrentMap<String, ColumnPlan> existing = columnPlans.putIfAbsent(resultMap, resultMapPlans);
+      if (existing != null) {
+        resultMapPlans = existing;
+      }
+    }
+    final String prefix = columnPrefix == null ? "" : columnPrefix;
+    ColumnPlan plan = resultMapPlans.get(prefix);
+    if (plan == null) {
+      plan = new ColumnPlan(this, resultMap, prefix);
+      final ColumnPlan existing = resultMapPlans.putIfAbsent(prefix, plan);
+      if (existing != null) {
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+
+}
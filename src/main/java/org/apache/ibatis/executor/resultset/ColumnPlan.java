@@ -0,0 +1,216 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * How the columns of a {@link ColumnLayout} map to one result map, read with a column prefix.
+ * <p>
+ * The plan splits the columns in mapped and unmapped ones and resolves the column index of every property mapping,
+ * so rows are read with {@link TypeHandler#getResult(java.sql.ResultSet, int)} and the driver does not look the
+ * columns up by name for every row. The automatic mappings are worked out on the first row and kept here as well.
+ */
+public final class ColumnPlan {
+
+  private final ColumnLayout layout;
+  private final Set<String> mappedColumns = new HashSet<String>();
+  private final List<String> mappedColumnNames;
+  private final List<String> unmappedColumnNames;
+  private final int[] propertyColumnIndexes;
+  private final String[] rowKeyColumns;
+  private final int[] rowKeyColumnIndexes;
+  private final TypeHandler<?>[] rowKeyTypeHandlers;
+  private volatile List<AutoMapping> autoMappings;
+  private volatile int[] unmappedRowKeyColumnIndexes;
+
+  ColumnPlan(ColumnLayout layout, ResultMap resultMap, String columnPrefix) {
+    this.layout = layout;
+    final List<String> mappedColumnNames = new ArrayList<String>();
+    final List<String> unmappedColumnNames = new ArrayList<String>();
+    final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
+    final Set<String> resultMapColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
+    for (String columnName : layout.getColumnNames()) {
+      final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
+      if (resultMapColumns.contains(upperColumnName)) {
+        mappedColumnNames.add(upperColumnName);
+        mappedColumns.add(upperColumnName);
+      } else {
+        unmappedColumnNames.add(columnName);
+      }
+    }
+    this.mappedColumnNames = Collections.unmodifiableList(mappedColumnNames);
+    this.unmappedColumnNames = Collections.unmodifiableList(unmappedColumnNames);
+    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
+    this.propertyColumnIndexes = new int[propertyMappings.size()];
+    for (int i = 0; i < propertyColumnIndexes.length; i++) {
+      final ResultMapping propertyMapping = propertyMappings.get(i);
+      // the user may have added a column attribute to a nested result map, it is ignored
+      if (propertyMapping.getNestedResultMapId() == null && propertyMapping.getColumn() != null) {
+        propertyColumnIndexes[i] = getMappedColumnIndex(prependPrefix(propertyMapping.getColumn(), columnPrefix));
+      } else {
+        propertyColumnIndexes[i] = -1;
+      }
+    }
+    final List<String> rowKeyColumns = new ArrayList<String>();
+    final List<Integer> rowKeyColumnIndexes = new ArrayList<Integer>();
+    final List<TypeHandler<?>> rowKeyTypeHandlers = new ArrayList<TypeHandler<?>>();
+    final List<ResultMapping> rowKeyMappings = resultMap.getIdResultMappings().isEmpty() ? propertyMappings : resultMap.getIdResultMappings();
+    boolean plainRowKey = !rowKeyMappings.isEmpty();
+    for (ResultMapping rowKeyMapping : rowKeyMappings) {
+      if (rowKeyMapping.getNestedResultMapId() != null && rowKeyMapping.getResultSet() == null) {
+        // the key includes the constructor columns of the nested result map
+        plainRowKey = false;
+        break;
+      }
+      if (rowKeyMapping.getNestedQueryId() == null && rowKeyMapping.getColumn() != null) {
+        final String column = prependPrefix(rowKeyMapping.getColumn(), columnPrefix);
+        final int columnIndex = getMappedColumnIndex(column);
+        if (columnIndex > 0) {
+          rowKeyColumns.add(column);
+          rowKeyColumnIndexes.add(columnIndex);
+          rowKeyTypeHandlers.add(rowKeyMapping.getTypeHandler());
+        }
+      }
+    }
+    if (plainRowKey) {
+      this.rowKeyColumns = rowKeyColumns.toArray(new String[rowKeyColumns.size()]);
+      this.rowKeyColumnIndexes = new int[rowKeyColumnIndexes.size()];
+      for (int i = 0; i < this.rowKeyColumnIndexes.length; i++) {
+        this.rowKeyColumnIndexes[i] = rowKeyColumnIndexes.get(i);
+      }
+      this.rowKeyTypeHandlers = rowKeyTypeHandlers.toArray(new TypeHandler<?>[rowKeyTypeHandlers.size()]);
+    } else {
+      this.rowKeyColumns = null;
+      this.rowKeyColumnIndexes = null;
+      this.rowKeyTypeHandlers = null;
+    }
+  }
+
+  /**
+   * @return The upper case names of the columns the result map maps
+   */
+  public List<String> getMappedColumnNames() {
+    return mappedColumnNames;
+  }
+
+  public List<String> getUnmappedColumnNames() {
+    return unmappedColumnNames;
+  }
+
+  /**
+   * @return The 1 based index of the column if the result map maps it, -1 otherwise
+   */
+  public int getMappedColumnIndex(String columnName) {
+    if (columnName == null || !mappedColumns.contains(columnName.toUpperCase(Locale.ENGLISH))) {
+      return -1;
+    }
+    return layout.getColumnIndex(columnName);
+  }
+
+  /**
+   * @param propertyMapping - the index of the mapping in {@link ResultMap#getPropertyResultMappings()}
+   * @return The 1 based index of the column the property mapping reads, -1 if it is not in the result set
+   */
+  public int getPropertyColumnIndex(int propertyMapping) {
+    return propertyColumnIndexes[propertyMapping];
+  }
+
+  /**
+   * @return Whether the row key is made of plain columns, the ids of the result map or else all its properties
+   */
+  public boolean hasRowKeyColumns() {
+    return rowKeyColumnIndexes != null;
+  }
+
+  /**
+   * @return The prefixed names of the row key columns present in the result set
+   */
+  String[] getRowKeyColumns() {
+    return rowKeyColumns;
+  }
+
+  int[] getRowKeyColumnIndexes() {
+    return rowKeyColumnIndexes;
+  }
+
+  TypeHandler<?>[] getRowKeyTypeHandlers() {
+    return rowKeyTypeHandlers;
+  }
+
+  List<AutoMapping> getAutoMappings() {
+    return autoMappings;
+  }
+
+  void setAutoMappings(List<AutoMapping> autoMappings) {
+    this.autoMappings = Collections.unmodifiableList(new ArrayList<AutoMapping>(autoMappings));
+  }
+
+  int[] getUnmappedRowKeyColumnIndexes() {
+    return unmappedRowKeyColumnIndexes;
+  }
+
+  void setUnmappedRowKeyColumnIndexes(int[] unmappedRowKeyColumnIndexes) {
+    this.unmappedRowKeyColumnIndexes = unmappedRowKeyColumnIndexes;
+  }
+
+  private static String prependPrefix(String columnName, String prefix) {
+    if (columnName.length() == 0 || prefix == null || prefix.length() == 0) {
+      return columnName;
+    }
+    return prefix + columnName;
+  }
+
+  private static Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
+    if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
+      return columnNames;
+    }
+    final Set<String> prefixed = new HashSet<String>();
+    for (String columnName : columnNames) {
+      prefixed.add(prefix + columnName);
+    }
+    return prefixed;
+  }
+
+  /**
+   * An unmapped column that is mapped to the property with the same name.
+   */
+  static final class AutoMapping {
+    final String column;
+    final int columnIndex;
+    final String property;
+    final TypeHandler<?> typeHandler;
+    final boolean primitive;
+
+    AutoMapping(String column, int columnIndex, String property, TypeHandler<?> typeHandler, boolean primitive) {
+      this.column = column;
+      this.columnIndex = columnIndex;
+      this.property = property;
+      this.typeHandler = typeHandler;
+      this.primitive = primitive;
+    }
+  }
+
+}
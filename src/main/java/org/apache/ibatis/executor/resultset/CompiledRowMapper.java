@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Maps the current row of a result set with a fixed column layout to a result object, without reflection.
+ * Subclasses are generated by the {@link RowMapperCompiler}.
+ */
+public abstract class CompiledRowMapper {
+
+  protected TypeHandler<?>[] typeHandlers;
+
+  /**
+   * @param rs The result set, positioned on the row to map
+   * @return The result object, or null if all the columns it is mapped from are null
+   */
+  public abstract Object map(ResultSet rs) throws SQLException;
+
+}
@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor.resultset;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
 import java.sql.CallableStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -23,6 +24,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -35,6 +37,7 @@ import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -51,7 +54,10 @@ import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultContext;
@@ -90,27 +96,28 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
   private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
-  // Cached Automappings
-  private final Map<String, List<UnMappedColumnAutoMapping>> autoMappingsCache = new HashMap<String, List<UnMappedColumnAutoMapping>>();
-  
+  // meta objects reused from row to row
+  private final Map<ResultMap, MetaObject> rowMetaObjects = new HashMap<ResultMap, MetaObject>();
+
+  // ordered nested result maps
+  private final RowIdentity orderedRowIdentity = new RowIdentity();
+  private CacheKey orderedRowKey;
+
+  // nested selects loaded in batches
+  private final Map<ResultMapping, BatchResultLoader> batchResultLoaders = new IdentityHashMap<ResultMapping, BatchResultLoader>();
+  private List<PendingBatchLoad> pendingBatchLoads;
+
   private static class PendingRelation {
     public MetaObject metaObject;
     public ResultMapping propertyMapping;
   }
 
-  private static class UnMappedColumnAutoMapping {
-    private final String column;   
-    private final String property;    
-    private final TypeHandler<?> typeHandler;
-    private final boolean primitive;
-    public UnMappedColumnAutoMapping(String column, String property, TypeHandler<?> typeHandler, boolean primitive) {
-      this.column = column;
-      this.property = property;
-      this.typeHandler = typeHandler;
-      this.primitive = primitive;
-    }
-  }  
-  
+  private static class PendingBatchLoad {
+    public MetaObject metaObject;
+    public String property;
+    public ResultLoader resultLoader;
+  }
+
   public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler<?> resultHandler, BoundSql boundSql,
       RowBounds rowBounds) {
     this.executor = executor;
@@ -155,7 +162,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       final String resultMapId = parameterMapping.getResultMapId();
       final ResultMap resultMap = configuration.getResultMap(resultMapId);
       final DefaultResultHandler resultHandler = new DefaultResultHandler(objectFactory);
-      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration);
+      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration, mappedStatement);
       handleRowValues(rsw, resultMap, resultHandler, new RowBounds(), null);
       metaParam.setValue(parameterMapping.getProperty(), resultHandler.getResultList());
     } finally {
@@ -179,6 +186,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     List<ResultMap> resultMaps = mappedStatement.getResultMaps();
     int resultMapCount = resultMaps.size();
     validateResultMapsCount(rsw, resultMapCount);
+    if (resultHandler == null) {
+      // the results are only handed out when all the rows are read, so eager nested selects can wait and be batched
+      pendingBatchLoads = new ArrayList<PendingBatchLoad>();
+    }
     while (rsw != null && resultMapCount > resultSetCount) {
       ResultMap resultMap = resultMaps.get(resultSetCount);
       handleResultSet(rsw, resultMap, multipleResults, null);
@@ -202,6 +213,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       }
     }
 
+    loadPendingBatches();
     return collapseSingleResultList(multipleResults);
   }
 
@@ -237,7 +249,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+    return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement) : null;
   }
 
   private ResultSetWrapper getNextResultSet(Statement stmt) throws SQLException {
@@ -247,7 +259,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         // Crazy Standard JDBC way of determining if there are more results
         if (!((!stmt.getMoreResults()) && (stmt.getUpdateCount() == -1))) {
           ResultSet rs = stmt.getResultSet();
-          return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+          return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement) : null;
         }
       }
     } catch (Exception e) {
@@ -335,11 +347,118 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       throws SQLException {
     DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
     skipRows(rsw.getResultSet(), rowBounds);
+    CompiledRowMapper compiledRowMapper = null;
+    String compiledRowMapperKey = null;
+    boolean parallel = configuration.isParallelMappingEnabled() && resultMap.getDiscriminator() == null
+        && parentMapping == null && resultHandler instanceof DefaultResultHandler;
+    if (!parallel && configuration.isCompiledRowMappersEnabled() && resultMap.getDiscriminator() == null) {
+      compiledRowMapperKey = resultMap.getId() + "@" + rsw.getColumnLayoutKey();
+      compiledRowMapper = configuration.getRowMapperCompiler().getMapper(compiledRowMapperKey);
+    }
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
-      ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
-      Object rowValue = getRowValue(rsw, discriminatedResultMap);
+      Object rowValue;
+      if (compiledRowMapper != null) {
+        rowValue = compiledRowMapper.map(rsw.getResultSet());
+      } else {
+        ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
+        rowValue = getRowValue(rsw, discriminatedResultMap);
+        if (compiledRowMapperKey != null) {
+          // the first row has resolved the automatic mappings, the next ones can use a compiled mapper
+          compiledRowMapper = compileRowMapper(rsw, resultMap, compiledRowMapperKey);
+          compiledRowMapperKey = null;
+        }
+      }
       storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+      if (parallel) {
+        // the first row has resolved the automatic mappings, the next ones can be mapped in parallel
+        parallel = false;
+        final RowMapperCompiler.Plan plan = createRowMapperPlan(rsw, resultMap);
+        if (plan != null) {
+          final int threads = configuration.getParallelMappingThreads() > 0 ? configuration.getParallelMappingThreads() : Runtime.getRuntime().availableProcessors();
+          new RowMappingPipeline(plan, objectFactory, reflectorFactory, configuration.getMappingExecutor(), threads, getMappingBatchSize())
+              .run(rsw.getResultSet(), rowBounds.getLimit() - resultContext.getResultCount(), resultHandler, resultContext);
+          return;
+        }
+      }
+    }
+  }
+
+  private int getMappingBatchSize() {
+    if (mappedStatement.getFetchSize() != null && mappedStatement.getFetchSize() > 0) {
+      return mappedStatement.getFetchSize();
+    } else if (configuration.getDefaultFetchSize() != null && configuration.getDefaultFetchSize() > 0) {
+      return configuration.getDefaultFetchSize();
     }
+    return 1000;
+  }
+
+  private CompiledRowMapper compileRowMapper(ResultSetWrapper rsw, ResultMap resultMap, String key) throws SQLException {
+    final RowMapperCompiler compiler = configuration.getRowMapperCompiler();
+    if (compiler.isResolved(key)) {
+      return compiler.getMapper(key);
+    }
+    final RowMapperCompiler.Plan plan = createRowMapperPlan(rsw, resultMap);
+    if (plan == null) {
+      compiler.reject(key);
+      return null;
+    }
+    return compiler.compile(key, plan, reflectorFactory);
+  }
+
+  /*
+   * Lists what getRowValue does for every row of the result set, or returns null if it does anything
+   * a compiled mapper cannot do, like nested queries, nested properties or custom object factories
+   */
+  private RowMapperCompiler.Plan createRowMapperPlan(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    final Class<?> resultType = resultMap.getType();
+    if (objectFactory.getClass() != DefaultObjectFactory.class
+        || configuration.getObjectWrapperFactory().getClass() != DefaultObjectWrapperFactory.class
+        || resultType.isInterface() || Modifier.isAbstract(resultType.getModifiers())
+        || hasTypeHandlerForResultObject(rsw, resultType)) {
+      return null;
+    }
+    final RowMapperCompiler.Plan plan = new RowMapperCompiler.Plan(resultType, configuration.isCallSettersOnNulls());
+    final ColumnPlan columnPlan = rsw.getColumnPlan(resultMap, null);
+    final List<ResultMapping> constructorMappings = resultMap.getConstructorResultMappings();
+    for (ResultMapping constructorMapping : constructorMappings) {
+      final int column = rsw.getColumnIndex(constructorMapping.getColumn());
+      if (constructorMapping.getNestedQueryId() != null || constructorMapping.getNestedResultMapId() != null || column < 0) {
+        return null;
+      }
+      plan.addConstructorArgument(constructorMapping.getJavaType(), constructorMapping.getTypeHandler(), column);
+    }
+    if (constructorMappings.isEmpty() && !MetaClass.forClass(resultType, reflectorFactory).hasDefaultConstructor()) {
+      return null;
+    }
+    if (shouldApplyAutomaticMappings(resultMap, false)) {
+      final List<ColumnPlan.AutoMapping> autoMapping = columnPlan.getAutoMappings();
+      if (autoMapping == null) {
+        return null;
+      }
+      for (ColumnPlan.AutoMapping mapping : autoMapping) {
+        if (mapping.property.indexOf('.') >= 0) {
+          return null;
+        }
+        plan.addProperty(mapping.property, mapping.typeHandler, mapping.columnIndex);
+      }
+    }
+    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
+    for (int i = 0; i < propertyMappings.size(); i++) {
+      final ResultMapping propertyMapping = propertyMappings.get(i);
+      if (propertyMapping.isCompositeResult() || propertyMapping.getResultSet() != null || propertyMapping.getNestedQueryId() != null) {
+        return null;
+      }
+      final int column = columnPlan.getPropertyColumnIndex(i);
+      final String property = propertyMapping.getProperty();
+      if (column < 0 || property == null) {
+        continue;
+      }
+      if (property.indexOf('.') >= 0 || property.indexOf('[') >= 0) {
+        return null;
+      }
+      plan.addProperty(property, propertyMapping.getTypeHandler(), column);
+    }
+    return plan;
   }
 
   private void storeObject(ResultHandler<?> resultHandler, DefaultResultContext<Object> resultContext, Object rowValue, ResultMapping parentMapping, ResultSet rs) throws SQLException {
@@ -377,22 +496,60 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   //
 
   private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
-    final ResultLoaderMap lazyLoader = new ResultLoaderMap();
+    final ResultLoaderMap lazyLoader = newResultLoaderMap(resultMap);
     Object resultObject = createResultObject(rsw, resultMap, lazyLoader, null);
     if (resultObject != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
-      final MetaObject metaObject = configuration.newMetaObject(resultObject);
+      final MetaObject metaObject = newRowMetaObject(resultMap, resultObject);
       boolean foundValues = !resultMap.getConstructorResultMappings().isEmpty();
       if (shouldApplyAutomaticMappings(resultMap, false)) {
         foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, null) || foundValues;
       }
       foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
-      foundValues = lazyLoader.size() > 0 || foundValues;
+      foundValues = (lazyLoader != null && lazyLoader.size() > 0) || foundValues;
       resultObject = foundValues ? resultObject : null;
       return resultObject;
     }
     return resultObject;
   }
 
+  private ResultLoaderMap newResultLoaderMap(ResultMap resultMap) {
+    // only nested queries add loaders
+    return resultMap.hasNestedQueries() ? new ResultLoaderMap() : null;
+  }
+
+  /*
+   * Returns a meta object for the row object. Result maps whose meta objects never outlive the mapping of a row
+   * (no nested queries, result sets or nested result maps) reuse a single meta object re-targeted to every row.
+   */
+  private MetaObject newRowMetaObject(ResultMap resultMap, Object resultObject) {
+    MetaObject metaObject = rowMetaObjects.get(resultMap);
+    if (metaObject == null) {
+      if (!canReuseRowMetaObject(resultMap)) {
+        rowMetaObjects.put(resultMap, SystemMetaObject.NULL_META_OBJECT);
+        return configuration.newMetaObject(resultObject);
+      }
+    } else if (metaObject == SystemMetaObject.NULL_META_OBJECT) {
+      return configuration.newMetaObject(resultObject);
+    } else if (metaObject.retarget(resultObject)) {
+      return metaObject;
+    }
+    metaObject = configuration.newMetaObject(resultObject);
+    rowMetaObjects.put(resultMap, metaObject);
+    return metaObject;
+  }
+
+  private boolean canReuseRowMetaObject(ResultMap resultMap) {
+    if (resultMap.hasNestedQueries() || resultMap.hasNestedResultMaps()) {
+      return false;
+    }
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.getResultSet() != null || propertyMapping.getNestedResultMapId() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private boolean shouldApplyAutomaticMappings(ResultMap resultMap, boolean isNested) {
     if (resultMap.getAutoMapping() != null) {
       return resultMap.getAutoMapping();
@@ -411,19 +568,17 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
-    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final ColumnPlan columnPlan = rsw.getColumnPlan(resultMap, columnPrefix);
     boolean foundValues = false;
     final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
-    for (ResultMapping propertyMapping : propertyMappings) {
-      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
-      if (propertyMapping.getNestedResultMapId() != null) {
-        // the user added a column attribute to a nested result map, ignore it
-        column = null;
-      }
+    for (int i = 0; i < propertyMappings.size(); i++) {
+      final ResultMapping propertyMapping = propertyMappings.get(i);
+      // the plan ignores a column attribute the user added to a nested result map
+      final int columnIndex = columnPlan.getPropertyColumnIndex(i);
       if (propertyMapping.isCompositeResult()
-          || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
+          || columnIndex > 0
           || propertyMapping.getResultSet() != null) {
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
+        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix, columnIndex);
         // issue #541 make property optional
         final String property = propertyMapping.getProperty();
         if (property == null) {
@@ -444,8 +599,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return foundValues;
   }
 
-  private Object getPropertyMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix)
-      throws SQLException {
+  private Object getPropertyMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix,
+      int columnIndex) throws SQLException {
     if (propertyMapping.getNestedQueryId() != null) {
       return getNestedQueryMappingValue(rs, metaResultObject, propertyMapping, lazyLoader, columnPrefix);
     } else if (propertyMapping.getResultSet() != null) {
@@ -453,17 +608,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       return DEFERED;
     } else {
       final TypeHandler<?> typeHandler = propertyMapping.getTypeHandler();
+      if (columnIndex > 0) {
+        return typeHandler.getResult(rs, columnIndex);
+      }
       final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
       return typeHandler.getResult(rs, column);
     }
   }
 
-  private List<UnMappedColumnAutoMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    final String mapKey = resultMap.getId() + ":" + columnPrefix;
-    List<UnMappedColumnAutoMapping> autoMapping = autoMappingsCache.get(mapKey);
+  private List<ColumnPlan.AutoMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+    final ColumnPlan columnPlan = rsw.getColumnPlan(resultMap, columnPrefix);
+    List<ColumnPlan.AutoMapping> autoMapping = columnPlan.getAutoMappings();
     if (autoMapping == null) {
-      autoMapping = new ArrayList<UnMappedColumnAutoMapping>();
-      final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+      autoMapping = new ArrayList<ColumnPlan.AutoMapping>();
+      final List<String> unmappedColumnNames = columnPlan.getUnmappedColumnNames();
       for (String columnName : unmappedColumnNames) {
         String propertyName = columnName;
         if (columnPrefix != null && !columnPrefix.isEmpty()) {
@@ -480,7 +638,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           final Class<?> propertyType = metaObject.getSetterType(property);
           if (typeHandlerRegistry.hasTypeHandler(propertyType, rsw.getJdbcType(columnName))) {
             final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-            autoMapping.add(new UnMappedColumnAutoMapping(columnName, property, typeHandler, propertyType.isPrimitive()));
+            autoMapping.add(new ColumnPlan.AutoMapping(columnName, rsw.getColumnIndex(columnName), property, typeHandler, propertyType.isPrimitive()));
           } else {
             configuration.getAutoMappingUnknownColumnBehavior()
                     .doAction(mappedStatement, columnName, property, propertyType);
@@ -490,17 +648,17 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                   .doAction(mappedStatement, columnName, (property != null) ? property : propertyName, null);
         }
       }
-      autoMappingsCache.put(mapKey, autoMapping);
+      columnPlan.setAutoMappings(autoMapping);
     }
     return autoMapping;
   }
   
   private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    List<UnMappedColumnAutoMapping> autoMapping = createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix);
+    List<ColumnPlan.AutoMapping> autoMapping = createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix);
     boolean foundValues = false;
     if (autoMapping.size() > 0) {
-      for (UnMappedColumnAutoMapping mapping : autoMapping) {
-        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.column);
+      for (ColumnPlan.AutoMapping mapping : autoMapping) {
+        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.columnIndex);
         if (value != null) {
           foundValues = true;
         }
@@ -550,10 +708,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private CacheKey createKeyForMultipleResults(ResultSet rs, ResultMapping resultMapping, String names, String columns) throws SQLException {
-    CacheKey cacheKey = new CacheKey();
+    String[] columnsArray = columns != null && names != null ? columns.split(",") : new String[0];
+    CacheKey cacheKey = new CacheKey(columnsArray.length * 2 + 1);
     cacheKey.update(resultMapping);
-    if (columns != null && names != null) {
-      String[] columnsArray = columns.split(",");
+    if (columnsArray.length > 0) {
       String[] namesArray = names.split(",");
       for (int i = 0 ; i < columnsArray.length ; i++) {
         Object value = rs.getString(columnsArray[i]);
@@ -563,7 +721,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    return cacheKey;
+    return cacheKey.freeze();
   }
 
   //
@@ -699,6 +857,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final String nestedQueryId = propertyMapping.getNestedQueryId();
     final String property = propertyMapping.getProperty();
     final MappedStatement nestedQuery = configuration.getMappedStatement(nestedQueryId);
+    if (propertyMapping.getBatchSize() > 0) {
+      // a batched select takes a list of keys, so a key is read without the parameter type of the select
+      final Object keyParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, null, columnPrefix);
+      if (keyParameterObject == null) {
+        return null;
+      }
+      // like the cached select below, a key that a batch of this thread is selecting is set when that batch is done
+      if (!propertyMapping.isLazy() && BatchResultLoader.deferLoad(configuration, nestedQuery, propertyMapping, metaResultObject, keyParameterObject)) {
+        return DEFERED;
+      }
+      return addBatchLoad(metaResultObject, propertyMapping, nestedQuery, lazyLoader, keyParameterObject);
+    }
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
     final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = null;
@@ -722,6 +892,40 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  private Object addBatchLoad(MetaObject metaResultObject, ResultMapping propertyMapping, MappedStatement nestedQuery, ResultLoaderMap lazyLoader,
+      Object keyParameterObject) throws SQLException {
+    BatchResultLoader batchResultLoader = batchResultLoaders.get(propertyMapping);
+    if (batchResultLoader == null) {
+      batchResultLoader = new BatchResultLoader(configuration, executor, nestedQuery, propertyMapping);
+      batchResultLoaders.put(propertyMapping, batchResultLoader);
+    }
+    final ResultLoader resultLoader = batchResultLoader.newResultLoader(keyParameterObject);
+    if (propertyMapping.isLazy()) {
+      lazyLoader.addLoader(propertyMapping.getProperty(), metaResultObject, resultLoader);
+      return DEFERED;
+    } else if (pendingBatchLoads != null) {
+      final PendingBatchLoad pendingBatchLoad = new PendingBatchLoad();
+      pendingBatchLoad.metaObject = metaResultObject;
+      pendingBatchLoad.property = propertyMapping.getProperty();
+      pendingBatchLoad.resultLoader = resultLoader;
+      pendingBatchLoads.add(pendingBatchLoad);
+      return DEFERED;
+    }
+    return resultLoader.loadResult();
+  }
+
+  private void loadPendingBatches() throws SQLException {
+    if (pendingBatchLoads != null) {
+      for (PendingBatchLoad pendingBatchLoad : pendingBatchLoads) {
+        final Object value = pendingBatchLoad.resultLoader.loadResult();
+        if (value != null || (configuration.isCallSettersOnNulls() && !pendingBatchLoad.metaObject.getSetterType(pendingBatchLoad.property).isPrimitive())) {
+          pendingBatchLoad.metaObject.setValue(pendingBatchLoad.property, value);
+        }
+      }
+      pendingBatchLoads = null;
+    }
+  }
+
   private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
     if (resultMapping.isCompositeResult()) {
       return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -812,10 +1016,28 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
     skipRows(rsw.getResultSet(), rowBounds);
     Object rowValue = previousRowValue;
+    if (rowValue == null) {
+      orderedRowIdentity.reset();
+    }
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
-      final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
-      Object partialObject = nestedResultObjects.get(rowKey);
+      final CacheKey rowKey;
+      final Object partialObject;
+      final ColumnPlan columnPlan = rsw.getColumnPlan(discriminatedResultMap, null);
+      if (mappedStatement.isResultOrdered() && columnPlan.hasRowKeyColumns()) {
+        // only the current top level object is kept, a row with its key continues it
+        if (orderedRowIdentity.update(rsw.getResultSet(), columnPlan)) {
+          rowKey = orderedRowKey;
+          partialObject = rowValue;
+        } else {
+          rowKey = createRowKey(discriminatedResultMap, rsw, null);
+          orderedRowKey = rowKey;
+          partialObject = null;
+        }
+      } else {
+        rowKey = createRowKey(discriminatedResultMap, rsw, null);
+        partialObject = nestedResultObjects.get(rowKey);
+      }
       // issue #577 && #542
       if (mappedStatement.isResultOrdered()) {
         if (partialObject == null && rowValue != null) {
@@ -846,15 +1068,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final String resultMapId = resultMap.getId();
     Object resultObject = partialObject;
     if (resultObject != null) {
-      final MetaObject metaObject = configuration.newMetaObject(resultObject);
+      final MetaObject metaObject = newRowMetaObject(resultMap, resultObject);
       putAncestor(resultObject, resultMapId, columnPrefix);
       applyNestedResultMappings(rsw, resultMap, metaObject, columnPrefix, combinedKey, false);
       ancestorObjects.remove(resultMapId);
     } else {
-      final ResultLoaderMap lazyLoader = new ResultLoaderMap();
+      final ResultLoaderMap lazyLoader = newResultLoaderMap(resultMap);
       resultObject = createResultObject(rsw, resultMap, lazyLoader, columnPrefix);
       if (resultObject != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
-        final MetaObject metaObject = configuration.newMetaObject(resultObject);
+        final MetaObject metaObject = newRowMetaObject(resultMap, resultObject);
         boolean foundValues = !resultMap.getConstructorResultMappings().isEmpty();
         if (shouldApplyAutomaticMappings(resultMap, true)) {
           foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
@@ -863,7 +1085,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         putAncestor(resultObject, resultMapId, columnPrefix);
         foundValues = applyNestedResultMappings(rsw, resultMap, metaObject, columnPrefix, combinedKey, true) || foundValues;
         ancestorObjects.remove(resultMapId);
-        foundValues = lazyLoader.size() > 0 || foundValues;
+        foundValues = (lazyLoader != null && lazyLoader.size() > 0) || foundValues;
         resultObject = foundValues ? resultObject : null;
       }
       if (combinedKey != CacheKey.NULL_CACHE_KEY) {
@@ -956,9 +1178,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   //
 
   private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-    final CacheKey cacheKey = new CacheKey();
-    cacheKey.update(resultMap.getId());
+    final ColumnPlan columnPlan = rsw.getColumnPlan(resultMap, columnPrefix);
+    if (columnPlan.hasRowKeyColumns()) {
+      return createRowKeyForColumns(resultMap, rsw, columnPlan);
+    }
     List<ResultMapping> resultMappings = getResultMappingsForRowKey(resultMap);
+    final CacheKey cacheKey;
+    if (resultMappings.size() == 0) {
+      cacheKey = new CacheKey(rsw.getColumnNames().size() * 2 + 1);
+    } else {
+      cacheKey = new CacheKey(resultMappings.size() * 2 + 1);
+    }
+    cacheKey.update(resultMap.getId());
     if (resultMappings.size() == 0) {
       if (Map.class.isAssignableFrom(resultMap.getType())) {
         createRowKeyForMap(rsw, cacheKey);
@@ -971,7 +1202,26 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (cacheKey.getUpdateCount() < 2) {
       return CacheKey.NULL_CACHE_KEY;
     }    
-    return cacheKey;
+    return cacheKey.freeze();
+  }
+
+  private CacheKey createRowKeyForColumns(ResultMap resultMap, ResultSetWrapper rsw, ColumnPlan columnPlan) throws SQLException {
+    final String[] columns = columnPlan.getRowKeyColumns();
+    final int[] columnIndexes = columnPlan.getRowKeyColumnIndexes();
+    final TypeHandler<?>[] typeHandlers = columnPlan.getRowKeyTypeHandlers();
+    final CacheKey cacheKey = new CacheKey(columnIndexes.length * 2 + 1);
+    cacheKey.update(resultMap.getId());
+    for (int i = 0; i < columnIndexes.length; i++) {
+      final Object value = typeHandlers[i].getResult(rsw.getResultSet(), columnIndexes[i]);
+      if (value != null) {
+        cacheKey.update(columns[i]);
+        cacheKey.update(value);
+      }
+    }
+    if (cacheKey.getUpdateCount() < 2) {
+      return CacheKey.NULL_CACHE_KEY;
+    }
+    return cacheKey.freeze();
   }
 
   private CacheKey combineKeys(CacheKey rowKey, CacheKey parentRowKey) {
@@ -983,7 +1233,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
       }
       combinedKey.update(parentRowKey);
-      return combinedKey;
+      return combinedKey.freeze();
     }
     return CacheKey.NULL_CACHE_KEY;
   }
@@ -1006,10 +1256,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       } else if (resultMapping.getNestedQueryId() == null) {
         final String column = prependPrefix(resultMapping.getColumn(), columnPrefix);
         final TypeHandler<?> th = resultMapping.getTypeHandler();
-        List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
         // Issue #114
-        if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-          final Object value = th.getResult(rsw.getResultSet(), column);
+        final int columnIndex = rsw.getColumnPlan(resultMap, columnPrefix).getMappedColumnIndex(column);
+        if (columnIndex > 0) {
+          final Object value = th.getResult(rsw.getResultSet(), columnIndex);
           if (value != null) {
             cacheKey.update(column);
             cacheKey.update(value);
@@ -1020,9 +1270,26 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
+    final ColumnPlan columnPlan = rsw.getColumnPlan(resultMap, columnPrefix);
+    int[] columnIndexes = columnPlan.getUnmappedRowKeyColumnIndexes();
+    if (columnIndexes == null) {
+      columnIndexes = findUnmappedRowKeyColumns(resultMap, rsw, columnPlan, columnPrefix);
+      columnPlan.setUnmappedRowKeyColumnIndexes(columnIndexes);
+    }
+    final List<String> columnNames = rsw.getColumnNames();
+    for (int columnIndex : columnIndexes) {
+      String value = rsw.getResultSet().getString(columnIndex);
+      if (value != null) {
+        cacheKey.update(columnNames.get(columnIndex - 1));
+        cacheKey.update(value);
+      }
+    }
+  }
+
+  private int[] findUnmappedRowKeyColumns(ResultMap resultMap, ResultSetWrapper rsw, ColumnPlan columnPlan, String columnPrefix) {
     final MetaClass metaType = MetaClass.forClass(resultMap.getType(), reflectorFactory);
-    List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
-    for (String column : unmappedColumnNames) {
+    final List<Integer> columnIndexes = new ArrayList<Integer>();
+    for (String column : columnPlan.getUnmappedColumnNames()) {
       String property = column;
       if (columnPrefix != null && !columnPrefix.isEmpty()) {
         // When columnPrefix is specified, ignore columns without the prefix.
@@ -1033,21 +1300,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-        String value = rsw.getResultSet().getString(column);
-        if (value != null) {
-          cacheKey.update(column);
-          cacheKey.update(value);
-        }
+        columnIndexes.add(rsw.getColumnIndex(column));
       }
     }
+    final int[] indexes = new int[columnIndexes.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = columnIndexes.get(i);
+    }
+    return indexes;
   }
 
   private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
     List<String> columnNames = rsw.getColumnNames();
-    for (String columnName : columnNames) {
-      final String value = rsw.getResultSet().getString(columnName);
+    for (int i = 0; i < columnNames.size(); i++) {
+      final String value = rsw.getResultSet().getString(i + 1);
       if (value != null) {
-        cacheKey.update(columnName);
+        cacheKey.update(columnNames.get(i));
         cacheKey.update(value);
       }
     }
@@ -16,17 +16,11 @@
 package org.apache.ibatis.executor.resultset;
 
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
+
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
@@ -42,45 +36,56 @@ public class ResultSetWrapper {
 
   private final ResultSet resultSet;
   private final TypeHandlerRegistry typeHandlerRegistry;
-  private final List<String> columnNames = new ArrayList<String>();
-  private final List<String> classNames = new ArrayList<String>();
-  private final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>();
-  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
-  private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
-  private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+  private final ColumnLayout layout;
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
+    this(rs, configuration, null);
+  }
+
+  /**
+   * Reuses the column layout the mapped statement has cached for result sets with the same metadata.
+   */
+  public ResultSetWrapper(ResultSet rs, Configuration configuration, MappedStatement mappedStatement) throws SQLException {
     super();
     this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
     this.resultSet = rs;
-    final ResultSetMetaData metaData = rs.getMetaData();
-    final int columnCount = metaData.getColumnCount();
-    for (int i = 1; i <= columnCount; i++) {
-      columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
-      jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
-      classNames.add(metaData.getColumnClassName(i));
-    }
+    final ColumnLayout columnLayout = ColumnLayout.read(rs.getMetaData(), configuration.isUseColumnLabel());
+    this.layout = mappedStatement == null ? columnLayout : mappedStatement.cacheColumnLayout(columnLayout);
   }
 
   public ResultSet getResultSet() {
     return resultSet;
   }
 
+  public ColumnLayout getColumnLayout() {
+    return layout;
+  }
+
   public List<String> getColumnNames() {
-    return this.columnNames;
+    return layout.getColumnNames();
   }
 
   public List<String> getClassNames() {
-    return Collections.unmodifiableList(classNames);
+    return layout.getClassNames();
+  }
+
+  /**
+   * @return The 1 based index of the first column with the name, ignoring case, or -1 if there is none
+   */
+  public int getColumnIndex(String columnName) {
+    return layout.getColumnIndex(columnName);
+  }
+
+  /**
+   * @return A key made of the names and types of all columns, equal for result sets with the same layout
+   */
+  public String getColumnLayoutKey() {
+    return layout.getSignature();
   }
 
   public JdbcType getJdbcType(String columnName) {
-    for (int i = 0 ; i < columnNames.size(); i++) {
-      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
-        return jdbcTypes.get(i);
-      }
-    }
-    return null;
+    final int index = layout.getColumnIndex(columnName);
+    return index < 0 ? null : layout.getJdbcTypes().get(index - 1);
   }
 
   /**
@@ -93,22 +98,15 @@ public class ResultSetWrapper {
    * @return
    */
   public TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
-    TypeHandler<?> handler = null;
-    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
-    if (columnHandlers == null) {
-      columnHandlers = new HashMap<Class<?>, TypeHandler<?>>();
-      typeHandlerMap.put(columnName, columnHandlers);
-    } else {
-      handler = columnHandlers.get(propertyType);
-    }
+    TypeHandler<?> handler = propertyType == null ? null : layout.getTypeHandler(columnName, propertyType);
     if (handler == null) {
       JdbcType jdbcType = getJdbcType(columnName);
       handler = typeHandlerRegistry.getTypeHandler(propertyType, jdbcType);
       // Replicate logic of UnknownTypeHandler#resolveTypeHandler
       // See issue #59 comment 10
       if (handler == null || handler instanceof UnknownTypeHandler) {
-        final int index = columnNames.indexOf(columnName);
-        final Class<?> javaType = resolveClass(classNames.get(index));
+        final int index = layout.getColumnIndex(columnName);
+        final Class<?> javaType = index < 0 ? null : resolveClass(layout.getClassNames().get(index - 1));
         if (javaType != null && jdbcType != null) {
           handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
         } else if (javaType != null) {
@@ -120,7 +118,9 @@ public class ResultSetWrapper {
       if (handler == null || handler instanceof UnknownTypeHandler) {
         handler = new ObjectTypeHandler();
       }
-      columnHandlers.put(propertyType, handler);
+      if (propertyType != null) {
+        layout.putTypeHandler(columnName, propertyType, handler);
+      }
     }
     return handler;
   }
@@ -133,54 +133,19 @@ public class ResultSetWrapper {
     }
   }
 
-  private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = new ArrayList<String>();
-    List<String> unmappedColumnNames = new ArrayList<String>();
-    final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
-    final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
-    for (String columnName : columnNames) {
-      final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
-      if (mappedColumns.contains(upperColumnName)) {
-        mappedColumnNames.add(upperColumnName);
-      } else {
-        unmappedColumnNames.add(columnName);
-      }
-    }
-    mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
-    unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
+  /**
+   * @return The columns of this result set planned for the result map, computed once per column layout
+   */
+  public ColumnPlan getColumnPlan(ResultMap resultMap, String columnPrefix) {
+    return layout.getColumnPlan(resultMap, columnPrefix);
   }
 
   public List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (mappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    }
-    return mappedColumnNames;
+    return getColumnPlan(resultMap, columnPrefix).getMappedColumnNames();
   }
 
   public List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (unMappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    }
-    return unMappedColumnNames;
-  }
-
-  private String getMapKey(ResultMap resultMap, String columnPrefix) {
-    return resultMap.getId() + ":" + columnPrefix;
+    return getColumnPlan(resultMap, columnPrefix).getUnmappedColumnNames();
   }
 
-  private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
-    if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
-      return columnNames;
-    }
-    final Set<String> prefixed = new HashSet<String>();
-    for (String columnName : columnNames) {
-      prefixed.add(prefix + columnName);
-    }
-    return prefixed;
-  }
-  
 }
@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.ByteTypeHandler;
+import org.apache.ibatis.type.IntegerTypeHandler;
+import org.apache.ibatis.type.LongTypeHandler;
+import org.apache.ibatis.type.ShortTypeHandler;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * The values of the row key columns of the current top level row of an ordered nested result set.
+ * <p>
+ * When results are ordered a top level object ends exactly where these values change, so the handler compares them
+ * with the values of the previous row instead of building a row key for every row. Columns read by the built in
+ * integral type handlers are compared as longs, without boxing.
+ */
+final class RowIdentity {
+
+  private static final byte OBJECT = 0;
+  private static final byte BYTE = 1;
+  private static final byte SHORT = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+
+  private ColumnPlan columnPlan;
+  private byte[] kinds;
+  private long[] longValues;
+  private Object[] values;
+  private boolean[] nulls;
+  private boolean identified;
+
+  /**
+   * Reads the row key columns of the current row and keeps their values.
+   *
+   * @param rs - the result set, positioned on the row
+   * @param columnPlan - the plan of the result map of the row, which must have row key columns
+   * @return Whether the row has the key of the previous row, false if either has no key
+   */
+  boolean update(ResultSet rs, ColumnPlan columnPlan) throws SQLException {
+    final int[] columnIndexes = columnPlan.getRowKeyColumnIndexes();
+    boolean same = identified;
+    if (columnPlan != this.columnPlan) {
+      // another result map, after the discriminator was applied, or another result set
+      prepare(columnPlan);
+      same = false;
+    }
+    boolean anyValue = false;
+    for (int i = 0; i < columnIndexes.length; i++) {
+      final boolean isNull;
+      if (kinds[i] == OBJECT) {
+        final Object value = columnPlan.getRowKeyTypeHandlers()[i].getResult(rs, columnIndexes[i]);
+        isNull = value == null;
+        same = same && (isNull ? nulls[i] : value.equals(values[i]));
+        values[i] = value;
+      } else {
+        final long value = readLong(rs, columnIndexes[i], kinds[i]);
+        isNull = rs.wasNull();
+        same = same && nulls[i] == isNull && (isNull || longValues[i] == value);
+        longValues[i] = value;
+      }
+      nulls[i] = isNull;
+      anyValue = anyValue || !isNull;
+    }
+    identified = anyValue;
+    return same && anyValue;
+  }
+
+  /**
+   * Forgets the previous row, the next one is never the same.
+   */
+  void reset() {
+    identified = false;
+  }
+
+  private void prepare(ColumnPlan columnPlan) {
+    final TypeHandler<?>[] typeHandlers = columnPlan.getRowKeyTypeHandlers();
+    this.columnPlan = columnPlan;
+    this.kinds = new byte[typeHandlers.length];
+    this.longValues = new long[typeHandlers.length];
+    this.values = new Object[typeHandlers.length];
+    this.nulls = new boolean[typeHandlers.length];
+    for (int i = 0; i < typeHandlers.length; i++) {
+      kinds[i] = kindOf(typeHandlers[i]);
+    }
+  }
+
+  private static byte kindOf(TypeHandler<?> typeHandler) {
+    // exact classes only, a subclass may map the values differently
+    final Class<?> type = typeHandler.getClass();
+    if (type == IntegerTypeHandler.class) {
+      return INTEGER;
+    } else if (type == LongTypeHandler.class) {
+      return LONG;
+    } else if (type == ShortTypeHandler.class) {
+      return SHORT;
+    } else if (type == ByteTypeHandler.class) {
+      return BYTE;
+    }
+    return OBJECT;
+  }
+
+  private static long readLong(ResultSet rs, int columnIndex, byte kind) throws SQLException {
+    switch (kind) {
+      case BYTE:
+        return rs.getByte(columnIndex);
+      case SHORT:
+        return rs.getShort(columnIndex);
+      case INTEGER:
+        return rs.getInt(columnIndex);
+      default:
+        return rs.getLong(columnIndex);
+    }
+  }
+
+}
@@ -0,0 +1,338 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.LoaderClassPath;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.property.PropertyNamer;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Generates and keeps the {@link CompiledRowMapper}s of a configuration, one per result map and column layout.
+ * <p>
+ * A mapper is generated with Javassist from a {@link Plan} listing the columns, already resolved to their
+ * index and type handler, and the constructor arguments and properties they are mapped to. It creates the
+ * result object with {@code new} and calls public setters directly, so plans for types, constructors or
+ * setters that are not public, or for nested properties, are not compiled and keep being mapped by the
+ * {@link DefaultResultSetHandler}.
+ */
+public class RowMapperCompiler {
+
+  private static final Log log = LogFactory.getLog(RowMapperCompiler.class);
+
+  private static final int MAXIMUM_MAPPERS = 1024;
+  private static final AtomicInteger SEQUENCE = new AtomicInteger();
+  // marks the keys whose plan cannot be compiled, it is not a mapper so it can never be handed out as one
+  private static final Object NOT_COMPILED = new Object();
+
+  private final ConcurrentHashMap<String, Object> mappers = new ConcurrentHashMap<String, Object>();
+  private final boolean available;
+  private final Map<ClassLoader, Boolean> classPoolLoaders = new WeakHashMap<ClassLoader, Boolean>();
+  private ClassPool classPool;
+
+  public RowMapperCompiler() {
+    boolean javassist;
+    try {
+      Resources.classForName("javassist.ClassPool");
+      javassist = true;
+    } catch (Throwable e) {
+      log.debug("Row mappers will not be compiled because Javassist is not available.");
+      javassist = false;
+    }
+    this.available = javassist;
+  }
+
+  /*
+   * @return The mapper compiled for the key, null if there is none
+   */
+  CompiledRowMapper getMapper(String key) {
+    return asMapper(mappers.get(key));
+  }
+
+  int getCompiledMapperCount() {
+    int count = 0;
+    for (Object mapper : mappers.values()) {
+      if (mapper instanceof CompiledRowMapper) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /*
+   * @return Whether a plan for the key was already compiled or found not to be compilable
+   */
+  boolean isResolved(String key) {
+    return !available || mappers.containsKey(key) || mappers.size() >= MAXIMUM_MAPPERS;
+  }
+
+  /*
+   * Marks a key whose plan cannot be compiled, so it is not planned again
+   */
+  void reject(String key) {
+    if (mappers.size() < MAXIMUM_MAPPERS) {
+      mappers.putIfAbsent(key, NOT_COMPILED);
+    }
+  }
+
+  /*
+   * Compiles the plan of a key
+   *
+   * @return The compiled mapper, null if the plan cannot be compiled
+   */
+  CompiledRowMapper compile(String key, Plan plan, ReflectorFactory reflectorFactory) {
+    if (isResolved(key)) {
+      return getMapper(key);
+    }
+    CompiledRowMapper mapper;
+    try {
+      mapper = generate(plan, reflectorFactory);
+    } catch (Throwable e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Could not compile a row mapper for " + plan.type.getName() + ".  Cause: " + e);
+      }
+      mapper = null;
+    }
+    Object previous = mappers.putIfAbsent(key, mapper == null ? NOT_COMPILED : mapper);
+    if (previous != null) {
+      return asMapper(previous);
+    }
+    return mapper;
+  }
+
+  private static CompiledRowMapper asMapper(Object mapper) {
+    return mapper instanceof CompiledRowMapper ? (CompiledRowMapper) mapper : null;
+  }
+
+  private CompiledRowMapper generate(Plan plan, ReflectorFactory reflectorFactory) throws Exception {
+    Class<?> type = plan.type;
+    ClassLoader classLoader = type.getClassLoader();
+    if (classLoader == null || !isAccessible(type)) {
+      return null;
+    }
+    Constructor<?> constructor = type.getConstructor(plan.constructorTypes.toArray(new Class<?>[plan.constructorTypes.size()]));
+    if (!Modifier.isPublic(constructor.getModifiers())) {
+      return null;
+    }
+    Method[] setters = new Method[plan.properties.size()];
+    Reflector reflector = reflectorFactory.findForClass(type);
+    for (int i = 0; i < setters.length; i++) {
+      setters[i] = findSetter(type, reflector, plan.properties.get(i));
+      if (setters[i] == null) {
+        return null;
+      }
+    }
+
+    StringBuilder body = new StringBuilder();
+    body.append("public Object map(java.sql.ResultSet rs) throws java.sql.SQLException {\n");
+    body.append("  boolean found = ").append(!plan.constructorTypes.isEmpty()).append(";\n");
+    body.append("  Object v;\n");
+    int handler = 0;
+    StringBuilder arguments = new StringBuilder();
+    StringBuilder anyArgument = new StringBuilder();
+    for (int i = 0; i < plan.constructorTypes.size(); i++, handler++) {
+      body.append("  Object a").append(i).append(" = typeHandlers[").append(handler).append("].getResult(rs, ")
+          .append(plan.columns.get(handler)).append(");\n");
+      arguments.append(i == 0 ? "" : ", ").append(unwrap("a" + i, plan.constructorTypes.get(i)));
+      anyArgument.append(i == 0 ? "" : " || ").append("a").append(i).append(" != null");
+    }
+    if (anyArgument.length() > 0) {
+      body.append("  if (!(").append(anyArgument).append(")) return null;\n");
+    }
+    String typeName = typeName(type);
+    body.append("  ").append(typeName).append(" o = new ").append(typeName).append("(").append(arguments).append(");\n");
+    for (int i = 0; i < setters.length; i++, handler++) {
+      Class<?> parameterType = setters[i].getParameterTypes()[0];
+      String set = "o." + setters[i].getName() + "(" + unwrap("v", parameterType) + ");";
+      body.append("  v = typeHandlers[").append(handler).append("].getResult(rs, ").append(plan.columns.get(handler)).append(");\n");
+      if (plan.callSettersOnNulls && !parameterType.isPrimitive()) {
+        // gcode issue #377, call setter on nulls (value is not 'found')
+        body.append("  if (v != null) found = true;\n  ").append(set).append("\n");
+      } else {
+        body.append("  if (v != null) { found = true; ").append(set).append(" }\n");
+      }
+    }
+    body.append("  return found ? o : null;\n}");
+
+    Class<?> mapperClass;
+    synchronized (this) {
+      ClassPool pool = getClassPool(classLoader);
+      CtClass ctClass = pool.makeClass(type.getName() + "$$RowMapper" + SEQUENCE.incrementAndGet());
+      try {
+        ctClass.setSuperclass(pool.get(CompiledRowMapper.class.getName()));
+        ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+        ctClass.addMethod(CtMethod.make(body.toString(), ctClass));
+        mapperClass = ctClass.toClass(classLoader, type.getProtectionDomain());
+      } finally {
+        ctClass.detach();
+      }
+    }
+    CompiledRowMapper mapper = (CompiledRowMapper) mapperClass.newInstance();
+    mapper.typeHandlers = plan.typeHandlers.toArray(new TypeHandler<?>[plan.typeHandlers.size()]);
+    return mapper;
+  }
+
+  private ClassPool getClassPool(ClassLoader classLoader) {
+    if (classPool == null) {
+      classPool = new ClassPool(true);
+      classPool.appendClassPath(new ClassClassPath(CompiledRowMapper.class));
+    }
+    if (classPoolLoaders.put(classLoader, Boolean.TRUE) == null) {
+      classPool.insertClassPath(new LoaderClassPath(classLoader));
+    }
+    return classPool;
+  }
+
+  private Method findSetter(Class<?> type, Reflector reflector, String property) {
+    if (!reflector.hasSetter(property)) {
+      return null;
+    }
+    Method found = null;
+    for (Method method : type.getMethods()) {
+      if (method.getParameterTypes().length == 1
+          && PropertyNamer.isSetter(method.getName())
+          && property.equals(PropertyNamer.methodToProperty(method.getName()))
+          && isAccessible(method.getDeclaringClass())) {
+        if (found != null) {
+          // overloaded, only use the setter the reflector would use
+          Class<?> setterType = reflector.getSetterType(property);
+          if (found.getParameterTypes()[0] == setterType) {
+            continue;
+          } else if (method.getParameterTypes()[0] != setterType) {
+            return null;
+          }
+        }
+        found = method;
+      }
+    }
+    return found;
+  }
+
+  private boolean isAccessible(Class<?> type) {
+    for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+      if (!Modifier.isPublic(current.getModifiers())
+          || (current.getEnclosingClass() != null && !Modifier.isStatic(current.getModifiers()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String unwrap(String variable, Class<?> type) {
+    if (!type.isPrimitive()) {
+      return "(" + typeName(type) + ") " + variable;
+    } else if (type == int.class) {
+      return "((java.lang.Integer) " + variable + ").intValue()";
+    } else if (type == long.class) {
+      return "((java.lang.Long) " + variable + ").longValue()";
+    } else if (type == boolean.class) {
+      return "((java.lang.Boolean) " + variable + ").booleanValue()";
+    } else if (type == double.class) {
+      return "((java.lang.Double) " + variable + ").doubleValue()";
+    } else if (type == float.class) {
+      return "((java.lang.Float) " + variable + ").floatValue()";
+    } else if (type == short.class) {
+      return "((java.lang.Short) " + variable + ").shortValue()";
+    } else if (type == byte.class) {
+      return "((java.lang.Byte) " + variable + ").byteValue()";
+    }
+    return "((java.lang.Character) " + variable + ").charValue()";
+  }
+
+  private String typeName(Class<?> type) {
+    return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+  }
+
+  /**
+   * What a row mapper reads and where it puts it. Columns are 1 based indexes, the constructor
+   * arguments come first.
+   */
+  static final class Plan {
+
+    private final Class<?> type;
+    private final boolean callSettersOnNulls;
+    private final List<Class<?>> constructorTypes = new ArrayList<Class<?>>();
+    private final List<String> properties = new ArrayList<String>();
+    private final List<TypeHandler<?>> typeHandlers = new ArrayList<TypeHandler<?>>();
+    private final List<Integer> columns = new ArrayList<Integer>();
+
+    Plan(Class<?> type, boolean callSettersOnNulls) {
+      this.type = type;
+      this.callSettersOnNulls = callSettersOnNulls;
+    }
+
+    void addConstructorArgument(Class<?> javaType, TypeHandler<?> typeHandler, int column) {
+      if (!properties.isEmpty()) {
+        throw new IllegalStateException("Constructor arguments must be added before properties");
+      }
+      constructorTypes.add(javaType);
+      typeHandlers.add(typeHandler);
+      columns.add(column);
+    }
+
+    void addProperty(String property, TypeHandler<?> typeHandler, int column) {
+      properties.add(property);
+      typeHandlers.add(typeHandler);
+      columns.add(column);
+    }
+
+    Class<?> getType() {
+      return type;
+    }
+
+    boolean isCallSettersOnNulls() {
+      return callSettersOnNulls;
+    }
+
+    List<Class<?>> getConstructorTypes() {
+      return constructorTypes;
+    }
+
+    List<String> getProperties() {
+      return properties;
+    }
+
+    List<TypeHandler<?>> getTypeHandlers() {
+      return typeHandlers;
+    }
+
+    List<Integer> getColumns() {
+      return columns;
+    }
+
+  }
+
+}
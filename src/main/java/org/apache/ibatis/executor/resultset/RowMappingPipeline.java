@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Maps the rows of a simple result map on several threads.
+ * <p>
+ * The calling thread keeps reading the result set, which is not thread safe, and converts the columns of a
+ * {@link RowMapperCompiler.Plan} with their type handlers into batches of rows. The batches are mapped to objects by
+ * the threads of an executor, and the objects are handed to the result handler on the calling thread in the order of
+ * the rows. Only a few batches are in flight at any time, so a slow result handler holds the reading back.
+ */
+final class RowMappingPipeline {
+
+  private final Class<?> type;
+  private final boolean callSettersOnNulls;
+  private final List<Class<?>> constructorTypes;
+  private final String[] properties;
+  private final Invoker[] setters;
+  private final boolean[] primitives;
+  private final TypeHandler<?>[] typeHandlers;
+  private final int[] columns;
+  private final ObjectFactory objectFactory;
+  private final ExecutorService executor;
+  private final int batchSize;
+  private final int maximumPendingBatches;
+
+  RowMappingPipeline(RowMapperCompiler.Plan plan, ObjectFactory objectFactory, ReflectorFactory reflectorFactory,
+      ExecutorService executor, int threads, int batchSize) {
+    this.type = plan.getType();
+    this.callSettersOnNulls = plan.isCallSettersOnNulls();
+    this.constructorTypes = plan.getConstructorTypes();
+    this.properties = plan.getProperties().toArray(new String[plan.getProperties().size()]);
+    this.setters = new Invoker[properties.length];
+    this.primitives = new boolean[properties.length];
+    final Reflector reflector = reflectorFactory.findForClass(type);
+    for (int i = 0; i < properties.length; i++) {
+      setters[i] = reflector.getSetInvoker(properties[i]);
+      primitives[i] = reflector.getSetterType(properties[i]).isPrimitive();
+    }
+    this.typeHandlers = plan.getTypeHandlers().toArray(new TypeHandler<?>[plan.getTypeHandlers().size()]);
+    this.columns = new int[plan.getColumns().size()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = plan.getColumns().get(i);
+    }
+    this.objectFactory = objectFactory;
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.maximumPendingBatches = threads * 2;
+  }
+
+  /**
+   * Reads and maps the remaining rows of the result set.
+   *
+   * @param rs - the result set, positioned before the next row
+   * @param maximumRows - the number of rows to read at most
+   * @param resultHandler - the handler the objects are handed to, on the calling thread
+   * @param resultContext - the context of the handler
+   */
+  void run(ResultSet rs, int maximumRows, ResultHandler<?> resultHandler, DefaultResultContext<Object> resultContext) throws SQLException {
+    final LinkedList<Future<Object[]>> pending = new LinkedList<Future<Object[]>>();
+    try {
+      int remainingRows = maximumRows;
+      while (remainingRows > 0) {
+        final int size = Math.min(batchSize, remainingRows);
+        final Object[][] batch = read(rs, size);
+        remainingRows -= batch.length;
+        if (pending.isEmpty() && batch.length < size) {
+          // all rows fit in a single batch, not worth handing it over
+          handle(map(batch), resultHandler, resultContext);
+          return;
+        }
+        pending.add(executor.submit(new Callable<Object[]>() {
+          @Override
+          public Object[] call() {
+            return map(batch);
+          }
+        }));
+        if (pending.size() >= maximumPendingBatches) {
+          handle(await(pending.removeFirst()), resultHandler, resultContext);
+        }
+        if (batch.length < size) {
+          break;
+        }
+      }
+      while (!pending.isEmpty()) {
+        handle(await(pending.removeFirst()), resultHandler, resultContext);
+      }
+    } finally {
+      for (Future<Object[]> future : pending) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private Object[][] read(ResultSet rs, int size) throws SQLException {
+    final Object[][] rows = new Object[size][];
+    int count = 0;
+    while (count < size && rs.next()) {
+      final Object[] row = new Object[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        row[i] = typeHandlers[i].getResult(rs, columns[i]);
+      }
+      rows[count++] = row;
+    }
+    return count == size ? rows : Arrays.copyOf(rows, count);
+  }
+
+  private Object[] map(Object[][] rows) {
+    final Object[] rowValues = new Object[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      rowValues[i] = map(rows[i]);
+    }
+    return rowValues;
+  }
+
+  /*
+   * Does what DefaultResultSetHandler#getRowValue does for a row of a plan
+   */
+  private Object map(Object[] row) {
+    final int constructorArguments = constructorTypes.size();
+    boolean found = constructorArguments > 0;
+    final Object rowValue;
+    if (constructorArguments > 0) {
+      final List<Object> arguments = Arrays.asList(Arrays.copyOf(row, constructorArguments));
+      boolean anyArgument = false;
+      for (Object argument : arguments) {
+        anyArgument = anyArgument || argument != null;
+      }
+      if (!anyArgument) {
+        return null;
+      }
+      rowValue = objectFactory.create(type, constructorTypes, arguments);
+    } else {
+      rowValue = objectFactory.create(type);
+    }
+    for (int i = 0; i < properties.length; i++) {
+      final Object value = row[constructorArguments + i];
+      if (value != null) {
+        found = true;
+      }
+      if (value != null || (callSettersOnNulls && !primitives[i])) {
+        // gcode issue #377, call setter on nulls (value is not 'found')
+        set(rowValue, i, value);
+      }
+    }
+    return found ? rowValue : null;
+  }
+
+  private void set(Object rowValue, int property, Object value) {
+    try {
+      try {
+        setters[property].invoke(rowValue, new Object[] { value });
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    } catch (Throwable t) {
+      throw new ReflectionException("Could not set property '" + properties[property] + "' of '" + type + "' with value '" + value + "' Cause: " + t.toString(), t);
+    }
+  }
+
+  private Object[] await(Future<Object[]> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutorException("Interrupted while waiting for rows mapped in parallel.", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new ExecutorException("Error mapping rows in parallel.  Cause: " + cause, cause);
+    }
+  }
+
+  @SuppressWarnings("unchecked" /* because ResultHandler<?> is always ResultHandler<Object>*/)
+  private void handle(Object[] rowValues, ResultHandler<?> resultHandler, DefaultResultContext<Object> resultContext) {
+    for (Object rowValue : rowValues) {
+      resultContext.nextResultObject(rowValue);
+      ((ResultHandler<Object>) resultHandler).handleResult(resultContext);
+    }
+  }
+
+}
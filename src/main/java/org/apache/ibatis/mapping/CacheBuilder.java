@@ -23,12 +23,15 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.BlockingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -46,6 +49,8 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private Class<? extends CacheSerializer> serializer;
+  private CacheStatistics statistics;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -83,7 +88,17 @@ public class CacheBuilder {
     this.blocking = blocking;
     return this;
   }
+
+  public CacheBuilder serializer(Class<? extends CacheSerializer> serializer) {
+    this.serializer = serializer;
+    return this;
+  }
   
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -91,17 +106,25 @@ public class CacheBuilder {
 
   public Cache build() {
     setDefaultImplementations();
+    if (statistics == null) {
+      statistics = new CacheStatistics(id);
+    }
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
+    setCacheStatistics(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {//如果是最基本的map类型的cache会蹭蹭包装
       for (Class<? extends Cache> decorator : decorators) {
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
+        setCacheStatistics(cache);
       }
-      cache = setStandardDecorators(cache);
+      cache = setStandardDecorators(cache, true);
+    } else if (ConcurrentCache.class.equals(cache.getClass())) {
+      // evicts by itself and is thread safe, eviction decorators and the SynchronizedCache are not needed
+      cache = setStandardDecorators(cache, false);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      cache = new LoggingCache(cache);
+      cache = new LoggingCache(cache, statistics);
     }
     return cache;
   }
@@ -119,9 +142,10 @@ public class CacheBuilder {
   /**
    * 根据参数对cache再次层层包装
    * @param cache
+   * @param synchronize whether the cache must be wrapped in a SynchronizedCache
    * @return
    */
-  private Cache setStandardDecorators(Cache cache) {
+  private Cache setStandardDecorators(Cache cache, boolean synchronize) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
@@ -132,12 +156,16 @@ public class CacheBuilder {
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
       if (readWrite) {
-        cache = new SerializedCache(cache);
+        cache = serializer == null ? new SerializedCache(cache) : new SerializedCache(cache, serializer.newInstance());
+        ((SerializedCache) cache).setStatistics(statistics);
+      }
+      cache = new LoggingCache(cache, statistics);
+      if (synchronize) {
+        cache = new SynchronizedCache(cache);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
       if (blocking) {
         cache = new BlockingCache(cache);
+        ((BlockingCache) cache).setStatistics(statistics);
       }
       return cache;
     } catch (Exception e) {
@@ -186,6 +214,15 @@ public class CacheBuilder {
       }
     }
   }
+  /**
+   * Hands the statistics to the caches that collect some of them, like the eviction decorators
+   */
+  private void setCacheStatistics(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("statistics") && metaCache.getSetterType("statistics") == CacheStatistics.class) {
+      metaCache.setValue("statistics", statistics);
+    }
+  }
   /**
    * 反射出cache对象
    * @param cacheClass
@@ -18,8 +18,11 @@ package org.apache.ibatis.mapping;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.resultset.ColumnLayout;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -33,6 +36,8 @@ import org.apache.ibatis.session.Configuration;
  */
 public final class MappedStatement {
 
+  private static final int MAXIMUM_COLUMN_LAYOUTS = 32;
+
   private String resource;
   private Configuration configuration;
   private String id;
@@ -56,6 +61,7 @@ public final class MappedStatement {
   private Log statementLog;//log
   private LanguageDriver lang;
   private String[] resultSets;
+  private final ConcurrentMap<String, ColumnLayout> columnLayouts = new ConcurrentHashMap<String, ColumnLayout>();
 
   MappedStatement() {
     // constructor disabled
@@ -288,6 +294,26 @@ public final class MappedStatement {
     return resultSets;
   }
   
+  /**
+   * Returns the layout cached for result sets with the same signature, caching the given one if there is none.
+   * A statement whose result sets keep changing columns, like a <code>select *</code> over dynamic tables,
+   * stops caching new layouts after a few of them.
+   *
+   * @param layout - the layout read from the metadata of a result set of this statement
+   * @return The cached layout, or the given one
+   */
+  public ColumnLayout cacheColumnLayout(ColumnLayout layout) {
+    final ColumnLayout cached = columnLayouts.get(layout.getSignature());
+    if (cached != null) {
+      return cached;
+    }
+    if (columnLayouts.size() >= MAXIMUM_COLUMN_LAYOUTS) {
+      return layout;
+    }
+    final ColumnLayout existing = columnLayouts.putIfAbsent(layout.getSignature(), layout);
+    return existing != null ? existing : layout;
+  }
+
   public BoundSql getBoundSql(Object parameterObject) {
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
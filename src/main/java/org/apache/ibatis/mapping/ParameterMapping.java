@@ -17,6 +17,7 @@ package org.apache.ibatis.mapping;
 
 import java.sql.ResultSet;
 
+import org.apache.ibatis.reflection.PropertyPath;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
@@ -38,6 +39,7 @@ public class ParameterMapping {
   private String resultMapId;
   private String jdbcTypeName;
   private String expression;
+  private PropertyPath propertyPath;
 
   private ParameterMapping() {
   }
@@ -201,6 +203,17 @@ public class ParameterMapping {
     return expression;
   }
 
+  /**
+   * Used for reading the value of the property, resolved on first use
+   * @return
+   */
+  public PropertyPath getPropertyPath() {
+    if (propertyPath == null) {
+      propertyPath = configuration.newPropertyPath(property);
+    }
+    return propertyPath;
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder("ParameterMapping{");
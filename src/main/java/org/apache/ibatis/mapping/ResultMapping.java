@@ -45,6 +45,8 @@ public class ResultMapping {
   private String resultSet;
   private String foreignColumn;//外部字段集合 逗号分割
   private boolean lazy;
+  private int batchSize;
+  private String batchKey;
 
   ResultMapping() {
   }
@@ -131,6 +133,16 @@ public class ResultMapping {
       resultMapping.lazy = lazy;
       return this;
     }
+
+    public Builder batchSize(int batchSize) {
+      resultMapping.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder batchKey(String batchKey) {
+      resultMapping.batchKey = batchKey;
+      return this;
+    }
     
     public ResultMapping build() {
       // lock down collections
@@ -167,6 +179,9 @@ public class ResultMapping {
           throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
         }
       }
+      if (resultMapping.batchSize > 0 && resultMapping.nestedQueryId == null) {
+        throw new IllegalStateException("A batchSize can only be set on a nested select in property " + resultMapping.property);
+      }
     }
     
     private void resolveTypeHandler() {
@@ -250,6 +265,20 @@ public class ResultMapping {
   public void setLazy(boolean lazy) {
     this.lazy = lazy;
   }
+
+  /**
+   * @return the number of keys a nested select loads at once, or 0 when it loads one key at a time
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @return the comma separated properties of the loaded objects that hold the key, or null for their id properties
+   */
+  public String getBatchKey() {
+    return batchKey;
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -298,6 +327,8 @@ public class ResultMapping {
     sb.append(", resultSet='").append(resultSet).append('\'');
     sb.append(", foreignColumn='").append(foreignColumn).append('\'');
     sb.append(", lazy=").append(lazy);
+    sb.append(", batchSize=").append(batchSize);
+    sb.append(", batchKey='").append(batchKey).append('\'');
     sb.append('}');
     return sb.toString();
   }
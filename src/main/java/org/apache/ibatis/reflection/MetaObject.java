@@ -65,6 +65,31 @@ public class MetaObject {
     }
   }
 
+  /**
+   * Points this meta object to another object of the class of the current one, so that code going over many objects
+   * of a class does not need a new meta object for each of them. Only objects wrapped by a plain bean or map wrapper
+   * can be re-targeted.
+   *
+   * @param object - the object to point to
+   * @return false if this meta object could not be re-targeted, a new one is needed then
+   */
+  @SuppressWarnings("unchecked")
+  public boolean retarget(Object object) {
+    if (object == null || object.getClass() != originalObject.getClass()
+        || object instanceof ObjectWrapper || objectWrapperFactory.hasWrapperFor(object)) {
+      return false;
+    }
+    if (objectWrapper.getClass() == BeanWrapper.class) {
+      ((BeanWrapper) objectWrapper).retarget(object);
+    } else if (objectWrapper.getClass() == MapWrapper.class) {
+      ((MapWrapper) objectWrapper).retarget((Map<String, Object>) object);
+    } else {
+      return false;
+    }
+    originalObject = object;
+    return true;
+  }
+
   public ObjectFactory getObjectFactory() {
     return objectFactory;
   }
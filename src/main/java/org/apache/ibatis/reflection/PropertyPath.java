@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+
+/**
+ * A property expression like <code>author.name</code>, tokenized once and read from many objects with the getters
+ * resolved for the classes met along the path, instead of creating a {@link MetaObject} for each read.
+ * <p>
+ * Reads the same values as {@link MetaObject#getValue(String)}. Indexed properties, collections, object wrappers
+ * and custom object wrapper factories are read through a MetaObject.
+ */
+public final class PropertyPath {
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  private final String expression;
+  private final String rootName;
+  private final String[] names;
+  // the getter last used at each step of the path, with the class it belongs to
+  private final Getter[] getters;
+  private final ObjectFactory objectFactory;
+  private final ObjectWrapperFactory objectWrapperFactory;
+  private final ReflectorFactory reflectorFactory;
+
+  public PropertyPath(String expression, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory, ReflectorFactory reflectorFactory) {
+    this.expression = expression;
+    this.objectFactory = objectFactory;
+    this.objectWrapperFactory = objectWrapperFactory;
+    this.reflectorFactory = reflectorFactory;
+    PropertyTokenizer prop = new PropertyTokenizer(expression);
+    this.rootName = prop.getIndexedName();
+    this.names = objectWrapperFactory.getClass() == DefaultObjectWrapperFactory.class ? split(prop) : null;
+    this.getters = names == null ? null : new Getter[names.length];
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * @return The first property of the path, with its index if it has one
+   */
+  public String getRootName() {
+    return rootName;
+  }
+
+  public Object getValue(Object object) {
+    if (names == null) {
+      return getValueWithMetaObject(object);
+    }
+    Object value = object;
+    for (int i = 0; i < names.length; i++) {
+      if (value == null) {
+        return null;
+      } else if (value instanceof Map) {
+        value = ((Map<?, ?>) value).get(names[i]);
+      } else if (value instanceof ObjectWrapper || value instanceof Collection) {
+        return getValueWithMetaObject(object);
+      } else {
+        Getter getter = getters[i];
+        if (getter == null || getter.type != value.getClass()) {
+          Reflector reflector = reflectorFactory.findForClass(value.getClass());
+          if (!reflector.hasGetter(names[i])) {
+            return getValueWithMetaObject(object);
+          }
+          getter = new Getter(value.getClass(), reflector.getGetInvoker(names[i]));
+          getters[i] = getter;
+        }
+        value = getter.get(names[i], value);
+      }
+    }
+    return value;
+  }
+
+  private Object getValueWithMetaObject(Object object) {
+    return MetaObject.forObject(object, objectFactory, objectWrapperFactory, reflectorFactory).getValue(expression);
+  }
+
+  // the names of the properties of the path, or null if one of them is indexed
+  private static String[] split(PropertyTokenizer prop) {
+    List<String> names = new ArrayList<String>();
+    for (PropertyTokenizer next = prop; ; next = next.next()) {
+      if (next.getIndex() != null) {
+        return null;
+      }
+      names.add(next.getName());
+      if (!next.hasNext()) {
+        return names.toArray(new String[names.size()]);
+      }
+    }
+  }
+
+  private static final class Getter {
+    private final Class<?> type;
+    private final Invoker invoker;
+
+    Getter(Class<?> type, Invoker invoker) {
+      this.type = type;
+      this.invoker = invoker;
+    }
+
+    Object get(String name, Object object) {
+      try {
+        try {
+          return invoker.invoke(object, NO_ARGUMENTS);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new ReflectionException("Could not get property '" + name + "' from " + object.getClass() + ".  Cause: " + t.toString(), t);
+      }
+    }
+  }
+
+}
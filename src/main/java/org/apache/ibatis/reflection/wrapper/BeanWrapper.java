@@ -40,6 +40,16 @@ public class BeanWrapper extends BaseWrapper {
     this.metaClass = MetaClass.forClass(object.getClass(), metaObject.getReflectorFactory());
   }
 
+  /**
+   * Wraps another instance of the class of the wrapped object, reusing the meta class.
+   */
+  public void retarget(Object object) {
+    if (object.getClass() != this.object.getClass()) {
+      throw new ReflectionException("Cannot retarget the wrapper of a " + this.object.getClass().getName() + " to a " + object.getClass().getName());
+    }
+    this.object = object;
+  }
+
   @Override
   public Object get(PropertyTokenizer prop) {
     if (prop.getIndex() != null) {//有[]如 user[id] 或者users[0]
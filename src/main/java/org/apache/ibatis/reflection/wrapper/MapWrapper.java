@@ -36,6 +36,10 @@ public class MapWrapper extends BaseWrapper {
     this.map = map;
   }
 
+  public void retarget(Map<String, Object> map) {
+    this.map = map;
+  }
+
   @Override
   public Object get(PropertyTokenizer prop) {
     if (prop.getIndex() != null) {
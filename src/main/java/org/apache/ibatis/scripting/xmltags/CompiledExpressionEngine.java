@@ -0,0 +1,68 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Evaluates the common expressions of dynamic sql with compiled accessor chains and hands the rest to OGNL.
+ * <p>
+ * Property paths, {@code null} checks, comparisons of strings and integral numbers, {@code and}, {@code or},
+ * {@code not}, {@code size()} and {@code isEmpty()} are compiled once per expression. Expressions using any other
+ * syntax, and evaluations meeting values the compiled form does not handle exactly like OGNL, are interpreted by the
+ * fallback engine, so the results are the ones of {@link OgnlExpressionEngine}.
+ */
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+  private final ExpressionEngine fallback;
+  private final ConcurrentMap<String, ExpressionCompiler.Node> expressions = new ConcurrentHashMap<String, ExpressionCompiler.Node>();
+
+  public CompiledExpressionEngine() {
+    this(new OgnlExpressionEngine());
+  }
+
+  public CompiledExpressionEngine(ExpressionEngine fallback) {
+    this.fallback = fallback;
+  }
+
+  @Override
+  public Object getValue(String expression, Object root) {
+    ExpressionCompiler.Node node = compile(expression);
+    if (node != null) {
+      try {
+        return node.getValue(root);
+      } catch (RuntimeException e) {
+        // values outside of the compiled subset, or a failure the fallback engine reports in its own way
+      }
+    }
+    return fallback.getValue(expression, root);
+  }
+
+  boolean isCompiled(String expression) {
+    return compile(expression) != null;
+  }
+
+  private ExpressionCompiler.Node compile(String expression) {
+    ExpressionCompiler.Node node = expressions.get(expression);
+    if (node == null) {
+      node = ExpressionCompiler.compile(expression);
+      expressions.putIfAbsent(expression, node);
+    }
+    return node == ExpressionCompiler.NOT_COMPILED ? null : node;
+  }
+
+}
@@ -39,10 +39,21 @@ public class DynamicContext {
   }
 
   private final ContextMap bindings;
-  private final StringBuilder sqlBuilder = new StringBuilder();
+  private final ExpressionEvaluator expressionEvaluator;
+  private final StringBuilder sqlBuilder;
   private int uniqueNumber = 0;
 
   public DynamicContext(Configuration configuration, Object parameterObject) {
+    this(configuration, parameterObject, 16);
+  }
+
+  /**
+   * @param configuration The configuration
+   * @param parameterObject The parameter object of the statement
+   * @param sqlCapacity The initial capacity of the sql buffer, usually the length of the sql generated before
+   */
+  public DynamicContext(Configuration configuration, Object parameterObject, int sqlCapacity) {
+    sqlBuilder = new StringBuilder(sqlCapacity);
     if (parameterObject != null && !(parameterObject instanceof Map)) {
       MetaObject metaObject = configuration.newMetaObject(parameterObject);
       bindings = new ContextMap(metaObject);
@@ -51,12 +62,29 @@ public class DynamicContext {
     }
     bindings.put(PARAMETER_OBJECT_KEY, parameterObject);
     bindings.put(DATABASE_ID_KEY, configuration.getDatabaseId());
+    expressionEvaluator = configuration.getExpressionEvaluator();
+  }
+
+  /**
+   * Creates a context decorating another one, sharing its bindings, expression evaluator and sql buffer.
+   * Subclasses override the methods they change and delegate the others.
+   *
+   * @param delegate The decorated context
+   */
+  protected DynamicContext(DynamicContext delegate) {
+    bindings = delegate.bindings;
+    expressionEvaluator = delegate.expressionEvaluator;
+    sqlBuilder = delegate.sqlBuilder;
   }
 
   public Map<String, Object> getBindings() {
     return bindings;
   }
 
+  public ExpressionEvaluator getExpressionEvaluator() {
+    return expressionEvaluator;
+  }
+
   public void bind(String name, Object value) {
     bindings.put(name, value);
   }
@@ -67,7 +95,22 @@ public class DynamicContext {
   }
 
   public String getSql() {
-    return sqlBuilder.toString().trim();
+    int start = 0;
+    int end = sqlBuilder.length();
+    while (start < end && sqlBuilder.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && sqlBuilder.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return sqlBuilder.substring(start, end);
+  }
+
+  /*
+   * The buffer appendSql writes to, followed by a space, when this context is not a decorator
+   */
+  StringBuilder getSqlBuilder() {
+    return sqlBuilder;
   }
 
   public int getUniqueNumber() {
@@ -17,6 +17,7 @@ package org.apache.ibatis.scripting.xmltags;
 
 import java.util.Map;
 
+import org.apache.ibatis.builder.SqlShapeCache;
 import org.apache.ibatis.builder.SqlSourceBuilder;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.SqlSource;
@@ -29,6 +30,8 @@ public class DynamicSqlSource implements SqlSource {
 
   private Configuration configuration;
   private SqlNode rootSqlNode;
+  // length of the longest sql generated so far, a hint only
+  private int sqlCapacity = 256;
 
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
     this.configuration = configuration;
@@ -37,11 +40,21 @@ public class DynamicSqlSource implements SqlSource {
 
   @Override
   public BoundSql getBoundSql(Object parameterObject) {
-    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    DynamicContext context = new DynamicContext(configuration, parameterObject, sqlCapacity);
     rootSqlNode.apply(context);
-    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+    String sql = context.getSql();
+    if (sql.length() >= sqlCapacity) {
+      sqlCapacity = sql.length() + 16;
+    }
     Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-    SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
+    SqlShapeCache sqlShapeCache = configuration.getSqlShapeCache();
+    SqlSource sqlSource;
+    if (sqlShapeCache != null) {
+      sqlSource = sqlShapeCache.parse(sql, parameterType, context.getBindings());
+    } else {
+      SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+      sqlSource = sqlSourceParser.parse(sql, parameterType, context.getBindings());
+    }
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
       boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
@@ -0,0 +1,504 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiles the subset of OGNL used by most dynamic sql into trees of accessors.
+ * <p>
+ * A compiled tree throws when it meets a value it cannot evaluate exactly like OGNL does (characters, decimals,
+ * mixed type comparisons, truth values of non booleans, collections accessed as beans, null targets and failing
+ * getters), the caller then evaluates the expression with OGNL.
+ */
+final class ExpressionCompiler {
+
+  static final Node NOT_COMPILED = new Literal(null);
+
+  private static final RuntimeException UNSUPPORTED = new UnsupportedValueException();
+
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("and", "or", "not", "eq", "neq",
+      "lt", "gt", "lte", "gte", "in", "instanceof", "new", "this", "true", "false", "null", "shl", "shr", "ushr",
+      "band", "bor", "xor"));
+  // names MapPropertyAccessor of OGNL answers from the map itself rather than with an entry
+  private static final Set<String> MAP_PROPERTIES = new HashSet<String>(Arrays.asList("size", "keys", "keySet",
+      "values", "isEmpty"));
+
+  private final List<String> tokens;
+  private int position;
+
+  private ExpressionCompiler(List<String> tokens) {
+    this.tokens = tokens;
+  }
+
+  /*
+   * Compiles an expression
+   *
+   * @param expression - the OGNL expression
+   * @return The compiled expression or NOT_COMPILED when it uses syntax outside of the subset
+   */
+  static Node compile(String expression) {
+    try {
+      ExpressionCompiler compiler = new ExpressionCompiler(tokenize(expression));
+      Node node = compiler.parseOr();
+      if (compiler.position != compiler.tokens.size()) {
+        return NOT_COMPILED;
+      }
+      return node;
+    } catch (NotCompilableException e) {
+      return NOT_COMPILED;
+    }
+  }
+
+  private Node parseOr() {
+    Node node = parseAnd();
+    while (accept("||") || accept("or")) {
+      node = new Or(node, parseAnd());
+    }
+    return node;
+  }
+
+  private Node parseAnd() {
+    Node node = parseEquality();
+    while (accept("&&") || accept("and")) {
+      node = new And(node, parseEquality());
+    }
+    return node;
+  }
+
+  private Node parseEquality() {
+    Node node = parseRelational();
+    while (true) {
+      if (accept("==") || accept("eq")) {
+        node = new Equal(node, parseRelational(), false);
+      } else if (accept("!=") || accept("neq")) {
+        node = new Equal(node, parseRelational(), true);
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseRelational() {
+    Node node = parseUnary();
+    while (true) {
+      if (accept("<") || accept("lt")) {
+        node = new Compare(node, parseUnary(), Compare.LESS);
+      } else if (accept("<=") || accept("lte")) {
+        node = new Compare(node, parseUnary(), Compare.LESS_OR_EQUAL);
+      } else if (accept(">") || accept("gt")) {
+        node = new Compare(node, parseUnary(), Compare.GREATER);
+      } else if (accept(">=") || accept("gte")) {
+        node = new Compare(node, parseUnary(), Compare.GREATER_OR_EQUAL);
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseUnary() {
+    if (accept("!") || accept("not")) {
+      return new Not(parseUnary());
+    }
+    return parsePrimary();
+  }
+
+  private Node parsePrimary() {
+    String token = next();
+    if ("(".equals(token)) {
+      Node node = parseOr();
+      expect(")");
+      return node;
+    }
+    char first = token.charAt(0);
+    if (first == '"' || first == '\'') {
+      return new Literal(token.substring(1, token.length() - 1));
+    }
+    if (Character.isDigit(first)) {
+      return new Literal(Integer.valueOf(token));
+    }
+    if ("true".equals(token)) {
+      return new Literal(Boolean.TRUE);
+    }
+    if ("false".equals(token)) {
+      return new Literal(Boolean.FALSE);
+    }
+    if ("null".equals(token)) {
+      return new Literal(null);
+    }
+    Node node = new Property(null, identifier(token));
+    while (accept(".")) {
+      String name = identifier(next());
+      if (accept("(")) {
+        expect(")");
+        if (!"size".equals(name) && !"isEmpty".equals(name)) {
+          throw new NotCompilableException();
+        }
+        node = new Call(node, name);
+      } else {
+        node = new Property(node, name);
+      }
+    }
+    if (position < tokens.size() && "(".equals(tokens.get(position))) {
+      throw new NotCompilableException();
+    }
+    return node;
+  }
+
+  private String identifier(String token) {
+    if (!Character.isJavaIdentifierStart(token.charAt(0)) || KEYWORDS.contains(token)) {
+      throw new NotCompilableException();
+    }
+    return token;
+  }
+
+  private String next() {
+    if (position == tokens.size()) {
+      throw new NotCompilableException();
+    }
+    return tokens.get(position++);
+  }
+
+  private boolean accept(String expected) {
+    if (position < tokens.size() && expected.equals(tokens.get(position))) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(String expected) {
+    if (!accept(expected)) {
+      throw new NotCompilableException();
+    }
+  }
+
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<String>();
+    int length = expression.length();
+    int i = 0;
+    while (i < length) {
+      char c = expression.charAt(i);
+      int start = i;
+      if (Character.isWhitespace(c)) {
+        i++;
+        continue;
+      }
+      if (Character.isJavaIdentifierStart(c)) {
+        while (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+          i++;
+        }
+      } else if (c >= '0' && c <= '9') {
+        while (i < length && expression.charAt(i) >= '0' && expression.charAt(i) <= '9') {
+          i++;
+        }
+        // octal, long, decimal and hexadecimal literals are left to OGNL
+        if ((c == '0' && i - start > 1) || i - start > 9
+            || (i < length && (expression.charAt(i) == '.' || Character.isJavaIdentifierPart(expression.charAt(i))))) {
+          throw new NotCompilableException();
+        }
+      } else if (c == '"' || c == '\'') {
+        i = expression.indexOf(c, i + 1);
+        // escapes and single quoted characters are left to OGNL
+        if (i < 0 || expression.substring(start, i).indexOf('\\') >= 0 || (c == '\'' && i - start == 2)) {
+          throw new NotCompilableException();
+        }
+        i++;
+      } else if (expression.startsWith("==", i) || expression.startsWith("!=", i) || expression.startsWith("<=", i)
+          || expression.startsWith(">=", i) || expression.startsWith("&&", i) || expression.startsWith("||", i)) {
+        i += 2;
+      } else if ("<>!().".indexOf(c) >= 0) {
+        i++;
+      } else {
+        throw new NotCompilableException();
+      }
+      tokens.add(expression.substring(start, i));
+    }
+    return tokens;
+  }
+
+  private static boolean truth(Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    throw UNSUPPORTED;
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+  }
+
+  abstract static class Node {
+    abstract Object getValue(Object root);
+  }
+
+  private static final class Literal extends Node {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return value;
+    }
+  }
+
+  private static final class Property extends Node {
+    private static final Object NO_GETTER = new Object();
+
+    private final Node target;
+    private final String name;
+    private final boolean mapProperty;
+    private final ConcurrentMap<Class<?>, Object> getters = new ConcurrentHashMap<Class<?>, Object>();
+
+    Property(Node target, String name) {
+      this.target = target;
+      this.name = name;
+      this.mapProperty = MAP_PROPERTIES.contains(name);
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object object = target == null ? root : target.getValue(root);
+      if (object instanceof DynamicContext.ContextMap) {
+        // same lookup as DynamicContext.ContextAccessor
+        Map<?, ?> map = (Map<?, ?>) object;
+        Object result = map.get(name);
+        if (result != null || map.containsKey(name)) {
+          return result;
+        }
+        Object parameterObject = map.get(DynamicContext.PARAMETER_OBJECT_KEY);
+        return parameterObject instanceof Map ? ((Map<?, ?>) parameterObject).get(name) : null;
+      }
+      if (object instanceof Map && !mapProperty) {
+        return ((Map<?, ?>) object).get(name);
+      }
+      if (object == null || object instanceof Map || object instanceof Collection || object.getClass().isArray()) {
+        throw UNSUPPORTED;
+      }
+      Object getter = getters.get(object.getClass());
+      if (getter == null) {
+        getter = findGetter(object.getClass());
+        getters.putIfAbsent(object.getClass(), getter);
+      }
+      if (getter == NO_GETTER) {
+        throw UNSUPPORTED;
+      }
+      try {
+        return ((Method) getter).invoke(object);
+      } catch (Exception e) {
+        throw UNSUPPORTED;
+      }
+    }
+
+    private Object findGetter(Class<?> type) {
+      String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+      Method getter = publicMethod(type, "get" + suffix);
+      if (getter == null || getter.getReturnType() == void.class) {
+        getter = publicMethod(type, "is" + suffix);
+        if (getter == null || getter.getReturnType() != boolean.class) {
+          return NO_GETTER;
+        }
+      }
+      return getter;
+    }
+
+    private static Method publicMethod(Class<?> type, String methodName) {
+      try {
+        Method method = type.getMethod(methodName);
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
+          return method;
+        }
+      } catch (NoSuchMethodException e) {
+        // no such getter
+      }
+      return null;
+    }
+  }
+
+  private static final class Call extends Node {
+    private final Node target;
+    private final boolean size;
+
+    Call(Node target, String name) {
+      this.target = target;
+      this.size = "size".equals(name);
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object object = target.getValue(root);
+      if (object instanceof Collection) {
+        return size ? (Object) ((Collection<?>) object).size() : ((Collection<?>) object).isEmpty();
+      }
+      if (object instanceof Map) {
+        return size ? (Object) ((Map<?, ?>) object).size() : ((Map<?, ?>) object).isEmpty();
+      }
+      if (object instanceof String && !size) {
+        return ((String) object).length() == 0;
+      }
+      throw UNSUPPORTED;
+    }
+  }
+
+  private static final class Not extends Node {
+    private final Node operand;
+
+    Not(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return truth(operand.getValue(root)) ? Boolean.FALSE : Boolean.TRUE;
+    }
+  }
+
+  private static final class And extends Node {
+    private final Node left;
+    private final Node right;
+
+    And(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      // like OGNL the value of the operand deciding the result is returned, not a boolean
+      Object value = left.getValue(root);
+      return truth(value) ? right.getValue(root) : value;
+    }
+  }
+
+  private static final class Or extends Node {
+    private final Node left;
+    private final Node right;
+
+    Or(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = left.getValue(root);
+      return truth(value) ? value : right.getValue(root);
+    }
+  }
+
+  private static final class Equal extends Node {
+    private final Node left;
+    private final Node right;
+    private final boolean negated;
+
+    Equal(Node left, Node right, boolean negated) {
+      this.left = left;
+      this.right = right;
+      this.negated = negated;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object leftValue = left.getValue(root);
+      Object rightValue = right.getValue(root);
+      boolean equal;
+      if (leftValue == null || rightValue == null) {
+        equal = leftValue == rightValue;
+      } else if (isIntegral(leftValue) && isIntegral(rightValue)) {
+        equal = ((Number) leftValue).longValue() == ((Number) rightValue).longValue();
+      } else if ((leftValue instanceof String && rightValue instanceof String)
+          || (leftValue instanceof Boolean && rightValue instanceof Boolean)) {
+        equal = leftValue.equals(rightValue);
+      } else {
+        throw UNSUPPORTED;
+      }
+      return equal != negated;
+    }
+  }
+
+  private static final class Compare extends Node {
+    static final int LESS = 0;
+    static final int LESS_OR_EQUAL = 1;
+    static final int GREATER = 2;
+    static final int GREATER_OR_EQUAL = 3;
+
+    private final Node left;
+    private final Node right;
+    private final int operator;
+
+    Compare(Node left, Node right, int operator) {
+      this.left = left;
+      this.right = right;
+      this.operator = operator;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object leftValue = left.getValue(root);
+      Object rightValue = right.getValue(root);
+      int comparison;
+      if (isIntegral(leftValue) && isIntegral(rightValue)) {
+        long leftNumber = ((Number) leftValue).longValue();
+        long rightNumber = ((Number) rightValue).longValue();
+        comparison = leftNumber < rightNumber ? -1 : (leftNumber == rightNumber ? 0 : 1);
+      } else if (leftValue instanceof String && rightValue instanceof String) {
+        comparison = ((String) leftValue).compareTo((String) rightValue);
+      } else {
+        throw UNSUPPORTED;
+      }
+      switch (operator) {
+        case LESS:
+          return comparison < 0;
+        case LESS_OR_EQUAL:
+          return comparison <= 0;
+        case GREATER:
+          return comparison > 0;
+        default:
+          return comparison >= 0;
+      }
+    }
+  }
+
+  private static final class NotCompilableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final class UnsupportedValueException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+}
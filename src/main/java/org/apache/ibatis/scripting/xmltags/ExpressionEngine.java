@@ -0,0 +1,33 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+/**
+ * Evaluates the expressions of dynamic sql: the tests of {@code <if>} and {@code <when>}, the collections of
+ * {@code <foreach>}, the values of {@code <bind>} and the contents of {@code ${}} tokens.
+ * <p>
+ * Implementations must understand OGNL syntax and be thread safe, one instance serves a whole configuration.
+ */
+public interface ExpressionEngine {
+
+  /**
+   * @param expression An OGNL expression
+   * @param root The object the expression is evaluated against, usually the bindings of a {@link DynamicContext}
+   * @return The value of the expression
+   */
+  Object getValue(String expression, Object root);
+
+}
@@ -28,8 +28,26 @@ import org.apache.ibatis.builder.BuilderException;
  */
 public class ExpressionEvaluator {
 
+  private final ExpressionEngine engine;
+
+  public ExpressionEvaluator() {
+    this(new OgnlExpressionEngine());
+  }
+
+  public ExpressionEvaluator(ExpressionEngine engine) {
+    this.engine = engine;
+  }
+
+  public ExpressionEngine getEngine() {
+    return engine;
+  }
+
+  public Object evaluate(String expression, Object parameterObject) {
+    return engine.getValue(expression, parameterObject);
+  }
+
   public boolean evaluateBoolean(String expression, Object parameterObject) {
-    Object value = OgnlCache.getValue(expression, parameterObject);
+    Object value = engine.getValue(expression, parameterObject);
     if (value instanceof Boolean) {
       return (Boolean) value;
     }
@@ -40,7 +58,10 @@ public class ExpressionEvaluator {
   }
 
   public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
-    Object value = OgnlCache.getValue(expression, parameterObject);
+    return toIterable(expression, engine.getValue(expression, parameterObject));
+  }
+
+  Iterable<?> toIterable(String expression, Object value) {
     if (value == null) {
       throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
     }
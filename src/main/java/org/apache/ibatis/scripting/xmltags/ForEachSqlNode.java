@@ -15,11 +15,23 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.parsing.TokenHandler;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.ArrayParameter;
 
 /**
  * @author Clinton Begin
@@ -27,7 +39,6 @@ import org.apache.ibatis.session.Configuration;
 public class ForEachSqlNode implements SqlNode {
   public static final String ITEM_PREFIX = "__frch_";
 
-  private ExpressionEvaluator evaluator;
   private String collectionExpression;
   private SqlNode contents;
   private String open;
@@ -36,9 +47,25 @@ public class ForEachSqlNode implements SqlNode {
   private String item;
   private String index;
   private Configuration configuration;
+  private Pattern itemPattern;
+  private Pattern indexPattern;
+  // static body split around its #{item} parameters: text, what follows the item in the parameter, text, ...
+  // null when the body has to be applied once per item
+  private String[] bodyParts;
+  private boolean blankBody;
+  private String arrayType;
+  private String arrayOpen;
+  private String arrayClose;
 
   public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator) {
-    this.evaluator = new ExpressionEvaluator();
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, null, null);
+  }
+
+  /**
+   * @param arrayType the SQL type of the items, to send the whole collection as one JDBC ARRAY, or null
+   * @param array the SQL replacing the items when they are sent as an array, with a <code>?</code> standing for it
+   */
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator, String arrayType, String array) {
     this.collectionExpression = collectionExpression;
     this.contents = contents;
     this.open = open;
@@ -47,12 +74,40 @@ public class ForEachSqlNode implements SqlNode {
     this.index = index;
     this.item = item;
     this.configuration = configuration;
+    this.itemPattern = Pattern.compile("^\\s*" + item + "(?![^.,:\\s])");
+    this.indexPattern = index == null ? null : Pattern.compile("^\\s*" + index + "(?![^.,:\\s])");
+    if (contents instanceof StaticTextSqlNode) {
+      String text = ((StaticTextSqlNode) contents).getText();
+      this.bodyParts = splitBody(text);
+      this.blankBody = text.trim().length() == 0;
+    }
+    if (arrayType != null && bodyParts != null && bodyParts.length == 3 && bodyParts[0].trim().length() == 0
+        && bodyParts[2].trim().length() == 0 && !bodyParts[1].trim().startsWith(".")) {
+      String arraySql = array == null ? "?" : array;
+      int parameter = arraySql.indexOf('?');
+      this.arrayType = arrayType;
+      this.arrayOpen = parameter < 0 ? arraySql : arraySql.substring(0, parameter);
+      this.arrayClose = parameter < 0 ? "" : arraySql.substring(parameter + 1);
+    }
   }
 
   @Override
   public boolean apply(DynamicContext context) {
     Map<String, Object> bindings = context.getBindings();
-    final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    ExpressionEvaluator evaluator = context.getExpressionEvaluator();
+    Object value = evaluator.evaluate(collectionExpression, bindings);
+    List<?> items = bodyParts == null ? null : toItems(value);
+    if (items != null) {
+      if (!items.isEmpty()) {
+        if (arrayType != null && items.size() >= configuration.getForeachArrayThreshold()) {
+          applyArray(context, items);
+        } else {
+          applyItems(context, items);
+        }
+      }
+      return true;
+    }
+    final Iterable<?> iterable = evaluator.toIterable(collectionExpression, value);
     if (!iterable.iterator().hasNext()) {
       return true;
     }
@@ -79,7 +134,7 @@ public class ForEachSqlNode implements SqlNode {
         applyIndex(context, i, uniqueNumber);
         applyItem(context, o, uniqueNumber);
       }
-      contents.apply(new FilteredDynamicContext(configuration, context, index, item, uniqueNumber));
+      contents.apply(new FilteredDynamicContext(context, itemPattern, indexPattern, index, item, uniqueNumber));
       if (first) {
         first = !((PrefixedContext) context).isPrefixApplied();
       }
@@ -90,6 +145,61 @@ public class ForEachSqlNode implements SqlNode {
     return true;
   }
 
+  /*
+   * Appends the same sql as applying the body to every item would, but binds the items once, as a whole,
+   * and points the parameters of every copy of the body to their item by position.
+   */
+  private void applyItems(DynamicContext context, List<?> items) {
+    String name = itemizeItem(item, context.getUniqueNumber());
+    context.bind(name, new Items(items));
+    applyOpen(context);
+    // the root context is appended to directly, as it would append every fragment followed by a space
+    StringBuilder sql = context.getClass() == DynamicContext.class ? context.getSqlBuilder() : null;
+    StringBuilder fragment = sql == null ? new StringBuilder() : sql;
+    for (int i = 0; i < items.size(); i++) {
+      if (!blankBody) {
+        String prefix = i == 0 || separator == null ? "" : separator;
+        if (sql != null) {
+          sql.append(prefix).append(' ');
+        } else {
+          context.appendSql(prefix);
+        }
+      }
+      if (sql == null) {
+        fragment.setLength(0);
+      }
+      fragment.append(bodyParts[0]);
+      for (int part = 1; part < bodyParts.length; part += 2) {
+        fragment.append("#{").append(name).append('.').append(i).append(bodyParts[part]).append('}').append(bodyParts[part + 1]);
+      }
+      if (sql != null) {
+        sql.append(' ');
+      } else {
+        context.appendSql(fragment.toString());
+      }
+    }
+    applyClose(context);
+    bindLast(context, items);
+  }
+
+  private void applyArray(DynamicContext context, List<?> items) {
+    String name = itemizeItem(item, context.getUniqueNumber());
+    context.bind(name, new ArrayParameter(arrayType, items.toArray()));
+    applyOpen(context);
+    context.appendSql(new StringBuilder(arrayOpen).append("#{").append(name).append('}').append(arrayClose).toString());
+    applyClose(context);
+    bindLast(context, items);
+  }
+
+  private void bindLast(DynamicContext context, List<?> items) {
+    // like applying the body to every item leaves them bound to the last one
+    int last = items.size() - 1;
+    context.bind(item, items.get(last));
+    if (index != null) {
+      context.bind(index, last);
+    }
+  }
+
   private void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
@@ -120,18 +230,198 @@ public class ForEachSqlNode implements SqlNode {
     return new StringBuilder(ITEM_PREFIX).append(item).append("_").append(i).toString();
   }
 
+  /*
+   * Splits a body whose parameters can be pointed to an item by position, without binding every item.
+   * That is a body without escapes, not using the index in its parameters.
+   */
+  private String[] splitBody(String text) {
+    if (!isIdentifier(item) || (index != null && !isIdentifier(index)) || text.indexOf('\\') >= 0) {
+      return null;
+    }
+    List<String> parts = new ArrayList<String>();
+    int offset = 0;
+    int start = text.indexOf("#{");
+    while (start > -1) {
+      int end = text.indexOf('}', start + 2);
+      if (end == -1) {
+        return null;
+      }
+      String content = text.substring(start + 2, end);
+      String rest = afterName(content, item);
+      if (rest != null) {
+        parts.add(text.substring(offset, start));
+        parts.add(rest);
+        offset = end + 1;
+      } else if (index != null && afterName(content, index) != null) {
+        return null;
+      }
+      start = text.indexOf("#{", end + 1);
+    }
+    parts.add(text.substring(offset));
+    return parts.toArray(new String[parts.size()]);
+  }
+
+  // what follows the name when a parameter starts with it, matched like itemPattern
+  private static String afterName(String content, String name) {
+    int start = 0;
+    while (start < content.length() && isWhitespace(content.charAt(start))) {
+      start++;
+    }
+    if (!content.startsWith(name, start)) {
+      return null;
+    }
+    int end = start + name.length();
+    if (end < content.length()) {
+      char c = content.charAt(end);
+      if (c != '.' && c != ',' && c != ':' && !isWhitespace(c)) {
+        return null;
+      }
+    }
+    return content.substring(end);
+  }
+
+  // the \s of a regular expression
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static boolean isIdentifier(String name) {
+    if (name == null || name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < name.length(); i++) {
+      if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the items of a list or an array, or null if they are map entries or the value is not a collection
+  private static List<?> toItems(Object value) {
+    List<?> items;
+    if (value instanceof List) {
+      items = value instanceof RandomAccess ? (List<?>) value : new ArrayList<Object>((List<?>) value);
+    } else if (value instanceof Collection) {
+      items = new ArrayList<Object>((Collection<?>) value);
+    } else if (value instanceof Object[]) {
+      items = Arrays.asList((Object[]) value);
+    } else if (value != null && value.getClass().isArray()) {
+      int size = Array.getLength(value);
+      List<Object> answer = new ArrayList<Object>(size);
+      for (int i = 0; i < size; i++) {
+        answer.add(Array.get(value, i));
+      }
+      items = answer;
+    } else {
+      return null;
+    }
+    for (int i = 0; i < items.size(); i++) {
+      if (items.get(i) instanceof Map.Entry) {
+        return null;
+      }
+    }
+    return items;
+  }
+
+  /**
+   * The items of a foreach, bound under one name and read by position: <code>__frch_item_0.3.name</code>
+   * is the name of the fourth item.
+   */
+  private static final class Items extends AbstractMap<String, Object> {
+    private final List<?> items;
+
+    Items(List<?> items) {
+      this.items = items;
+    }
+
+    @Override
+    public Object get(Object key) {
+      int position = position(key);
+      return position < 0 ? null : items.get(position);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return position(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return items.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<String, Object>>() {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+          return new Iterator<Map.Entry<String, Object>>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+              return position < items.size();
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+              Map.Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(String.valueOf(position), items.get(position));
+              position++;
+              return entry;
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return items.size();
+        }
+      };
+    }
+
+    private int position(Object key) {
+      if (!(key instanceof String)) {
+        return -1;
+      }
+      String name = (String) key;
+      int length = name.length();
+      if (length == 0 || length > 9 || (length > 1 && name.charAt(0) == '0')) {
+        return -1;
+      }
+      int position = 0;
+      for (int i = 0; i < length; i++) {
+        char c = name.charAt(i);
+        if (c < '0' || c > '9') {
+          return -1;
+        }
+        position = position * 10 + c - '0';
+      }
+      return position < items.size() ? position : -1;
+    }
+  }
+
   private static class FilteredDynamicContext extends DynamicContext {
     private DynamicContext delegate;
     private int index;
     private String itemIndex;
     private String item;
+    private Pattern itemPattern;
+    private Pattern itemIndexPattern;
 
-    public FilteredDynamicContext(Configuration configuration,DynamicContext delegate, String itemIndex, String item, int i) {
-      super(configuration, null);
+    public FilteredDynamicContext(DynamicContext delegate, Pattern itemPattern, Pattern itemIndexPattern, String itemIndex, String item, int i) {
+      super(delegate);
       this.delegate = delegate;
       this.index = i;
       this.itemIndex = itemIndex;
       this.item = item;
+      this.itemPattern = itemPattern;
+      this.itemIndexPattern = itemIndexPattern;
     }
 
     @Override
@@ -154,9 +444,9 @@ public class ForEachSqlNode implements SqlNode {
       GenericTokenParser parser = new GenericTokenParser("#{", "}", new TokenHandler() {
         @Override
         public String handleToken(String content) {
-          String newContent = content.replaceFirst("^\\s*" + item + "(?![^.,:\\s])", itemizeItem(item, index));
+          String newContent = itemPattern.matcher(content).replaceFirst(itemizeItem(item, index));
           if (itemIndex != null && newContent.equals(content)) {
-            newContent = content.replaceFirst("^\\s*" + itemIndex + "(?![^.,:\\s])", itemizeItem(itemIndex, index));
+            newContent = itemIndexPattern.matcher(content).replaceFirst(itemizeItem(itemIndex, index));
           }
           return new StringBuilder("#{").append(newContent).append("}").toString();
         }
@@ -172,14 +462,13 @@ public class ForEachSqlNode implements SqlNode {
 
   }
 
-
   private class PrefixedContext extends DynamicContext {
     private DynamicContext delegate;
     private String prefix;
     private boolean prefixApplied;
 
     public PrefixedContext(DynamicContext delegate, String prefix) {
-      super(configuration, null);
+      super(delegate);
       this.delegate = delegate;
       this.prefix = prefix;
       this.prefixApplied = false;
@@ -19,19 +19,17 @@ package org.apache.ibatis.scripting.xmltags;
  * @author Clinton Begin
  */
 public class IfSqlNode implements SqlNode {
-  private ExpressionEvaluator evaluator;
   private String test;
   private SqlNode contents;
 
   public IfSqlNode(SqlNode contents, String test) {
     this.test = test;
     this.contents = contents;
-    this.evaluator = new ExpressionEvaluator();
   }
 
   @Override
   public boolean apply(DynamicContext context) {
-    if (evaluator.evaluateBoolean(test, context.getBindings())) {
+    if (context.getExpressionEvaluator().evaluateBoolean(test, context.getBindings())) {
       contents.apply(context);
       return true;
     }
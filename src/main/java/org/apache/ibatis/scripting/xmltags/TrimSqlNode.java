@@ -34,6 +34,7 @@ public class TrimSqlNode implements SqlNode {
   private String suffix;
   private List<String> prefixesToOverride;
   private List<String> suffixesToOverride;
+  private String prefixAndSpace;
   private Configuration configuration;
 
   public TrimSqlNode(Configuration configuration, SqlNode contents, String prefix, String prefixesToOverride, String suffix, String suffixesToOverride) {
@@ -43,10 +44,11 @@ public class TrimSqlNode implements SqlNode {
   protected TrimSqlNode(Configuration configuration, SqlNode contents, String prefix, List<String> prefixesToOverride, String suffix, List<String> suffixesToOverride) {
     this.contents = contents;
     this.prefix = prefix;
-    this.prefixesToOverride = prefixesToOverride;
+    this.prefixesToOverride = prefixesToOverride == null ? Collections.<String> emptyList() : prefixesToOverride;
     this.suffix = suffix;
-    this.suffixesToOverride = suffixesToOverride;
+    this.suffixesToOverride = suffixesToOverride == null ? Collections.<String> emptyList() : suffixesToOverride;
     this.configuration = configuration;
+    this.prefixAndSpace = prefix == null ? null : prefix + " ";
   }
 
   @Override
@@ -69,28 +71,97 @@ public class TrimSqlNode implements SqlNode {
     return Collections.emptyList();
   }
 
+  private static boolean startsWithIgnoreCase(StringBuilder sql, int start, int end, String upperCase) {
+    int length = upperCase.length();
+    if (end - start < length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (Character.toUpperCase(sql.charAt(start + i)) != upperCase.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean endsWithIgnoreCase(StringBuilder sql, int start, int end, String upperCase) {
+    return end - upperCase.length() >= start && startsWithIgnoreCase(sql, end - upperCase.length(), end, upperCase);
+  }
+
+  /**
+   * Collects the sql of the contents and trims it once they are applied.
+   * <p>
+   * The sql is written straight to the buffer of the decorated context when that context appends to its buffer
+   * unchanged, the prefix and suffix are then replaced within that buffer. Other contexts get the trimmed sql
+   * appended as one fragment.
+   */
   private class FilteredDynamicContext extends DynamicContext {
     private DynamicContext delegate;
-    private boolean prefixApplied;
-    private boolean suffixApplied;
     private StringBuilder sqlBuffer;
+    private int start;
+    // whether sqlBuffer is the buffer of the delegate, followed by a space when the delegate is a plain context
+    private boolean shared;
+    private boolean spaceAfter;
 
     public FilteredDynamicContext(DynamicContext delegate) {
-      super(configuration, null);
+      super(delegate);
       this.delegate = delegate;
-      this.prefixApplied = false;
-      this.suffixApplied = false;
-      this.sqlBuffer = new StringBuilder();
+      if (delegate.getClass() == DynamicContext.class) {
+        this.sqlBuffer = delegate.getSqlBuilder();
+        this.shared = true;
+        this.spaceAfter = true;
+      } else if (delegate instanceof TrimSqlNode.FilteredDynamicContext) {
+        this.sqlBuffer = ((TrimSqlNode.FilteredDynamicContext) delegate).sqlBuffer;
+        this.shared = true;
+      } else {
+        this.sqlBuffer = new StringBuilder();
+      }
+      this.start = sqlBuffer.length();
     }
 
     public void applyAll() {
-      sqlBuffer = new StringBuilder(sqlBuffer.toString().trim());
-      String trimmedUppercaseSql = sqlBuffer.toString().toUpperCase(Locale.ENGLISH);
-      if (trimmedUppercaseSql.length() > 0) {
-        applyPrefix(sqlBuffer, trimmedUppercaseSql);
-        applySuffix(sqlBuffer, trimmedUppercaseSql);
+      StringBuilder sql = sqlBuffer;
+      int end = sql.length();
+      int from = start;
+      while (from < end && sql.charAt(from) <= ' ') {
+        from++;
+      }
+      while (end > from && sql.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      sql.setLength(end);
+      sql.delete(start, from);
+      end = sql.length();
+      if (end > start) {
+        // both overrides are matched against the trimmed sql before anything is replaced
+        String prefixToRemove = null;
+        for (String toRemove : prefixesToOverride) {
+          if (startsWithIgnoreCase(sql, start, end, toRemove)) {
+            prefixToRemove = toRemove;
+            break;
+          }
+        }
+        String suffixToRemove = null;
+        for (String toRemove : suffixesToOverride) {
+          if (endsWithIgnoreCase(sql, start, end, toRemove) || endsWithIgnoreCase(sql, start, end, toRemove.trim())) {
+            suffixToRemove = toRemove;
+            break;
+          }
+        }
+        int prefixLength = prefixToRemove == null ? 0 : prefixToRemove.trim().length();
+        sql.replace(start, start + prefixLength, prefix == null ? "" : prefixAndSpace);
+        if (suffixToRemove != null) {
+          sql.setLength(Math.max(start, sql.length() - suffixToRemove.trim().length()));
+        }
+        if (suffix != null) {
+          sql.append(' ').append(suffix);
+        }
+      }
+      if (spaceAfter) {
+        sql.append(' ');
+      } else if (!shared) {
+        delegate.appendSql(sql.toString());
       }
-      delegate.appendSql(sqlBuffer.toString());
     }
 
     @Override
@@ -118,44 +189,6 @@ public class TrimSqlNode implements SqlNode {
       return delegate.getSql();
     }
 
-    private void applyPrefix(StringBuilder sql, String trimmedUppercaseSql) {
-      if (!prefixApplied) {
-        prefixApplied = true;
-        if (prefixesToOverride != null) {
-          for (String toRemove : prefixesToOverride) {
-            if (trimmedUppercaseSql.startsWith(toRemove)) {
-              sql.delete(0, toRemove.trim().length());
-              break;
-            }
-          }
-        }
-        if (prefix != null) {
-          sql.insert(0, " ");
-          sql.insert(0, prefix);
-        }
-      }
-    }
-
-    private void applySuffix(StringBuilder sql, String trimmedUppercaseSql) {
-      if (!suffixApplied) {
-        suffixApplied = true;
-        if (suffixesToOverride != null) {
-          for (String toRemove : suffixesToOverride) {
-            if (trimmedUppercaseSql.endsWith(toRemove) || trimmedUppercaseSql.endsWith(toRemove.trim())) {
-              int start = sql.length() - toRemove.trim().length();
-              int end = sql.length();
-              sql.delete(start, end);
-              break;
-            }
-          }
-        }
-        if (suffix != null) {
-          sql.append(" ");
-          sql.append(suffix);
-        }
-      }
-    }
-
   }
 
 }
@@ -30,7 +30,7 @@ public class VarDeclSqlNode implements SqlNode {
 
   @Override
   public boolean apply(DynamicContext context) {
-    final Object value = OgnlCache.getValue(expression, context.getBindings());
+    final Object value = context.getExpressionEvaluator().evaluate(expression, context.getBindings());
     context.bind(name, value);
     return true;
   }
@@ -37,6 +37,8 @@ public class XMLScriptBuilder extends BaseBuilder {
   private XNode context;
   private boolean isDynamic;
   private Class<?> parameterType;
+  // what the context of the nodes being parsed puts between two appended fragments, null within a foreach
+  private String fragmentSeparator = " ";
 
   public XMLScriptBuilder(Configuration configuration, XNode context) {
     this(configuration, context, null);
@@ -49,8 +51,7 @@ public class XMLScriptBuilder extends BaseBuilder {
   }
 
   public SqlSource parseScriptNode() {
-    List<SqlNode> contents = parseDynamicTags(context);
-    MixedSqlNode rootSqlNode = new MixedSqlNode(contents);
+    SqlNode rootSqlNode = parseContents(context);
     SqlSource sqlSource = null;
     if (isDynamic) {
       sqlSource = new DynamicSqlSource(configuration, rootSqlNode);
@@ -62,6 +63,7 @@ public class XMLScriptBuilder extends BaseBuilder {
 
   List<SqlNode> parseDynamicTags(XNode node) {
     List<SqlNode> contents = new ArrayList<SqlNode>();
+    String staticText = null;
     NodeList children = node.getNode().getChildNodes();
     for (int i = 0; i < children.getLength(); i++) {
       XNode child = node.newXNode(children.item(i));
@@ -69,12 +71,20 @@ public class XMLScriptBuilder extends BaseBuilder {
         String data = child.getStringBody("");
         TextSqlNode textSqlNode = new TextSqlNode(data);
         if (textSqlNode.isDynamic()) {
+          addStaticText(contents, staticText);
+          staticText = null;
           contents.add(textSqlNode);
           isDynamic = true;
+        } else if (staticText != null && fragmentSeparator != null) {
+          // text split by comments or CDATA sections is appended as one fragment
+          staticText = staticText + fragmentSeparator + data;
         } else {
-          contents.add(new StaticTextSqlNode(data));
+          addStaticText(contents, staticText);
+          staticText = data;
         }
       } else if (child.getNode().getNodeType() == Node.ELEMENT_NODE) { // issue #628
+        addStaticText(contents, staticText);
+        staticText = null;
         String nodeName = child.getNode().getNodeName();
         NodeHandler handler = nodeHandlers(nodeName);
         if (handler == null) {
@@ -84,9 +94,31 @@ public class XMLScriptBuilder extends BaseBuilder {
         isDynamic = true;
       }
     }
+    addStaticText(contents, staticText);
     return contents;
   }
 
+  private SqlNode parseContents(XNode node) {
+    List<SqlNode> contents = parseDynamicTags(node);
+    return contents.size() == 1 ? contents.get(0) : new MixedSqlNode(contents);
+  }
+
+  private SqlNode parseContents(XNode node, String separator) {
+    String enclosingSeparator = fragmentSeparator;
+    fragmentSeparator = separator;
+    try {
+      return parseContents(node);
+    } finally {
+      fragmentSeparator = enclosingSeparator;
+    }
+  }
+
+  private void addStaticText(List<SqlNode> contents, String staticText) {
+    if (staticText != null) {
+      contents.add(new StaticTextSqlNode(staticText));
+    }
+  }
+
   NodeHandler nodeHandlers(String nodeName) {
     Map<String, NodeHandler> map = new HashMap<String, NodeHandler>();
     map.put("trim", new TrimHandler());
@@ -126,13 +158,12 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
+      SqlNode contents = parseContents(nodeToHandle, "");
       String prefix = nodeToHandle.getStringAttribute("prefix");
       String prefixOverrides = nodeToHandle.getStringAttribute("prefixOverrides");
       String suffix = nodeToHandle.getStringAttribute("suffix");
       String suffixOverrides = nodeToHandle.getStringAttribute("suffixOverrides");
-      TrimSqlNode trim = new TrimSqlNode(configuration, mixedSqlNode, prefix, prefixOverrides, suffix, suffixOverrides);
+      TrimSqlNode trim = new TrimSqlNode(configuration, contents, prefix, prefixOverrides, suffix, suffixOverrides);
       targetContents.add(trim);
     }
   }
@@ -144,9 +175,8 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
-      WhereSqlNode where = new WhereSqlNode(configuration, mixedSqlNode);
+      SqlNode contents = parseContents(nodeToHandle, "");
+      WhereSqlNode where = new WhereSqlNode(configuration, contents);
       targetContents.add(where);
     }
   }
@@ -158,9 +188,8 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
-      SetSqlNode set = new SetSqlNode(configuration, mixedSqlNode);
+      SqlNode contents = parseContents(nodeToHandle, "");
+      SetSqlNode set = new SetSqlNode(configuration, contents);
       targetContents.add(set);
     }
   }
@@ -172,15 +201,17 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
+      // the fragments of a foreach are rewritten one by one, so they are not merged
+      SqlNode contents = parseContents(nodeToHandle, null);
       String collection = nodeToHandle.getStringAttribute("collection");
       String item = nodeToHandle.getStringAttribute("item");
       String index = nodeToHandle.getStringAttribute("index");
       String open = nodeToHandle.getStringAttribute("open");
       String close = nodeToHandle.getStringAttribute("close");
       String separator = nodeToHandle.getStringAttribute("separator");
-      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator);
+      String arrayType = nodeToHandle.getStringAttribute("arrayType");
+      String array = nodeToHandle.getStringAttribute("array");
+      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, contents, collection, index, item, open, close, separator, arrayType, array);
       targetContents.add(forEachSqlNode);
     }
   }
@@ -192,10 +223,9 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
+      SqlNode contents = parseContents(nodeToHandle);
       String test = nodeToHandle.getStringAttribute("test");
-      IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test);
+      IfSqlNode ifSqlNode = new IfSqlNode(contents, test);
       targetContents.add(ifSqlNode);
     }
   }
@@ -207,9 +237,7 @@ public class XMLScriptBuilder extends BaseBuilder {
 
     @Override
     public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
-      List<SqlNode> contents = parseDynamicTags(nodeToHandle);
-      MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
-      targetContents.add(mixedSqlNode);
+      targetContents.add(parseContents(nodeToHandle));
     }
   }
 
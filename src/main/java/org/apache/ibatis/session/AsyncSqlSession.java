@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A session whose statements run on a shared pool of threads instead of the calling thread.
+ * <p>
+ * The statements of one session run one after another, in the order they were called, on whichever thread of the pool
+ * is free, so the session keeps a single connection and transaction like a {@link SqlSession}. The pool is
+ * {@link Configuration#getAsyncExecutor()}; its size bounds the connections used by all asynchronous sessions at once.
+ * A session holds no thread while none of its statements is pending. Statements called after {@link #close()} are
+ * rejected.
+ * <p>
+ * The futures complete with the result of the statement, or fail with the exception it threw. Waiting for a future of
+ * a session from a statement of that same session never completes.
+ */
+public interface AsyncSqlSession {
+
+  <T> Future<T> selectOne(String statement);
+
+  <T> Future<T> selectOne(String statement, Object parameter);
+
+  <E> Future<List<E>> selectList(String statement);
+
+  <E> Future<List<E>> selectList(String statement, Object parameter);
+
+  <E> Future<List<E>> selectList(String statement, Object parameter, RowBounds rowBounds);
+
+  Future<Integer> insert(String statement);
+
+  Future<Integer> insert(String statement, Object parameter);
+
+  Future<Integer> update(String statement);
+
+  Future<Integer> update(String statement, Object parameter);
+
+  Future<Integer> delete(String statement);
+
+  Future<Integer> delete(String statement, Object parameter);
+
+  Future<Void> commit();
+
+  Future<Void> rollback();
+
+  /**
+   * Closes the session once the statements called before have run. Closing a closed session does nothing.
+   *
+   * @return The future completed when the session is closed
+   */
+  Future<Void> close();
+
+  Configuration getConfiguration();
+
+  /**
+   * Retrieves a mapper whose methods run on the pool of the session.
+   * <p>
+   * A method declared to return a {@link Future} of a type returns at once, like the methods of this session. Any
+   * other method waits for its statement, which still runs on the pool after the statements called before.
+   *
+   * @param <T> the mapper type
+   * @param type Mapper interface class
+   * @return a mapper bound to this session
+   */
+  <T> T getMapper(Class<T> type);
+
+}
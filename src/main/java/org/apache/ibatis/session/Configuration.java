@@ -24,18 +24,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
 import org.apache.ibatis.builder.ResultMapResolver;
+import org.apache.ibatis.builder.SqlShapeCache;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CopyOnReadCacheSerializer;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
+import org.apache.ibatis.cache.serializer.ReflectiveCacheSerializer;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
@@ -51,6 +66,7 @@ import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.resultset.RowMapperCompiler;
 import org.apache.ibatis.executor.statement.RoutingStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.io.VFS;
@@ -74,6 +90,7 @@ import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.plugin.InterceptorChain;
 import org.apache.ibatis.reflection.DefaultReflectorFactory;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.PropertyPath;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
@@ -82,6 +99,10 @@ import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.scripting.LanguageDriverRegistry;
 import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
+import org.apache.ibatis.scripting.xmltags.CompiledExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
+import org.apache.ibatis.scripting.xmltags.OgnlExpressionEngine;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
@@ -108,6 +129,15 @@ public class Configuration {
   protected boolean cacheEnabled = true;
   protected boolean callSettersOnNulls = false;
   protected boolean useActualParamName = false;
+  protected boolean cacheStatisticsJmxEnabled = false;
+  protected boolean compiledRowMappersEnabled = false;
+  protected boolean parallelMappingEnabled = false;
+  protected int parallelMappingThreads;
+  protected int asyncExecutorThreads = 10;
+  protected boolean batchGroupingEnabled = false;
+  protected int batchMultiRowInsertSize;
+  protected int sqlShapeCacheSize = 1024;
+  protected int foreachArrayThreshold;
 
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
@@ -129,6 +159,8 @@ public class Configuration {
   protected boolean lazyLoadingEnabled = false;
   protected ProxyFactory proxyFactory = new JavassistProxyFactory(); // #224 Using internal Javassist instead of OGNL
 
+  protected ExpressionEvaluator expressionEvaluator = new ExpressionEvaluator(new CompiledExpressionEngine());
+
   protected String databaseId;
   /**
    * Configuration factory class.
@@ -138,6 +170,13 @@ public class Configuration {
    */
   protected Class<?> configurationFactory;
 
+  protected volatile RowMapperCompiler rowMapperCompiler;
+  protected volatile ExecutorService mappingExecutor;
+  protected boolean mappingExecutorOwned;
+  protected volatile ExecutorService asyncExecutor;
+  protected boolean asyncExecutorOwned;
+  protected volatile SqlShapeCache sqlShapeCache;
+
   protected final MapperRegistry mapperRegistry = new MapperRegistry(this);
   protected final InterceptorChain interceptorChain = new InterceptorChain();
   protected final TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();
@@ -146,6 +185,7 @@ public class Configuration {
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected final Map<String, CacheStatistics> cacheStatistics = new StrictMap<CacheStatistics>("Cache statistics collection");
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -157,6 +197,7 @@ public class Configuration {
   protected final Collection<CacheRefResolver> incompleteCacheRefs = new LinkedList<CacheRefResolver>();
   protected final Collection<ResultMapResolver> incompleteResultMaps = new LinkedList<ResultMapResolver>();
   protected final Collection<MethodResolver> incompleteMethods = new LinkedList<MethodResolver>();
+  protected final Lock incompleteElementsLock = new ReentrantLock();
 
   /*
    * A map holds cache-ref relationship. The key is the namespace that
@@ -179,6 +220,12 @@ public class Configuration {
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
+
+    typeAliasRegistry.registerAlias("JDK_SERIALIZATION", JdkCacheSerializer.class);
+    typeAliasRegistry.registerAlias("REFLECTIVE_SERIALIZATION", ReflectiveCacheSerializer.class);
+    typeAliasRegistry.registerAlias("COPY_ON_READ", CopyOnReadCacheSerializer.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
@@ -200,6 +247,9 @@ public class Configuration {
     typeAliasRegistry.registerAlias("CGLIB", CglibProxyFactory.class);
     typeAliasRegistry.registerAlias("JAVASSIST", JavassistProxyFactory.class);
 
+    typeAliasRegistry.registerAlias("COMPILED", CompiledExpressionEngine.class);
+    typeAliasRegistry.registerAlias("OGNL", OgnlExpressionEngine.class);
+
     languageRegistry.setDefaultDriverClass(XMLLanguageDriver.class);
     languageRegistry.register(RawLanguageDriver.class);
   }
@@ -250,6 +300,247 @@ public class Configuration {
     this.useActualParamName = useActualParamName;
   }
 
+  public boolean isCompiledRowMappersEnabled() {
+    return compiledRowMappersEnabled;
+  }
+
+  public void setCompiledRowMappersEnabled(boolean compiledRowMappersEnabled) {
+    this.compiledRowMappersEnabled = compiledRowMappersEnabled;
+  }
+
+  public RowMapperCompiler getRowMapperCompiler() {
+    RowMapperCompiler compiler = rowMapperCompiler;
+    if (compiler == null) {
+      synchronized (this) {
+        compiler = rowMapperCompiler;
+        if (compiler == null) {
+          compiler = new RowMapperCompiler();
+          rowMapperCompiler = compiler;
+        }
+      }
+    }
+    return compiler;
+  }
+
+  public boolean isParallelMappingEnabled() {
+    return parallelMappingEnabled;
+  }
+
+  public void setParallelMappingEnabled(boolean parallelMappingEnabled) {
+    this.parallelMappingEnabled = parallelMappingEnabled;
+  }
+
+  public int getParallelMappingThreads() {
+    return parallelMappingThreads;
+  }
+
+  /**
+   * @param parallelMappingThreads - the number of threads mapping rows in parallel, 0 for one per processor
+   */
+  public void setParallelMappingThreads(int parallelMappingThreads) {
+    this.parallelMappingThreads = parallelMappingThreads;
+  }
+
+  /**
+   * @return The pool mapping the rows of large results when parallel mapping is enabled. Unless one was set
+   *         with {@link #setMappingExecutor(ExecutorService)}, a pool of daemon threads is started on first use;
+   *         its threads stop when idle and {@link #shutdownMappingExecutor()} shuts it down.
+   */
+  public ExecutorService getMappingExecutor() {
+    ExecutorService executor = mappingExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        executor = mappingExecutor;
+        if (executor == null) {
+          final int threads = parallelMappingThreads > 0 ? parallelMappingThreads : Runtime.getRuntime().availableProcessors();
+          executor = newDaemonThreadPool(threads, "mybatis-mapping-");
+          mappingExecutorOwned = true;
+          mappingExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Maps the rows of large results on a pool owned by the application, which must shut it down itself.
+   * A pool previously started by MyBatis is shut down.
+   */
+  public void setMappingExecutor(ExecutorService mappingExecutor) {
+    synchronized (this) {
+      shutdownMappingExecutor();
+      this.mappingExecutor = mappingExecutor;
+    }
+  }
+
+  /**
+   * Shuts down the pool MyBatis started for parallel mapping, if any; the next parallel mapping starts a new one.
+   * A pool set with {@link #setMappingExecutor(ExecutorService)} is left to the application.
+   */
+  public void shutdownMappingExecutor() {
+    synchronized (this) {
+      if (mappingExecutorOwned) {
+        mappingExecutor.shutdown();
+        mappingExecutor = null;
+        mappingExecutorOwned = false;
+      }
+    }
+  }
+
+  public int getAsyncExecutorThreads() {
+    return asyncExecutorThreads;
+  }
+
+  /**
+   * @param asyncExecutorThreads - the number of threads running the statements of asynchronous sessions
+   */
+  public void setAsyncExecutorThreads(int asyncExecutorThreads) {
+    this.asyncExecutorThreads = asyncExecutorThreads;
+  }
+
+  /**
+   * @return The pool running the statements of asynchronous sessions, which bounds the connections they use at once.
+   *         Unless one was set with {@link #setAsyncExecutor(ExecutorService)}, a pool of
+   *         {@link #getAsyncExecutorThreads()} daemon threads is started on first use; its threads stop when idle and
+   *         {@link #shutdownAsyncExecutor()} shuts it down.
+   */
+  public ExecutorService getAsyncExecutor() {
+    ExecutorService executor = asyncExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        executor = asyncExecutor;
+        if (executor == null) {
+          executor = newDaemonThreadPool(asyncExecutorThreads, "mybatis-async-");
+          asyncExecutorOwned = true;
+          asyncExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Runs the statements of asynchronous sessions on a pool owned by the application, which must shut it down itself.
+   * A pool previously started by MyBatis is shut down.
+   */
+  public void setAsyncExecutor(ExecutorService asyncExecutor) {
+    synchronized (this) {
+      shutdownAsyncExecutor();
+      this.asyncExecutor = asyncExecutor;
+    }
+  }
+
+  /**
+   * Shuts down the pool MyBatis started for asynchronous sessions, if any; the next asynchronous statement starts a new
+   * one. A pool set with {@link #setAsyncExecutor(ExecutorService)} is left to the application.
+   */
+  public void shutdownAsyncExecutor() {
+    synchronized (this) {
+      if (asyncExecutorOwned) {
+        asyncExecutor.shutdown();
+        asyncExecutor = null;
+        asyncExecutorOwned = false;
+      }
+    }
+  }
+
+  public boolean isBatchGroupingEnabled() {
+    return batchGroupingEnabled;
+  }
+
+  /**
+   * @param batchGroupingEnabled - true to add each statement of a batch to the pending JDBC batch of the same
+   *          mapped statement and sql, even when other statements were added since
+   */
+  public void setBatchGroupingEnabled(boolean batchGroupingEnabled) {
+    this.batchGroupingEnabled = batchGroupingEnabled;
+  }
+
+  public int getBatchMultiRowInsertSize() {
+    return batchMultiRowInsertSize;
+  }
+
+  /**
+   * @param batchMultiRowInsertSize - the number of rows of batched single row inserts sent as one multi-row insert,
+   *          0 or 1 to send them as a JDBC batch
+   */
+  public void setBatchMultiRowInsertSize(int batchMultiRowInsertSize) {
+    this.batchMultiRowInsertSize = batchMultiRowInsertSize;
+  }
+
+  public int getSqlShapeCacheSize() {
+    return sqlShapeCacheSize;
+  }
+
+  /**
+   * @param sqlShapeCacheSize - the number of parsed sql texts of dynamic statements kept for reuse, 0 to parse the
+   *          sql of every call
+   */
+  public void setSqlShapeCacheSize(int sqlShapeCacheSize) {
+    this.sqlShapeCacheSize = sqlShapeCacheSize;
+    this.sqlShapeCache = null;
+  }
+
+  public int getForeachArrayThreshold() {
+    return foreachArrayThreshold;
+  }
+
+  /**
+   * @param foreachArrayThreshold - the number of items from which a foreach declaring an array type sends them as one
+   *          JDBC ARRAY, 0 to always send the array
+   */
+  public void setForeachArrayThreshold(int foreachArrayThreshold) {
+    this.foreachArrayThreshold = foreachArrayThreshold;
+  }
+
+  /**
+   * @return The cache of the parsed sql texts of dynamic statements, or null if it is disabled
+   */
+  public SqlShapeCache getSqlShapeCache() {
+    if (sqlShapeCacheSize <= 0) {
+      return null;
+    }
+    SqlShapeCache cache = sqlShapeCache;
+    if (cache == null) {
+      synchronized (this) {
+        cache = sqlShapeCache;
+        if (cache == null) {
+          cache = new SqlShapeCache(this, sqlShapeCacheSize);
+          sqlShapeCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  private static ExecutorService newDaemonThreadPool(int threads, String namePrefix) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newDaemonThreadFactory(namePrefix));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger sequence = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + sequence.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  public boolean isCacheStatisticsJmxEnabled() {
+    return cacheStatisticsJmxEnabled;
+  }
+
+  public void setCacheStatisticsJmxEnabled(boolean cacheStatisticsJmxEnabled) {
+    this.cacheStatisticsJmxEnabled = cacheStatisticsJmxEnabled;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -347,6 +638,26 @@ public class Configuration {
     this.proxyFactory = proxyFactory;
   }
 
+  public ExpressionEngine getExpressionEngine() {
+    return expressionEvaluator.getEngine();
+  }
+
+  /**
+   * Sets the engine evaluating the expressions of dynamic sql.
+   *
+   * @param expressionEngine the engine, null restores the default {@link CompiledExpressionEngine}
+   */
+  public void setExpressionEngine(ExpressionEngine expressionEngine) {
+    if (expressionEngine == null) {
+      expressionEngine = new CompiledExpressionEngine();
+    }
+    this.expressionEvaluator = new ExpressionEvaluator(expressionEngine);
+  }
+
+  public ExpressionEvaluator getExpressionEvaluator() {
+    return expressionEvaluator;
+  }
+
   public boolean isAggressiveLazyLoading() {
     return aggressiveLazyLoading;
   }
@@ -514,6 +825,10 @@ public class Configuration {
     return MetaObject.forObject(object, objectFactory, objectWrapperFactory, reflectorFactory);
   }
 
+  public PropertyPath newPropertyPath(String expression) {
+    return new PropertyPath(expression, objectFactory, objectWrapperFactory, reflectorFactory);
+  }
+
   public ParameterHandler newParameterHandler(MappedStatement mappedStatement, Object parameterObject, BoundSql boundSql) {
     ParameterHandler parameterHandler = mappedStatement.getLang().createParameterHandler(mappedStatement, parameterObject, boundSql);
     parameterHandler = (ParameterHandler) interceptorChain.pluginAll(parameterHandler);
@@ -595,6 +910,35 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  public void addCacheStatistics(CacheStatistics statistics) {
+    cacheStatistics.put(statistics.getId(), statistics);
+    if (cacheStatisticsJmxEnabled) {
+      statistics.registerMBean();
+    }
+  }
+
+  /**
+   * Unregisters the JMX MBeans of the cache statistics of this configuration. The MBean server keeps them
+   * and through them the caches, so an application that registered them calls this when it stops or
+   * replaces its configuration.
+   */
+  public void unregisterCacheStatistics() {
+    for (Object statistics : cacheStatistics.values()) {
+      // short names of the ids may be ambiguities, and the other ones appear twice
+      if (statistics instanceof CacheStatistics) {
+        ((CacheStatistics) statistics).unregisterMBean();
+      }
+    }
+  }
+
+  /**
+   * @param id The id of a cache, as returned by {@link Cache#getId()}
+   * @return The statistics of the cache, or null if the cache was not built by a mapper
+   */
+  public CacheStatistics getCacheStatistics(String id) {
+    return cacheStatistics.containsKey(id) ? cacheStatistics.get(id) : null;
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
@@ -683,6 +1027,13 @@ public class Configuration {
     return incompleteMethods;
   }
 
+  /**
+   * @return The lock guarding the incomplete statements, cache refs, result maps and methods while they are resolved
+   */
+  public Lock getIncompleteElementsLock() {
+    return incompleteElementsLock;
+  }
+
   public MappedStatement getMappedStatement(String id) {
     return this.getMappedStatement(id, true);
   }
@@ -744,27 +1095,39 @@ public class Configuration {
    */
   protected void buildAllStatements() {
     if (!incompleteResultMaps.isEmpty()) {
-      synchronized (incompleteResultMaps) {
+      incompleteElementsLock.lock();
+      try {
         // This always throws a BuilderException.
         incompleteResultMaps.iterator().next().resolve();
+      } finally {
+        incompleteElementsLock.unlock();
       }
     }
     if (!incompleteCacheRefs.isEmpty()) {
-      synchronized (incompleteCacheRefs) {
+      incompleteElementsLock.lock();
+      try {
         // This always throws a BuilderException.
         incompleteCacheRefs.iterator().next().resolveCacheRef();
+      } finally {
+        incompleteElementsLock.unlock();
       }
     }
     if (!incompleteStatements.isEmpty()) {
-      synchronized (incompleteStatements) {
+      incompleteElementsLock.lock();
+      try {
         // This always throws a BuilderException.
         incompleteStatements.iterator().next().parseStatementNode();
+      } finally {
+        incompleteElementsLock.unlock();
       }
     }
     if (!incompleteMethods.isEmpty()) {
-      synchronized (incompleteMethods) {
+      incompleteElementsLock.lock();
+      try {
         // This always throws a BuilderException.
         incompleteMethods.iterator().next().resolve();
+      } finally {
+        incompleteElementsLock.unlock();
       }
     }
   }
@@ -0,0 +1,313 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.defaults;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.AsyncSqlSession;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * Runs the statements of a {@link SqlSession} one at a time on a shared executor. The statements wait in a queue of
+ * the session, which hands the executor one statement at a time, so a session only takes a thread while a statement
+ * of it runs and sessions with many statements do not hold back the others. The keys missed in blocking caches are
+ * owned by the session rather than by the thread that missed them, so a later statement can release them.
+ */
+public class DefaultAsyncSqlSession implements AsyncSqlSession {
+
+  private final SqlSession sqlSession;
+  private final Executor executor;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+  private boolean scheduled;
+  private final Runnable runNextTask = new Runnable() {
+    @Override
+    public void run() {
+      runNextTask();
+    }
+  };
+
+  public DefaultAsyncSqlSession(SqlSession sqlSession, Executor executor) {
+    this.sqlSession = sqlSession;
+    this.executor = executor;
+  }
+
+  @Override
+  public <T> Future<T> selectOne(String statement) {
+    return selectOne(statement, null);
+  }
+
+  @Override
+  public <T> Future<T> selectOne(final String statement, final Object parameter) {
+    return submit(new Callable<T>() {
+      @Override
+      public T call() {
+        return sqlSession.<T> selectOne(statement, parameter);
+      }
+    });
+  }
+
+  @Override
+  public <E> Future<List<E>> selectList(String statement) {
+    return selectList(statement, null);
+  }
+
+  @Override
+  public <E> Future<List<E>> selectList(String statement, Object parameter) {
+    return selectList(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  @Override
+  public <E> Future<List<E>> selectList(final String statement, final Object parameter, final RowBounds rowBounds) {
+    return submit(new Callable<List<E>>() {
+      @Override
+      public List<E> call() {
+        return sqlSession.<E> selectList(statement, parameter, rowBounds);
+      }
+    });
+  }
+
+  @Override
+  public Future<Integer> insert(String statement) {
+    return insert(statement, null);
+  }
+
+  @Override
+  public Future<Integer> insert(final String statement, final Object parameter) {
+    return submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return sqlSession.insert(statement, parameter);
+      }
+    });
+  }
+
+  @Override
+  public Future<Integer> update(String statement) {
+    return update(statement, null);
+  }
+
+  @Override
+  public Future<Integer> update(final String statement, final Object parameter) {
+    return submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return sqlSession.update(statement, parameter);
+      }
+    });
+  }
+
+  @Override
+  public Future<Integer> delete(String statement) {
+    return delete(statement, null);
+  }
+
+  @Override
+  public Future<Integer> delete(final String statement, final Object parameter) {
+    return submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return sqlSession.delete(statement, parameter);
+      }
+    });
+  }
+
+  @Override
+  public Future<Void> commit() {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        sqlSession.commit();
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Future<Void> rollback() {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        sqlSession.rollback();
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Future<Void> close() {
+    if (!closed.compareAndSet(false, true)) {
+      return completedFuture();
+    }
+    final Callable<Void> close = new Callable<Void>() {
+      @Override
+      public Void call() {
+        sqlSession.close();
+        return null;
+      }
+    };
+    try {
+      return enqueue(close, true);
+    } catch (RejectedExecutionException e) {
+      // no statement is pending and the executor is gone, release the connection on this thread
+      FutureTask<Void> task = new FutureTask<Void>(close);
+      task.run();
+      return task;
+    }
+  }
+
+  @Override
+  public Configuration getConfiguration() {
+    return sqlSession.getConfiguration();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T getMapper(Class<T> type) {
+    final T mapper = sqlSession.getMapper(type);
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new AsyncMapperHandler(mapper));
+  }
+
+  private <T> Future<T> submit(Callable<T> callable) {
+    return enqueue(callable, false);
+  }
+
+  private <T> Future<T> enqueue(Callable<T> callable, boolean closing) {
+    final FutureTask<T> task = new FutureTask<T>(callable);
+    synchronized (tasks) {
+      // checked under the lock, so no statement is queued after the close
+      if (closed.get() && !closing) {
+        throw new RejectedExecutionException("The asynchronous session is closed.");
+      }
+      if (!scheduled) {
+        executor.execute(runNextTask);
+        scheduled = true;
+      }
+      tasks.add(task);
+    }
+    return task;
+  }
+
+  private void runNextTask() {
+    while (true) {
+      Runnable task;
+      synchronized (tasks) {
+        task = tasks.poll();
+      }
+      Object previousOwner = BlockingCache.setLoadOwner(this);
+      try {
+        task.run();
+      } finally {
+        BlockingCache.setLoadOwner(previousOwner);
+      }
+      synchronized (tasks) {
+        if (tasks.isEmpty()) {
+          scheduled = false;
+          return;
+        }
+        try {
+          // back to the end of the executor queue, so other sessions get their turn
+          executor.execute(runNextTask);
+          return;
+        } catch (RejectedExecutionException e) {
+          // the executor was shut down, finish the pending statements on this thread
+        }
+      }
+    }
+  }
+
+  private static Future<Void> completedFuture() {
+    FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() {
+        return null;
+      }
+    });
+    future.run();
+    return future;
+  }
+
+  /**
+   * Calls the methods of a mapper of the wrapped session on the executor.
+   */
+  private class AsyncMapperHandler implements InvocationHandler {
+
+    private final Object mapper;
+
+    private AsyncMapperHandler(Object mapper) {
+      this.mapper = mapper;
+    }
+
+    @Override
+    public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+      if (Object.class.equals(method.getDeclaringClass())) {
+        try {
+          return method.invoke(this, args);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      }
+      final Future<Object> future = submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          Object result;
+          try {
+            result = method.invoke(mapper, args);
+          } catch (Throwable t) {
+            Throwable cause = ExceptionUtil.unwrapThrowable(t);
+            if (cause instanceof Error) {
+              throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : new UndeclaredThrowableException(cause);
+          }
+          // the mapper of the wrapped session has already run the statement
+          return result instanceof Future ? ((Future<?>) result).get() : result;
+        }
+      });
+      if (Future.class.equals(method.getReturnType())) {
+        return future;
+      }
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw ExceptionFactory.wrapException("Interrupted while waiting for mapper method " + method.getName() + ".", e);
+      }
+    }
+
+  }
+
+}
@@ -22,6 +22,8 @@ import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.AsyncSqlSession;
+import org.apache.ibatis.session.AsyncSqlSessionFactory;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
@@ -34,7 +36,7 @@ import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
 /**
  * @author Clinton Begin
  */
-public class DefaultSqlSessionFactory implements SqlSessionFactory {
+public class DefaultSqlSessionFactory implements SqlSessionFactory, AsyncSqlSessionFactory {
 
   private final Configuration configuration;
 
@@ -72,6 +74,17 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
     return openSessionFromDataSource(execType, null, autoCommit);
   }
 
+  @Override
+  public AsyncSqlSession openAsyncSession() {
+    return openAsyncSession(configuration.getDefaultExecutorType(), false);
+  }
+
+  @Override
+  public AsyncSqlSession openAsyncSession(ExecutorType execType, boolean autoCommit) {
+    // the connection is only opened by the first statement, on a thread of the pool
+    return new DefaultAsyncSqlSession(openSessionFromDataSource(execType, null, autoCommit), configuration.getAsyncExecutor());
+  }
+
   @Override
   public SqlSession openSession(Connection connection) {
     return openSessionFromConnection(configuration.getDefaultExecutorType(), connection);
@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.type;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * The elements of a collection that are sent to the database as a single JDBC ARRAY.
+ * The array is created with the connection of the statement it is bound to.
+ */
+public class ArrayParameter {
+
+  private final String typeName;
+  private final Object[] elements;
+
+  /**
+   * @param typeName the SQL name of the element type, as expected by {@link Connection#createArrayOf}
+   * @param elements the elements of the array
+   */
+  public ArrayParameter(String typeName, Object[] elements) {
+    this.typeName = typeName;
+    this.elements = elements;
+  }
+
+  public String getTypeName() {
+    return typeName;
+  }
+
+  public Object[] getElements() {
+    return elements;
+  }
+
+  public Array createArray(Connection connection) throws SQLException {
+    return connection.createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public String toString() {
+    return typeName + Arrays.toString(elements);
+  }
+
+}
@@ -32,7 +32,11 @@ public class ArrayTypeHandler extends BaseTypeHandler<Object> {
 
   @Override
   public void setNonNullParameter(PreparedStatement ps, int i, Object parameter, JdbcType jdbcType) throws SQLException {
-    ps.setArray(i, (Array) parameter);
+    if (parameter instanceof ArrayParameter) {
+      ps.setArray(i, ((ArrayParameter) parameter).createArray(ps.getConnection()));
+    } else {
+      ps.setArray(i, (Array) parameter);
+    }
   }
 
   @Override
@@ -95,6 +95,7 @@ public final class TypeHandlerRegistry {
 
 		register(Object.class, JdbcType.ARRAY, new ArrayTypeHandler());
 		register(JdbcType.ARRAY, new ArrayTypeHandler());
+		register((Type) ArrayParameter.class, new ArrayTypeHandler());
 
 		register(BigInteger.class, new BigIntegerTypeHandler());
 		register(JdbcType.BIGINT, new LongTypeHandler());
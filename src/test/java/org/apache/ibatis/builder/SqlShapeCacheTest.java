@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.IntegerTypeHandler;
+import org.apache.ibatis.type.LongTypeHandler;
+import org.junit.Test;
+
+public class SqlShapeCacheTest {
+
+  private static final String SQL = "select * from author where id = #{id} and username = #{username,jdbcType=VARCHAR}";
+
+  @Test
+  public void shouldReuseTheShapeOfTheSameSql() {
+    SqlShapeCache cache = new SqlShapeCache(new Configuration(), 16);
+    SqlSource first = cache.parse(SQL, Author.class, bindings());
+    assertSame(first, cache.parse(new String(SQL), Author.class, bindings()));
+    BoundSql boundSql = first.getBoundSql(new Author(1));
+    assertEquals("select * from author where id = ? and username = ?", boundSql.getSql());
+    assertEquals(2, boundSql.getParameterMappings().size());
+    assertEquals(int.class, boundSql.getParameterMappings().get(0).getJavaType());
+  }
+
+  @Test
+  public void shouldKeepShapesOfOtherParameterTypesApart() {
+    SqlShapeCache cache = new SqlShapeCache(new Configuration(), 16);
+    SqlSource author = cache.parse(SQL, Author.class, bindings());
+    SqlSource map = cache.parse(SQL, HashMap.class, bindings());
+    assertNotSame(author, map);
+    assertEquals(Object.class, map.getBoundSql(null).getParameterMappings().get(0).getJavaType());
+  }
+
+  @Test
+  public void shouldReparseWhenBoundValuesChangeType() {
+    SqlShapeCache cache = new SqlShapeCache(new Configuration(), 16);
+    String sql = "select * from author where id = #{__frch_id_0}";
+    SqlSource integers = cache.parse(sql, HashMap.class, bindings("__frch_id_0", 1));
+    assertSame(integers, cache.parse(sql, HashMap.class, bindings("__frch_id_0", 2)));
+    SqlSource longs = cache.parse(sql, HashMap.class, bindings("__frch_id_0", 1L));
+    assertNotSame(integers, longs);
+    assertTrue(typeHandler(integers) instanceof IntegerTypeHandler);
+    assertTrue(typeHandler(longs) instanceof LongTypeHandler);
+  }
+
+  @Test
+  public void shouldReparseWhenAParameterIsBoundOnlySometimes() {
+    SqlShapeCache cache = new SqlShapeCache(new Configuration(), 16);
+    String sql = "select * from author where username like #{username}";
+    SqlSource property = cache.parse(sql, Author.class, bindings());
+    SqlSource bound = cache.parse(sql, Author.class, bindings("username", 42));
+    assertNotSame(property, bound);
+    assertEquals(String.class, property.getBoundSql(null).getParameterMappings().get(0).getJavaType());
+    assertEquals(Integer.class, bound.getBoundSql(null).getParameterMappings().get(0).getJavaType());
+  }
+
+  @Test
+  public void shouldStayWithinItsSize() {
+    SqlShapeCache cache = new SqlShapeCache(new Configuration(), 10);
+    for (int i = 0; i < 100; i++) {
+      cache.parse("select * from author where id = #{id} and " + i + " = " + i, Author.class, bindings());
+    }
+    assertTrue(cache.getSize() <= 10);
+  }
+
+  @Test
+  public void shouldBindForEachItemsOfEveryCall() {
+    Configuration configuration = new Configuration();
+    SqlNode items = new ForEachSqlNode(configuration, new MixedSqlNode(Arrays.<SqlNode> asList(new StaticTextSqlNode("#{id}"))),
+        "list", null, "id", "(", ")", ",");
+    DynamicSqlSource source = new DynamicSqlSource(configuration,
+        new MixedSqlNode(Arrays.<SqlNode> asList(new StaticTextSqlNode("select * from author where id in "), items)));
+    BoundSql first = source.getBoundSql(parameter(1, 2));
+    BoundSql second = source.getBoundSql(parameter(3, 4));
+    assertEquals(2, first.getParameterMappings().size());
+    assertSame(first.getParameterMappings(), second.getParameterMappings());
+    assertEquals(3, second.getAdditionalParameter("__frch_id_0"));
+    assertEquals(4, second.getAdditionalParameter("__frch_id_1"));
+    BoundSql longs = source.getBoundSql(parameter(5L, 6L));
+    assertEquals(Long.class, longs.getParameterMappings().get(0).getJavaType());
+    assertEquals(1, configuration.getSqlShapeCache().getSize());
+  }
+
+  @Test
+  public void shouldBeDisabledBySizeZero() {
+    Configuration configuration = new Configuration();
+    configuration.setSqlShapeCacheSize(0);
+    assertNull(configuration.getSqlShapeCache());
+  }
+
+  private static Map<String, Object> parameter(Object... ids) {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", Arrays.asList(ids));
+    return parameter;
+  }
+
+  private static Map<String, Object> bindings(Object... keysAndValues) {
+    Map<String, Object> bindings = new HashMap<String, Object>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      bindings.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return bindings;
+  }
+
+  private static Object typeHandler(SqlSource sqlSource) {
+    List<ParameterMapping> parameterMappings = sqlSource.getBoundSql(null).getParameterMappings();
+    return parameterMappings.get(0).getTypeHandler();
+  }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockingCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldLoadMissingValueOnce() throws Exception {
+    final BlockingCache cache = newCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final Callable<Object> loader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        Thread.sleep(100);
+        return "value";
+      }
+    };
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 8; i++) {
+      results.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return cache.getObject("key", loader);
+        }
+      }));
+    }
+    for (Future<Object> result : results) {
+      assertEquals("value", result.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void shouldWakeUpWaitersWhenLoadIsReleased() throws Exception {
+    final BlockingCache cache = newCache();
+    assertNull(cache.getObject("key"));
+    // the owner can ask again without blocking itself
+    assertNull(cache.getObject("key"));
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        Object value = cache.getObject("key");
+        cache.putObject("key", "loaded by waiter");
+        return value;
+      }
+    });
+    Thread.sleep(50);
+    assertTrue(!waiter.isDone());
+    cache.removeObject("key");
+    assertNull(waiter.get(5, TimeUnit.SECONDS));
+    assertEquals("loaded by waiter", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldReleaseWaitersWhenLoaderFails() throws Exception {
+    final BlockingCache cache = newCache();
+    try {
+      cache.getObject("key", new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          throw new IllegalStateException("database down");
+        }
+      });
+      fail("Expected CacheException");
+    } catch (CacheException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Future<Object> next = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return cache.getObject("key", new Callable<Object>() {
+          @Override
+          public Object call() {
+            return "value";
+          }
+        });
+      }
+    });
+    assertEquals("value", next.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldGiveUpWaitingAfterTimeout() throws Exception {
+    final BlockingCache cache = newCache();
+    cache.setTimeout(50);
+    assertNull(cache.getObject("key"));
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        try {
+          return cache.getObject("key");
+        } catch (CacheException e) {
+          return e;
+        }
+      }
+    });
+    assertTrue(waiter.get(5, TimeUnit.SECONDS) instanceof CacheException);
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldLetAnyThreadOfTheOwnerReleaseItsKeys() throws Exception {
+    final BlockingCache cache = newCache();
+    cache.setTimeout(1000);
+    final Object owner = new Object();
+    Future<Object> miss = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        Object previous = BlockingCache.setLoadOwner(owner);
+        try {
+          return cache.getObject("key");
+        } finally {
+          BlockingCache.setLoadOwner(previous);
+        }
+      }
+    });
+    assertNull(miss.get(5, TimeUnit.SECONDS));
+    Object previous = BlockingCache.setLoadOwner(owner);
+    try {
+      // asks again without blocking and releases the key missed on the other thread
+      assertNull(cache.getObject("key"));
+      cache.putObject("key", "value");
+    } finally {
+      BlockingCache.setLoadOwner(previous);
+    }
+    assertNull(previous);
+    assertEquals("value", cache.getObject("key"));
+    assertNull(cache.getObject("other"));
+    // the current thread owns its keys again
+    assertNull(cache.getObject("other"));
+  }
+
+  @Test
+  public void shouldNotLoadAgainWhenLoadEndsBetweenReadAndClaim() throws Exception {
+    final CountDownLatch missed = new CountDownLatch(1);
+    final CountDownLatch loaded = new CountDownLatch(1);
+    final Cache delegate = new PerpetualCache("default") {
+      @Override
+      public Object getObject(Object key) {
+        Object value = super.getObject(key);
+        if ("late reader".equals(Thread.currentThread().getName()) && missed.getCount() > 0) {
+          missed.countDown();
+          try {
+            loaded.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return value;
+      }
+    };
+    final BlockingCache cache = new BlockingCache(delegate);
+    assertNull(cache.getObject("key"));
+    Future<Object> reader = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        Thread.currentThread().setName("late reader");
+        return cache.getObject("key");
+      }
+    });
+    assertTrue(missed.await(5, TimeUnit.SECONDS));
+    cache.putObject("key", "value");
+    loaded.countDown();
+    assertEquals("value", reader.get(5, TimeUnit.SECONDS));
+  }
+
+  private BlockingCache newCache() {
+    return new BlockingCache(new SynchronizedCache(new PerpetualCache("default")));
+  }
+
+}
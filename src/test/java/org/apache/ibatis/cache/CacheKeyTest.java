@@ -19,6 +19,8 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CacheKeyTest {
 
@@ -80,4 +82,73 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldGrowBeyondExpectedUpdateCount() {
+    CacheKey key1 = new CacheKey(1);
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 20; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    key1.update(new int[] { 1, 2, 3 });
+    key2.update(new int[] { 1, 2, 3 });
+    assertEquals(23, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+  }
+
+  @Test
+  public void shouldRejectUpdatesOfFrozenKey() {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" }).freeze();
+    assertTrue(key.isFrozen());
+    try {
+      key.update("world");
+      fail("Expected CacheException");
+    } catch (CacheException e) {
+      // expected
+    }
+    assertEquals(new CacheKey(new Object[] { 1, "hello" }), key);
+  }
+
+  @Test
+  public void shouldCloneFrozenKeyIntoUpdatableKey() throws Exception {
+    CacheKey frozen = new CacheKey(new Object[] { 1, "hello" }).freeze();
+    CacheKey clone = frozen.clone();
+    assertFalse(clone.isFrozen());
+    assertEquals(frozen, clone);
+    clone.update("world");
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "world" }), clone);
+    assertEquals(2, frozen.getUpdateCount());
+  }
+
+  @Test
+  public void shouldSpreadSimilarKeysOverDifferentHashCodes() {
+    Map<Integer, Integer> hashCodes = new HashMap<Integer, Integer>();
+    for (int i = 0; i < 10000; i++) {
+      CacheKey key = new CacheKey(new Object[] { "resultMap", "id", i, "parentId", i / 10 });
+      hashCodes.put(key.hashCode(), i);
+    }
+    assertTrue(hashCodes.size() > 9990);
+  }
+
+  @Test
+  public void shouldFindRowKeysBuiltByUpdatesInMapOfFrozenKeys() {
+    Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
+    Object[][] components = new Object[1000][];
+    for (int i = 0; i < components.length; i++) {
+      // the row key of a post nested in a blog: result map id, then column and value of both ids
+      components[i] = new Object[] { "org.apache.ibatis.domain.blog.mappers.BlogMapper.postResult",
+          "BLOG_ID", Integer.valueOf(i % 30), "POST_ID", Integer.valueOf(i / 30) };
+      nestedResultObjects.put(new CacheKey(components[i]).freeze(), components[i]);
+    }
+    assertEquals(components.length, nestedResultObjects.size());
+    for (Object[] row : components) {
+      CacheKey key = new CacheKey(row.length);
+      for (Object component : row) {
+        key.update(component);
+      }
+      assertSame(row, nestedResultObjects.get(key));
+    }
+  }
+
 }
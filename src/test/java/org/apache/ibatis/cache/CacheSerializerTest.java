@@ -0,0 +1,236 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CopyOnReadCacheSerializer;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
+import org.apache.ibatis.cache.serializer.ReflectiveCacheSerializer;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheSerializerTest {
+
+  private static final CacheSerializer[] SERIALIZERS = {
+      new JdkCacheSerializer(), new ReflectiveCacheSerializer(), new CopyOnReadCacheSerializer() };
+
+  @Test
+  public void shouldCopyValuesAndCollections() {
+    for (CacheSerializer serializer : SERIALIZERS) {
+      Map<String, Object> row = new LinkedHashMap<String, Object>();
+      row.put("string", "value");
+      row.put("int", 1);
+      row.put("long", 2L);
+      row.put("double", 3.5d);
+      row.put("boolean", true);
+      row.put("char", 'c');
+      row.put("decimal", new BigDecimal("12.345"));
+      row.put("integer", new BigInteger("12345678901234567890"));
+      row.put("date", new Date(1000L));
+      Timestamp timestamp = new Timestamp(2000L);
+      timestamp.setNanos(123456789);
+      row.put("timestamp", timestamp);
+      row.put("sqlDate", new java.sql.Date(3000L));
+      row.put("enum", Section.NEWS);
+      row.put("null", null);
+      row.put("bytes", new byte[] { 1, 2, 3 });
+      row.put("ints", new int[] { 4, 5 });
+      row.put("strings", new String[] { "a", null });
+      List<Object> rows = new ArrayList<Object>();
+      rows.add(row);
+      rows.add(new HashMap<String, Object>());
+
+      List<?> copy = (List<?>) roundTrip(serializer, rows);
+      assertNotSame(rows, copy);
+      Map<?, ?> copiedRow = (Map<?, ?>) copy.get(0);
+      assertNotSame(row, copiedRow);
+      assertEquals(LinkedHashMap.class, copiedRow.getClass());
+      assertEquals(new ArrayList<Object>(row.keySet()), new ArrayList<Object>(copiedRow.keySet()));
+      for (Map.Entry<String, Object> entry : row.entrySet()) {
+        Object expected = entry.getValue();
+        Object actual = copiedRow.get(entry.getKey());
+        if (expected instanceof byte[]) {
+          assertArrayEquals((byte[]) expected, (byte[]) actual);
+        } else if (expected instanceof int[]) {
+          assertArrayEquals((int[]) expected, (int[]) actual);
+        } else if (expected instanceof Object[]) {
+          assertArrayEquals((Object[]) expected, (Object[]) actual);
+        } else {
+          assertEquals(entry.getKey(), expected, actual);
+        }
+      }
+      assertEquals(((Timestamp) row.get("timestamp")).getNanos(), ((Timestamp) copiedRow.get("timestamp")).getNanos());
+      assertSame(Section.NEWS, copiedRow.get("enum"));
+    }
+  }
+
+  @Test
+  public void shouldCopyBeansWithSharedAndCyclicReferences() {
+    for (CacheSerializer serializer : SERIALIZERS) {
+      Author author = new Author(1, "jim", "secret", "jim@example.com", "bio", Section.VIDEOS);
+      Parent parent = new Parent();
+      parent.name = "parent";
+      parent.author = author;
+      Child first = new Child(parent, author);
+      Child second = new Child(parent, author);
+      parent.children.add(first);
+      parent.children.add(second);
+      parent.cache = "transient";
+
+      Parent copy = (Parent) roundTrip(serializer, parent);
+      assertNotSame(parent, copy);
+      assertEquals("parent", copy.name);
+      assertEquals(author, copy.author);
+      assertNotSame(author, copy.author);
+      assertEquals(2, copy.children.size());
+      assertSame(copy, copy.children.get(0).parent);
+      assertSame(copy.author, copy.children.get(1).author);
+      assertEquals(42, copy.children.get(0).value);
+    }
+  }
+
+  @Test
+  public void shouldFallBackToJavaSerialization() {
+    for (CacheSerializer serializer : SERIALIZERS) {
+      TreeSet<String> sorted = new TreeSet<String>(Collections.reverseOrder());
+      sorted.addAll(Arrays.asList("a", "b", "c"));
+      List<String> fixed = Arrays.asList("x", "y");
+      Custom custom = new Custom("state");
+      List<Object> values = new ArrayList<Object>(Arrays.<Object> asList(sorted, fixed, custom));
+
+      List<?> copy = (List<?>) roundTrip(serializer, values);
+      assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<Object>((TreeSet<?>) copy.get(0)));
+      assertEquals(fixed, copy.get(1));
+      assertEquals("state", ((Custom) copy.get(2)).state);
+      assertTrue(((Custom) copy.get(2)).resolved);
+    }
+  }
+
+  @Test
+  public void shouldRejectNonSerializableValues() {
+    for (CacheSerializer serializer : SERIALIZERS) {
+      List<Object> values = new ArrayList<Object>();
+      values.add(new Object());
+      try {
+        roundTrip(serializer, values);
+        fail("Expected CacheException from " + serializer);
+      } catch (CacheException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void shouldUseConfiguredSerializer() {
+    Cache cache = new CacheBuilder("serialized").serializer(CopyOnReadCacheSerializer.class).readWrite(true).build();
+    List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+    cache.putObject("key", value);
+    value.add("c");
+    assertEquals(Arrays.asList("a", "b"), cache.getObject("key"));
+    assertNotSame(cache.getObject("key"), cache.getObject("key"));
+    cache.putObject("null", null);
+    assertNull(cache.getObject("null"));
+  }
+
+  @Test
+  public void shouldReturnEqualCopiesOfCachedListsWithEverySerializer() {
+    List<Author> rows = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      rows.add(new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio of user " + i, Section.NEWS));
+    }
+    for (CacheSerializer serializer : SERIALIZERS) {
+      SerializedCache cache = new SerializedCache(new PerpetualCache("copies"), serializer);
+      cache.putObject("key", rows);
+      List<?> copy = (List<?>) cache.getObject("key");
+      assertNotSame(rows, copy);
+      assertEquals(rows.size(), copy.size());
+      for (int i = 0; i < rows.size(); i++) {
+        assertNotSame(rows.get(i), copy.get(i));
+        assertEquals(rows.get(i).getEmail(), ((Author) copy.get(i)).getEmail());
+      }
+    }
+  }
+
+  private Object roundTrip(CacheSerializer serializer, Object value) {
+    return serializer.deserialize(serializer.serialize(value));
+  }
+
+  public static class Parent implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String name;
+    Author author;
+    List<Child> children = new ArrayList<Child>();
+    transient String cache;
+  }
+
+  public static class Child implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Parent parent;
+    private final Author author;
+    private int value = 42;
+
+    public Child() {
+      this(null, null);
+    }
+
+    Child(Parent parent, Author author) {
+      this.parent = parent;
+      this.author = author;
+    }
+  }
+
+  public static class Custom implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String state;
+    transient boolean resolved;
+
+    public Custom(String state) {
+      this.state = state;
+    }
+
+    private Object readResolve() {
+      Custom resolvedCustom = new Custom(state);
+      resolvedCustom.resolved = true;
+      return resolvedCustom;
+    }
+  }
+
+}
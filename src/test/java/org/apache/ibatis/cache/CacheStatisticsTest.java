@@ -0,0 +1,148 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCollectStatisticsOfAllDecorators() {
+    CacheStatistics statistics = new CacheStatistics("stats");
+    Cache cache = new CacheBuilder("stats").addDecorator(FifoCache.class).size(2).readWrite(true).blocking(true)
+        .statistics(statistics).build();
+    cache.putObject("a", new ArrayList<String>(Arrays.asList("1", "2")));
+    cache.putObject("b", new ArrayList<String>(Arrays.asList("3")));
+    cache.putObject("c", new ArrayList<String>(Arrays.asList("4")));
+    assertEquals(Arrays.asList("4"), cache.getObject("c"));
+    assertNull(cache.getObject("a"));
+    cache.putObject("a", null);
+
+    assertEquals(2, statistics.getRequestCount());
+    assertEquals(1, statistics.getHitCount());
+    assertEquals(1, statistics.getMissCount());
+    assertEquals(0.5d, statistics.getHitRatio(), 0d);
+    assertEquals(4, statistics.getPutCount());
+    assertEquals(2, statistics.getEvictionCount());
+    assertEquals(2, statistics.getSize());
+    assertTrue(statistics.getEstimatedMemory() > 0);
+
+    cache.clear();
+    assertEquals(1, statistics.getClearCount());
+    assertEquals(0, statistics.getSize());
+    assertEquals((2 + 0) / 2d, statistics.getAverageSize(), 0.001d);
+
+    statistics.reset();
+    assertEquals(0, statistics.getRequestCount());
+    assertEquals(-1, statistics.getEstimatedMemory());
+  }
+
+  @Test
+  public void shouldKeepStatisticsOfCustomCaches() {
+    Cache cache = new CacheBuilder("custom").implementation(CustomCache.class).build();
+    assertTrue(cache instanceof LoggingCache);
+    cache.getObject("missing");
+    assertEquals(1, ((LoggingCache) cache).getStatistics().getMissCount());
+  }
+
+  @Test
+  public void shouldRegisterStatisticsOfMapperCaches() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatisticsJmxEnabled(true);
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(configuration, "resource");
+    assistant.setCurrentNamespace("org.apache.ibatis.StatisticsMapper");
+    Cache cache = assistant.useNewCache(null, null, null, null, true, false, null);
+    CacheStatistics statistics = configuration.getCacheStatistics(cache.getId());
+    assertSame(statistics, configuration.getCacheStatistics("org.apache.ibatis.StatisticsMapper"));
+    cache.getObject("key");
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(1L, server.getAttribute(statistics.getObjectName(), "MissCount"));
+      assertEquals(0, server.getAttribute(statistics.getObjectName(), "Size"));
+    } finally {
+      configuration.unregisterCacheStatistics();
+    }
+    assertTrue(!server.isRegistered(statistics.getObjectName()));
+    assertNull(configuration.getCacheStatistics("missing"));
+  }
+
+  @Test
+  public void shouldNotUnregisterStatisticsThatReplacedThem() throws Exception {
+    CacheStatistics previous = new CacheStatistics("org.apache.ibatis.ReplacedMapper");
+    CacheStatistics current = new CacheStatistics("org.apache.ibatis.ReplacedMapper");
+    previous.registerMBean();
+    current.registerMBean();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      previous.unregisterMBean();
+      assertTrue(server.isRegistered(current.getObjectName()));
+    } finally {
+      current.unregisterMBean();
+    }
+    assertTrue(!server.isRegistered(current.getObjectName()));
+  }
+
+  @Test
+  public void shouldKeepCountingInProtectedFieldsOfLoggingCache() {
+    CountingCache cache = new CountingCache(new PerpetualCache("counting"));
+    cache.putObject("key", "value");
+    cache.getObject("key");
+    cache.getObject("missing");
+    assertEquals(2, cache.getRequests());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getStatistics().getSize());
+  }
+
+  @SuppressWarnings("deprecation")
+  private static class CountingCache extends LoggingCache {
+    CountingCache(Cache delegate) {
+      super(delegate);
+    }
+
+    int getRequests() {
+      return requests;
+    }
+
+    int getHits() {
+      return hits;
+    }
+  }
+
+  public static class CustomCache extends PerpetualCache {
+    public CustomCache(String id) {
+      super(id);
+    }
+  }
+
+}
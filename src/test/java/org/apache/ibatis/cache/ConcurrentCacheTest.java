@@ -0,0 +1,201 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class ConcurrentCacheTest {
+
+  @Test
+  public void shouldPutGetRemoveAndClear() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+    assertEquals(3, cache.getObject(3));
+    assertEquals(3, cache.removeObject(3));
+    assertNull(cache.getObject(3));
+    cache.putObject(4, "four");
+    assertEquals("four", cache.getObject(4));
+    assertEquals(4, cache.getSize());
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getWeightedSize());
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldStayWithinSize() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(100, cache.getSize());
+    assertEquals(900, cache.getEvictionCount());
+  }
+
+  @Test
+  public void shouldKeepFrequentlyRequestedEntries() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(100);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject("hot" + i, i);
+    }
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 10; i++) {
+        assertNotNull(cache.getObject("hot" + i));
+      }
+    }
+    for (int i = 0; i < 10000; i++) {
+      // a scan of one time queries, looked up once and then put like the CachingExecutor does
+      assertNull(cache.getObject("cold" + i));
+      cache.putObject("cold" + i, i);
+      // while the popular queries keep being requested
+      assertNotNull(cache.getObject("hot" + i % 10));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, cache.getObject("hot" + i));
+    }
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayWithinMaximumWeight() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setMaximumWeight(100);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+    }
+    assertTrue(cache.getWeightedSize() <= 100);
+    assertEquals(10, cache.getSize());
+    cache.putObject("empty", new ArrayList<Object>());
+    cache.putObject("single", "value");
+    assertTrue(cache.getWeightedSize() <= 100);
+    cache.putObject("huge", new ArrayList<Object>(Arrays.asList(new Object[101])));
+    assertNull(cache.getObject("huge"));
+  }
+
+  @Test
+  public void shouldSizeFrequencySketchByEntriesRatherThanWeight() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    // a sketch of one counter per unit of weight would not fit in the heap
+    cache.setMaximumWeight(Long.MAX_VALUE);
+    cache.putObject("key", Arrays.asList(1, 2, 3));
+    assertEquals(Arrays.asList(1, 2, 3), cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldUseConfiguredWeigher() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setMaximumWeight(10);
+    cache.setWeigherType(FixedWeigher.class.getName());
+    cache.putObject(1, 1);
+    cache.putObject(2, 2);
+    cache.putObject(3, 3);
+    assertEquals(2, cache.getSize());
+    assertEquals(10, cache.getWeightedSize());
+  }
+
+  @Test
+  public void shouldCountHitsAndMisses() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.putObject(1, 1);
+    cache.getObject(1);
+    cache.getObject(1);
+    cache.getObject(2);
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void shouldBeUsableFromManyThreads() throws Exception {
+    final ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(500);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 16; t++) {
+      final int seed = t;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 20000; i++) {
+              Integer key = (i * 31 + seed) % 2000;
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, key);
+              } else if (!key.equals(value)) {
+                throw new AssertionError("Wrong value " + value + " for " + key);
+              }
+              if (i % 1000 == 0) {
+                cache.removeObject(key);
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertTrue(cache.getSize() <= 500);
+    assertEquals(cache.getSize(), cache.getWeightedSize());
+  }
+
+  @Test
+  public void shouldBeBuiltWithoutSynchronizedDecorator() {
+    Cache cache = new CacheBuilder("concurrent").implementation(ConcurrentCache.class)
+        .addDecorator(LruCache.class).size(10).build();
+    assertTrue(cache instanceof LoggingCache);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(10, cache.getSize());
+  }
+
+  public static class FixedWeigher implements ConcurrentCache.Weigher {
+    @Override
+    public int weigh(Object key, Object value) {
+      return 5;
+    }
+  }
+
+}
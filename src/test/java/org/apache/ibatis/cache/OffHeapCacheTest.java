@@ -0,0 +1,178 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldReturnCopiesOfStoredValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> rows = rows("row", 10);
+    cache.putObject("key", rows);
+    Object copy = cache.getObject("key");
+    assertEquals(rows, copy);
+    assertNotSame(rows, copy);
+    assertNotSame(copy, cache.getObject("key"));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldStoreNullValuesAndRemoveAndClear() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject("missing", null);
+    cache.putObject("present", "value");
+    assertEquals(2, cache.getSize());
+    assertNull(cache.getObject("missing"));
+    cache.removeObject("present");
+    assertNull(cache.getObject("present"));
+    cache.putObject("present", "other");
+    assertEquals("other", cache.getObject("present"));
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject("present"));
+    cache.putObject("present", "again");
+    assertEquals("again", cache.getObject("present"));
+  }
+
+  @Test
+  public void shouldRejectNonSerializableValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    try {
+      cache.putObject("key", new Object());
+      fail("Expected CacheException");
+    } catch (CacheException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldStayWithinMemoryBudget() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setMaximumMemory(4 * 4096);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, rows("value" + i, 5));
+    }
+    assertEquals(4, cache.getAllocatedSlabCount());
+    assertTrue(cache.getEvictionCount() > 0);
+    assertEquals(1000, cache.getSize() + cache.getEvictionCount());
+    assertEquals(rows("value999", 5), cache.getObject(999));
+  }
+
+  @Test
+  public void shouldGiveRecentlyReadValuesASecondChance() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setMaximumMemory(4 * 4096);
+    cache.putObject("hot", rows("hot", 5));
+    for (int i = 0; i < 1000; i++) {
+      assertNotNull(cache.getObject("hot"));
+      cache.putObject(i, rows("value" + i, 5));
+    }
+    assertEquals(rows("hot", 5), cache.getObject("hot"));
+  }
+
+  @Test
+  public void shouldNotCacheValuesLargerThanASlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.putObject("small", "value");
+    cache.putObject("large", rows("a long row value", 200));
+    assertNull(cache.getObject("large"));
+    assertEquals("value", cache.getObject("small"));
+  }
+
+  @Test
+  public void shouldUseMemoryMappedFiles() throws Exception {
+    OffHeapCache cache = new OffHeapCache("mapped");
+    cache.setDirectory(folder.getRoot().getAbsolutePath());
+    cache.setSlabSize(4096);
+    cache.setMaximumMemory(3 * 4096);
+    for (int i = 0; i < 200; i++) {
+      cache.putObject(i, rows("value" + i, 5));
+    }
+    assertEquals(3, folder.getRoot().listFiles().length);
+    assertEquals(rows("value199", 5), cache.getObject(199));
+  }
+
+  @Test
+  public void shouldServeConcurrentReadsAndWrites() throws Exception {
+    final OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(16 * 1024);
+    cache.setMaximumMemory(8 * 16 * 1024);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final int seed = t;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 5000; i++) {
+              int key = (i * 7 + seed) % 500;
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, rows("value" + key, 3));
+              } else if (!rows("value" + key, 3).equals(value)) {
+                throw new AssertionError("Wrong value " + value + " for " + key);
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+  }
+
+  private static List<String> rows(String value, int count) {
+    List<String> rows = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      rows.add(value + "-" + i);
+    }
+    return rows;
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.BaseDataTest;
+import org.junit.Test;
+
+public class DelegatingConnectionTest extends BaseDataTest {
+
+  @Test
+  public void shouldCloseStatementsWhenConnectionIsReturned() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      Statement statement = c.createStatement();
+      PreparedStatement prepared = c.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      PreparedStatement alreadyClosed = c.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      alreadyClosed.close();
+      assertFalse(statement.isClosed());
+      c.close();
+      assertTrue(statement.isClosed());
+      assertTrue(prepared.isClosed());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPruneClosedStatementsOfLongLivedConnections() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      for (int i = 0; i < 1000; i++) {
+        c.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS").close();
+      }
+      Statement open = c.createStatement();
+      c.close();
+      assertTrue(open.isClosed());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRejectCallsOnReturnedConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      assertFalse(c.isClosed());
+      c.close();
+      assertTrue(c.isClosed());
+      assertNotNull(c.toString());
+      try {
+        c.getAutoCommit();
+        fail("Should have thrown an SQLException");
+      } catch (SQLException e) {
+        // expected
+      }
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldForwardCallsToRealConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection delegating = ds.getConnection();
+      Connection real = PooledDataSource.unwrapConnection(delegating);
+      assertEquals(real.getHoldability(), delegating.getHoldability());
+      assertEquals(real.getAutoCommit(), delegating.getAutoCommit());
+      assertSame(real, delegating.unwrap(Connection.class));
+      delegating.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+}
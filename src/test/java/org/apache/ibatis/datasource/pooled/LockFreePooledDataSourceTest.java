@@ -0,0 +1,263 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class LockFreePooledDataSourceTest extends BaseDataTest {
+
+  private static final int THREADS = 32;
+  private static final int CHECKOUTS_PER_THREAD = 500;
+
+  @Test
+  public void shouldBeSelectableThroughFactoryProperties() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolLockFreeEnabled", "true");
+    props.setProperty("poolMaximumActiveConnections", "4");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      assertTrue(ds.isPoolLockFreeEnabled());
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldProperlyMaintainPoolOf3ActiveAnd2IdleConnections() throws Exception {
+    PooledDataSource ds = createLockFreeDataSource(3, 2);
+    try {
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(3, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandBackTheConnectionLastReturnedByTheSameThread() throws Exception {
+    PooledDataSource ds = createLockFreeDataSource(3, 3);
+    try {
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      Connection real2 = PooledDataSource.unwrapConnection(c2);
+      c1.close();
+      c2.close();
+      Connection c3 = ds.getConnection();
+      assertSame(real2, PooledDataSource.unwrapConnection(c3));
+      c3.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldInvalidateReturnedConnection() throws Exception {
+    PooledDataSource ds = createLockFreeDataSource(1, 1);
+    try {
+      Connection c = ds.getConnection();
+      c.close();
+      try {
+        c.createStatement();
+        fail("Should have thrown an SQLException");
+      } catch (SQLException e) {
+        // expected
+      }
+      c.close();
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandOffConnectionToWaitingThread() throws Exception {
+    final PooledDataSource ds = createLockFreeDataSource(1, 1);
+    try {
+      Connection c = ds.getConnection();
+      final AtomicReference<Connection> received = new AtomicReference<Connection>();
+      final CountDownLatch done = new CountDownLatch(1);
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            received.set(ds.getConnection());
+          } catch (SQLException e) {
+            // leaves received empty
+          } finally {
+            done.countDown();
+          }
+        }
+      };
+      waiter.start();
+      while (ds.getPoolState().getHadToWaitCount() == 0) {
+        Thread.sleep(1);
+      }
+      Connection real = PooledDataSource.unwrapConnection(c);
+      c.close();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertSame(real, PooledDataSource.unwrapConnection(received.get()));
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      received.get().close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldClaimOverdueConnection() throws Exception {
+    PooledDataSource ds = createLockFreeDataSource(1, 1);
+    try {
+      ds.setPoolMaximumCheckoutTime(10);
+      Connection c1 = ds.getConnection();
+      Thread.sleep(50);
+      Connection c2 = ds.getConnection();
+      assertSame(PooledDataSource.unwrapConnection(c1), PooledDataSource.unwrapConnection(c2));
+      assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+      c1.close();
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c2.close();
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNeverShareAConnectionUnderContention() throws Exception {
+    final PooledDataSource ds = createLockFreeDataSource(8, 8);
+    try {
+      runStress(ds);
+      assertEquals(THREADS * CHECKOUTS_PER_THREAD, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 8);
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getClaimedOverdueConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCountEveryCheckoutLikeTheSynchronizedPool() throws Exception {
+    PooledDataSource lockFree = createLockFreeDataSource(8, 8);
+    PooledDataSource synchronizedPool = createLockFreeDataSource(8, 8);
+    synchronizedPool.setPoolLockFreeEnabled(false);
+    try {
+      runStress(lockFree);
+      runStress(synchronizedPool);
+      assertEquals(THREADS * CHECKOUTS_PER_THREAD, lockFree.getPoolState().getRequestCount());
+      PoolState state = synchronizedPool.getPoolState();
+      assertEquals(THREADS * CHECKOUTS_PER_THREAD, state.getRequestCount());
+      // the protected counters are written under the lock by the synchronized pool, so they follow the atomic ones
+      assertEquals(state.getRequestCount(), state.requestCount);
+      assertEquals(state.getHadToWaitCount(), state.hadToWaitCount);
+    } finally {
+      lockFree.forceCloseAll();
+      synchronizedPool.forceCloseAll();
+    }
+  }
+
+  private void runStress(final PooledDataSource ds) throws Exception {
+    final Set<Connection> inUse = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    final AtomicInteger failures = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    for (int i = 0; i < THREADS; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < CHECKOUTS_PER_THREAD; j++) {
+              Connection c = ds.getConnection();
+              Connection real = PooledDataSource.unwrapConnection(c);
+              if (!inUse.add(real)) {
+                failures.incrementAndGet();
+              }
+              Statement st = c.createStatement();
+              ResultSet rs = st.executeQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+              rs.close();
+              st.close();
+              inUse.remove(real);
+              c.close();
+            }
+          } catch (Exception e) {
+            failures.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    assertEquals(0, failures.get());
+    assertFalse(ds.getPoolState().getActiveConnectionCount() > 0);
+  }
+
+  private PooledDataSource createLockFreeDataSource(int maximumActive, int maximumIdle) throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolLockFreeEnabled(true);
+    ds.setPoolMaximumActiveConnections(maximumActive);
+    ds.setPoolMaximumIdleConnections(maximumIdle);
+    ds.setPoolTimeToWait(10000);
+    return ds;
+  }
+
+}
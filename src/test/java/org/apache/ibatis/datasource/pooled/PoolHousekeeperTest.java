@@ -0,0 +1,183 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class PoolHousekeeperTest extends BaseDataTest {
+
+  @Test
+  public void shouldPreWarmMinimumIdleConnections() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        ds.setPoolMinimumIdleConnections(3);
+        ds.startHousekeeping();
+        assertTrue(waitForIdleCount(ds, 3));
+        assertEquals(0, ds.getPoolState().getRequestCount());
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  @Test
+  public void shouldPreWarmWhenBuiltByTheFactory() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolMinimumIdleConnections", "2");
+    props.setProperty("poolHousekeepingPeriod", "20");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      assertTrue(waitForIdleCount(ds, 2));
+    } finally {
+      close(ds);
+    }
+  }
+
+  @Test
+  public void shouldEvictIdleConnectionsAboveMinimum() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        ds.setPoolMinimumIdleConnections(1);
+        ds.setPoolIdleTimeout(50);
+        List<Connection> connections = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++) {
+          connections.add(ds.getConnection());
+        }
+        for (Connection c : connections) {
+          c.close();
+        }
+        assertTrue(waitForIdleCount(ds, 1));
+        Thread.sleep(100);
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  @Test
+  public void shouldEvictConnectionsPastMaximumLifetime() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        ds.setPoolMaximumLifetime(100);
+        Connection c = ds.getConnection();
+        c.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(waitForIdleCount(ds, 0));
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseExpiredConnectionOnReturn() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        ds.setPoolHousekeepingPeriod(0);
+        ds.setPoolMaximumLifetime(20);
+        Connection c = ds.getConnection();
+        Connection real = PooledDataSource.unwrapConnection(c);
+        Thread.sleep(50);
+        c.close();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(real.isClosed());
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  @Test
+  public void shouldEvictBrokenIdleConnections() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        Connection c = ds.getConnection();
+        Connection real = PooledDataSource.unwrapConnection(c);
+        c.close();
+        real.close();
+        assertTrue(waitForIdleCount(ds, 0));
+        assertTrue(ds.getPoolState().getBadConnectionCount() > 0);
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportLeakedConnections() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree);
+      try {
+        ds.setPoolLeakDetectionThreshold(20);
+        Connection c = ds.getConnection();
+        PooledConnection pooled = ((DelegatingConnection) c).getPooledConnection();
+        assertFalse(pooled.isLeakReported());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pooled.isLeakReported() && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertTrue(pooled.isLeakReported());
+        assertTrue(pooled.getCheckoutStackTrace().getStackTrace()[0].getClassName().startsWith(PooledDataSource.class.getName()));
+        c.close();
+      } finally {
+        close(ds);
+      }
+    }
+  }
+
+  private boolean waitForIdleCount(PooledDataSource ds, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (ds.getPoolState().getIdleConnectionCount() != expected) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  private PooledDataSource createDataSource(boolean lockFree) throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolLockFreeEnabled(lockFree);
+    ds.setPoolHousekeepingPeriod(20);
+    return ds;
+  }
+
+  private void close(PooledDataSource ds) {
+    ds.stopHousekeeping();
+    ds.forceCloseAll();
+  }
+
+}
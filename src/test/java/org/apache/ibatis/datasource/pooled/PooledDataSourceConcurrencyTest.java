@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.BaseDataTest;
+import org.junit.Test;
+
+public class PooledDataSourceConcurrencyTest extends BaseDataTest {
+
+  @Test
+  public void shouldParkWaitingThreadsOnTheLockCondition() throws Exception {
+    final PooledDataSource ds = createDataSource(2);
+    try {
+      List<Connection> held = new ArrayList<Connection>();
+      held.add(ds.getConnection());
+      held.add(ds.getConnection());
+      final AtomicInteger failures = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(8);
+      List<Thread> waiters = new ArrayList<Thread>();
+      for (int i = 0; i < 8; i++) {
+        Thread waiter = new Thread() {
+          @Override
+          public void run() {
+            try {
+              ds.getConnection().close();
+            } catch (Exception e) {
+              failures.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        };
+        waiters.add(waiter);
+        waiter.start();
+      }
+      PoolState state = ds.getPoolState();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (waitingThreads(state) < 8 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(8, waitingThreads(state));
+      for (Thread waiter : waiters) {
+        assertEquals(Thread.State.TIMED_WAITING, waiter.getState());
+      }
+      for (Connection c : held) {
+        c.close();
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+      assertEquals(8, state.getHadToWaitCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldServeThousandsOfShortLivedThreadsFromASmallPool() throws Exception {
+    final PooledDataSource ds = createDataSource(4);
+    try {
+      final int sessions = 2000;
+      final AtomicInteger failures = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(sessions);
+      for (int i = 0; i < sessions; i++) {
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              Connection c = ds.getConnection();
+              try {
+                Statement st = c.createStatement();
+                ResultSet rs = st.executeQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+                rs.close();
+                st.close();
+              } finally {
+                c.close();
+              }
+            } catch (Exception e) {
+              failures.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        };
+        thread.setDaemon(true);
+        thread.start();
+      }
+      start.countDown();
+      assertTrue(done.await(120, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+      assertEquals(sessions, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 4);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private int waitingThreads(PoolState state) {
+    state.lock.lock();
+    try {
+      return state.lock.getWaitQueueLength(state.connectionAvailable);
+    } finally {
+      state.lock.unlock();
+    }
+  }
+
+  private PooledDataSource createDataSource(int maximumActive) throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolMaximumActiveConnections(maximumActive);
+    ds.setPoolMaximumIdleConnections(maximumActive);
+    ds.setPoolMaximumCheckoutTime(60000);
+    ds.setPoolTimeToWait(60000);
+    return ds;
+  }
+
+}
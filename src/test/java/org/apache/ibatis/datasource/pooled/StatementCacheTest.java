@@ -0,0 +1,210 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.BaseDataTest;
+import org.junit.Test;
+
+public class StatementCacheTest extends BaseDataTest {
+
+  private static final String SQL = "SELECT USER_NAME FROM INFORMATION_SCHEMA.SYSTEM_USERS WHERE USER_NAME = ?";
+  private static final String OTHER_SQL = "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+  private static final String THIRD_SQL = "SELECT 2 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+
+  @Test
+  public void shouldNotCacheStatementsByDefault() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement ps = c.prepareStatement(SQL);
+      assertFalse(ps instanceof CachedPreparedStatement);
+      assertNull(((DelegatingConnection) c).getPooledConnection().getStatementCache());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReuseStatementAcrossCheckouts() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(lockFree, 4);
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement first = c.prepareStatement(SQL);
+        PreparedStatement physical = first.unwrap(PreparedStatement.class);
+        first.setString(1, "SA");
+        first.setMaxRows(1);
+        first.executeQuery().close();
+        c.close();
+        assertTrue(first.isClosed());
+        assertFalse(physical.isClosed());
+
+        c = ds.getConnection();
+        PreparedStatement second = c.prepareStatement(SQL);
+        assertNotSame(first, second);
+        assertSame(physical, second.unwrap(PreparedStatement.class));
+        assertEquals(0, second.getMaxRows());
+        StatementCache cache = ((DelegatingConnection) c).getPooledConnection().getStatementCache();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        second.setString(1, "SA");
+        ResultSet rs = second.executeQuery();
+        assertTrue(rs.next());
+        rs.close();
+        second.close();
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotShareStatementThatIsInUse() throws Exception {
+    PooledDataSource ds = createDataSource(false, 4);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement first = c.prepareStatement(SQL);
+      PreparedStatement second = c.prepareStatement(SQL);
+      assertNotSame(first.unwrap(PreparedStatement.class), second.unwrap(PreparedStatement.class));
+      first.close();
+      second.close();
+      assertEquals(1, ((DelegatingConnection) c).getPooledConnection().getStatementCache().getSize());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseEvictedStatements() throws Exception {
+    PooledDataSource ds = createDataSource(false, 2);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement eldest = c.prepareStatement(SQL);
+      PreparedStatement physical = eldest.unwrap(PreparedStatement.class);
+      eldest.close();
+      c.prepareStatement(OTHER_SQL).close();
+      assertFalse(physical.isClosed());
+      c.prepareStatement(THIRD_SQL).close();
+      assertTrue(physical.isClosed());
+      assertEquals(2, ((DelegatingConnection) c).getPooledConnection().getStatementCache().getSize());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldKeepStatementOptionsApart() throws Exception {
+    PooledDataSource ds = createDataSource(false, 4);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement plain = c.prepareStatement(OTHER_SQL);
+      PreparedStatement physical = plain.unwrap(PreparedStatement.class);
+      plain.close();
+      PreparedStatement scrollable = c.prepareStatement(OTHER_SQL, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+      assertNotSame(physical, scrollable.unwrap(PreparedStatement.class));
+      scrollable.close();
+      PreparedStatement keys = c.prepareStatement(OTHER_SQL, Statement.RETURN_GENERATED_KEYS);
+      assertNotSame(physical, keys.unwrap(PreparedStatement.class));
+      keys.close();
+      assertSame(physical, c.prepareStatement(OTHER_SQL).unwrap(PreparedStatement.class));
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseResultSetWhenStatementIsReleased() throws Exception {
+    PooledDataSource ds = createDataSource(false, 4);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement ps = c.prepareStatement(SQL);
+      PreparedStatement physical = ps.unwrap(PreparedStatement.class);
+      ps.setString(1, "SA");
+      ResultSet rs = ps.executeQuery();
+      ps.close();
+      assertTrue(rs.isClosed());
+      assertFalse(physical.isClosed());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseStatementThatIsNotPoolable() throws Exception {
+    PooledDataSource ds = createDataSource(false, 4);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement ps = c.prepareStatement(SQL);
+      PreparedStatement physical = ps.unwrap(PreparedStatement.class);
+      ps.setPoolable(false);
+      ps.close();
+      assertTrue(physical.isClosed());
+      assertNotSame(physical, c.prepareStatement(SQL).unwrap(PreparedStatement.class));
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRejectCallsOnClosedStatement() throws Exception {
+    PooledDataSource ds = createDataSource(false, 4);
+    try {
+      Connection c = ds.getConnection();
+      PreparedStatement ps = c.prepareStatement(SQL);
+      assertSame(c, ps.getConnection());
+      ps.close();
+      ps.close();
+      try {
+        ps.setString(1, "SA");
+        fail("Expected SQLException");
+      } catch (SQLException e) {
+        // expected
+      }
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private PooledDataSource createDataSource(boolean lockFree, int cacheSize) throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolLockFreeEnabled(lockFree);
+    ds.setPoolPreparedStatementCacheSize(cacheSize);
+    return ds;
+  }
+
+}
@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class MultiRowInsertTest {
+
+  @Test
+  public void shouldRepeatTheValuesGroup() {
+    MultiRowInsert insert = MultiRowInsert.parse("insert into t (a, b) values (?, lower(?))", 2);
+    assertEquals("insert into t (a, b) values (?, lower(?))", insert.getSql(1));
+    assertEquals("insert into t (a, b) values (?, lower(?)), (?, lower(?))", insert.getSql(2));
+  }
+
+  @Test
+  public void shouldIgnoreKeywordsAndMarkersInLiteralsAndIdentifiers() {
+    MultiRowInsert insert = MultiRowInsert.parse("INSERT INTO t (values_count, \"values\") VALUES(?, 'a?)')", 1);
+    assertEquals("INSERT INTO t (values_count, \"values\") VALUES(?, 'a?)'), (?, 'a?)')", insert.getSql(2));
+  }
+
+  @Test
+  public void shouldRejectInsertsThatCannotBeRepeated() {
+    assertNull(MultiRowInsert.parse("insert into t (a) select a from s where b = ?", 1));
+    assertNull(MultiRowInsert.parse("insert into t (a) values (?), (?)", 2));
+    assertNull(MultiRowInsert.parse("insert into t (a) values (?) on duplicate key update a = ?", 2));
+    assertNull(MultiRowInsert.parse("insert into t (a) values (?) returning id", 1));
+    assertNull(MultiRowInsert.parse("insert into t (a) values (?", 1));
+    assertNull(MultiRowInsert.parse("insert into t (a) values (?)", 2));
+  }
+
+}
@@ -0,0 +1,295 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.apache.ibatis.annotations.Arg;
+import org.apache.ibatis.annotations.ConstructorArgs;
+import org.apache.ibatis.annotations.Result;
+import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompiledRowMapperTest {
+
+  private static final int ROWS = 2000;
+
+  private static UnpooledDataSource dataSource;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:compiled_row_mapper", "sa", "");
+    Connection connection = dataSource.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("create table wide_row (id int, name varchar(20), amount decimal(10,2), created timestamp,"
+          + " active boolean, score double, note varchar(20), counter bigint)");
+      statement.close();
+      PreparedStatement insert = connection.prepareStatement("insert into wide_row values (?, ?, ?, ?, ?, ?, ?, ?)");
+      for (int i = 0; i < ROWS; i++) {
+        insert.setInt(1, i);
+        insert.setString(2, "name" + i);
+        insert.setBigDecimal(3, new BigDecimal(i).movePointLeft(2));
+        insert.setTimestamp(4, new Timestamp(1000000L * i));
+        insert.setBoolean(5, i % 2 == 0);
+        if (i % 3 == 0) {
+          insert.setNull(6, java.sql.Types.DOUBLE);
+        } else {
+          insert.setDouble(6, i / 3d);
+        }
+        insert.setString(7, i % 5 == 0 ? null : "note" + i);
+        insert.setLong(8, i * 1000L);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+      insert.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void shouldMapLikeTheResultSetHandler() {
+    List<WideRow> expected = selectAll(false, false);
+    SqlSessionFactory factory = newFactory(true, false);
+    List<WideRow> actual = selectAll(factory);
+    assertEquals(1, factory.getConfiguration().getRowMapperCompiler().getCompiledMapperCount());
+    assertEquals(expected, actual);
+    // the mapper is reused by the next query, including its first row
+    assertEquals(expected, selectAll(factory));
+    assertEquals(1, factory.getConfiguration().getRowMapperCompiler().getCompiledMapperCount());
+    assertNull(actual.get(0).getNote());
+    assertEquals(0d, actual.get(0).getScore(), 0d);
+  }
+
+  @Test
+  public void shouldCallSettersOnNulls() {
+    SqlSessionFactory factory = newFactory(true, true);
+    List<WideRow> rows = selectAll(factory);
+    assertEquals(1, factory.getConfiguration().getRowMapperCompiler().getCompiledMapperCount());
+    assertEquals(selectAll(false, true), rows);
+    assertEquals("null called", rows.get(0).getNote());
+  }
+
+  @Test
+  public void shouldMapConstructorArguments() {
+    SqlSessionFactory factory = newFactory(true, false);
+    SqlSession session = factory.openSession();
+    SqlSession reflectiveSession = newFactory(false, false).openSession();
+    try {
+      List<ImmutableRow> rows = session.getMapper(WideRowMapper.class).selectImmutable();
+      List<ImmutableRow> expected = reflectiveSession.getMapper(WideRowMapper.class).selectImmutable();
+      assertEquals(1, factory.getConfiguration().getRowMapperCompiler().getCompiledMapperCount());
+      assertEquals(ROWS, rows.size());
+      for (int i = 0; i < ROWS; i++) {
+        assertEquals(expected.get(i).id, rows.get(i).id);
+        assertEquals(expected.get(i).name, rows.get(i).name);
+        assertEquals(expected.get(i).counter, rows.get(i).counter);
+      }
+    } finally {
+      session.close();
+      reflectiveSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotCompileForTypesThatAreNotPublic() {
+    SqlSessionFactory factory = newFactory(true, false);
+    SqlSession session = factory.openSession();
+    try {
+      List<HiddenRow> rows = session.getMapper(WideRowMapper.class).selectHidden();
+      assertEquals(ROWS, rows.size());
+      assertEquals("name7", rows.get(7).name);
+      assertEquals(0, factory.getConfiguration().getRowMapperCompiler().getCompiledMapperCount());
+    } finally {
+      session.close();
+    }
+  }
+
+  private List<WideRow> selectAll(boolean compiled, boolean callSettersOnNulls) {
+    return selectAll(newFactory(compiled, callSettersOnNulls));
+  }
+
+  private List<WideRow> selectAll(SqlSessionFactory factory) {
+    SqlSession session = factory.openSession();
+    try {
+      return session.getMapper(WideRowMapper.class).selectAll();
+    } finally {
+      session.close();
+    }
+  }
+
+  private SqlSessionFactory newFactory(boolean compiled, boolean callSettersOnNulls) {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.setCompiledRowMappersEnabled(compiled);
+    configuration.setCallSettersOnNulls(callSettersOnNulls);
+    configuration.addMapper(WideRowMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  public interface WideRowMapper {
+
+    @Select("select id, name, amount, created, active, score, note, counter as total from wide_row order by id")
+    @Results({ @Result(property = "counter", column = "total") })
+    List<WideRow> selectAll();
+
+    @Select("select id, name, counter from wide_row order by id")
+    @ConstructorArgs({ @Arg(column = "id", javaType = int.class), @Arg(column = "name", javaType = String.class),
+        @Arg(column = "counter", javaType = Long.class) })
+    List<ImmutableRow> selectImmutable();
+
+    @Select("select id, name from wide_row order by id")
+    List<HiddenRow> selectHidden();
+
+  }
+
+  public static class WideRow {
+    private int id;
+    private String name;
+    private BigDecimal amount;
+    private Timestamp created;
+    private boolean active;
+    private double score;
+    private String note;
+    private Long counter;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public BigDecimal getAmount() {
+      return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+      this.amount = amount;
+    }
+
+    public Timestamp getCreated() {
+      return created;
+    }
+
+    public void setCreated(Timestamp created) {
+      this.created = created;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    public void setScore(double score) {
+      this.score = score;
+    }
+
+    public String getNote() {
+      return note;
+    }
+
+    public void setNote(String note) {
+      this.note = note == null ? "null called" : note;
+    }
+
+    public Long getCounter() {
+      return counter;
+    }
+
+    public void setCounter(Long counter) {
+      this.counter = counter;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof WideRow)) {
+        return false;
+      }
+      WideRow other = (WideRow) obj;
+      return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+
+    @Override
+    public String toString() {
+      return id + "," + name + "," + amount + "," + created + "," + active + "," + score + "," + note + "," + counter;
+    }
+  }
+
+  public static class ImmutableRow {
+    private final int id;
+    private final String name;
+    private final Long counter;
+
+    public ImmutableRow(int id, String name, Long counter) {
+      this.id = id;
+      this.name = name;
+      this.counter = counter;
+    }
+  }
+
+  static class HiddenRow {
+    private int id;
+    private String name;
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+}
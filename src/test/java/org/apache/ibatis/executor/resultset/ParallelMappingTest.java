@@ -0,0 +1,286 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.ibatis.annotations.Arg;
+import org.apache.ibatis.annotations.ConstructorArgs;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelMappingTest {
+
+  private static final int ROWS = 5000;
+
+  private static UnpooledDataSource dataSource;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:parallel_mapping", "sa", "");
+    Connection connection = dataSource.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("create table item (id int, name varchar(20), price int, note varchar(20))");
+      statement.close();
+      PreparedStatement insert = connection.prepareStatement("insert into item values (?, ?, ?, ?)");
+      for (int i = 0; i < ROWS; i++) {
+        insert.setInt(1, i);
+        insert.setString(2, i == 7 ? null : "name" + i);
+        insert.setInt(3, i * 3);
+        insert.setString(4, i % 4 == 0 ? null : "note" + i);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+      insert.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void shouldMapInOrderLikeSequentialMapping() {
+    List<Item> expected = selectAll(newFactory(false, 0));
+    for (int threads : new int[] { 1, 2, 4 }) {
+      List<Item> actual = selectAll(newFactory(true, threads));
+      assertEquals(ROWS, actual.size());
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void shouldHonourRowBounds() {
+    SqlSession session = newFactory(true, 4).openSession();
+    try {
+      List<Item> items = session.getMapper(ItemMapper.class).selectAll(new RowBounds(10, 1234));
+      assertEquals(1234, items.size());
+      assertEquals(10, items.get(0).getId());
+      assertEquals(1243, items.get(1233).getId());
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void shouldMapConstructorArgumentsAndEmptyRows() {
+    SqlSession session = newFactory(true, 4).openSession();
+    try {
+      ItemMapper mapper = session.getMapper(ItemMapper.class);
+      List<ImmutableItem> items = mapper.selectImmutable();
+      assertEquals(ROWS, items.size());
+      assertEquals("name4999", items.get(4999).name);
+      assertEquals(4999 * 3, items.get(4999).price);
+      List<Item> notes = mapper.selectNotes();
+      assertEquals(ROWS, notes.size());
+      assertNull(notes.get(0));
+      assertEquals("note1", notes.get(1).getNote());
+      assertNull(notes.get(4000));
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void shouldPropagateMappingErrors() {
+    SqlSession session = newFactory(true, 4).openSession();
+    try {
+      session.getMapper(ItemMapper.class).selectFailing();
+      fail("Expected PersistenceException");
+    } catch (PersistenceException e) {
+      assertTrue(e.getMessage().contains("cannot map name11"));
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void shouldMapOnSuppliedExecutorAndLeaveItRunning() {
+    List<Item> expected = selectAll(newFactory(false, 0));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SqlSessionFactory factory = newFactory(true, 4);
+      Configuration configuration = factory.getConfiguration();
+      configuration.setMappingExecutor(executor);
+      assertEquals(expected, selectAll(factory));
+      assertSame(executor, configuration.getMappingExecutor());
+      configuration.shutdownMappingExecutor();
+      assertFalse(executor.isShutdown());
+      assertSame(executor, configuration.getMappingExecutor());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldShutDownOnlyTheExecutorItStarted() {
+    SqlSessionFactory factory = newFactory(true, 2);
+    Configuration configuration = factory.getConfiguration();
+    List<Item> expected = selectAll(factory);
+    ExecutorService started = configuration.getMappingExecutor();
+    configuration.shutdownMappingExecutor();
+    assertTrue(started.isShutdown());
+    assertEquals(expected, selectAll(factory));
+    ExecutorService restarted = configuration.getMappingExecutor();
+    assertNotSame(started, restarted);
+    ExecutorService supplied = Executors.newSingleThreadExecutor();
+    try {
+      configuration.setMappingExecutor(supplied);
+      assertTrue(restarted.isShutdown());
+      assertEquals(expected, selectAll(factory));
+    } finally {
+      supplied.shutdown();
+    }
+  }
+
+  private List<Item> selectAll(SqlSessionFactory factory) {
+    SqlSession session = factory.openSession();
+    try {
+      return session.getMapper(ItemMapper.class).selectAll(RowBounds.DEFAULT);
+    } finally {
+      session.close();
+    }
+  }
+
+  private SqlSessionFactory newFactory(boolean parallel, int threads) {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.setParallelMappingEnabled(parallel);
+    configuration.setParallelMappingThreads(threads);
+    configuration.addMapper(ItemMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  public interface ItemMapper {
+
+    @Select("select id, name, price, note from item order by id")
+    @Options(fetchSize = 100)
+    List<Item> selectAll(RowBounds rowBounds);
+
+    @Select("select id, name, price from item order by id")
+    @ConstructorArgs({ @Arg(column = "id", javaType = int.class), @Arg(column = "name", javaType = String.class),
+        @Arg(column = "price", javaType = int.class) })
+    List<ImmutableItem> selectImmutable();
+
+    @Select("select note from item order by id")
+    List<Item> selectNotes();
+
+    @Select("select name from item order by id")
+    @Options(fetchSize = 3)
+    List<FailingItem> selectFailing();
+
+  }
+
+  public static class Item {
+    private int id;
+    private String name;
+    private int price;
+    private String note;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public int getPrice() {
+      return price;
+    }
+
+    public void setPrice(int price) {
+      this.price = price;
+    }
+
+    public String getNote() {
+      return note;
+    }
+
+    public void setNote(String note) {
+      this.note = note;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Item)) {
+        return false;
+      }
+      return toString().equals(obj.toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+
+    @Override
+    public String toString() {
+      return id + "," + name + "," + price + "," + note;
+    }
+  }
+
+  public static class ImmutableItem {
+    private final int id;
+    private final String name;
+    private final int price;
+
+    public ImmutableItem(int id, String name, int price) {
+      this.id = id;
+      this.name = name;
+      this.price = price;
+    }
+  }
+
+  public static class FailingItem {
+    public void setName(String name) {
+      if ("name11".equals(name)) {
+        throw new IllegalStateException("cannot map " + name);
+      }
+    }
+  }
+
+}
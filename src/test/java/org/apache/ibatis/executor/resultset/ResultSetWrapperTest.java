@@ -0,0 +1,167 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResultSetWrapperTest {
+
+  @Mock
+  private Statement stmt;
+  @Mock
+  private ResultSet rs;
+  @Mock
+  private ResultSetMetaData rsmd;
+  @Mock
+  private Connection conn;
+  @Mock
+  private DatabaseMetaData dbmd;
+
+  private final Configuration config = new Configuration();
+
+  @Test
+  public void shouldReuseLayoutForSameMetaData() throws Exception {
+    MappedStatement ms = getMappedStatement();
+    mockColumns("ID", "NAME");
+    ResultSetWrapper first = new ResultSetWrapper(rs, config, ms);
+    ResultSetWrapper second = new ResultSetWrapper(rs, config, ms);
+    assertSame(first.getColumnLayout(), second.getColumnLayout());
+    ResultMap resultMap = ms.getResultMaps().get(0);
+    assertSame(first.getColumnPlan(resultMap, null), second.getColumnPlan(resultMap, null));
+
+    mockColumns("ID", "NAME", "EXTRA");
+    assertNotSame(first.getColumnLayout(), new ResultSetWrapper(rs, config, ms).getColumnLayout());
+    assertNotSame(first.getColumnLayout(), new ResultSetWrapper(rs, config).getColumnLayout());
+  }
+
+  @Test
+  public void shouldStopCachingLayoutsOfChangingResultSets() throws Exception {
+    MappedStatement ms = getMappedStatement();
+    for (int i = 0; i < 100; i++) {
+      mockColumns("COLUMN" + i);
+      new ResultSetWrapper(rs, config, ms);
+    }
+    mockColumns("COLUMN0");
+    ColumnLayout cached = new ResultSetWrapper(rs, config, ms).getColumnLayout();
+    assertSame(cached, new ResultSetWrapper(rs, config, ms).getColumnLayout());
+    mockColumns("COLUMN99");
+    assertNotSame(new ResultSetWrapper(rs, config, ms).getColumnLayout(), new ResultSetWrapper(rs, config, ms).getColumnLayout());
+  }
+
+  @Test
+  public void shouldPlanColumnIndexes() throws Exception {
+    mockColumns("id", "P_NAME", "p_name", "other");
+    ResultSetWrapper rsw = new ResultSetWrapper(rs, config);
+    assertEquals(2, rsw.getColumnIndex("P_Name"));
+    assertEquals(-1, rsw.getColumnIndex("missing"));
+    assertEquals(JdbcType.VARCHAR, rsw.getJdbcType("ID"));
+
+    TypeHandlerRegistry registry = config.getTypeHandlerRegistry();
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    mappings.add(new ResultMapping.Builder(config, "name", "name", registry.getTypeHandler(String.class)).build());
+    mappings.add(new ResultMapping.Builder(config, "missing", "missing", registry.getTypeHandler(String.class)).build());
+    mappings.add(new ResultMapping.Builder(config, "id", "id", registry.getTypeHandler(String.class)).build());
+    ResultMap resultMap = new ResultMap.Builder(config, "prefixed", HashMap.class, mappings).build();
+
+    ColumnPlan plan = rsw.getColumnPlan(resultMap, "p_");
+    assertEquals(Arrays.asList("P_NAME", "P_NAME"), plan.getMappedColumnNames());
+    assertEquals(Arrays.asList("id", "other"), plan.getUnmappedColumnNames());
+    assertEquals(2, plan.getPropertyColumnIndex(0));
+    assertEquals(-1, plan.getPropertyColumnIndex(1));
+    assertEquals(-1, plan.getPropertyColumnIndex(2));
+
+    plan = rsw.getColumnPlan(resultMap, null);
+    assertEquals(Collections.singletonList("ID"), plan.getMappedColumnNames());
+    assertEquals(1, plan.getMappedColumnIndex("Id"));
+    assertEquals(-1, plan.getMappedColumnIndex("other"));
+    assertEquals(1, plan.getPropertyColumnIndex(2));
+  }
+
+  @Test
+  public void shouldReadRowsByColumnIndex() throws Exception {
+    MappedStatement ms = getMappedStatement();
+    mockColumns("ID", "NAME");
+    when(stmt.getResultSet()).thenReturn(rs);
+    when(rs.getType()).thenReturn(ResultSet.TYPE_FORWARD_ONLY);
+    when(rs.next()).thenReturn(true).thenReturn(false).thenReturn(true).thenReturn(false);
+    when(rs.getString(1)).thenReturn("1");
+    when(rs.getString(2)).thenReturn("one");
+    when(stmt.getConnection()).thenReturn(conn);
+    when(conn.getMetaData()).thenReturn(dbmd);
+    when(dbmd.supportsMultipleResultSets()).thenReturn(false);
+
+    for (int i = 0; i < 2; i++) {
+      List<Object> results = new DefaultResultSetHandler(null, ms, null, null, null, new RowBounds()).handleResultSets(stmt);
+      assertEquals(1, results.size());
+      assertEquals("1", ((HashMap<?, ?>) results.get(0)).get("id"));
+      assertEquals("one", ((HashMap<?, ?>) results.get(0)).get("NAME"));
+    }
+    verify(rs, never()).getString(anyString());
+  }
+
+  private void mockColumns(String... columnNames) throws Exception {
+    when(rs.getMetaData()).thenReturn(rsmd);
+    when(rsmd.getColumnCount()).thenReturn(columnNames.length);
+    for (int i = 0; i < columnNames.length; i++) {
+      when(rsmd.getColumnLabel(i + 1)).thenReturn(columnNames[i]);
+      when(rsmd.getColumnType(i + 1)).thenReturn(Types.VARCHAR);
+      when(rsmd.getColumnClassName(i + 1)).thenReturn(String.class.getName());
+    }
+  }
+
+  private MappedStatement getMappedStatement() {
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    mappings.add(new ResultMapping.Builder(config, "id", "id", config.getTypeHandlerRegistry().getTypeHandler(String.class)).build());
+    List<ResultMap> resultMaps = new ArrayList<ResultMap>();
+    resultMaps.add(new ResultMap.Builder(config, "testMap", HashMap.class, mappings).build());
+    return new MappedStatement.Builder(config, "testSelect", new StaticSqlSource(config, "some select statement"), SqlCommandType.SELECT)
+        .resultMaps(resultMaps).build();
+  }
+
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -302,4 +303,32 @@ public class MetaObjectTest {
     assertTrue(meta.hasGetter("filterParams[2]"));
   }
 
+  @Test
+  public void shouldRetargetToObjectsOfTheSameClass() {
+    Author first = new Author();
+    MetaObject meta = SystemMetaObject.forObject(first);
+    meta.setValue("username", "first");
+    Author second = new Author();
+    assertTrue(meta.retarget(second));
+    assertSame(second, meta.getOriginalObject());
+    meta.setValue("username", "second");
+    assertEquals("first", first.getUsername());
+    assertEquals("second", second.getUsername());
+    assertFalse(meta.retarget(new RichType()));
+    assertFalse(meta.retarget(null));
+    assertSame(second, meta.getOriginalObject());
+
+    Map<String, Object> row = new HashMap<String, Object>();
+    meta = SystemMetaObject.forObject(new HashMap<String, Object>());
+    assertTrue(meta.retarget(row));
+    meta.setValue("id", 1);
+    assertEquals(1, row.get("id"));
+  }
+
+  @Test
+  public void shouldNotRetargetCustomWrappers() {
+    MetaObject meta = MetaObject.forObject(new Author(), SystemMetaObject.DEFAULT_OBJECT_FACTORY, new CustomBeanWrapperFactory(), new DefaultReflectorFactory());
+    assertFalse(meta.retarget(new Author()));
+  }
+
 }
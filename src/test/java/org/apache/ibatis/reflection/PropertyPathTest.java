@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.ImmutableAuthor;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.domain.misc.RichType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class PropertyPathTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldReadTheSameValuesAsMetaObject() {
+    RichType rich = new RichType();
+    rich.setRichProperty("property");
+    rich.setRichType(new RichType());
+    rich.getRichType().setRichProperty("nested");
+    rich.getRichMap().put("key", "value");
+    rich.getRichList().add("first");
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("rich", rich);
+    map.put("author", new Author(1, "jim", "secret", "jim@example.com", "bio", Section.NEWS));
+    map.put("nothing", null);
+    String[] expressions = { "rich.richProperty", "rich.richType.richProperty", "rich.richType.richType",
+        "rich.richType.richType.richProperty", "rich.richMap.key", "rich.richList[0]", "rich.richField", "author.username",
+        "author.favouriteSection", "nothing.anything", "missing", "missing.anything" };
+    for (int round = 0; round < 2; round++) {
+      for (String expression : expressions) {
+        PropertyPath path = configuration.newPropertyPath(expression);
+        assertEquals(expression, configuration.newMetaObject(map).getValue(expression), path.getValue(map));
+        assertEquals(expression, configuration.newMetaObject(map).getValue(expression), path.getValue(map));
+      }
+    }
+  }
+
+  @Test
+  public void shouldFollowTheClassesOfTheValues() {
+    PropertyPath path = configuration.newPropertyPath("author.username");
+    Map<String, Object> map = new HashMap<String, Object>();
+    for (int i = 0; i < 4; i++) {
+      map.put("author", i % 2 == 0 ? new Author(i, "user" + i, null, null, null, null)
+          : new ImmutableAuthor(i, "user" + i, null, null, null, null));
+      assertEquals("user" + i, path.getValue(map));
+    }
+  }
+
+  @Test
+  public void shouldReportMissingGettersLikeMetaObject() {
+    PropertyPath path = configuration.newPropertyPath("username.missing");
+    try {
+      path.getValue(new Author(1, "jim", null, null, null, null));
+      fail("Expected ReflectionException");
+    } catch (ReflectionException e) {
+      assertEquals("There is no getter for property named 'missing' in 'class java.lang.String'", e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldReadNullObjectsAndIndexedRoots() {
+    assertNull(configuration.newPropertyPath("author.id").getValue(null));
+    PropertyPath path = configuration.newPropertyPath("authors[1].username");
+    assertEquals("authors[1]", path.getRootName());
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("authors", Arrays.asList(new Author(1, "jim", null, null, null, null), new Author(2, "sally", null, null, null, null)));
+    assertEquals("sally", path.getValue(map));
+  }
+
+}
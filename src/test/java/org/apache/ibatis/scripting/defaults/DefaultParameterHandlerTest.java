@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 
 import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
 import org.apache.ibatis.mapping.*;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
@@ -35,6 +36,7 @@ import org.junit.Test;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -69,6 +71,26 @@ public class DefaultParameterHandlerTest {
 
   }
 
+  @Test
+  public void setParametersReadsPropertiesAndAdditionalParameters() throws SQLException {
+    final MappedStatement mappedStatement = getMappedStatement();
+    final Configuration config = mappedStatement.getConfiguration();
+    final TypeHandlerRegistry registry = config.getTypeHandlerRegistry();
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(config, "author.username", registry.getTypeHandler(String.class)).build());
+    parameterMappings.add(new ParameterMapping.Builder(config, "extra", registry.getTypeHandler(Integer.class)).build());
+    HashMap<String, Object> parameterObject = new HashMap<String, Object>();
+    PreparedStatement ps = mock(PreparedStatement.class);
+    for (int i = 0; i < 2; i++) {
+      parameterObject.put("author", new Author(i, "user" + i, null, null, null, null));
+      BoundSql boundSql = new BoundSql(config, "some select statement", parameterMappings, parameterObject);
+      boundSql.setAdditionalParameter("extra", i);
+      new DefaultParameterHandler(mappedStatement, parameterObject, boundSql).setParameters(ps);
+      verify(ps).setString(1, "user" + i);
+      verify(ps).setInt(2, i);
+    }
+  }
+
   MappedStatement getMappedStatement() {
     final Configuration config = new Configuration();
     final TypeHandlerRegistry registry = config.getTypeHandlerRegistry();
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CompiledExpressionEngineTest {
+
+  private static final String[] EXPRESSIONS = {
+      "username", "username != null", "null == username", "username == 'cbegin'", "username eq \"cbegin\"",
+      "username != ''", "id == 1", "id neq 2", "id > 0 and id <= 10", "id lt 1 or id gte 10", "!(id == 1)",
+      "not bio", "username < 'd'", "ids != null and ids.size() > 0", "ids.isEmpty()", "names.size() == 2",
+      "username.isEmpty()", "flag", "flag and username", "flag || id == 1", "author.username", "author.favouriteSection",
+      "author.id >= 1 && author.bio != null", "missing == null", "missing.value", "_parameter.size", "size",
+      "_parameter != null", "_databaseId == null", "id == 1 == true", "price > 1", "price == 1",
+      "letter == 'a'", "flag == 1", "ids.size", "author.password" };
+
+  private final CompiledExpressionEngine engine = new CompiledExpressionEngine();
+  private final OgnlExpressionEngine ognl = new OgnlExpressionEngine();
+
+  @Test
+  public void shouldCompileTheCommonSubset() {
+    for (String expression : new String[] { "username", "a.b.c", "a != null and a.size() > 0", "!a || b == 'xy'",
+        "a lte 10", "(a or b) and not c", "_parameter.isEmpty()", "a == ''", "a == null" }) {
+      assertTrue(expression, engine.isCompiled(expression));
+    }
+  }
+
+  @Test
+  public void shouldLeaveOtherSyntaxToOgnl() {
+    for (String expression : new String[] { "a == 'x'", "a.length()", "a[0]", "@java.lang.Math@max(1, 2)", "a + 1",
+        "a == 1.5", "a == 1L", "a == 010", "list.{name}", "a in {1, 2}", "#this", "a.b(c)", "size()", "'it\\'s'",
+        "a ? b : c", "a = 1", "a == 'x", "a ==", "(a", "a b" }) {
+      assertFalse(expression, engine.isCompiled(expression));
+    }
+  }
+
+  @Test
+  public void shouldEvaluateLikeOgnl() {
+    Configuration configuration = new Configuration();
+    Author author = new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS);
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("username", "jdoe");
+    map.put("id", 12L);
+    map.put("ids", Arrays.asList(1, 2));
+    map.put("names", Collections.singletonMap("a", "b"));
+    map.put("flag", Boolean.TRUE);
+    map.put("author", author);
+    map.put("price", 1.5d);
+    map.put("letter", 'a');
+    map.put("bio", "");
+    List<Object> roots = new ArrayList<Object>();
+    roots.add(author);
+    roots.add(map);
+    roots.add(new DynamicContext(configuration, author).getBindings());
+    roots.add(new DynamicContext(configuration, map).getBindings());
+    roots.add(new DynamicContext(configuration, null).getBindings());
+    for (Object root : roots) {
+      for (String expression : EXPRESSIONS) {
+        assertEquals(expression + " on " + root, evaluate(ognl, expression, root), evaluate(engine, expression, root));
+      }
+    }
+  }
+
+  @Test
+  public void shouldOnlyFallBackForValuesOutsideOfTheSubset() {
+    final List<String> interpreted = new ArrayList<String>();
+    CompiledExpressionEngine engine = new CompiledExpressionEngine(new OgnlExpressionEngine() {
+      @Override
+      public Object getValue(String expression, Object root) {
+        interpreted.add(expression);
+        return super.getValue(expression, root);
+      }
+    });
+    Map<String, Object> bindings = new DynamicContext(new Configuration(),
+        new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS)).getBindings();
+    bindings.put("ids", Arrays.asList(1, 2));
+    bindings.put("price", 1.5d);
+    assertEquals(Boolean.TRUE, engine.getValue("username == 'cbegin' and id > 0", bindings));
+    assertEquals(Boolean.TRUE, engine.getValue("ids != null and ids.size() == 2", bindings));
+    assertEquals(Boolean.FALSE, engine.getValue("password != null", bindings));
+    assertEquals(Boolean.TRUE, engine.getValue("price > 1", bindings));
+    assertEquals(Arrays.asList("price > 1"), interpreted);
+  }
+
+  @Test
+  public void shouldReturnTheDecidingOperandLikeOgnl() {
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("name", "value");
+    map.put("flag", Boolean.TRUE);
+    assertEquals("value", engine.getValue("flag and name", map));
+    assertEquals(Boolean.TRUE, engine.getValue("flag or name", map));
+    assertEquals(null, engine.getValue("missing and flag", map));
+  }
+
+  @Test
+  public void shouldBeTheDefaultOfTheConfiguration() {
+    Configuration configuration = new Configuration();
+    assertTrue(configuration.getExpressionEngine() instanceof CompiledExpressionEngine);
+    OgnlExpressionEngine engine = new OgnlExpressionEngine();
+    configuration.setExpressionEngine(engine);
+    assertSame(engine, new DynamicContext(configuration, null).getExpressionEvaluator().getEngine());
+    configuration.setExpressionEngine(null);
+    assertTrue(configuration.getExpressionEngine() instanceof CompiledExpressionEngine);
+    assertEquals(OgnlExpressionEngine.class, configuration.getTypeAliasRegistry().resolveAlias("OGNL"));
+  }
+
+  private static Object evaluate(ExpressionEngine engine, String expression, Object root) {
+    try {
+      return engine.getValue(expression, root);
+    } catch (RuntimeException e) {
+      return e.getClass();
+    }
+  }
+
+}
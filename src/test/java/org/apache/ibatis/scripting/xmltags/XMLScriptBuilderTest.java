@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.parsing.XPathParser;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class XMLScriptBuilderTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldMergeTextAroundCommentsAndCdata() {
+    String script = "<select>SELECT *  <!-- all columns --> FROM BLOG<![CDATA[ B ]]>"
+        + "<where> <!-- filters --> <if test='id != null'>  and ID = #{id}<!-- by id --> </if>"
+        + "<if test='name != null'>\n  OR <![CDATA[NAME <> #{name}]]>\n</if></where> ORDER BY ID</select>";
+    assertEquals("SELECT *   FROM BLOG  B  WHERE  ID = ?  ORDER BY ID", sql(script, parameter("id", 1)));
+    assertEquals("SELECT *   FROM BLOG  B  WHERE  NAME <> ?  ORDER BY ID", sql(script, parameter("name", "a")));
+    assertEquals("SELECT *   FROM BLOG  B  WHERE  ID = ? \n  OR NAME <> ?  ORDER BY ID",
+        sql(script, parameter("id", 1, "name", "a")));
+    assertEquals("SELECT *   FROM BLOG  B    ORDER BY ID", sql(script, parameter()));
+  }
+
+  @Test
+  public void shouldTrimSetAndNestedTrims() {
+    String script = "<update>UPDATE BLOG <set> <if test='id != null'>ID = #{id},</if> <if test='name != null'>NAME = #{name} , </if>"
+        + "</set> <trim prefix='WHERE (' prefixOverrides='and |or ' suffix=')'> <where><if test='id != null'>AND 1 = 1</if></where>"
+        + " and VERSION = 1 </trim></update>";
+    assertEquals("UPDATE BLOG  SET ID = ?, NAME = ?    WHERE ( WHERE  1 = 1 and VERSION = 1 )",
+        sql(script, parameter("id", 1, "name", "a")));
+    assertEquals("UPDATE BLOG  SET ID = ?   WHERE ( WHERE  1 = 1 and VERSION = 1 )", sql(script, parameter("id", 1)));
+  }
+
+  @Test
+  public void shouldTrimWithinForEach() {
+    String script = "<select>SELECT * FROM BLOG WHERE <foreach collection='list' item='item' separator=' OR '>"
+        + "<trim prefix='(' prefixOverrides='AND' suffix=')' suffixOverrides=','> AND ID = #{item}, </trim>"
+        + "<!-- comment --> </foreach></select>";
+    BoundSql boundSql = configurationSource(script).getBoundSql(parameter("list", Arrays.asList(1, 2)));
+    assertEquals("SELECT * FROM BLOG WHERE   (  ID = ? )    OR  (  ID = ? )", boundSql.getSql());
+    assertEquals(2, boundSql.getAdditionalParameter("__frch_item_1"));
+  }
+
+  @Test
+  public void shouldLeaveEmptyTrimsOut() {
+    String script = "<select>SELECT * FROM BLOG <where> <trim prefix='AND'> </trim> </where> <set><if test='id != null'>,</if></set></select>";
+    assertEquals("SELECT * FROM BLOG", sql(script, parameter()));
+    assertEquals("SELECT * FROM BLOG     SET", sql(script, parameter("id", 1)));
+  }
+
+  private String sql(String script, Map<String, Object> parameter) {
+    return configurationSource(script).getBoundSql(parameter).getSql();
+  }
+
+  private SqlSource configurationSource(String script) {
+    return new XMLScriptBuilder(configuration, new XPathParser(script).evalNode("/*")).parseScriptNode();
+  }
+
+  private static Map<String, Object> parameter(Object... keysAndValues) {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      parameter.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return parameter;
+  }
+
+}
@@ -0,0 +1,289 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncSqlSessionTest extends BaseDataTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+  private static AsyncSqlSessionFactory asyncSqlSessionFactory;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), createBlogDataSource()));
+    configuration.addInterceptor(new ThreadRecorder());
+    configuration.addMapper(AsyncAuthorMapper.class);
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+    asyncSqlSessionFactory = (AsyncSqlSessionFactory) sqlSessionFactory;
+  }
+
+  @Test
+  public void shouldSelectOnThePool() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    try {
+      Future<List<Author>> authors = session.selectList(AsyncAuthorMapper.class.getName() + ".selectAll");
+      Future<Author> author = session.selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 101);
+      assertEquals(2, authors.get().size());
+      assertEquals("jim", author.get().getUsername());
+      assertTrue(ThreadRecorder.threadName, ThreadRecorder.threadName.startsWith("mybatis-async-"));
+    } finally {
+      session.close().get();
+    }
+  }
+
+  @Test
+  public void shouldRejectStatementsAfterClose() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    session.selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 101).get();
+    session.close().get();
+    try {
+      session.selectList(AsyncAuthorMapper.class.getName() + ".selectAll");
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // closed sessions run no more statements
+    }
+  }
+
+  @Test
+  public void shouldIgnoreRepeatedClose() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    Future<List<Author>> authors = session.selectList(AsyncAuthorMapper.class.getName() + ".selectAll");
+    Future<Void> closed = session.close();
+    Future<Void> closedAgain = session.close();
+    assertTrue(closedAgain.isDone());
+    assertNull(closedAgain.get());
+    assertNull(closed.get());
+    assertEquals(2, authors.get().size());
+    assertNull(session.close().get());
+  }
+
+  @Test
+  public void shouldBoundThreadsOfAllSessionsByAsyncExecutorThreads() throws Exception {
+    Configuration configuration = new Configuration(sqlSessionFactory.getConfiguration().getEnvironment());
+    configuration.setAsyncExecutorThreads(2);
+    configuration.addMapper(AsyncAuthorMapper.class);
+    AsyncSqlSessionFactory factory = (AsyncSqlSessionFactory) new SqlSessionFactoryBuilder().build(configuration);
+    List<AsyncSqlSession> sessions = new ArrayList<AsyncSqlSession>();
+    List<Future<List<Author>>> results = new ArrayList<Future<List<Author>>>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        AsyncSqlSession session = factory.openAsyncSession();
+        sessions.add(session);
+        for (int j = 0; j < 5; j++) {
+          results.add(session.<Author> selectList(AsyncAuthorMapper.class.getName() + ".selectAll"));
+        }
+      }
+      for (Future<List<Author>> result : results) {
+        assertEquals(2, result.get().size());
+      }
+      for (AsyncSqlSession session : sessions) {
+        session.close().get();
+      }
+      assertEquals(2, ((ThreadPoolExecutor) configuration.getAsyncExecutor()).getLargestPoolSize());
+    } finally {
+      configuration.shutdownAsyncExecutor();
+    }
+  }
+
+  @Test
+  public void shouldNotHoldAThreadForAnIdleSession() throws Exception {
+    Configuration configuration = new Configuration(sqlSessionFactory.getConfiguration().getEnvironment());
+    configuration.setAsyncExecutorThreads(1);
+    configuration.addMapper(AsyncAuthorMapper.class);
+    AsyncSqlSessionFactory factory = (AsyncSqlSessionFactory) new SqlSessionFactoryBuilder().build(configuration);
+    try {
+      AsyncSqlSession idle = factory.openAsyncSession();
+      assertEquals("jim", idle.<Author> selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 101).get().getUsername());
+      // the only thread of the pool is free for the other sessions while the first one has nothing to run
+      AsyncSqlSession other = factory.openAsyncSession();
+      assertEquals("sally", other.<Author> selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 102).get(5, TimeUnit.SECONDS).getUsername());
+      other.close().get();
+      idle.close().get();
+    } finally {
+      configuration.shutdownAsyncExecutor();
+    }
+  }
+
+  @Test
+  public void shouldRunOnAnApplicationPoolAndLeaveItRunning() throws Exception {
+    Configuration configuration = new Configuration(sqlSessionFactory.getConfiguration().getEnvironment());
+    configuration.addMapper(AsyncAuthorMapper.class);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      configuration.setAsyncExecutor(executor);
+      AsyncSqlSessionFactory factory = (AsyncSqlSessionFactory) new SqlSessionFactoryBuilder().build(configuration);
+      AsyncSqlSession session = factory.openAsyncSession();
+      assertEquals(2, session.selectList(AsyncAuthorMapper.class.getName() + ".selectAll").get().size());
+      session.close().get();
+      configuration.shutdownAsyncExecutor();
+      assertFalse(executor.isShutdown());
+      assertSame(executor, configuration.getAsyncExecutor());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldRunStatementsInOrderOnOneConnection() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    try {
+      Author author = new Author(500, "async", "******", "async@ibatis.apache.org", "bio", Section.NEWS);
+      Future<Integer> inserted = session.insert(AsyncAuthorMapper.class.getName() + ".insert", author);
+      // sees the uncommitted row of the same transaction
+      Future<Author> selected = session.selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 500);
+      Future<Void> rolledBack = session.rollback();
+      Future<Author> afterRollback = session.selectOne(AsyncAuthorMapper.class.getName() + ".selectById", 500);
+      assertEquals(Integer.valueOf(1), inserted.get());
+      assertEquals("async", selected.get().getUsername());
+      rolledBack.get();
+      assertNull(afterRollback.get());
+    } finally {
+      session.close().get();
+    }
+  }
+
+  @Test
+  public void shouldReturnFuturesFromMappers() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    try {
+      AsyncAuthorMapper mapper = session.getMapper(AsyncAuthorMapper.class);
+      Future<List<Author>> authors = mapper.selectAll();
+      Future<Author> author = mapper.selectById(102);
+      Future<Integer> deleted = mapper.deleteById(999);
+      assertEquals(2, authors.get().size());
+      assertEquals("sally", author.get().getUsername());
+      assertEquals(Integer.valueOf(0), deleted.get());
+      // a method that does not return a future waits for its statement
+      ThreadRecorder.threadName = null;
+      assertEquals(2, mapper.count());
+      assertTrue(ThreadRecorder.threadName.startsWith("mybatis-async-"));
+      assertEquals(mapper.hashCode(), mapper.hashCode());
+    } finally {
+      session.close().get();
+    }
+  }
+
+  @Test
+  public void shouldReturnCompletedFuturesFromMappersOfBlockingSessions() throws Exception {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      AsyncAuthorMapper mapper = session.getMapper(AsyncAuthorMapper.class);
+      Future<Author> author = mapper.selectById(101);
+      assertTrue(author.isDone());
+      assertEquals("jim", author.get().getUsername());
+      assertEquals(2, mapper.selectAll().get().size());
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void shouldFailFuturesWithTheStatementException() throws Exception {
+    AsyncSqlSession session = asyncSqlSessionFactory.openAsyncSession();
+    try {
+      Future<Integer> failed = session.insert(AsyncAuthorMapper.class.getName() + ".insert", null);
+      Future<List<Author>> next = session.selectList(AsyncAuthorMapper.class.getName() + ".selectAll");
+      try {
+        failed.get();
+        fail("Expected ExecutionException");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof PersistenceException);
+      }
+      // the statements queued after a failure still run
+      assertEquals(2, next.get().size());
+    } finally {
+      session.close().get();
+    }
+  }
+
+  public interface AsyncAuthorMapper {
+
+    @Select("select * from author order by id")
+    Future<List<Author>> selectAll();
+
+    @Select("select * from author where id = #{id}")
+    Future<Author> selectById(int id);
+
+    @Delete("delete from author where id = #{id}")
+    Future<Integer> deleteById(int id);
+
+    @Insert("insert into author (id, username, password, email, bio) values (#{id}, #{username}, #{password}, #{email}, #{bio})")
+    int insert(Author author);
+
+    @Select("select count(*) from author")
+    int count();
+
+  }
+
+  @Intercepts({ @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }) })
+  public static class ThreadRecorder implements Interceptor {
+
+    static volatile String threadName;
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      threadName = Thread.currentThread().getName();
+      return invocation.proceed();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+  }
+
+}
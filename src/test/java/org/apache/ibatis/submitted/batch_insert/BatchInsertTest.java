@@ -0,0 +1,232 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_insert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchInsertTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_insert/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+  }
+
+  @Before
+  public void createDatabase() throws Exception {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    configuration.setBatchGroupingEnabled(true);
+    configuration.setBatchMultiRowInsertSize(3);
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_insert/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+    StatementRecorder.clear();
+  }
+
+  @Test
+  public void shouldReadSettings() {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    assertEquals(true, configuration.isBatchGroupingEnabled());
+    assertEquals(3, configuration.getBatchMultiRowInsertSize());
+  }
+
+  @Test
+  public void shouldGroupInterleavedStatementsBySql() {
+    sqlSessionFactory.getConfiguration().setBatchMultiRowInsertSize(0);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      List<BatchResult> results = insertInterleaved(sqlSession);
+      assertEquals(3, results.size());
+      assertEquals(3, StatementRecorder.getStatements().size());
+      assertEquals("insert into person (name , nickname ) values (? , ? )", results.get(0).getSql().replaceAll("\\s+", " "));
+      assertEquals(2, results.get(0).getParameterObjects().size());
+      assertEquals(4, results.get(1).getParameterObjects().size());
+      assertEquals(2, results.get(2).getParameterObjects().size());
+      sqlSession.commit();
+      assertNames(sqlSession);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldKeepOnlyAdjacentStatementsTogetherWithoutGrouping() {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    configuration.setBatchGroupingEnabled(false);
+    configuration.setBatchMultiRowInsertSize(0);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      // the plain and other people are separated by a pet
+      assertEquals(8, insertInterleaved(sqlSession).size());
+      sqlSession.commit();
+      assertNames(sqlSession);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldSendSingleRowInsertsAsMultiRowInserts() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 1; i <= 7; i++) {
+        mapper.insertPet(new Pet("pet" + i, "owner" + i));
+      }
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(1, results.size());
+      assertArrayEquals(new int[] { 1, 1, 1, 1, 1, 1, 1 }, results.get(0).getUpdateCounts());
+      assertEquals(Arrays.asList(
+          "insert into pet (name, owner) values (?, ?), (?, ?), (?, ?)",
+          "insert into pet (name, owner) values (?, ?)"), StatementRecorder.getStatements());
+      sqlSession.commit();
+      List<Pet> pets = mapper.selectPets();
+      assertEquals(7, pets.size());
+      for (int i = 0; i < 7; i++) {
+        assertEquals("pet" + (i + 1), pets.get(i).getName());
+        assertEquals("owner" + (i + 1), pets.get(i).getOwner());
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldBindTheValuesOfEachRowWhenItIsAdded() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      // one parameter object changed and inserted again, as batch jobs often do
+      Pet pet = new Pet();
+      for (int i = 1; i <= 5; i++) {
+        pet.setName("pet" + i);
+        pet.setOwner("owner" + i);
+        mapper.insertPet(pet);
+      }
+      assertEquals(5, StatementRecorder.getParameterizeCount());
+      pet.setName("changed");
+      sqlSession.flushStatements();
+      sqlSession.commit();
+      List<Pet> pets = mapper.selectPets();
+      assertEquals(5, pets.size());
+      for (int i = 0; i < 5; i++) {
+        assertEquals("pet" + (i + 1), pets.get(i).getName());
+        assertEquals("owner" + (i + 1), pets.get(i).getOwner());
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldAssignGeneratedKeysOfMultiRowInserts() {
+    sqlSessionFactory.getConfiguration().setBatchMultiRowInsertSize(4);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      List<Person> people = new ArrayList<Person>();
+      for (int i = 1; i <= 6; i++) {
+        Person person = new Person("person" + i, i % 2 == 0 ? null : "nick" + i);
+        people.add(person);
+        mapper.insertPersonWithKey(person);
+      }
+      sqlSession.flushStatements();
+      assertEquals(2, StatementRecorder.getStatements().size());
+      sqlSession.commit();
+      List<Person> stored = mapper.selectPeople();
+      assertEquals(6, stored.size());
+      for (int i = 0; i < 6; i++) {
+        assertEquals(stored.get(i).getId(), people.get(i).getId());
+        assertEquals(stored.get(i).getName(), people.get(i).getName());
+        assertEquals(stored.get(i).getNickname(), people.get(i).getNickname());
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldBatchInsertsThatCannotBeRewritten() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.insertPerson(new Person("jim", null));
+      mapper.insertPerson(new Person("sally", null));
+      mapper.adoptPets("shelter");
+      mapper.adoptPets("shelter");
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(2, results.size());
+      // the multi-row insert is prepared when the batch is flushed
+      assertEquals(Arrays.asList(
+          "insert into pet (name, owner) select name, ? from person",
+          "insert into person (name ) values (? ), (? )"), StatementRecorder.getStatements());
+      sqlSession.commit();
+      assertEquals(4, mapper.selectPets().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private List<BatchResult> insertInterleaved(SqlSession sqlSession) {
+    Mapper mapper = sqlSession.getMapper(Mapper.class);
+    for (int i = 1; i <= 2; i++) {
+      mapper.insertPerson(new Person("named" + i, "nick" + i));
+      mapper.insertPerson(new Person("plain" + i, null));
+      mapper.insertPet(new Pet("pet" + i, "named" + i));
+      mapper.insertPerson(new Person("other" + i, null));
+    }
+    return sqlSession.flushStatements();
+  }
+
+  private void assertNames(SqlSession sqlSession) {
+    Mapper mapper = sqlSession.getMapper(Mapper.class);
+    List<String> names = new ArrayList<String>();
+    for (Person person : mapper.selectPeople()) {
+      names.add(person.getName());
+    }
+    assertEquals(6, names.size());
+    assertEquals(true, names.containsAll(Arrays.asList("named1", "named2", "plain1", "plain2", "other1", "other2")));
+    assertEquals(2, mapper.selectPets().size());
+  }
+
+}
@@ -0,0 +1,71 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_insert;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+
+@Intercepts({ @Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }),
+    @Signature(type = StatementHandler.class, method = "parameterize", args = { Statement.class }) })
+public class StatementRecorder implements Interceptor {
+
+  private static final List<String> statements = new ArrayList<String>();
+  private static int parameterizeCount;
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    if ("parameterize".equals(invocation.getMethod().getName())) {
+      parameterizeCount++;
+      return invocation.proceed();
+    }
+    StatementHandler statementHandler = (StatementHandler) invocation.getTarget();
+    statements.add(statementHandler.getBoundSql().getSql().replaceAll("\\s+", " ").trim());
+    return invocation.proceed();
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+  }
+
+  public static List<String> getStatements() {
+    return statements;
+  }
+
+  public static int getParameterizeCount() {
+    return parameterizeCount;
+  }
+
+  public static void clear() {
+    statements.clear();
+    parameterizeCount = 0;
+  }
+
+}
@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchLoadingTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_loading/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_loading/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Before
+  public void resetStatements() {
+    StatementCounter.getStatements().clear();
+  }
+
+  @Test
+  public void shouldLoadLazyAssociationsInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Employee> employees = sqlSession.getMapper(Mapper.class).selectEmployees();
+      assertEquals(1, StatementCounter.getStatements().size());
+      List<String> departments = new ArrayList<String>();
+      for (Employee employee : employees) {
+        departments.add(employee.getDepartment() == null ? null : employee.getDepartment().getName());
+      }
+      assertEquals(Arrays.asList("Sales", "Support", "Sales", "Research", "Support", null), departments);
+      assertSame(employees.get(0).getDepartment(), employees.get(2).getDepartment());
+      // departments 1 and 2 are loaded by the first employee, department 3 by the fourth
+      assertEquals(Arrays.asList(
+          "select * from employee order by id",
+          "select * from department where id in ( ? , ? )",
+          "select * from department where id in ( ? )"), StatementCounter.getStatements());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadLazyAssociationsWithCompositeKeysInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Employee> employees = sqlSession.getMapper(Mapper.class).selectEmployees();
+      assertEquals("Research", employees.get(3).getDepartmentByKey().getName());
+      assertEquals("Sales", employees.get(0).getDepartmentByKey().getName());
+      assertEquals("Support", employees.get(4).getDepartmentByKey().getName());
+      assertNull(employees.get(5).getDepartmentByKey());
+      assertEquals(2, StatementCounter.getStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadLazyCollectionsInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Department> departments = sqlSession.getMapper(Mapper.class).selectDepartments();
+      assertEquals(Arrays.asList("Ann", "Cid"), names(departments.get(0).getEmployees()));
+      assertEquals(Arrays.asList("Bob", "Eve"), names(departments.get(1).getEmployees()));
+      assertEquals(Arrays.asList("Dee"), names(departments.get(2).getEmployees()));
+      assertTrue(departments.get(3).getEmployees().isEmpty());
+      assertEquals(Arrays.asList(
+          "select * from department order by id",
+          "select * from employee where department_id in ( ? , ? , ? , ? ) order by id"), StatementCounter.getStatements());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadBatchesAfterTheSessionIsClosed() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    List<Department> departments;
+    try {
+      departments = sqlSession.getMapper(Mapper.class).selectDepartments();
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("Dee"), names(departments.get(2).getEmployees()));
+    assertEquals(Arrays.asList("Ann", "Cid"), names(departments.get(0).getEmployees()));
+    assertEquals(2, StatementCounter.getStatements().size());
+  }
+
+  @Test
+  public void shouldLoadEagerCollectionsInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Department> departments = sqlSession.getMapper(Mapper.class).selectEagerDepartments();
+      assertEquals(Arrays.asList(
+          "select * from department order by id",
+          "select * from employee where department_id in ( ? , ? , ? ) order by id",
+          "select * from employee where department_id in ( ? ) order by id"), StatementCounter.getStatements());
+      assertEquals(Arrays.asList("Ann", "Cid"), names(departments.get(0).getEmployees()));
+      assertEquals(Arrays.asList("Bob", "Eve"), names(departments.get(1).getEmployees()));
+      assertEquals(Arrays.asList("Dee"), names(departments.get(2).getEmployees()));
+      assertTrue(departments.get(3).getEmployees().isEmpty());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadEagerAssociationsInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Employee> employees = sqlSession.getMapper(Mapper.class).selectEagerEmployees();
+      assertEquals(Arrays.asList(
+          "select * from employee order by id",
+          "select * from department where id in ( ? , ? , ? )"), StatementCounter.getStatements());
+      assertEquals("Sales", employees.get(0).getDepartment().getName());
+      assertSame(employees.get(0).getDepartment(), employees.get(2).getDepartment());
+      assertEquals("Research", employees.get(3).getDepartment().getName());
+      assertNull(employees.get(5).getDepartment());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadCyclicEagerMappingsInBatches() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Department> departments = sqlSession.getMapper(Mapper.class).selectCyclicDepartments();
+      // the employees of those departments are set by the batch of employees, which is still selecting them
+      assertEquals(Arrays.asList(
+          "select * from department order by id",
+          "select * from employee where department_id in ( ? , ? , ? , ? ) order by id",
+          "select * from department where id in ( ? , ? , ? )"), StatementCounter.getStatements());
+      assertEquals(4, departments.size());
+      assertEquals(Arrays.asList("Ann", "Cid"), names(departments.get(0).getEmployees()));
+      assertEquals(Arrays.asList("Bob", "Eve"), names(departments.get(1).getEmployees()));
+      assertTrue(departments.get(3).getEmployees().isEmpty());
+      Department sales = departments.get(0).getEmployees().get(0).getDepartment();
+      assertEquals("Sales", sales.getName());
+      assertEquals(Arrays.asList("Ann", "Cid"), names(sales.getEmployees()));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadEachRowForResultHandlers() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<String> handed = new ArrayList<String>();
+      sqlSession.getMapper(Mapper.class).selectEagerDepartments(new ResultHandler<Department>() {
+        @Override
+        public void handleResult(ResultContext<? extends Department> resultContext) {
+          // the employees are loaded when the department is handed over
+          handed.add(resultContext.getResultObject().getName() + names(resultContext.getResultObject().getEmployees()));
+        }
+      });
+      assertEquals(Arrays.asList("Sales[Ann, Cid]", "Support[Bob, Eve]", "Research[Dee]", "Empty[]"), handed);
+      assertEquals(5, StatementCounter.getStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private static List<String> names(List<Employee> employees) {
+    List<String> names = new ArrayList<String>();
+    for (Employee employee : employees) {
+      names.add(employee.getName());
+    }
+    return names;
+  }
+
+}
@@ -19,11 +19,15 @@ import java.io.Reader;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
@@ -131,6 +135,53 @@ public class ForEachTest {
     }
   }
 
+  @Test
+  public void shouldBindTheItemsOnce() {
+    List<User> users = new ArrayList<User>();
+    for (int i = 1; i <= 1000; i++) {
+      User user = new User();
+      user.setId(i);
+      users.add(user);
+    }
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    BoundSql boundSql = configuration.getMappedStatement("org.apache.ibatis.submitted.foreach.Mapper.countByUserList").getBoundSql(Collections.singletonMap("list", users));
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    Assert.assertEquals(1000, parameterMappings.size());
+    String first = parameterMappings.get(0).getProperty();
+    String items = first.substring(0, first.indexOf('.'));
+    for (int i = 0; i < parameterMappings.size(); i++) {
+      String property = parameterMappings.get(i).getProperty();
+      Assert.assertTrue(property, property.startsWith(items + "."));
+      Assert.assertEquals(i + 1, boundSql.getAdditionalParameter(property));
+      Assert.assertEquals(Integer.class, parameterMappings.get(i).getJavaType());
+    }
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Assert.assertEquals(6, sqlSession.getMapper(Mapper.class).countByUserList(users));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldSendTheItemsAsAnArray() {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    String statement = "org.apache.ibatis.submitted.foreach.Mapper.countByIds";
+    List<Integer> ids = Arrays.asList(1, 3, 5, 99);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      Assert.assertEquals(1, configuration.getMappedStatement(statement).getBoundSql(Collections.singletonMap("list", ids)).getParameterMappings().size());
+      Assert.assertEquals(3, mapper.countByIds(ids));
+      configuration.setForeachArrayThreshold(5);
+      Assert.assertEquals(4, configuration.getMappedStatement(statement).getBoundSql(Collections.singletonMap("list", ids)).getParameterMappings().size());
+      Assert.assertEquals(3, mapper.countByIds(ids));
+    } finally {
+      configuration.setForeachArrayThreshold(0);
+      sqlSession.close();
+    }
+  }
+
   @Test
   public void shouldReportMissingPropertyName() {
     ex.expect(PersistenceException.class);
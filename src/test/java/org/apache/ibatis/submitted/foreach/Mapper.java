@@ -28,4 +28,6 @@ public interface Mapper {
   String selectWithNullItemCheck(List<User> users);
 
   int typoInItemProperty(List<User> users);
+
+  int countByIds(List<Integer> ids);
 }
@@ -0,0 +1,43 @@
+--
+--    Copyright 2009-2016 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+drop table parent if exists;
+drop table child if exists;
+
+create table parent (
+  id int,
+  code varchar(10),
+  name varchar(20)
+);
+
+create table child (
+  id int,
+  parent_id int,
+  name varchar(20)
+);
+
+insert into parent values (1, 'a', 'Parent1');
+insert into parent values (2, 'b', 'Parent2');
+insert into parent values (3, 'c', 'Parent3');
+insert into parent values (null, null, 'Orphan1');
+insert into parent values (null, null, 'Orphan2');
+
+insert into child values (1, 1, 'Child1');
+insert into child values (2, 1, 'Child2');
+insert into child values (3, 1, 'Child3');
+insert into child values (4, 2, 'Child4');
+insert into child values (5, 3, 'Child5');
+insert into child values (6, 3, 'Child6');
@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.ordered_nested;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OrderedNestedTest {
+
+  private static final List<String> EXPECTED = Arrays.asList(
+      "Parent1[Child1, Child2, Child3]", "Parent2[Child4]", "Parent3[Child5, Child6]", "Orphan1[]", "Orphan2[]");
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/ordered_nested/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/ordered_nested/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldHandOverCompleteParentsToResultHandler() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<String> handed = new ArrayList<String>();
+      sqlSession.getMapper(Mapper.class).selectById(new ResultHandler<Parent>() {
+        @Override
+        public void handleResult(ResultContext<? extends Parent> resultContext) {
+          // the children are complete when the parent is handed over
+          handed.add(describe(resultContext.getResultObject()));
+        }
+      });
+      assertEquals(EXPECTED, handed);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldGroupByNonIntegralIds() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals(EXPECTED, describe(sqlSession.getMapper(Mapper.class).selectByCode()));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMapTheSameWhenNotOrdered() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals(EXPECTED, describe(sqlSession.getMapper(Mapper.class).selectUnordered()));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldStreamFromCursor() throws Exception {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<Parent> cursor = sqlSession.getMapper(Mapper.class).cursorById();
+      List<String> fetched = new ArrayList<String>();
+      for (Parent parent : cursor) {
+        fetched.add(describe(parent));
+      }
+      cursor.close();
+      assertEquals(EXPECTED, fetched);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private static List<String> describe(List<Parent> parents) {
+    List<String> descriptions = new ArrayList<String>();
+    for (Parent parent : parents) {
+      descriptions.add(describe(parent));
+    }
+    return descriptions;
+  }
+
+  private static String describe(Parent parent) {
+    List<String> children = new ArrayList<String>();
+    for (Child child : parent.getChildren()) {
+      children.add(child.getName());
+    }
+    return parent.getName() + children;
+  }
+
+}
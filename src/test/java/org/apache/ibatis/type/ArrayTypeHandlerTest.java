@@ -19,11 +19,13 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import java.sql.Array;
+import java.sql.Connection;
 import java.sql.Timestamp;
 import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -41,6 +43,16 @@ public class ArrayTypeHandlerTest extends BaseTypeHandlerTest {
     verify(ps).setArray(1, mockArray);
   }
 
+  @Test
+  public void shouldCreateArrayOfParameter() throws Exception {
+    Connection connection = mock(Connection.class);
+    Object[] elements = new Object[] { 1, 2 };
+    when(ps.getConnection()).thenReturn(connection);
+    when(connection.createArrayOf("INTEGER", elements)).thenReturn(mockArray);
+    TYPE_HANDLER.setParameter(ps, 1, new ArrayParameter("INTEGER", elements), null);
+    verify(ps).setArray(1, mockArray);
+  }
+
   @Override
   @Test
   public void shouldGetResultFromResultSetByName() throws Exception {